@@ -17,28 +17,80 @@
 */
 package ldprotest.business;
 
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.FindIterable;
 import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.BulkWriteOptions;
 import com.mongodb.client.model.Filters;
 import com.mongodb.client.model.Indexes;
-import com.mongodb.client.model.ReplaceOptions;
-import com.mongodb.client.result.DeleteResult;
-import com.mongodb.client.result.UpdateResult;
+import com.mongodb.client.model.InsertManyOptions;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.Updates;
+import com.mongodb.client.model.WriteModel;
+import java.time.Instant;
 import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 import ldprotest.db.IndexTools;
 import ldprotest.db.MainDatabase;
+import ldprotest.db.SequenceCounter;
 import ldprotest.db.codec.UUIDCodec;
 import ldprotest.main.ServerTime;
 import ldprotest.geo.Coordinate;
+import ldprotest.geo.GeoCell;
 import ldprotest.serialization.BsonSerializable;
 import ldprotest.serialization.ReflectiveConstructor;
 import org.bson.BsonDateTime;
+import org.bson.BsonDocument;
+import org.bson.BsonDocumentWrapper;
+import org.bson.BsonValue;
+import org.bson.conversions.Bson;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 public class PrivateProtestData implements BsonSerializable {
 
+    private final static Logger LOGGER = LoggerFactory.getLogger(PrivateProtestData.class);
+
     private static final String COLLECTION_NAME = "protests";
 
+    private static final String VERSION_SEQUENCE = "protestVersion";
+
+    /**
+     * How far behind the current version a client syncing changes must look.
+     *
+     * A write is only kept at its version if the version counter, read after the write is stored, has advanced by
+     * less than this much. Clients therefore see every change when syncing from this many versions before the
+     * version they last read.
+     */
+    public static final long SYNC_OVERLAP_VERSIONS = 64;
+
+    /* times a late write is moved to a newer version before clients are made to reload instead */
+    private static final int MAX_RESTAMPS = 3;
+
+    /* a reserved version older than this is likely to be late by the time it is stored, so it is not used */
+    private static final long RESERVATION_MAX_AGE_MS = 2000;
+
+    private static final int BACKFILL_BATCH_SIZE = 1000;
+
+    private static final List<ProtestChangeListener> LISTENERS = new CopyOnWriteArrayList<>();
+
+    /* version taken from the counter after the last successful write, for the next write to use */
+    private static final AtomicReference<Reservation> RESERVED = new AtomicReference<>(null);
+
+    /* kept from the stored protest when it is edited */
+    private static final List<String> UNEDITABLE_FIELDS = List.of("_id", "protestId", "ownerId", "owner");
+
     public final Coordinate location;
     public final Optional<String> owner;
     public final UUID ownerId;
@@ -53,6 +105,15 @@ public class PrivateProtestData implements BsonSerializable {
 
     public final UUID protestId;
 
+    /* absent on documents written before cell ids were added, until they are backfilled */
+    public final Optional<Long> cell;
+
+    /* absent on documents written before change versions were added */
+    public final Optional<Long> version;
+
+    /* first occurrence not before the last refresh, kept current for recurring protests by OccurrenceRefresh */
+    public final Optional<ZonedDateTime> nextOccurrence;
+
     @ReflectiveConstructor
     private PrivateProtestData() {
         location = null;
@@ -66,9 +127,12 @@ public class PrivateProtestData implements BsonSerializable {
         protestId = null;
         homePage = null;
         recursEveryDays = null;
+        cell = null;
+        nextOccurrence = null;
+        version = null;
     }
 
-    private PrivateProtestData(
+    PrivateProtestData(
         Coordinate location,
         Optional<String> owner,
         UUID ownerId,
@@ -90,6 +154,41 @@ public class PrivateProtestData implements BsonSerializable {
         this.protestId = protestId;
         this.homePage = homePage;
         this.recursEveryDays = recursEveryDays;
+        this.cell = Optional.of(GeoCell.of(location));
+        this.nextOccurrence = nextOccurrence(date, recursEveryDays, ServerTime.nowMillis());
+        this.version = Optional.empty();
+    }
+
+    private PrivateProtestData(PrivateProtestData protest, PrivateProtestData ownedBy) {
+        this.location = protest.location;
+        this.owner = ownedBy.owner;
+        this.ownerId = ownedBy.ownerId;
+        this.title = protest.title;
+        this.description = protest.description;
+        this.dressCode = protest.dressCode;
+        this.date = protest.date;
+        this.protestId = protest.protestId;
+        this.homePage = protest.homePage;
+        this.recursEveryDays = protest.recursEveryDays;
+        this.cell = protest.cell;
+        this.nextOccurrence = protest.nextOccurrence;
+        this.version = protest.version;
+    }
+
+    private PrivateProtestData(PrivateProtestData protest, long version) {
+        this.location = protest.location;
+        this.owner = protest.owner;
+        this.ownerId = protest.ownerId;
+        this.title = protest.title;
+        this.description = protest.description;
+        this.dressCode = protest.dressCode;
+        this.date = protest.date;
+        this.protestId = protest.protestId;
+        this.homePage = protest.homePage;
+        this.recursEveryDays = protest.recursEveryDays;
+        this.cell = protest.cell;
+        this.nextOccurrence = protest.nextOccurrence;
+        this.version = Optional.of(version);
     }
 
     public static PrivateProtestData generate(PublicProtestData data, UUID userId) {
@@ -123,13 +222,128 @@ public class PrivateProtestData implements BsonSerializable {
     }
 
     public static void setupDbIndex() {
+        createIndexes(collection());
+        backfillCells();
+    }
 
-        MongoCollection<PrivateProtestData> collection = collection();
-
+    static void createIndexes(MongoCollection<PrivateProtestData> collection) {
         IndexTools.createIndexWithOpts(collection, Indexes.ascending("protestId"), true, false);
         IndexTools.createIndexWithOpts(collection, Indexes.ascending("date"), false, false);
+        IndexTools.createIndexWithOpts(collection, Indexes.ascending("cell", "date"), false, false);
+        IndexTools.createIndexWithOpts(collection, Indexes.ascending("nextOccurrence"), false, false);
+        IndexTools.createIndexWithOpts(collection, Indexes.ascending("version"), false, false);
+        IndexTools.createIndexWithOpts(
+            collection, Indexes.compoundIndex(Indexes.ascending("ownerId"), Indexes.descending("date", "protestId")),
+            false, false
+        );
 
-        collection.createIndex(Indexes.geo2dsphere("location"));
+        /* viewport queries scan cell id ranges, so the 2dsphere indexes of earlier versions only cost writes */
+        IndexTools.dropIndexIfExists(collection, "location_2dsphere");
+        IndexTools.dropIndexIfExists(collection, "location_2dsphere_date_1");
+    }
+
+    /**
+     * Set the cell id of every protest written before cell ids were maintained.
+     *
+     * @return number of protests updated
+     */
+    public static long backfillCells() {
+        MongoCollection<PrivateProtestData> collection = collection();
+        List<WriteModel<PrivateProtestData>> batch = new ArrayList<>();
+        long updated = 0;
+
+        for(PrivateProtestData protest: collection.find(Filters.eq("cell", null))) {
+            batch.add(new UpdateOneModel<>(
+                Filters.eq("protestId", UUIDCodec.toBsonValue(protest.protestId)),
+                Updates.set("cell", GeoCell.of(protest.location))
+            ));
+
+            if(batch.size() >= BACKFILL_BATCH_SIZE) {
+                updated += collection.bulkWrite(batch, new BulkWriteOptions().ordered(false)).getModifiedCount();
+                batch.clear();
+            }
+        }
+
+        if(!batch.isEmpty()) {
+            updated += collection.bulkWrite(batch, new BulkWriteOptions().ordered(false)).getModifiedCount();
+        }
+
+        if(updated > 0) {
+            LOGGER.info("Backfilled cell ids of {} protests", updated);
+        }
+
+        return updated;
+    }
+
+    /**
+     * Advance the stored next occurrence of every recurring protest whose occurrence has passed, and set it on dated
+     * protests written before it was maintained.
+     *
+     * Updates only apply if the protest's schedule is unchanged since it was read, so a concurrent edit always wins.
+     *
+     * @return number of protests updated
+     */
+    public static long refreshNextOccurrences() {
+        MongoCollection<PrivateProtestData> collection = collection();
+        long now = ServerTime.nowMillis();
+
+        Bson stale = Filters.or(
+            Filters.and(Filters.gt("recursEveryDays", 0), Filters.lt("nextOccurrence", new BsonDateTime(now))),
+            Filters.and(Filters.ne("date", null), Filters.eq("nextOccurrence", null))
+        );
+
+        List<WriteModel<PrivateProtestData>> batch = new ArrayList<>();
+        long updated = 0;
+
+        for(PrivateProtestData protest: collection.find(stale)) {
+            Optional<ZonedDateTime> next = nextOccurrence(protest.date, protest.recursEveryDays, now);
+            if(next.isEmpty()) {
+                continue;
+            }
+
+            batch.add(new UpdateOneModel<>(
+                Filters.and(
+                    Filters.eq("protestId", UUIDCodec.toBsonValue(protest.protestId)),
+                    Filters.eq("date", new BsonDateTime(protest.date.get().toInstant().toEpochMilli())),
+                    Filters.eq("recursEveryDays", protest.recursEveryDays.orElse(null))
+                ),
+                Updates.set("nextOccurrence", new BsonDateTime(next.get().toInstant().toEpochMilli()))
+            ));
+
+            if(batch.size() >= BACKFILL_BATCH_SIZE) {
+                updated += collection.bulkWrite(batch, new BulkWriteOptions().ordered(false)).getModifiedCount();
+                batch.clear();
+            }
+        }
+
+        if(!batch.isEmpty()) {
+            updated += collection.bulkWrite(batch, new BulkWriteOptions().ordered(false)).getModifiedCount();
+        }
+
+        return updated;
+    }
+
+    /**
+     * Compute the first occurrence of a protest at or after a given time.
+     *
+     * Non recurring protests have a single occurrence, which is returned even if it has already passed.
+     *
+     * @param date start of the first occurrence
+     * @param recursEveryDays recurrence period, zero or absent if the protest does not recur
+     * @param nowMillis time to search from
+     * @return start of the next occurrence, or empty if the protest has no date
+     */
+    public static Optional<ZonedDateTime> nextOccurrence(
+        Optional<ZonedDateTime> date, Optional<Integer> recursEveryDays, long nowMillis
+    ) {
+        if(date.isEmpty() || recursEveryDays.orElse(0) <= 0) {
+            return date;
+        }
+
+        long start = date.get().toInstant().toEpochMilli();
+        long next = TimeWindow.firstOccurrence(start, recursEveryDays.get(), nowMillis);
+
+        return Optional.of(ZonedDateTime.ofInstant(Instant.ofEpochMilli(next), date.get().getZone()));
     }
 
     public static MongoCollection<PrivateProtestData> collection() {
@@ -142,32 +356,452 @@ public class PrivateProtestData implements BsonSerializable {
         ).first();
     }
 
-    public static long deleteOlderThan(long ageMillis) {
-        long now = ServerTime.nowMillis();
-        BsonDateTime threshold = new BsonDateTime(now - ageMillis);
+    /**
+     * List the protests owned by a user, most recent first, a page at a time.
+     *
+     * Pages are addressed by the last protest of the previous page rather than an offset, so every page is a single
+     * range scan of the owner index regardless of how many protests precede it. Undated protests sort last, and
+     * protests with the same date are ordered by id.
+     *
+     * @param ownerId owner of the protests
+     * @param after key of the last protest of the previous page, or empty for the first page
+     * @param limit maximum number of protests to return
+     * @return protest summaries
+     */
+    public static FindIterable<ProtestSummary> listByOwner(UUID ownerId, Optional<OwnerPageKey> after, int limit) {
+        Bson filter = Filters.eq("ownerId", UUIDCodec.toBsonValue(ownerId));
+
+        if(after.isPresent()) {
+            BsonValue afterId = UUIDCodec.toBsonValue(after.get().protestId);
+
+            if(after.get().dateMillis.isPresent()) {
+                BsonDateTime afterDate = new BsonDateTime(after.get().dateMillis.get());
+
+                filter = Filters.and(filter, Filters.or(
+                    Filters.lt("date", afterDate),
+                    Filters.and(Filters.eq("date", afterDate), Filters.lt("protestId", afterId)),
+                    Filters.eq("date", null)
+                ));
+            } else {
+                filter = Filters.and(filter, Filters.eq("date", null), Filters.lt("protestId", afterId));
+            }
+        }
+
+        return ProtestSummary.collection()
+            .find(filter)
+            .projection(ProtestSummary.PROJECTION)
+            .sort(Sorts.descending("date", "protestId"))
+            .limit(limit);
+    }
+
+    public static void addChangeListener(ProtestChangeListener listener) {
+        LISTENERS.add(listener);
+    }
+
+    /**
+     * The latest change version handed out to a protest write.
+     *
+     * Every insert, update and delete is tagged with a new version, deletes through a ProtestTombstone. A write may be
+     * stored slightly after one with a greater version, so clients syncing changes should look back
+     * SYNC_OVERLAP_VERSIONS.
+     *
+     * @return current change version
+     */
+    public static long currentVersion() {
+        return SequenceCounter.current(VERSION_SEQUENCE);
+    }
+
+    private static long nextVersion() {
+        return SequenceCounter.next(VERSION_SEQUENCE);
+    }
+
+    /**
+     * Take a version for a write.
+     *
+     * The version reserved after the previous successful write is used if it is recent and above the given minimum,
+     * so that a write costs no counter round trip before it is made.
+     *
+     * @param minimum the version must be greater than this
+     * @return version to tag the write with
+     */
+    private static Reservation reserveVersion(long minimum) {
+        Reservation reserved = RESERVED.getAndSet(null);
+
+        if(reserved != null && reserved.version > minimum &&
+            ServerTime.nowMillis() - reserved.reservedAt < RESERVATION_MAX_AGE_MS) {
+            return reserved;
+        }
+
+        return new Reservation(nextVersion());
+    }
+
+    /**
+     * Return the version of a write which did not apply, so that a rejected write does not consume a version.
+     */
+    private static void releaseVersion(Reservation reserved) {
+        RESERVED.compareAndSet(null, reserved);
+    }
+
+    /**
+     * Finish a successful write by taking a new version from the counter, which is reserved for the next write.
+     *
+     * Any client which read a version before the write was stored read one no greater than the new version. If the
+     * write's version is within SYNC_OVERLAP_VERSIONS of it, that client's next sync includes the write. Otherwise the
+     * write is moved to the new version and checked again, and if it keeps falling behind the tombstone horizon is
+     * raised so that syncing clients reload.
+     *
+     * @param version version the write is tagged with
+     * @param protestIds protests written with the version
+     * @param tombstoneIds protests whose tombstones were written with the version
+     * @return version the write is finally tagged with
+     */
+    private static long publish(long version, List<UUID> protestIds, List<UUID> tombstoneIds) {
+        long stamped = version;
+
+        for(int restamps = 0; ; restamps++) {
+            long next = nextVersion();
+
+            if(next - stamped < SYNC_OVERLAP_VERSIONS) {
+                RESERVED.set(new Reservation(next));
+                return stamped;
+            }
+
+            if(restamps == MAX_RESTAMPS) {
+                LOGGER.warn("Protest write stored {} versions late, raising the tombstone horizon", next - stamped);
+                ProtestTombstone.raiseHorizon(next);
+                return stamped;
+            }
+
+            if(!protestIds.isEmpty()) {
+                collection().updateMany(
+                    Filters.and(Filters.in("protestId", toBsonValues(protestIds)), Filters.eq("version", stamped)),
+                    Updates.set("version", next)
+                );
+            }
+            ProtestTombstone.restamp(tombstoneIds, stamped, next);
+            stamped = next;
+        }
+    }
 
-        return collection().deleteMany(
-            Filters.and(
-                Filters.lt("date", threshold),
-                Filters.or(Filters.exists("recursEveryDays", false), Filters.lte("recursEveryDays", 0))
-            )
+    private static List<BsonValue> toBsonValues(List<UUID> ids) {
+        List<BsonValue> values = new ArrayList<>(ids.size());
+        for(UUID id: ids) {
+            values.add(UUIDCodec.toBsonValue(id));
+        }
+        return values;
+    }
+
+    private static List<UUID> protestIds(List<PrivateProtestData> protests) {
+        List<UUID> ids = new ArrayList<>(protests.size());
+        for(PrivateProtestData protest: protests) {
+            ids.add(protest.protestId);
+        }
+        return ids;
+    }
+
+    /**
+     * Find a batch of protests which ended more than a given time ago.
+     *
+     * @param ageMillis time since the protest date
+     * @param limit maximum number of protests to return
+     * @return expired protests
+     */
+    public static List<PrivateProtestData> findExpired(long ageMillis, int limit) {
+        return collection().find(expiredFilter(ageMillis)).limit(limit).into(new ArrayList<>());
+    }
+
+    /**
+     * Delete protests previously found to be expired.
+     *
+     * A protest which was edited since it was found, so that it is no longer expired, is not deleted.
+     *
+     * @param protests protests returned by findExpired
+     * @param ageMillis age passed to findExpired
+     * @return the protests which were deleted
+     */
+    public static List<PrivateProtestData> deleteExpired(List<PrivateProtestData> protests, long ageMillis) {
+        if(protests.isEmpty()) {
+            return protests;
+        }
+
+        Bson expired = expiredFilter(ageMillis);
+        List<BsonValue> protestIds = toBsonValues(protestIds(protests));
+
+        long count = collection().deleteMany(
+            Filters.and(expired, Filters.in("protestId", protestIds))
         ).getDeletedCount();
+
+        List<PrivateProtestData> deleted = protests;
+        if(count != protests.size()) {
+            Set<UUID> remaining = new HashSet<>();
+            for(PrivateProtestData protest: collection().find(Filters.in("protestId", protestIds))) {
+                remaining.add(protest.protestId);
+            }
+
+            deleted = new ArrayList<>();
+            for(PrivateProtestData protest: protests) {
+                if(!remaining.contains(protest.protestId)) {
+                    deleted.add(protest);
+                }
+            }
+        }
+
+        if(deleted.isEmpty()) {
+            return deleted;
+        }
+
+        long newest = 0;
+        for(PrivateProtestData protest: deleted) {
+            newest = Math.max(newest, protest.version.orElse(0L));
+        }
+
+        long version = reserveVersion(newest).version;
+        List<ProtestTombstone> tombstones = new ArrayList<>();
+        for(PrivateProtestData protest: deleted) {
+            tombstones.add(new ProtestTombstone(protest.protestId, protest.location, version));
+        }
+        ProtestTombstone.insert(tombstones);
+
+        long removedVersion = publish(version, List.of(), protestIds(deleted));
+
+        for(PrivateProtestData protest: deleted) {
+            notifyListeners((listener) -> listener.deleted(new PrivateProtestData(protest, removedVersion)));
+        }
+
+        return deleted;
+    }
+
+    private static Bson expiredFilter(long ageMillis) {
+        BsonDateTime threshold = new BsonDateTime(ServerTime.nowMillis() - ageMillis);
+
+        return Filters.and(
+            Filters.lt("date", threshold),
+            Filters.or(Filters.exists("recursEveryDays", false), Filters.lte("recursEveryDays", 0))
+        );
+    }
+
+    public static void insertProtest(PrivateProtestData protest) {
+        Reservation reserved = reserveVersion(0);
+
+        collection().insertOne(new PrivateProtestData(protest, reserved.version));
+
+        PrivateProtestData versioned = new PrivateProtestData(
+            protest, publish(reserved.version, List.of(protest.protestId), List.of())
+        );
+        notifyListeners((listener) -> listener.inserted(versioned));
+    }
+
+    /**
+     * Insert a batch of protests with a single unordered write, as used by bulk import.
+     *
+     * The batch shares one change version. Protests whose id already exists are skipped instead of failing the batch.
+     *
+     * @param protests protests to insert
+     * @return number of protests inserted
+     */
+    public static int insertProtests(List<PrivateProtestData> protests) {
+        if(protests.isEmpty()) {
+            return 0;
+        }
+
+        Reservation reserved = reserveVersion(0);
+        long version = reserved.version;
+        List<PrivateProtestData> versioned = new ArrayList<>(protests.size());
+        for(PrivateProtestData protest: protests) {
+            versioned.add(new PrivateProtestData(protest, version));
+        }
+
+        Set<Integer> skipped = new HashSet<>();
+
+        try {
+            collection().insertMany(versioned, new InsertManyOptions().ordered(false));
+        } catch(MongoBulkWriteException ex) {
+            for(BulkWriteError error: ex.getWriteErrors()) {
+                if(ErrorCategory.fromErrorCode(error.getCode()) != ErrorCategory.DUPLICATE_KEY) {
+                    throw ex;
+                }
+                skipped.add(error.getIndex());
+            }
+        }
+
+        List<PrivateProtestData> inserted = new ArrayList<>(versioned.size() - skipped.size());
+        for(int i = 0; i < versioned.size(); i++) {
+            if(!skipped.contains(i)) {
+                inserted.add(versioned.get(i));
+            }
+        }
+
+        if(inserted.isEmpty()) {
+            releaseVersion(reserved);
+            return 0;
+        }
+
+        long published = publish(version, protestIds(inserted), List.of());
+
+        for(PrivateProtestData protest: inserted) {
+            PrivateProtestData stored = new PrivateProtestData(protest, published);
+            notifyListeners((listener) -> listener.inserted(stored));
+        }
+
+        return inserted.size();
     }
 
-    public static boolean updateProtest(PrivateProtestData protest) {
-        ReplaceOptions options = new ReplaceOptions();
-        options.upsert(false);
+    /**
+     * Replace the editable fields of a protest in a single conditional write.
+     *
+     * The owner and id of the stored protest are kept. When an owner is given, the write only applies to a protest
+     * with that owner. When an expected version is given, it only applies if the protest is unchanged since that
+     * version was read, so that concurrent edits cannot silently overwrite each other. Only a failed write costs a
+     * second read, to report why it failed, and a failed write does not consume a version.
+     *
+     * @param protest new protest contents
+     * @param ownerId required owner, or empty to edit any protest
+     * @param expectedVersion version the edit is based on, or empty to edit whatever is stored
+     * @return outcome of the edit
+     */
+    public static ConditionalWrite updateProtest(
+        PrivateProtestData protest, Optional<UUID> ownerId, Optional<Long> expectedVersion
+    ) {
+        Reservation reserved = reserveVersion(expectedVersion.orElse(0L));
+        PrivateProtestData before = null;
+
+        for(boolean retried = false; before == null; retried = true) {
+            BsonDocument fields = BsonDocumentWrapper.asBsonDocument(
+                new PrivateProtestData(protest, reserved.version), collection().getCodecRegistry()
+            );
+            for(String field: UNEDITABLE_FIELDS) {
+                fields.remove(field);
+            }
+
+            /* versions of a protest only increase, which a reserved version may not do without an expected one */
+            Bson filter = Filters.and(
+                conditionalFilter(protest.protestId, ownerId, expectedVersion),
+                Filters.or(Filters.exists("version", false), Filters.lt("version", reserved.version))
+            );
+
+            before = collection().findOneAndUpdate(filter, new BsonDocument("$set", fields));
+
+            if(before == null) {
+                releaseVersion(reserved);
+                ConditionalWrite failure = failedWrite(protest.protestId, ownerId);
+
+                if(failure != ConditionalWrite.VERSION_CONFLICT || expectedVersion.isPresent() || retried) {
+                    return failure;
+                }
+                reserved = new Reservation(nextVersion());
+            }
+        }
+
+        boolean moved = before.location.latitude != protest.location.latitude ||
+            before.location.longitude != protest.location.longitude;
+
+        if(moved) {
+            ProtestTombstone.insert(List.of(new ProtestTombstone(before.protestId, before.location, reserved.version)));
+        }
 
-        UpdateResult result = collection().replaceOne(
-            Filters.eq("protestId", UUIDCodec.toBsonValue(protest.protestId)), protest, options
+        long version = publish(
+            reserved.version, List.of(protest.protestId), moved ? List.of(protest.protestId) : List.of()
         );
 
-        return result.getModifiedCount() == 1;
+        PrivateProtestData previous = before;
+        PrivateProtestData after = new PrivateProtestData(new PrivateProtestData(protest, version), before);
+
+        notifyListeners((listener) -> listener.updated(previous, after));
+        return ConditionalWrite.WRITTEN;
+    }
+
+    /**
+     * Delete a protest in a single conditional write. The conditions are those of updateProtest.
+     *
+     * @param protestId protest to delete
+     * @param ownerId required owner, or empty to delete any protest
+     * @param expectedVersion version the delete is based on, or empty to delete whatever is stored
+     * @return outcome of the delete
+     */
+    public static ConditionalWrite deleteProtest(
+        UUID protestId, Optional<UUID> ownerId, Optional<Long> expectedVersion
+    ) {
+        PrivateProtestData before = collection().findOneAndDelete(
+            conditionalFilter(protestId, ownerId, expectedVersion)
+        );
+
+        if(before == null) {
+            return failedWrite(protestId, ownerId);
+        }
+
+        long version = reserveVersion(before.version.orElse(0L)).version;
+
+        ProtestTombstone.insert(List.of(new ProtestTombstone(before.protestId, before.location, version)));
+
+        PrivateProtestData removed = new PrivateProtestData(before, publish(version, List.of(), List.of(protestId)));
+
+        notifyListeners((listener) -> listener.deleted(removed));
+        return ConditionalWrite.WRITTEN;
+    }
+
+    private static Bson conditionalFilter(UUID protestId, Optional<UUID> ownerId, Optional<Long> expectedVersion) {
+        List<Bson> conditions = new ArrayList<>();
+
+        conditions.add(Filters.eq("protestId", UUIDCodec.toBsonValue(protestId)));
+        ownerId.ifPresent((id) -> conditions.add(Filters.eq("ownerId", UUIDCodec.toBsonValue(id))));
+        expectedVersion.ifPresent((version) -> conditions.add(Filters.eq("version", version)));
+
+        return Filters.and(conditions);
+    }
+
+    private static ConditionalWrite failedWrite(UUID protestId, Optional<UUID> ownerId) {
+        PrivateProtestData current = lookupByProtestId(protestId);
+
+        if(current == null) {
+            return ConditionalWrite.NOT_FOUND;
+        } else if(ownerId.isPresent() && !current.ownerId.equals(ownerId.get())) {
+            return ConditionalWrite.NOT_OWNER;
+        } else {
+            return ConditionalWrite.VERSION_CONFLICT;
+        }
     }
 
-    public static boolean deleteProtest(UUID protestId) {
-        DeleteResult result = collection().deleteOne(Filters.eq("protestId", UUIDCodec.toBsonValue(protestId)));
+    private static void notifyListeners(Consumer<ProtestChangeListener> call) {
+        for(ProtestChangeListener listener: LISTENERS) {
+            try {
+                call.accept(listener);
+            } catch(RuntimeException ex) {
+                LOGGER.error("Uncaught exception thrown by protest change listener", ex);
+            }
+        }
+    }
+
+    private static final class Reservation {
+        final long version;
+        final long reservedAt;
+
+        Reservation(long version) {
+            this.version = version;
+            this.reservedAt = ServerTime.nowMillis();
+        }
+    }
+
+    public static enum ConditionalWrite {
+        WRITTEN,
+        NOT_FOUND,
+        NOT_OWNER,
+        VERSION_CONFLICT
+    }
+
+    /**
+     * Position of a protest in the order used by listByOwner.
+     */
+    public static final class OwnerPageKey {
+        public final Optional<Long> dateMillis;
+        public final UUID protestId;
+
+        public OwnerPageKey(Optional<Long> dateMillis, UUID protestId) {
+            this.dateMillis = dateMillis;
+            this.protestId = protestId;
+        }
 
-        return result.getDeletedCount() == 1;
+        public static OwnerPageKey of(ProtestSummary protest) {
+            return new OwnerPageKey(protest.date.map((d) -> d.toInstant().toEpochMilli()), protest.protestId);
+        }
     }
 }
@@ -0,0 +1,198 @@
+/*
+ * This File is Part of LDProtest
+ * Copyright (C) 2021 Covid Anti Hysterics League
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Lesser Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package ldprotest.business;
+
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.CreateCollectionOptions;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.ReplaceOneModel;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.WriteModel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import ldprotest.db.IndexTools;
+import ldprotest.db.MainDatabase;
+import ldprotest.db.codec.UUIDCodec;
+import ldprotest.geo.GeoCell;
+import ldprotest.geo.GeoRectangle;
+import org.bson.BsonDateTime;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+
+/**
+ * Protests which have ended, moved out of the protests collection by the protest vacuum.
+ *
+ * Archived protests are stored exactly as they were in the protests collection, in a collection created with a
+ * stronger block compressor. The archive is only read for historical queries, so it has no 2dsphere index.
+ */
+public final class ProtestArchive {
+
+    public static final String COLLECTION_NAME = "protestArchive";
+
+    private static final String STORAGE_ENGINE_CONFIG = "block_compressor=zlib";
+
+    private static final Bson HISTORY_INDEX = Indexes.compoundIndex(
+        Indexes.descending("date", "protestId"), Indexes.ascending("cell")
+    );
+
+    private ProtestArchive() {
+        /* do not construct */
+    }
+
+    public static CreateCollectionOptions collectionOptions() {
+        return new CreateCollectionOptions().storageEngineOptions(
+            new Document("wiredTiger", new Document("configString", STORAGE_ENGINE_CONFIG))
+        );
+    }
+
+    public static void setupDbIndex() {
+        IndexTools.createIndexWithOpts(collection(), Indexes.ascending("protestId"), true, false);
+        IndexTools.createIndexWithOpts(collection(), HISTORY_INDEX, false, false);
+        IndexTools.dropIndexIfExists(collection(), "cell_1_date_1");
+    }
+
+    /**
+     * Copy protests into the archive.
+     *
+     * This is idempotent, so a batch which was archived but not deleted from the protests collection, because the
+     * vacuum was interrupted, is simply archived again on the next run.
+     *
+     * @param protests protests to archive
+     */
+    public static void archive(List<PrivateProtestData> protests) {
+        if(protests.isEmpty()) {
+            return;
+        }
+
+        List<WriteModel<PrivateProtestData>> writes = new ArrayList<>(protests.size());
+        for(PrivateProtestData protest: protests) {
+            writes.add(new ReplaceOneModel<>(
+                Filters.eq("protestId", UUIDCodec.toBsonValue(protest.protestId)),
+                protest,
+                new ReplaceOptions().upsert(true)
+            ));
+        }
+
+        collection().bulkWrite(writes, new BulkWriteOptions().ordered(false));
+    }
+
+    /**
+     * Delete archived copies of protests which the vacuum archived but could not then remove from the protests
+     * collection, because they were edited or deleted in between.
+     *
+     * @param protests protests to drop from the archive
+     */
+    public static void unarchive(List<PrivateProtestData> protests) {
+        if(protests.isEmpty()) {
+            return;
+        }
+
+        List<BsonValue> protestIds = new ArrayList<>(protests.size());
+        for(PrivateProtestData protest: protests) {
+            protestIds.add(UUIDCodec.toBsonValue(protest.protestId));
+        }
+
+        collection().deleteMany(Filters.in("protestId", protestIds));
+    }
+
+    /**
+     * Find archived protests in an area, most recent first, a page at a time.
+     *
+     * The query walks the (date, protestId, cell) index in order, checking cell ids in the index, so results are
+     * never sorted in memory. Pages are addressed by the last protest of the previous page, as with
+     * PrivateProtestData.listByOwner. Like other cell queries the results cover more than the area, and must be
+     * filtered with GeoRectangle.contains.
+     *
+     * @param area region to search
+     * @param fromMillis earliest protest date
+     * @param toMillis latest protest date
+     * @param after key of the last protest of the previous page, or empty for the first page
+     * @param limit maximum number of protests to return
+     * @return protest summaries
+     */
+    public static FindIterable<ProtestSummary> history(
+        GeoRectangle area, long fromMillis, long toMillis, Optional<HistoryPageKey> after, int limit
+    ) {
+        Bson filter = Filters.and(
+            GeoCell.bsonFilter("cell", area),
+            Filters.gte("date", new BsonDateTime(fromMillis)),
+            Filters.lte("date", new BsonDateTime(toMillis))
+        );
+
+        if(after.isPresent()) {
+            BsonDateTime afterDate = new BsonDateTime(after.get().dateMillis);
+            BsonValue afterId = UUIDCodec.toBsonValue(after.get().protestId);
+
+            filter = Filters.and(filter, Filters.or(
+                Filters.lt("date", afterDate),
+                Filters.and(Filters.eq("date", afterDate), Filters.lt("protestId", afterId))
+            ));
+        }
+
+        return collection().withDocumentClass(ProtestSummary.class)
+            .find(filter)
+            .projection(ProtestSummary.PROJECTION)
+            .sort(Sorts.descending("date", "protestId"))
+            .hint(HISTORY_INDEX)
+            .limit(limit);
+    }
+
+    /**
+     * The date of the oldest archived protest, which bounds how far back history pages need to scan.
+     *
+     * @return date in milliseconds since the epoch, or empty if nothing is archived
+     */
+    public static Optional<Long> oldestDate() {
+        ProtestSummary oldest = collection().withDocumentClass(ProtestSummary.class)
+            .find(Filters.ne("date", null))
+            .projection(ProtestSummary.PROJECTION)
+            .sort(Sorts.ascending("date", "protestId"))
+            .hint(HISTORY_INDEX)
+            .first();
+
+        return oldest == null ? Optional.empty() : Optional.of(HistoryPageKey.of(oldest).dateMillis);
+    }
+
+    private static MongoCollection<PrivateProtestData> collection() {
+        return MainDatabase.database().getCollection(COLLECTION_NAME, PrivateProtestData.class);
+    }
+
+    /**
+     * Position of a protest in the order used by history. Archived protests returned by history always have a date.
+     */
+    public static final class HistoryPageKey {
+        public final long dateMillis;
+        public final UUID protestId;
+
+        public HistoryPageKey(long dateMillis, UUID protestId) {
+            this.dateMillis = dateMillis;
+            this.protestId = protestId;
+        }
+
+        public static HistoryPageKey of(ProtestSummary protest) {
+            return new HistoryPageKey(protest.date.get().toInstant().toEpochMilli(), protest.protestId);
+        }
+    }
+}
@@ -0,0 +1,36 @@
+/*
+ * This File is Part of LDProtest
+ * Copyright (C) 2021 Covid Anti Hysterics League
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Lesser Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package ldprotest.business;
+
+/**
+ * Notified after a protest is written through PrivateProtestData.
+ *
+ * Listeners are called on the thread which made the write and so should be quick. Only writes made by this server
+ * instance are reported.
+ *
+ * Protests are passed with the change version their write was finally tagged with. A deleted protest carries the
+ * version of its tombstone rather than the version it was stored with.
+ */
+public interface ProtestChangeListener {
+
+    void inserted(PrivateProtestData protest);
+
+    void updated(PrivateProtestData before, PrivateProtestData after);
+
+    void deleted(PrivateProtestData protest);
+}
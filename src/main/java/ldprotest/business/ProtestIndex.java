@@ -0,0 +1,589 @@
+/*
+ * This File is Part of LDProtest
+ * Copyright (C) 2021 Covid Anti Hysterics League
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Lesser Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package ldprotest.business;
+
+import com.mongodb.MongoException;
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.model.Filters;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import ldprotest.geo.ClusterGrid;
+import ldprotest.geo.ClusterGrid.BoundsScan;
+import ldprotest.geo.ClusterGrid.Cluster;
+import ldprotest.geo.Coordinate;
+import ldprotest.geo.GeoRectangle;
+import ldprotest.geo.QuadTree;
+import ldprotest.tasks.PeriodicTaskManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * In memory spatial index of summaries of every protest in the protests collection.
+ *
+ * The index is filled from the database by a periodic task and is kept up to date in between by listening for changes
+ * written through PrivateProtestData. Until the first load completes the index is cold and search returns empty, in
+ * which case callers should fall back to querying the database.
+ *
+ * Alongside the spatial index, a ClusterGrid keeps aggregates of protest locations at several resolutions so that areas
+ * holding too many protests to send individually can be summarized without scanning them. Cluster bounding boxes left
+ * too large by removals are rescanned by a periodic task, which holds only the read lock while scanning.
+ *
+ * Writes made by other server instances or by command line tools are picked up by polling for changes since the
+ * version the index is known to be complete up to, with a full reload when polling cannot keep up.
+ *
+ * Change versions are only stored roughly in order, within PrivateProtestData.SYNC_OVERLAP_VERSIONS of the counter.
+ * So when the counter is read before the database, every write up to that value less the overlap is in the result.
+ * Polling therefore asks for changes from that far before the last counter value read, and the index can report that
+ * counter value as the version up to which clients have been sent every change.
+ */
+public final class ProtestIndex {
+
+    private final static Logger LOGGER = LoggerFactory.getLogger(ProtestIndex.class);
+
+    /* polling keeps the index current, so reloads only bound drift and are rare as they change every area version */
+    private static final long RELOAD_PERIOD_MINUTES = 120;
+    private static final long CLUSTER_BOUNDS_PERIOD_SECONDS = 10;
+    private static final long POLL_PERIOD_SECONDS = 5;
+
+    /* beyond this many changes in one poll, reloading is cheaper than applying them */
+    private static final int MAX_POLL_CHANGES = 4096;
+
+    private static final ReadWriteLock LOCK = new ReentrantReadWriteLock();
+    private static final ReentrantLock RELOAD_LOCK = new ReentrantLock();
+    private static final AtomicBoolean RELOAD_REQUESTED = new AtomicBoolean(false);
+
+    private static QuadTree<ProtestSummary> TREE = new QuadTree<>();
+    private static Map<UUID, ProtestSummary> BY_ID = new HashMap<>();
+    private static ClusterGrid GRID = new ClusterGrid();
+    private static Map<UUID, Long> REMOVED = new HashMap<>();
+    private static List<Consumer<Snapshot>> JOURNAL = null;
+    private static volatile boolean LOADED = false;
+
+    /* counter value read before the last load or poll, written under both RELOAD_LOCK and the write lock */
+    private static long VERSION = 0;
+
+    /* versions of cells untouched since the last reload are unknown and reported as this, which is at most VERSION */
+    private static long RELOADED_VERSION = 0;
+
+    private ProtestIndex() {
+        /* do not construct */
+    }
+
+    public static void register() {
+        PrivateProtestData.addChangeListener(new ProtestChangeListener() {
+            @Override
+            public void inserted(PrivateProtestData protest) {
+                apply((snapshot) -> snapshot.put(ProtestSummary.of(protest)));
+            }
+
+            @Override
+            public void updated(PrivateProtestData before, PrivateProtestData after) {
+                apply((snapshot) -> snapshot.put(ProtestSummary.of(after)));
+            }
+
+            @Override
+            public void deleted(PrivateProtestData protest) {
+                apply((snapshot) -> snapshot.remove(
+                    protest.protestId, protest.location, protest.version.orElse(0L)
+                ));
+            }
+        });
+
+        PeriodicTaskManager.registerBulkTask(
+            0, RELOAD_PERIOD_MINUTES, TimeUnit.MINUTES, true, (signal) -> reloadLogged()
+        );
+
+        PeriodicTaskManager.registerTask(
+            POLL_PERIOD_SECONDS, POLL_PERIOD_SECONDS, TimeUnit.SECONDS, false, (signal) -> {
+                try {
+                    poll();
+                } catch(MongoException ex) {
+                    LOGGER.warn("Error thrown while polling for protest changes", ex);
+                }
+            }
+        );
+
+        PeriodicTaskManager.registerTask(
+            CLUSTER_BOUNDS_PERIOD_SECONDS, CLUSTER_BOUNDS_PERIOD_SECONDS, TimeUnit.SECONDS, false,
+            (signal) -> refreshClusterBounds()
+        );
+    }
+
+    public static boolean isLoaded() {
+        return LOADED;
+    }
+
+    /**
+     * The change version of the protests within an area, as held by the index.
+     *
+     * Every change within the area with a version up to this less PrivateProtestData.SYNC_OVERLAP_VERSIONS is
+     * reflected by searches made after this call. The version only advances when a change touches the area, or when
+     * the index is reloaded, so it can key cached responses for the area.
+     *
+     * @param area region of the search
+     * @param level cluster grid level whose cells are checked for changes
+     * @return empty if the index has not finished loading, otherwise the version
+     */
+    public static Optional<Long> version(GeoRectangle area, int level) {
+        if(!LOADED) {
+            return Optional.empty();
+        }
+
+        LOCK.readLock().lock();
+        try {
+            return Optional.of(Math.min(VERSION, Math.max(RELOADED_VERSION, GRID.maxVersion(area, level))));
+        } finally {
+            LOCK.readLock().unlock();
+        }
+    }
+
+    /**
+     * The version up to which the index holds every change, less PrivateProtestData.SYNC_OVERLAP_VERSIONS.
+     *
+     * @return empty if the index has not finished loading, otherwise the version
+     */
+    public static Optional<Long> version() {
+        if(!LOADED) {
+            return Optional.empty();
+        }
+
+        LOCK.readLock().lock();
+        try {
+            return Optional.of(VERSION);
+        } finally {
+            LOCK.readLock().unlock();
+        }
+    }
+
+    /**
+     * Search the index for protests within area.
+     *
+     * @param area region to search
+     * @param limit maximum number of protests to return
+     * @return empty if the index has not finished loading, otherwise the matching protests.
+     */
+    public static Optional<List<ProtestSummary>> search(GeoRectangle area, int limit) {
+        return search(area, (protest) -> true, limit);
+    }
+
+    /**
+     * Search the index for protests within area which match a filter.
+     *
+     * @param area region to search
+     * @param filter protests for which this returns false are skipped
+     * @param limit maximum number of protests to return
+     * @return empty if the index has not finished loading, otherwise the matching protests.
+     */
+    public static Optional<List<ProtestSummary>> search(
+        GeoRectangle area, Predicate<ProtestSummary> filter, int limit
+    ) {
+        if(!LOADED) {
+            return Optional.empty();
+        }
+
+        List<ProtestSummary> ret = new ArrayList<>();
+
+        LOCK.readLock().lock();
+        try {
+            TREE.query(area, (protest) -> {
+                if(ret.size() >= limit) {
+                    return false;
+                }
+                if(filter.test(protest)) {
+                    ret.add(protest);
+                }
+                return true;
+            });
+        } finally {
+            LOCK.readLock().unlock();
+        }
+
+        return Optional.of(ret);
+    }
+
+    /**
+     * Summarize the protests within area as clusters.
+     *
+     * @param area region to summarize
+     * @param level cluster grid level to read
+     * @return empty if the index has not finished loading, otherwise the clusters within the area.
+     */
+    public static Optional<List<Cluster>> clusters(GeoRectangle area, int level) {
+        if(!LOADED) {
+            return Optional.empty();
+        }
+
+        LOCK.readLock().lock();
+        try {
+            return Optional.of(GRID.clusters(area, level));
+        } finally {
+            LOCK.readLock().unlock();
+        }
+    }
+
+    /**
+     * Summarize the protests within area which match a filter as clusters.
+     *
+     * The precomputed grid counts every protest, so clusters are aggregated from the matching protests on each call.
+     * This takes time proportional to the number of protests within the cells intersecting the area.
+     *
+     * @param area region to summarize
+     * @param level cluster grid level to aggregate at
+     * @param filter protests for which this returns false are not counted
+     * @return empty if the index has not finished loading, otherwise the clusters within the area.
+     */
+    public static Optional<List<Cluster>> clusters(GeoRectangle area, int level, Predicate<ProtestSummary> filter) {
+        if(!LOADED) {
+            return Optional.empty();
+        }
+
+        List<Coordinate> locations = new ArrayList<>();
+
+        LOCK.readLock().lock();
+        try {
+            TREE.query(ClusterGrid.cellAligned(area, level), (protest) -> {
+                if(filter.test(protest)) {
+                    locations.add(protest.location);
+                }
+                return true;
+            });
+        } finally {
+            LOCK.readLock().unlock();
+        }
+
+        return Optional.of(ClusterGrid.aggregate(locations, level));
+    }
+
+    /**
+     * Shrink the bounding boxes of clusters whose edge protests have been removed.
+     *
+     * Each stale cell is rescanned under the read lock, which searches can share, and the results are installed under
+     * the write lock in one short step. Results for cells written in the meantime are discarded by the grid.
+     */
+    private static void refreshClusterBounds() {
+        ClusterGrid grid;
+        List<BoundsScan> scans;
+
+        LOCK.readLock().lock();
+        try {
+            grid = GRID;
+            scans = grid.staleBounds();
+        } finally {
+            LOCK.readLock().unlock();
+        }
+
+        if(scans.isEmpty()) {
+            return;
+        }
+
+        for(BoundsScan scan: scans) {
+            LOCK.readLock().lock();
+            try {
+                if(GRID != grid) {
+                    return;
+                }
+                scan.scan((area) -> locationsWithin(TREE, area));
+            } finally {
+                LOCK.readLock().unlock();
+            }
+        }
+
+        LOCK.writeLock().lock();
+        try {
+            if(GRID == grid) {
+                grid.applyBounds(scans);
+            }
+        } finally {
+            LOCK.writeLock().unlock();
+        }
+    }
+
+    public static Optional<ProtestSummary> lookup(UUID protestId) {
+        if(!LOADED) {
+            return Optional.empty();
+        }
+
+        LOCK.readLock().lock();
+        try {
+            return Optional.ofNullable(BY_ID.get(protestId));
+        } finally {
+            LOCK.readLock().unlock();
+        }
+    }
+
+    /**
+     * Rebuild the index from the database.
+     *
+     * The new index is built without holding the lock. Writes which occur while the new index is being read are
+     * journaled and replayed against it before it replaces the current one, so that they are not lost if the database
+     * cursor had already passed the document when it changed.
+     */
+    public static void reload() {
+        RELOAD_LOCK.lock();
+        try {
+            List<Consumer<Snapshot>> journal = new ArrayList<>();
+
+            LOCK.writeLock().lock();
+            try {
+                JOURNAL = journal;
+            } finally {
+                LOCK.writeLock().unlock();
+            }
+
+            Snapshot fresh = new Snapshot(new QuadTree<>(), new HashMap<>(), new ClusterGrid(), new HashMap<>());
+            long version;
+
+            try {
+                version = PrivateProtestData.currentVersion();
+
+                FindIterable<ProtestSummary> summaries = ProtestSummary.collection()
+                    .find()
+                    .projection(ProtestSummary.PROJECTION);
+
+                for(ProtestSummary protest: summaries) {
+                    fresh.put(protest);
+                }
+            } catch(RuntimeException ex) {
+                LOCK.writeLock().lock();
+                try {
+                    JOURNAL = null;
+                } finally {
+                    LOCK.writeLock().unlock();
+                }
+                throw ex;
+            }
+
+            LOCK.writeLock().lock();
+            try {
+                for(Consumer<Snapshot> op: journal) {
+                    op.accept(fresh);
+                }
+
+                TREE = fresh.tree;
+                BY_ID = fresh.byId;
+                GRID = fresh.grid;
+                REMOVED = fresh.removed;
+                JOURNAL = null;
+                VERSION = Math.max(VERSION, version);
+                RELOADED_VERSION = VERSION;
+            } finally {
+                LOCK.writeLock().unlock();
+            }
+
+            if(!LOADED) {
+                LOGGER.info("Protest index loaded with {} protests", fresh.byId.size());
+            }
+            LOADED = true;
+        } finally {
+            RELOAD_LOCK.unlock();
+        }
+    }
+
+    private static void reloadLogged() {
+        try {
+            reload();
+        } catch(MongoException ex) {
+            LOGGER.warn("Error thrown during protest index reload", ex);
+        }
+    }
+
+    /**
+     * Have a bulk task reload the index, unless one is already waiting to, so that polls never run a reload.
+     */
+    private static void requestReload() {
+        if(RELOAD_REQUESTED.compareAndSet(false, true)) {
+            PeriodicTaskManager.submitBulkTask((signal) -> {
+                RELOAD_REQUESTED.set(false);
+                reloadLogged();
+            });
+        }
+    }
+
+    /**
+     * Apply the changes written since the index was last loaded or polled, or request a reload if they are too many.
+     *
+     * A poll is skipped while a reload is running, which leaves the index at least as current.
+     */
+    private static void poll() {
+        if(!RELOAD_LOCK.tryLock()) {
+            return;
+        }
+
+        try {
+            if(!LOADED) {
+                return;
+            }
+
+            long from = VERSION - PrivateProtestData.SYNC_OVERLAP_VERSIONS;
+
+            if(ProtestTombstone.horizon() > from) {
+                requestReload();
+                return;
+            }
+
+            long version = PrivateProtestData.currentVersion();
+            List<ProtestSummary> changed = ProtestSummary.collection()
+                .find(Filters.gt("version", from))
+                .projection(ProtestSummary.PROJECTION)
+                .limit(MAX_POLL_CHANGES + 1)
+                .into(new ArrayList<>());
+
+            List<ProtestTombstone> removed = new ArrayList<>();
+            for(ProtestTombstone tombstone: ProtestTombstone.since(from)) {
+                if(changed.size() + removed.size() >= MAX_POLL_CHANGES) {
+                    break;
+                }
+                removed.add(tombstone);
+            }
+
+            if(changed.size() + removed.size() >= MAX_POLL_CHANGES) {
+                LOGGER.info("Reloading protest index after too many changes since version {}", from);
+                requestReload();
+                return;
+            }
+
+            LOCK.writeLock().lock();
+            try {
+                Snapshot snapshot = new Snapshot(TREE, BY_ID, GRID, REMOVED);
+
+                for(ProtestTombstone tombstone: removed) {
+                    snapshot.remove(tombstone.protestId, tombstone.location, tombstone.version);
+                }
+                for(ProtestSummary protest: changed) {
+                    snapshot.put(protest);
+                }
+
+                VERSION = Math.max(VERSION, version);
+
+                /* a protest read by a later poll is newer than this, so older removals can no longer be undone */
+                long forget = VERSION - PrivateProtestData.SYNC_OVERLAP_VERSIONS;
+                REMOVED.values().removeIf((v) -> v <= forget);
+            } finally {
+                LOCK.writeLock().unlock();
+            }
+        } finally {
+            RELOAD_LOCK.unlock();
+        }
+    }
+
+    private static void apply(Consumer<Snapshot> op) {
+        LOCK.writeLock().lock();
+        try {
+            op.accept(new Snapshot(TREE, BY_ID, GRID, REMOVED));
+
+            if(JOURNAL != null) {
+                JOURNAL.add(op);
+            }
+        } finally {
+            LOCK.writeLock().unlock();
+        }
+    }
+
+    private static final class Snapshot {
+
+        private final QuadTree<ProtestSummary> tree;
+        private final Map<UUID, ProtestSummary> byId;
+        private final ClusterGrid grid;
+
+        /* version each recently removed protest was removed at, so that a stale read cannot bring it back */
+        private final Map<UUID, Long> removed;
+
+        public Snapshot(
+            QuadTree<ProtestSummary> tree, Map<UUID, ProtestSummary> byId, ClusterGrid grid, Map<UUID, Long> removed
+        ) {
+            this.tree = tree;
+            this.byId = byId;
+            this.grid = grid;
+            this.removed = removed;
+        }
+
+        /**
+         * Add or replace a protest, unless the index already holds this or a newer version of it, or a newer removal.
+         */
+        public void put(ProtestSummary protest) {
+            long version = protest.version.orElse(0L);
+            ProtestSummary old = byId.get(protest.protestId);
+
+            if(old != null && old.version.orElse(0L) >= version) {
+                return;
+            }
+            if(removed.getOrDefault(protest.protestId, 0L) > version) {
+                return;
+            }
+
+            if(old != null) {
+                unlink(old, version);
+            }
+
+            byId.put(protest.protestId, protest);
+            tree.insert(protest.location, protest);
+            grid.insert(protest.location);
+            grid.touch(protest.location, version);
+        }
+
+        /**
+         * Remove a protest from a location, unless the index holds a version of it at least as new as the removal.
+         *
+         * A protest which moved has a removal at its old location with the same version as the protest itself.
+         */
+        public void remove(UUID protestId, Coordinate location, long version) {
+            grid.touch(location, version);
+
+            ProtestSummary old = byId.get(protestId);
+
+            if(old != null && old.version.orElse(0L) >= version) {
+                return;
+            }
+
+            removed.merge(protestId, version, Math::max);
+
+            if(old != null) {
+                byId.remove(protestId);
+                unlink(old, version);
+            }
+        }
+
+        private void unlink(ProtestSummary old, long version) {
+            tree.remove(old.location, old);
+            grid.remove(old.location);
+            grid.touch(old.location, version);
+        }
+    }
+
+    private static List<Coordinate> locationsWithin(QuadTree<ProtestSummary> tree, GeoRectangle area) {
+        List<Coordinate> ret = new ArrayList<>();
+
+        tree.query(area, (protest) -> {
+            ret.add(protest.location);
+            return true;
+        });
+
+        return ret;
+    }
+}
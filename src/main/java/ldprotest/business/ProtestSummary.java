@@ -0,0 +1,95 @@
+/*
+ * This File is Part of LDProtest
+ * Copyright (C) 2021 Covid Anti Hysterics League
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Lesser Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package ldprotest.business;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Projections;
+import java.time.ZonedDateTime;
+import java.util.Optional;
+import java.util.UUID;
+import ldprotest.geo.Coordinate;
+import ldprotest.serialization.JsonSerializable;
+import ldprotest.serialization.ReflectiveConstructor;
+import org.bson.conversions.Bson;
+
+/**
+ * The fields of a protest needed to place and label it on the map.
+ *
+ * Summaries are read from the protests collection with a projection, so that the large free text fields of a protest
+ * are neither transferred from the database nor decoded. The full protest is fetched separately when it is viewed.
+ */
+public class ProtestSummary implements JsonSerializable {
+
+    public static final Bson PROJECTION = Projections.fields(
+        Projections.excludeId(),
+        Projections.include("protestId", "location", "title", "date", "recursEveryDays", "version")
+    );
+
+    public final UUID protestId;
+    public final Coordinate location;
+    public final String title;
+    public final Optional<ZonedDateTime> date;
+    public final Optional<Integer> recursEveryDays;
+
+    /* absent on documents written before change versions were added */
+    public final Optional<Long> version;
+
+    @ReflectiveConstructor
+    private ProtestSummary() {
+        protestId = null;
+        location = null;
+        title = null;
+        date = null;
+        recursEveryDays = null;
+        version = null;
+    }
+
+    private ProtestSummary(
+        UUID protestId,
+        Coordinate location,
+        String title,
+        Optional<ZonedDateTime> date,
+        Optional<Integer> recursEveryDays,
+        Optional<Long> version
+    ) {
+        this.protestId = protestId;
+        this.location = location;
+        this.title = title;
+        this.date = date;
+        this.recursEveryDays = recursEveryDays;
+        this.version = version;
+    }
+
+    public static ProtestSummary of(PrivateProtestData protest) {
+        return new ProtestSummary(
+            protest.protestId, protest.location, protest.title, protest.date, protest.recursEveryDays,
+            protest.version
+        );
+    }
+
+    /**
+     * The protests collection, decoding documents as summaries.
+     *
+     * Queries on this collection must apply PROJECTION, otherwise decoding fails on the excluded fields.
+     *
+     * @return protests collection
+     */
+    public static MongoCollection<ProtestSummary> collection() {
+        return PrivateProtestData.collection().withDocumentClass(ProtestSummary.class);
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * This File is Part of LDProtest
+ * Copyright (C) 2021 Covid Anti Hysterics League
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Lesser Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package ldprotest.business;
+
+import com.mongodb.MongoException;
+import com.mongodb.client.model.Projections;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import ldprotest.geo.GeoRectangle;
+import ldprotest.serialization.BsonSerializable;
+import ldprotest.serialization.ReflectiveConstructor;
+import ldprotest.tasks.PeriodicTaskManager;
+import ldprotest.util.types.TextIndex;
+import org.bson.conversions.Bson;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * In memory word index over the titles and descriptions of every protest, for searching without database queries.
+ *
+ * Like ProtestIndex, the index is filled by a periodic reload and kept up to date in between by listening for writes
+ * made through PrivateProtestData. Results are resolved to summaries through ProtestIndex, so searches return empty
+ * until both indexes have loaded.
+ */
+public final class ProtestTextIndex {
+
+    private final static Logger LOGGER = LoggerFactory.getLogger(ProtestTextIndex.class);
+
+    private static final long RELOAD_PERIOD_MINUTES = 15;
+
+    private static final Bson PROJECTION = Projections.fields(
+        Projections.excludeId(),
+        Projections.include("protestId", "title", "description")
+    );
+
+    private static final ReadWriteLock LOCK = new ReentrantReadWriteLock();
+    private static final Object RELOAD_LOCK = new Object();
+
+    private static TextIndex<UUID> INDEX = new TextIndex<>();
+    private static List<Consumer<TextIndex<UUID>>> JOURNAL = null;
+    private static volatile boolean LOADED = false;
+
+    private ProtestTextIndex() {
+        /* do not construct */
+    }
+
+    public static void register() {
+        PrivateProtestData.addChangeListener(new ProtestChangeListener() {
+            @Override
+            public void inserted(PrivateProtestData protest) {
+                apply((index) -> index.put(protest.protestId, protest.title, protest.description));
+            }
+
+            @Override
+            public void updated(PrivateProtestData before, PrivateProtestData after) {
+                apply((index) -> index.put(after.protestId, after.title, after.description));
+            }
+
+            @Override
+            public void deleted(PrivateProtestData protest) {
+                apply((index) -> index.remove(protest.protestId));
+            }
+        });
+
+        PeriodicTaskManager.registerBulkTask(
+            0, RELOAD_PERIOD_MINUTES, TimeUnit.MINUTES, true, (signal) -> {
+                try {
+                    reload();
+                } catch(MongoException ex) {
+                    LOGGER.warn("Error thrown during protest text index reload", ex);
+                }
+            }
+        );
+    }
+
+    /**
+     * Search protest titles and descriptions.
+     *
+     * @param query words to search for, the last of which may be incomplete
+     * @param area if present, only protests within it are returned
+     * @param limit maximum number of protests to return
+     * @return empty if the indexes have not finished loading, otherwise the matching protests
+     */
+    public static Optional<List<ProtestSummary>> search(String query, Optional<GeoRectangle> area, int limit) {
+        if(!LOADED || !ProtestIndex.isLoaded()) {
+            return Optional.empty();
+        }
+
+        List<UUID> protestIds;
+
+        LOCK.readLock().lock();
+        try {
+            protestIds = INDEX.search(query, (protestId) -> {
+                Optional<ProtestSummary> protest = ProtestIndex.lookup(protestId);
+
+                return protest.isPresent() && (area.isEmpty() || area.get().contains(protest.get().location));
+            }, limit);
+        } finally {
+            LOCK.readLock().unlock();
+        }
+
+        List<ProtestSummary> ret = new ArrayList<>();
+        for(UUID protestId: protestIds) {
+            ProtestIndex.lookup(protestId).ifPresent(ret::add);
+        }
+
+        return Optional.of(ret);
+    }
+
+    /**
+     * Rebuild the index from the database, replaying writes made during the rebuild as ProtestIndex.reload does.
+     */
+    public static void reload() {
+        synchronized(RELOAD_LOCK) {
+            List<Consumer<TextIndex<UUID>>> journal = new ArrayList<>();
+
+            LOCK.writeLock().lock();
+            try {
+                JOURNAL = journal;
+            } finally {
+                LOCK.writeLock().unlock();
+            }
+
+            TextIndex<UUID> fresh = new TextIndex<>();
+
+            try {
+                Iterable<SearchText> documents = PrivateProtestData.collection()
+                    .withDocumentClass(SearchText.class)
+                    .find()
+                    .projection(PROJECTION);
+
+                for(SearchText text: documents) {
+                    fresh.put(text.protestId, text.title, text.description);
+                }
+            } catch(RuntimeException ex) {
+                LOCK.writeLock().lock();
+                try {
+                    JOURNAL = null;
+                } finally {
+                    LOCK.writeLock().unlock();
+                }
+                throw ex;
+            }
+
+            LOCK.writeLock().lock();
+            try {
+                for(Consumer<TextIndex<UUID>> op: journal) {
+                    op.accept(fresh);
+                }
+
+                INDEX = fresh;
+                JOURNAL = null;
+            } finally {
+                LOCK.writeLock().unlock();
+            }
+
+            if(!LOADED) {
+                LOGGER.info("Protest text index loaded with {} protests", fresh.size());
+            }
+            LOADED = true;
+        }
+    }
+
+    private static void apply(Consumer<TextIndex<UUID>> op) {
+        LOCK.writeLock().lock();
+        try {
+            op.accept(INDEX);
+
+            if(JOURNAL != null) {
+                JOURNAL.add(op);
+            }
+        } finally {
+            LOCK.writeLock().unlock();
+        }
+    }
+
+    private static final class SearchText implements BsonSerializable {
+        public final UUID protestId;
+        public final String title;
+        public final String description;
+
+        @ReflectiveConstructor
+        private SearchText() {
+            protestId = null;
+            title = null;
+            description = null;
+        }
+    }
+}
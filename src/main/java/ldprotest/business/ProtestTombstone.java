@@ -0,0 +1,181 @@
+/*
+ * This File is Part of LDProtest
+ * Copyright (C) 2021 Covid Anti Hysterics League
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Lesser Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package ldprotest.business;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.Updates;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import ldprotest.db.IndexTools;
+import ldprotest.db.MainDatabase;
+import ldprotest.db.SequenceCounter;
+import ldprotest.db.codec.UUIDCodec;
+import ldprotest.geo.Coordinate;
+import ldprotest.geo.GeoCell;
+import ldprotest.geo.GeoRectangle;
+import ldprotest.main.ServerTime;
+import ldprotest.serialization.BsonSerializable;
+import ldprotest.serialization.ReflectiveConstructor;
+import org.bson.BsonDateTime;
+import org.bson.BsonValue;
+import org.bson.conversions.Bson;
+
+/**
+ * Record that a protest was removed from a location, so that clients syncing changes since an earlier version learn
+ * to remove its pin.
+ *
+ * Tombstones are written when a protest is deleted, and for the old location when a protest is moved. They are kept
+ * for a limited time, after which clients syncing from versions older than the purged tombstones must reload.
+ */
+public final class ProtestTombstone implements BsonSerializable {
+
+    private static final String COLLECTION_NAME = "protestTombstones";
+
+    /* every change version up to this one may have had its tombstones purged */
+    private static final String HORIZON_SEQUENCE = "protestTombstoneHorizon";
+
+    public final UUID protestId;
+    public final Coordinate location;
+    public final long cell;
+    public final long version;
+    public final ZonedDateTime removedAt;
+
+    @ReflectiveConstructor
+    private ProtestTombstone() {
+        protestId = null;
+        location = null;
+        cell = 0;
+        version = 0;
+        removedAt = null;
+    }
+
+    ProtestTombstone(UUID protestId, Coordinate location, long version) {
+        this.protestId = protestId;
+        this.location = location;
+        this.cell = GeoCell.of(location);
+        this.version = version;
+        this.removedAt = ServerTime.now();
+    }
+
+    public static void setupDbIndex() {
+        IndexTools.createIndexWithOpts(collection(), Indexes.ascending("version"), false, false);
+        IndexTools.createIndexWithOpts(collection(), Indexes.ascending("removedAt"), false, false);
+    }
+
+    static void insert(List<ProtestTombstone> tombstones) {
+        if(!tombstones.isEmpty()) {
+            collection().insertMany(tombstones);
+        }
+    }
+
+    /**
+     * Find the tombstones written after a version near an area.
+     *
+     * Like other cell queries the results cover more than the area, and must be filtered with GeoRectangle.contains.
+     *
+     * @param area region to search
+     * @param sinceVersion only tombstones with a greater version are returned
+     * @return tombstones near area
+     */
+    public static Iterable<ProtestTombstone> since(GeoRectangle area, long sinceVersion) {
+        return collection().find(Filters.and(Filters.gt("version", sinceVersion), GeoCell.bsonFilter("cell", area)));
+    }
+
+    /**
+     * Find every tombstone written after a version.
+     *
+     * @param sinceVersion only tombstones with a greater version are returned
+     * @return tombstones in version order
+     */
+    public static Iterable<ProtestTombstone> since(long sinceVersion) {
+        return collection().find(Filters.gt("version", sinceVersion)).sort(Sorts.ascending("version"));
+    }
+
+    /**
+     * Move the tombstones of some protests from one version to another, for writes stored too late to be synced at
+     * their original version.
+     *
+     * @param protestIds protests whose tombstones to move
+     * @param fromVersion version the tombstones were written with
+     * @param toVersion new version
+     */
+    static void restamp(List<UUID> protestIds, long fromVersion, long toVersion) {
+        if(protestIds.isEmpty()) {
+            return;
+        }
+
+        List<BsonValue> ids = new ArrayList<>(protestIds.size());
+        for(UUID id: protestIds) {
+            ids.add(UUIDCodec.toBsonValue(id));
+        }
+
+        collection().updateMany(
+            Filters.and(Filters.in("protestId", ids), Filters.eq("version", fromVersion)),
+            Updates.set("version", toVersion)
+        );
+    }
+
+    /**
+     * Make clients syncing from any version up to the given one reload instead.
+     *
+     * @param version new horizon, ignored if the horizon is already past it
+     */
+    static void raiseHorizon(long version) {
+        SequenceCounter.raise(HORIZON_SEQUENCE, version);
+    }
+
+    /**
+     * The change version up to which tombstones may have been purged.
+     *
+     * @return a version, changes since which can only be synced if they are at least this version
+     */
+    public static long horizon() {
+        return SequenceCounter.current(HORIZON_SEQUENCE);
+    }
+
+    /**
+     * Delete tombstones older than a given age.
+     *
+     * The horizon is raised before deleting, so a client never receives an incomplete set of changes.
+     *
+     * @param ageMillis age of the tombstones to delete
+     * @return number of tombstones deleted
+     */
+    public static long purgeOlderThan(long ageMillis) {
+        Bson expired = Filters.lt("removedAt", new BsonDateTime(ServerTime.nowMillis() - ageMillis));
+
+        ProtestTombstone newest = collection().find(expired).sort(Sorts.descending("version")).first();
+
+        if(newest == null) {
+            return 0;
+        }
+
+        raiseHorizon(newest.version);
+
+        return collection().deleteMany(Filters.lte("version", newest.version)).getDeletedCount();
+    }
+
+    private static MongoCollection<ProtestTombstone> collection() {
+        return MainDatabase.database().getCollection(COLLECTION_NAME, ProtestTombstone.class);
+    }
+}
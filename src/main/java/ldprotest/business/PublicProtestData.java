@@ -54,6 +54,9 @@ public class PublicProtestData implements JsonSerializable, Validatable, Sanitiz
 
     public final Optional<UUID> protestId;
 
+    /* change version the protest was read at, sent back with edits to detect concurrent changes */
+    public final Optional<Long> version;
+
     @ReflectiveConstructor
     private PublicProtestData() {
         location = null;
@@ -66,6 +69,7 @@ public class PublicProtestData implements JsonSerializable, Validatable, Sanitiz
         protestId = null;
         homePage = null;
         recursEveryDays = 0;
+        version = null;
     }
 
     private PublicProtestData(
@@ -77,7 +81,8 @@ public class PublicProtestData implements JsonSerializable, Validatable, Sanitiz
         Optional<String> dressCode,
         Optional<UUID> protestId,
         Optional<String> homePage,
-        int recursEveryDays
+        int recursEveryDays,
+        Optional<Long> version
     ) {
         this.location = location;
         this.owner = owner;
@@ -88,6 +93,7 @@ public class PublicProtestData implements JsonSerializable, Validatable, Sanitiz
         this.protestId = protestId;
         this.homePage = homePage;
         this.recursEveryDays = recursEveryDays;
+        this.version = version;
     }
 
     public PublicProtestData(
@@ -102,7 +108,8 @@ public class PublicProtestData implements JsonSerializable, Validatable, Sanitiz
             data.dressCode,
             Optional.of(data.protestId),
             data.homePage,
-            data.recursEveryDays.orElse(0)
+            data.recursEveryDays.orElse(0),
+            data.version
         );
     }
 
@@ -139,7 +146,8 @@ public class PublicProtestData implements JsonSerializable, Validatable, Sanitiz
             dressCode.isEmpty() ? dressCode : Optional.of(Sanitize.encodeHtml(dressCode.get())),
             protestId,
             homePage.isEmpty() ? homePage : Sanitize.encodeUrl(homePage.get()).toOpt(),
-            recursEveryDays
+            recursEveryDays,
+            version
         );
     }
 }
@@ -0,0 +1,119 @@
+/*
+ * This File is Part of LDProtest
+ * Copyright (C) 2021 Covid Anti Hysterics League
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Lesser Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package ldprotest.business;
+
+import com.mongodb.client.model.Filters;
+import java.time.ZonedDateTime;
+import java.util.Optional;
+import ldprotest.main.ServerTime;
+import org.bson.BsonDateTime;
+import org.bson.conversions.Bson;
+
+/**
+ * A range of time, inclusive at both ends, used to select protests which occur within it.
+ *
+ * A recurring protest occurs within a window if any of its occurrences does. Protests without a date are not scheduled
+ * events and are considered to occur within every window.
+ */
+public final class TimeWindow {
+
+    public static final TimeWindow ALL = new TimeWindow(Long.MIN_VALUE, Long.MAX_VALUE);
+
+    private static final long MILLIS_PER_DAY = 24 * 3600 * 1000L;
+
+    public final long fromMillis;
+    public final long toMillis;
+
+    public TimeWindow(long fromMillis, long toMillis) {
+        this.fromMillis = fromMillis;
+        this.toMillis = toMillis;
+    }
+
+    public boolean isUnbounded() {
+        return fromMillis == Long.MIN_VALUE && toMillis == Long.MAX_VALUE;
+    }
+
+    public boolean includes(ProtestSummary protest) {
+        return includes(protest.date, protest.recursEveryDays);
+    }
+
+    public boolean includes(Optional<ZonedDateTime> date, Optional<Integer> recursEveryDays) {
+        if(date.isEmpty()) {
+            return true;
+        }
+
+        long start = date.get().toInstant().toEpochMilli();
+        int period = recursEveryDays.orElse(0);
+
+        if(period <= 0) {
+            return start >= fromMillis && start <= toMillis;
+        }
+
+        return firstOccurrence(start, period, fromMillis) <= toMillis;
+    }
+
+    /**
+     * Find the first occurrence of a recurring protest at or after a given time.
+     *
+     * @param startMillis start of the first occurrence
+     * @param recursEveryDays recurrence period, must be positive
+     * @param fromMillis time to search from
+     * @return start of the first occurrence not before fromMillis
+     */
+    public static long firstOccurrence(long startMillis, int recursEveryDays, long fromMillis) {
+        if(startMillis >= fromMillis) {
+            return startMillis;
+        }
+
+        long periodMillis = recursEveryDays * MILLIS_PER_DAY;
+        long occurrences = (fromMillis - startMillis + periodMillis - 1) / periodMillis;
+
+        return startMillis + occurrences * periodMillis;
+    }
+
+    /**
+     * Build a filter selecting protests which may occur within this window.
+     *
+     * Recurring protests are selected by their stored next occurrence when the window lies in the future, since no
+     * later occurrence can fall within it if that one does not. Otherwise every recurring protest starting before the
+     * end of the window is selected. Either way results must be checked with includes.
+     *
+     * @return query filter
+     */
+    public Bson bsonFilter() {
+        BsonDateTime to = new BsonDateTime(toMillis);
+
+        Bson recurring;
+        if(fromMillis >= ServerTime.nowMillis()) {
+            recurring = Filters.or(Filters.eq("nextOccurrence", null), Filters.lte("nextOccurrence", to));
+        } else {
+            recurring = Filters.lte("date", to);
+        }
+
+        return Filters.or(
+            Filters.eq("date", null),
+            Filters.and(Filters.gte("date", new BsonDateTime(fromMillis)), Filters.lte("date", to)),
+            Filters.and(Filters.gt("recursEveryDays", 0), recurring)
+        );
+    }
+
+    @Override
+    public String toString() {
+        return "TimeWindow=(" + fromMillis + ", " + toMillis + ")";
+    }
+}
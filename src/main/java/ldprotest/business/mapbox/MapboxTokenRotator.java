@@ -105,7 +105,7 @@ public class MapboxTokenRotator implements PeriodicTaskManager.PeriodicTask {
     }
 
     public void register() {
-        PeriodicTaskManager.registerTask(0, this.serverPollSeconds, TimeUnit.SECONDS, true, this);
+        PeriodicTaskManager.registerBulkTask(0, this.serverPollSeconds, TimeUnit.SECONDS, true, this);
     }
 
     public String get() {
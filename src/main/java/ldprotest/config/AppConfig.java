@@ -19,6 +19,7 @@ package ldprotest.config;
 
 import java.util.List;
 import java.util.Optional;
+import ldprotest.server.auth.webtoken.TokenKeyAlgorithm;
 
 public class AppConfig {
 
@@ -29,7 +30,9 @@ public class AppConfig {
     public final boolean usingReverseProxy;
     public final List<String> attributions;
     public final boolean disableGeoIpLookup;
+    public final String geoIpDatabaseFile;
     public final boolean disablePublicLogin;
+    public final boolean archiveExpiredProtests;
     public final StyleCustomizationOptions styleOptions;
     public final int hstsMaxAge;
     public final RotatingTokenMapboxConfig rotatingTokenConfig;
@@ -41,6 +44,7 @@ public class AppConfig {
     public final int tokenExpiresSeconds;
     public final int tokenKeyDeletionSeconds;
     public final int tokenKeyRotateSeconds;
+    public final TokenKeyAlgorithm tokenKeyAlgorithm;
     public final int sessionExpiresSeconds;
     public final String mongoConnect;
     public final String configFilePath;
@@ -52,7 +56,9 @@ public class AppConfig {
         boolean usingReverseProxy,
         List<String> attributions,
         boolean disableGeoIpLookup,
+        String geoIpDatabaseFile,
         boolean disablePublicLogin,
+        boolean archiveExpiredProtests,
         StyleCustomizationOptions styleOptions,
         int hstsMaxAge,
         RotatingTokenMapboxConfig rotatingTokenConfig,
@@ -64,6 +70,7 @@ public class AppConfig {
         int tokenExpirySeconds,
         int tokenKeyDeletionSeconds,
         int tokenRefreshSeconds,
+        TokenKeyAlgorithm tokenKeyAlgorithm,
         int sessionExpiresSeconds,
         String mongoConnect,
         String configFilePath,
@@ -74,7 +81,9 @@ public class AppConfig {
         this.usingReverseProxy = usingReverseProxy;
         this.attributions = List.copyOf(attributions);
         this.disableGeoIpLookup = disableGeoIpLookup;
+        this.geoIpDatabaseFile = geoIpDatabaseFile;
         this.disablePublicLogin = disablePublicLogin;
+        this.archiveExpiredProtests = archiveExpiredProtests;
         this.styleOptions = styleOptions;
         this.hstsMaxAge = hstsMaxAge;
         this.rotatingTokenConfig = rotatingTokenConfig;
@@ -86,6 +95,7 @@ public class AppConfig {
         this.tokenExpiresSeconds = tokenExpirySeconds;
         this.tokenKeyDeletionSeconds = tokenKeyDeletionSeconds;
         this.tokenKeyRotateSeconds = tokenRefreshSeconds;
+        this.tokenKeyAlgorithm = tokenKeyAlgorithm;
         this.sessionExpiresSeconds = sessionExpiresSeconds;
         this.mongoConnect = mongoConnect;
         this.configFilePath = configFilePath;
@@ -102,7 +112,9 @@ public class AppConfig {
         public final BuilderField<Boolean> usingReverseProxy;
         public final BuilderField<List<String>> attributions;
         public final BuilderField<Boolean> disableGeoIpLookup;
+        public final BuilderField<String> geoIpDatabaseFile;
         public final BuilderField<Boolean> disablePublicLogin;
+        public final BuilderField<Boolean> archiveExpiredProtests;
         public final BuilderField<StyleCustomizationOptions> styleOptions;
         public final BuilderField<Integer> hstsMaxAge;
         public final BuilderField<RotatingTokenMapboxConfig> rotatingTokenConfig;
@@ -114,6 +126,7 @@ public class AppConfig {
         public final BuilderField<Integer> tokenExpiresSeconds;
         public final BuilderField<Integer> tokenKeyDeletionSeconds;
         public final BuilderField<Integer> tokenKeyRotateSeconds;
+        public final BuilderField<TokenKeyAlgorithm> tokenKeyAlgorithm;
         public final BuilderField<Integer> sessionExpiresSeconds;
         public final BuilderField<String> mongoConnect;
         public final BuilderField<String> configFilePath;
@@ -125,7 +138,9 @@ public class AppConfig {
             usingReverseProxy = new BuilderField<>();
             attributions = new BuilderField<>();
             disableGeoIpLookup = new BuilderField<>();
+            geoIpDatabaseFile = new BuilderField<>();
             disablePublicLogin = new BuilderField<>();
+            archiveExpiredProtests = new BuilderField<>();
             styleOptions = new BuilderField<>();
             hstsMaxAge = new BuilderField<>();
             rotatingTokenConfig = new BuilderField<>();
@@ -137,6 +152,7 @@ public class AppConfig {
             tokenExpiresSeconds = new BuilderField<>();
             tokenKeyDeletionSeconds = new BuilderField<>();
             tokenKeyRotateSeconds =  new BuilderField<>();
+            tokenKeyAlgorithm = new BuilderField<>();
             sessionExpiresSeconds = new BuilderField<>();
             mongoConnect = new BuilderField<>();
             configFilePath = new BuilderField<>();
@@ -160,11 +176,21 @@ public class AppConfig {
             return this;
         }
 
+        public Builder setGeoIpDatabaseFile(String path, int priority) {
+            geoIpDatabaseFile.set(path, priority);
+            return this;
+        }
+
         public Builder setDisablePublicLogin(boolean val, int priority) {
             disablePublicLogin.set(val, priority);
             return this;
         }
 
+        public Builder setArchiveExpiredProtests(boolean val, int priority) {
+            archiveExpiredProtests.set(val, priority);
+            return this;
+        }
+
         public Builder setStyleOptions(StyleCustomizationOptions val, int priority) {
             styleOptions.set(val, priority);
             return this;
@@ -220,6 +246,11 @@ public class AppConfig {
             return this;
         }
 
+        public Builder setTokenKeyAlgorithm(TokenKeyAlgorithm val, int priority) {
+            tokenKeyAlgorithm.set(val, priority);
+            return this;
+        }
+
         public Builder setSessionExpiresSeconds(int  val, int priority) {
             sessionExpiresSeconds.set(val, priority);
             return this;
@@ -255,7 +286,9 @@ public class AppConfig {
                 usingReverseProxy.get(),
                 attributions.get(),
                 disableGeoIpLookup.get(),
+                geoIpDatabaseFile.get(),
                 disablePublicLogin.get(),
+                archiveExpiredProtests.get(),
                 styleOptions.get(),
                 hstsMaxAge.get(),
                 rotatingTokenConfig.get(),
@@ -267,6 +300,7 @@ public class AppConfig {
                 tokenExpiresSeconds.get(),
                 tokenKeyDeletionSeconds.get(),
                 tokenKeyRotateSeconds.get(),
+                tokenKeyAlgorithm.get(),
                 sessionExpiresSeconds.get(),
                 mongoConnect.get(),
                 configFilePath.get(),
@@ -102,6 +102,14 @@ public class CmdLineArgs {
             builder.setDisableGeoIpLookup(!val, AppConfig.PRIORITY_OVERRIDE);
         }
 
+        @Option(
+            names = {"--geo-ip-database-file"},
+            description = "Binary geo ip database file written by import-ip-location-csv. Database is used if not set"
+        )
+        void geoIpDatabaseFile(String path) {
+            builder.setGeoIpDatabaseFile(path, AppConfig.PRIORITY_OVERRIDE);
+        }
+
         @Override
         public Integer call() throws Exception {
             return 0;
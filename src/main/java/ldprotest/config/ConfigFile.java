@@ -19,6 +19,7 @@ package ldprotest.config;
 
 import java.io.InputStream;
 import java.util.List;
+import ldprotest.server.auth.webtoken.TokenKeyAlgorithm;
 import ldprotest.util.Result;
 import ldprotest.util.TcpPort;
 import org.yaml.snakeyaml.Yaml;
@@ -89,6 +90,15 @@ public class ConfigFile {
             if(config.tokenKeyRotateSeconds != null) {
                 builder.setTokenKeyRotateSeconds(config.tokenKeyRotateSeconds, AppConfig.PRIORITY_CONFIG);
             }
+            if(config.tokenKeyAlgorithm != null) {
+                try {
+                    builder.setTokenKeyAlgorithm(
+                        TokenKeyAlgorithm.valueOf(config.tokenKeyAlgorithm), AppConfig.PRIORITY_CONFIG
+                    );
+                } catch(IllegalArgumentException ex) {
+                    return Result.failure("Invalid token key algorithm: " + config.tokenKeyAlgorithm);
+                }
+            }
             if(config.tokenExpiresSeconds != null) {
                 builder.setTokenExpiresSeconds(config.tokenExpiresSeconds, AppConfig.PRIORITY_CONFIG);
             }
@@ -180,6 +190,12 @@ public class ConfigFile {
             if(config.disableGeoIpLookup != null) {
                 builder.setDisableGeoIpLookup(config.disableGeoIpLookup, AppConfig.PRIORITY_CONFIG);
             }
+            if(config.geoIpDatabaseFile != null) {
+                builder.setGeoIpDatabaseFile(config.geoIpDatabaseFile, AppConfig.PRIORITY_CONFIG);
+            }
+            if(config.archiveExpiredProtests != null) {
+                builder.setArchiveExpiredProtests(config.archiveExpiredProtests, AppConfig.PRIORITY_CONFIG);
+            }
             if(config.attributions != null) {
                 builder.setAttributions(config.attributions, AppConfig.PRIORITY_CONFIG);
             }
@@ -215,6 +231,7 @@ public class ConfigFile {
         public Integer sessionExpiresSeconds;
         public Integer tokenKeyRotateSeconds;
         public Integer tokenKeyDeletionSeconds;
+        public String tokenKeyAlgorithm;
         public Integer tokenExpiresSeconds;
     }
 
@@ -267,6 +284,8 @@ public class ConfigFile {
     public static final class FeatureConfig {
         public Boolean disablePublicLogin;
         public Boolean  disableGeoIpLookup;
+        public String geoIpDatabaseFile;
+        public Boolean archiveExpiredProtests;
         public List<String> attributions;
     }
 }
@@ -19,6 +19,7 @@ package ldprotest.config;
 
 import java.util.Arrays;
 import java.util.List;
+import ldprotest.server.auth.webtoken.TokenKeyAlgorithm;
 
 public final class DefaultConfig {
 
@@ -32,8 +33,10 @@ public final class DefaultConfig {
     static private final int DEFAULT_TOKEN_KEY_ROTATE_SECONDS =  3600 * 24 * 30;
     static private final int DEFAULT_TOKEN_KEY_DELETE_SECONDS = DEFAULT_TOKEN_KEY_ROTATE_SECONDS * 2;
     static private final int DEFAULT_TOKEN_EXPIRES_SECONDS = 15 * 60;
+    static private final TokenKeyAlgorithm DEFAULT_TOKEN_KEY_ALGORITHM = TokenKeyAlgorithm.RSA512;
     static private final boolean DEFAULT_DISABLE_PUBLIC_LOGIN = false;
     static private final boolean DEFAULT_DISABLE_GEO_IP_LOOKUP = true;
+    static private final boolean DEFAULT_ARCHIVE_EXPIRED_PROTESTS = true;
     static private final List<String> DEFAULT_ATTRIBUTIONS = Arrays.asList(
         (
             "This site or product includes IP2Location LITE data available from " +
@@ -53,7 +56,9 @@ public final class DefaultConfig {
         builder.setUsingReverseProxy(DEFAULT_USING_REVERSE_PROXY, AppConfig.PRIORITY_DEFAULT);
         builder.setAttributions(DEFAULT_ATTRIBUTIONS, AppConfig.PRIORITY_DEFAULT);
         builder.setDisableGeoIpLookup(DEFAULT_DISABLE_GEO_IP_LOOKUP, AppConfig.PRIORITY_DEFAULT);
+        builder.setGeoIpDatabaseFile("", AppConfig.PRIORITY_DEFAULT);
         builder.setDisablePublicLogin(DEFAULT_DISABLE_PUBLIC_LOGIN, AppConfig.PRIORITY_DEFAULT);
+        builder.setArchiveExpiredProtests(DEFAULT_ARCHIVE_EXPIRED_PROTESTS, AppConfig.PRIORITY_DEFAULT);
         builder.setStyleOptions(StyleCustomizationOptions.DEFAULT, AppConfig.PRIORITY_DEFAULT);
         builder.setHstsMaxAge(DEFAULT_HSTS_MAX_AGE, AppConfig.PRIORITY_DEFAULT);
         builder.setRotatingTokenConfig(RotatingTokenMapboxConfig.UNSET_INSTANCE, AppConfig.PRIORITY_DEFAULT);
@@ -65,6 +70,7 @@ public final class DefaultConfig {
         builder.setTokenExpiresSeconds(DEFAULT_TOKEN_EXPIRES_SECONDS, AppConfig.PRIORITY_DEFAULT);
         builder.setTokenKeyDeletionSeconds(DEFAULT_TOKEN_KEY_DELETE_SECONDS, AppConfig.PRIORITY_DEFAULT);
         builder.setTokenKeyRotateSeconds(DEFAULT_TOKEN_KEY_ROTATE_SECONDS, AppConfig.PRIORITY_DEFAULT);
+        builder.setTokenKeyAlgorithm(DEFAULT_TOKEN_KEY_ALGORITHM, AppConfig.PRIORITY_DEFAULT);
         builder.setSessionExpiresSeconds(DEFAULT_SESSION_EXPIRES_SECONDS, AppConfig.PRIORITY_DEFAULT);
         builder.setConfigFilePath("", AppConfig.PRIORITY_DEFAULT);
         builder.setUsingHttps(true, AppConfig.PRIORITY_DEFAULT);
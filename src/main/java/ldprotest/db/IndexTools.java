@@ -27,6 +27,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import ldprotest.serialization.BsonSerializable;
+import org.bson.Document;
 import org.bson.conversions.Bson;
 
 public final class IndexTools {
@@ -44,6 +45,19 @@ public final class IndexTools {
         collection.createIndex(index, options);
     }
 
+    /**
+     * Drop an index by name if the collection has it, so that indexes a newer version no longer needs can be removed
+     * from existing deployments.
+     */
+    public static void dropIndexIfExists(MongoCollection<?> collection, String name) {
+        for(Document index: collection.listIndexes()) {
+            if(name.equals(index.getString("name"))) {
+                collection.dropIndex(name);
+                return;
+            }
+        }
+    }
+
     public static Collection<Bson> reflectiveBuildIndexes(Class<?> clazz) {
         List<Bson> ret = new ArrayList<>();
         Map<Integer, List<Bson>> indexFields = new HashMap<>();
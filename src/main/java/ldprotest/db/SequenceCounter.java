@@ -0,0 +1,100 @@
+/*
+ * This File is Part of LDProtest
+ * Copyright (C) 2021 Covid Anti Hysterics League
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Lesser Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package ldprotest.db;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.ReturnDocument;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.Updates;
+import ldprotest.serialization.BsonSerializable;
+import ldprotest.serialization.ReflectiveConstructor;
+
+/**
+ * Named counters shared by every server instance, stored in the database.
+ *
+ * Values handed out by next are unique and increasing, but a caller may write the data tagged with a value after
+ * another caller has written data tagged with a larger one.
+ */
+public final class SequenceCounter {
+
+    private static final String COLLECTION_NAME = "sequences";
+
+    private SequenceCounter() {
+        /* do not construct */
+    }
+
+    public static void setupDbIndex() {
+        IndexTools.createIndexWithOpts(collection(), Indexes.ascending("name"), true, false);
+    }
+
+    /**
+     * Increment a counter, creating it if it does not exist.
+     *
+     * @param name counter name
+     * @return the incremented value, which is at least 1
+     */
+    public static long next(String name) {
+        Sequence sequence = collection().findOneAndUpdate(
+            Filters.eq("name", name),
+            Updates.inc("value", 1L),
+            new FindOneAndUpdateOptions().upsert(true).returnDocument(ReturnDocument.AFTER)
+        );
+
+        return sequence.value;
+    }
+
+    /**
+     * Read a counter without changing it.
+     *
+     * @param name counter name
+     * @return the last value handed out, or 0 if the counter does not exist
+     */
+    public static long current(String name) {
+        Sequence sequence = collection().find(Filters.eq("name", name)).first();
+
+        return sequence == null ? 0 : sequence.value;
+    }
+
+    /**
+     * Raise a counter to at least a given value.
+     *
+     * @param name counter name
+     * @param value minimum value of the counter
+     */
+    public static void raise(String name, long value) {
+        collection().updateOne(Filters.eq("name", name), Updates.max("value", value), new UpdateOptions().upsert(true));
+    }
+
+    private static MongoCollection<Sequence> collection() {
+        return MainDatabase.database().getCollection(COLLECTION_NAME, Sequence.class);
+    }
+
+    private static final class Sequence implements BsonSerializable {
+        public final String name;
+        public final long value;
+
+        @ReflectiveConstructor
+        private Sequence() {
+            name = null;
+            value = 0;
+        }
+    }
+}
@@ -20,12 +20,16 @@ package ldprotest.db;
 import com.mongodb.MongoCommandException;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.CreateCollectionOptions;
 import ldprotest.business.PrivateProtestData;
+import ldprotest.business.ProtestArchive;
+import ldprotest.business.ProtestTombstone;
 import ldprotest.geo.geoip.GeoIpLookup;
 import ldprotest.serialization.BsonSerializable;
 import ldprotest.serialization.ReflectiveConstructor;
 import ldprotest.server.auth.UserAccount;
 import ldprotest.server.auth.UserSessions;
+import ldprotest.server.auth.SessionRevocations;
 import ldprotest.server.auth.AuthFailureLockout;
 
 public final class SetupDatabase {
@@ -59,20 +63,27 @@ public final class SetupDatabase {
     }
 
     private static void createCollections(MongoDatabase db) {
-        createCollectionIfNotExists(db, DB_VERSION_INFO_COLLECTION);
+        createCollectionIfNotExists(db, DB_VERSION_INFO_COLLECTION, new CreateCollectionOptions());
+        createCollectionIfNotExists(db, ProtestArchive.COLLECTION_NAME, ProtestArchive.collectionOptions());
     }
 
     private static void setupIndexes() {
         UserAccount.setupDbIndex();
         UserSessions.setupDbIndex();
+        SequenceCounter.setupDbIndex();
         PrivateProtestData.setupDbIndex();
+        ProtestTombstone.setupDbIndex();
+        ProtestArchive.setupDbIndex();
         GeoIpLookup.setupDbIndex();
         AuthFailureLockout.setupDbIndex();
+        SessionRevocations.setupDbIndex();
     }
 
-    private static void createCollectionIfNotExists(MongoDatabase db, String collectionName) {
+    private static void createCollectionIfNotExists(
+        MongoDatabase db, String collectionName, CreateCollectionOptions options
+    ) {
         try {
-            db.createCollection(collectionName);
+            db.createCollection(collectionName, options);
         } catch(MongoCommandException ex) {
             if(ex.getErrorCode() != MONGO_NAMESPACE_EXISTS_ERROR_CODE) {
                 throw ex;
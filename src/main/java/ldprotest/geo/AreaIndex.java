@@ -0,0 +1,208 @@
+/*
+ * This File is Part of LDProtest
+ * Copyright (C) 2021 Covid Anti Hysterics League
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Lesser Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package ldprotest.geo;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Index of rectangular areas, answering which areas contain a point.
+ *
+ * Each area is entered into the cells of a latitude/longitude grid which cover it, at the finest level where it covers
+ * no more than a fixed number of cells. A point query then looks up one cell per level in use.
+ *
+ * This class is not thread safe. Callers sharing an index between threads must provide their own locking.
+ */
+public class AreaIndex<T> {
+
+    public static final int MAX_LEVEL = 20;
+
+    private static final int MAX_CELLS_PER_AREA = 16;
+
+    private final List<Map<Long, Set<T>>> levels;
+    private final Map<T, Placement> placements;
+
+    public AreaIndex() {
+        levels = new ArrayList<>();
+        for(int level = 0; level <= MAX_LEVEL; level++) {
+            levels.add(new HashMap<>());
+        }
+
+        placements = new HashMap<>();
+    }
+
+    public int size() {
+        return placements.size();
+    }
+
+    /**
+     * Add an area to the index, replacing any area previously added for the same value.
+     *
+     * @param area area to add
+     * @param value value returned by queries for points in area
+     */
+    public void put(GeoRectangle area, T value) {
+        remove(value);
+
+        int level = levelFor(area);
+        Set<Long> cells = cells(area, level);
+        Map<Long, Set<T>> grid = levels.get(level);
+
+        for(long cell: cells) {
+            grid.computeIfAbsent(cell, (k) -> new LinkedHashSet<>()).add(value);
+        }
+
+        placements.put(value, new Placement(area, level, cells));
+    }
+
+    public boolean remove(T value) {
+        Placement placement = placements.remove(value);
+
+        if(placement == null) {
+            return false;
+        }
+
+        Map<Long, Set<T>> grid = levels.get(placement.level);
+
+        for(long cell: placement.cells) {
+            Set<T> values = grid.get(cell);
+            values.remove(value);
+
+            if(values.isEmpty()) {
+                grid.remove(cell);
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Find the values whose areas contain a point.
+     *
+     * @param coord point to search for
+     * @return values added with an area containing coord
+     */
+    public List<T> query(Coordinate coord) {
+        List<T> ret = new ArrayList<>();
+
+        for(int level = 0; level <= MAX_LEVEL; level++) {
+            Map<Long, Set<T>> grid = levels.get(level);
+
+            if(grid.isEmpty()) {
+                continue;
+            }
+
+            Set<T> values = grid.get(cellKey(column(coord.longitude, level), row(coord.latitude, level)));
+
+            if(values == null) {
+                continue;
+            }
+
+            for(T value: values) {
+                if(placements.get(value).area.contains(coord)) {
+                    ret.add(value);
+                }
+            }
+        }
+
+        return ret;
+    }
+
+    private static int levelFor(GeoRectangle area) {
+        for(int level = MAX_LEVEL; level > 0; level--) {
+            long rows = row(area.north(), level) - row(area.south(), level) + 1;
+
+            if(rows * columnCount(area, level) <= MAX_CELLS_PER_AREA) {
+                return level;
+            }
+        }
+
+        return 0;
+    }
+
+    private static long columnCount(GeoRectangle area, int level) {
+        int first = column(area.west(), level);
+        int last = column(area.east(), level);
+
+        if(area.wrapsAntimeridian()) {
+            return Math.min((1L << level) - first + last + 1, 1L << level);
+        }
+
+        return last - first + 1;
+    }
+
+    private static Set<Long> cells(GeoRectangle area, int level) {
+        int n = 1 << level;
+        int first = column(area.west(), level);
+        int last = column(area.east(), level);
+
+        List<Integer> columns = new ArrayList<>();
+        if(area.wrapsAntimeridian()) {
+            for(int x = first; x < n; x++) {
+                columns.add(x);
+            }
+            for(int x = 0; x <= last && x < first; x++) {
+                columns.add(x);
+            }
+        } else {
+            for(int x = first; x <= last; x++) {
+                columns.add(x);
+            }
+        }
+
+        Set<Long> cells = new HashSet<>();
+        for(int x: columns) {
+            for(int y = row(area.south(), level); y <= row(area.north(), level); y++) {
+                cells.add(cellKey(x, y));
+            }
+        }
+
+        return cells;
+    }
+
+    private static int column(double longitude, int level) {
+        int n = 1 << level;
+        return Math.max(0, Math.min(n - 1, (int)Math.floor((longitude + 180.0) / 360.0 * n)));
+    }
+
+    private static int row(double latitude, int level) {
+        int n = 1 << level;
+        return Math.max(0, Math.min(n - 1, (int)Math.floor((latitude + 90.0) / 180.0 * n)));
+    }
+
+    private static long cellKey(int x, int y) {
+        return ((long)x << 32) | y;
+    }
+
+    private static final class Placement {
+        final GeoRectangle area;
+        final int level;
+        final Set<Long> cells;
+
+        Placement(GeoRectangle area, int level, Set<Long> cells) {
+            this.area = area;
+            this.level = level;
+            this.cells = cells;
+        }
+    }
+}
@@ -0,0 +1,523 @@
+/*
+ * This File is Part of LDProtest
+ * Copyright (C) 2021 Covid Anti Hysterics League
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Lesser Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package ldprotest.geo;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import ldprotest.serialization.JsonSerializable;
+
+/**
+ * Multi-resolution grid of point aggregates, used to cluster pins when an area holds too many to send individually.
+ *
+ * Level L divides the globe into 2^L by 2^L equirectangular cells. Every point is counted in one cell at every level,
+ * so inserting or removing a point touches MAX_LEVEL + 1 cells and any area can be summarized by reading a bounded
+ * number of cells at a suitably coarse level.
+ *
+ * Removing the only point on the edge of a cell's bounding box leaves the box too large until the cell is rescanned.
+ * Such cells are recorded as stale and rescanned in bulk by {@link #staleBounds()} and {@link #applyBounds(List)}, so
+ * that callers can scan them without holding a write lock.
+ *
+ * Each cell also remembers the newest change version touching it, including removals, so that callers can tell which
+ * areas have changed since a version without scanning them.
+ *
+ * This class is not thread safe. Callers sharing a grid between threads must provide their own locking.
+ */
+public class ClusterGrid {
+
+    public static final int MAX_LEVEL = 16;
+
+    private final List<Map<Long, Cell>> levels;
+    private final List<Set<Long>> stale;
+
+    /* kept for cells which have become empty, so that removals are remembered */
+    private final List<Map<Long, Long>> versions;
+
+    public ClusterGrid() {
+        levels = new ArrayList<>(MAX_LEVEL + 1);
+        stale = new ArrayList<>(MAX_LEVEL + 1);
+        versions = new ArrayList<>(MAX_LEVEL + 1);
+
+        for(int level = 0; level <= MAX_LEVEL; level++) {
+            levels.add(new HashMap<>());
+            stale.add(new HashSet<>());
+            versions.add(new HashMap<>());
+        }
+    }
+
+    public void insert(Coordinate location) {
+        for(int level = 0; level <= MAX_LEVEL; level++) {
+            int n = 1 << level;
+            long key = key(cellX(location.longitude, n), cellY(location.latitude, n));
+
+            levels.get(level).computeIfAbsent(key, (k) -> new Cell()).add(location);
+        }
+    }
+
+    /**
+     * Remove a point from the grid.
+     *
+     * Counts and centroids are updated in constant time. Each cell also counts the points lying on each edge of its
+     * bounding box, so the box is known to be exact until the last point on one of its edges is removed. The box is
+     * then left as it was, which still contains every remaining point, and the cell is marked stale.
+     *
+     * @param location location of the point, which must have been inserted previously
+     */
+    public void remove(Coordinate location) {
+        for(int level = 0; level <= MAX_LEVEL; level++) {
+            int n = 1 << level;
+            long key = key(cellX(location.longitude, n), cellY(location.latitude, n));
+
+            Map<Long, Cell> cells = levels.get(level);
+            Cell cell = cells.get(key);
+
+            if(cell == null) {
+                continue;
+            }
+
+            if(cell.count <= 1) {
+                cells.remove(key);
+                stale.get(level).remove(key);
+                continue;
+            }
+
+            if(cell.subtract(location)) {
+                stale.get(level).add(key);
+            }
+        }
+    }
+
+    /**
+     * Record a change at a location, without adding or removing a point.
+     *
+     * @param location location of the change
+     * @param version change version, which only raises the version of each cell holding the location
+     */
+    public void touch(Coordinate location, long version) {
+        for(int level = 0; level <= MAX_LEVEL; level++) {
+            int n = 1 << level;
+            long key = key(cellX(location.longitude, n), cellY(location.latitude, n));
+
+            versions.get(level).merge(key, version, Math::max);
+        }
+    }
+
+    /**
+     * The newest change version touching any cell intersecting an area.
+     *
+     * @param area region to check
+     * @param level grid level to read, from 0 to MAX_LEVEL
+     * @return greatest version passed to {@link #touch(Coordinate, long)} for those cells, or 0 if there is none
+     */
+    public long maxVersion(GeoRectangle area, int level) {
+        int n = 1 << level;
+
+        if(area.wrapsAntimeridian()) {
+            return Math.max(
+                maxVersion(area, level, cellX(area.west(), n), n - 1),
+                maxVersion(area, level, 0, cellX(area.east(), n))
+            );
+        } else {
+            return maxVersion(area, level, cellX(area.west(), n), cellX(area.east(), n));
+        }
+    }
+
+    private long maxVersion(GeoRectangle area, int level, int xMin, int xMax) {
+        int n = 1 << level;
+        int yMin = cellY(area.south(), n);
+        int yMax = cellY(area.north(), n);
+
+        Map<Long, Long> cells = versions.get(level);
+        long ret = 0;
+
+        for(int x = xMin; x <= xMax; x++) {
+            for(int y = yMin; y <= yMax; y++) {
+                ret = Math.max(ret, cells.getOrDefault(key(x, y), 0L));
+            }
+        }
+
+        return ret;
+    }
+
+    /**
+     * Prepare rescans of the cells whose bounding boxes may be larger than the points they hold.
+     *
+     * The grid is only read, so this may be called under a read lock.
+     *
+     * @return one rescan per stale cell, to be run and then passed to {@link #applyBounds(List)}
+     */
+    public List<BoundsScan> staleBounds() {
+        List<BoundsScan> ret = new ArrayList<>();
+
+        for(int level = 0; level <= MAX_LEVEL; level++) {
+            Map<Long, Cell> cells = levels.get(level);
+
+            for(long key: stale.get(level)) {
+                ret.add(new BoundsScan(level, (int)(key >>> 32), (int)key, cells.get(key)));
+            }
+        }
+
+        return ret;
+    }
+
+    /**
+     * Install the bounding boxes found by rescans.
+     *
+     * A rescan is discarded if its cell has changed since it was prepared, in which case the cell stays stale and is
+     * rescanned next time.
+     *
+     * @param scans rescans returned by {@link #staleBounds()} which have been run
+     */
+    public void applyBounds(List<BoundsScan> scans) {
+        for(BoundsScan scan: scans) {
+            long key = key(scan.x, scan.y);
+
+            if(scan.result == null || levels.get(scan.level).get(key) != scan.cell
+                || scan.cell.revision != scan.revision) {
+                continue;
+            }
+
+            scan.cell.copyBounds(scan.result);
+            stale.get(scan.level).remove(key);
+        }
+    }
+
+    /**
+     * Choose the level at which roughly cellsPerAxis cells span an area in its larger dimension.
+     *
+     * @param area region to be summarized
+     * @param cellsPerAxis target number of cells across the area
+     * @return grid level
+     */
+    public static int levelFor(GeoRectangle area, int cellsPerAxis) {
+        double width = area.wrapsAntimeridian() ? 360.0 - (area.west() - area.east()) : area.east() - area.west();
+        double height = area.north() - area.south();
+
+        return Math.min(levelFor(360.0, width, cellsPerAxis), levelFor(180.0, height, cellsPerAxis));
+    }
+
+    /**
+     * Summarize the points in an area as clusters.
+     *
+     * Every cell intersecting the area is returned whole, so adjacent areas summarized at the same level can return
+     * the same cluster. Callers combining areas should merge clusters by id.
+     *
+     * @param area region to summarize
+     * @param level grid level to read, from 0 to MAX_LEVEL
+     * @return non-empty clusters within the area
+     */
+    public List<Cluster> clusters(GeoRectangle area, int level) {
+        int n = 1 << level;
+
+        List<Cluster> ret = new ArrayList<>();
+
+        if(area.wrapsAntimeridian()) {
+            collect(area, level, cellX(area.west(), n), n - 1, ret);
+            collect(area, level, 0, cellX(area.east(), n), ret);
+        } else {
+            collect(area, level, cellX(area.west(), n), cellX(area.east(), n), ret);
+        }
+
+        return ret;
+    }
+
+    private void collect(GeoRectangle area, int level, int xMin, int xMax, List<Cluster> out) {
+        int n = 1 << level;
+        int yMin = cellY(area.south(), n);
+        int yMax = cellY(area.north(), n);
+
+        Map<Long, Cell> cells = levels.get(level);
+
+        for(int x = xMin; x <= xMax; x++) {
+            for(int y = yMin; y <= yMax; y++) {
+                Cell cell = cells.get(key(x, y));
+
+                if(cell == null) {
+                    continue;
+                }
+
+                addCluster(level, x, y, cell, out);
+            }
+        }
+    }
+
+    /**
+     * Summarize a set of points as clusters at a single level, without a precomputed grid.
+     *
+     * This is used when only some of the points in the grid should be counted. Clusters have the same ids and
+     * boundaries as those read from a grid at the same level. To count cells whole, points should be gathered from
+     * the {@link #cellAligned(GeoRectangle, int)} area.
+     *
+     * @param points locations to summarize
+     * @param level grid level, from 0 to MAX_LEVEL
+     * @return non-empty clusters holding the points
+     */
+    public static List<Cluster> aggregate(List<Coordinate> points, int level) {
+        int n = 1 << level;
+        Map<Long, Cell> cells = new HashMap<>();
+
+        for(Coordinate point: points) {
+            cells.computeIfAbsent(
+                key(cellX(point.longitude, n), cellY(point.latitude, n)), (k) -> new Cell()
+            ).add(point);
+        }
+
+        List<Cluster> ret = new ArrayList<>();
+
+        for(Map.Entry<Long, Cell> entry: cells.entrySet()) {
+            long key = entry.getKey();
+            addCluster(level, (int)(key >>> 32), (int)key, entry.getValue(), ret);
+        }
+
+        return ret;
+    }
+
+    /**
+     * Widen an area to the edges of the cells it intersects at a level.
+     *
+     * @param area region to be summarized
+     * @param level grid level, from 0 to MAX_LEVEL
+     * @return union of the cells intersecting the area
+     */
+    public static GeoRectangle cellAligned(GeoRectangle area, int level) {
+        int n = 1 << level;
+        GeoRectangle south = cellBounds(level, cellX(area.west(), n), cellY(area.south(), n));
+        GeoRectangle north = cellBounds(level, cellX(area.east(), n), cellY(area.north(), n));
+
+        return new GeoRectangle(
+            new Coordinate(south.south(), south.west()), new Coordinate(north.north(), north.east())
+        );
+    }
+
+    private static void addCluster(int level, int x, int y, Cell cell, List<Cluster> out) {
+        out.add(new Cluster(
+            level + "/" + x + "/" + y, cell.count, cell.centroid(), cell.southWest(), cell.northEast()
+        ));
+    }
+
+    private static int levelFor(double extent, double span, int cellsPerAxis) {
+        if(span <= 0) {
+            return MAX_LEVEL;
+        }
+
+        int level = (int)Math.floor(Math.log(extent * cellsPerAxis / span) / Math.log(2));
+
+        return Math.max(0, Math.min(MAX_LEVEL, level));
+    }
+
+    private static GeoRectangle cellBounds(int level, int x, int y) {
+        double n = 1 << level;
+
+        return new GeoRectangle(
+            new Coordinate(y * 180.0 / n - 90.0, x * 360.0 / n - 180.0),
+            new Coordinate((y + 1) * 180.0 / n - 90.0, (x + 1) * 360.0 / n - 180.0)
+        );
+    }
+
+    private static int cellX(double longitude, int n) {
+        return clamp((int)Math.floor((longitude + 180.0) / 360.0 * n), n);
+    }
+
+    private static int cellY(double latitude, int n) {
+        return clamp((int)Math.floor((latitude + 90.0) / 180.0 * n), n);
+    }
+
+    private static int clamp(int i, int n) {
+        return Math.max(0, Math.min(n - 1, i));
+    }
+
+    private static long key(int x, int y) {
+        return ((long)x << 32) | (y & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Rescan of one stale cell. The scan reads only the points passed to it, so it can run without holding any lock on
+     * the grid as long as those points are not being changed.
+     */
+    public static final class BoundsScan {
+        private final int level;
+        private final int x;
+        private final int y;
+        private final Cell cell;
+        private final long revision;
+        private Cell result;
+
+        private BoundsScan(int level, int x, int y, Cell cell) {
+            this.level = level;
+            this.x = x;
+            this.y = y;
+            this.cell = cell;
+            this.revision = cell.revision;
+            this.result = null;
+        }
+
+        /**
+         * Find the bounding box of the cell.
+         *
+         * @param remaining returns the locations of the points within a rectangle
+         */
+        public void scan(Function<GeoRectangle, List<Coordinate>> remaining) {
+            int n = 1 << level;
+            Cell bounds = new Cell();
+
+            for(Coordinate coord: remaining.apply(cellBounds(level, x, y))) {
+                if(cellX(coord.longitude, n) == x && cellY(coord.latitude, n) == y) {
+                    bounds.extend(coord);
+                }
+            }
+
+            result = bounds;
+        }
+    }
+
+    public static final class Cluster implements JsonSerializable {
+        public final String clusterId;
+        public final int count;
+        public final Coordinate centroid;
+        public final Coordinate southWest;
+        public final Coordinate northEast;
+
+        public Cluster(String clusterId, int count, Coordinate centroid, Coordinate southWest, Coordinate northEast) {
+            this.clusterId = clusterId;
+            this.count = count;
+            this.centroid = centroid;
+            this.southWest = southWest;
+            this.northEast = northEast;
+        }
+    }
+
+    private static final class Cell {
+        private int count;
+        private long revision;
+        private double latitudeSum;
+        private double longitudeSum;
+
+        private double south;
+        private double north;
+        private double west;
+        private double east;
+
+        private int onSouth;
+        private int onNorth;
+        private int onWest;
+        private int onEast;
+
+        public Cell() {
+            count = 0;
+            revision = 0;
+            latitudeSum = 0;
+            longitudeSum = 0;
+            south = Double.POSITIVE_INFINITY;
+            north = Double.NEGATIVE_INFINITY;
+            west = Double.POSITIVE_INFINITY;
+            east = Double.NEGATIVE_INFINITY;
+        }
+
+        public void add(Coordinate location) {
+            count += 1;
+            revision += 1;
+            latitudeSum += location.latitude;
+            longitudeSum += location.longitude;
+            extend(location);
+        }
+
+        /**
+         * @return true if the removed point was the last one on an edge of the bounding box
+         */
+        public boolean subtract(Coordinate location) {
+            count -= 1;
+            revision += 1;
+            latitudeSum -= location.latitude;
+            longitudeSum -= location.longitude;
+
+            boolean shrinks = false;
+
+            if(location.latitude == south) {
+                shrinks |= --onSouth == 0;
+            }
+            if(location.latitude == north) {
+                shrinks |= --onNorth == 0;
+            }
+            if(location.longitude == west) {
+                shrinks |= --onWest == 0;
+            }
+            if(location.longitude == east) {
+                shrinks |= --onEast == 0;
+            }
+
+            return shrinks;
+        }
+
+        public void extend(Coordinate location) {
+            double lat = location.latitude;
+            double lon = location.longitude;
+
+            if(lat < south) {
+                south = lat;
+                onSouth = 1;
+            } else if(lat == south) {
+                onSouth++;
+            }
+            if(lat > north) {
+                north = lat;
+                onNorth = 1;
+            } else if(lat == north) {
+                onNorth++;
+            }
+            if(lon < west) {
+                west = lon;
+                onWest = 1;
+            } else if(lon == west) {
+                onWest++;
+            }
+            if(lon > east) {
+                east = lon;
+                onEast = 1;
+            } else if(lon == east) {
+                onEast++;
+            }
+        }
+
+        public void copyBounds(Cell other) {
+            south = other.south;
+            north = other.north;
+            west = other.west;
+            east = other.east;
+            onSouth = other.onSouth;
+            onNorth = other.onNorth;
+            onWest = other.onWest;
+            onEast = other.onEast;
+        }
+
+        public Coordinate centroid() {
+            return new Coordinate(latitudeSum / count, longitudeSum / count);
+        }
+
+        public Coordinate southWest() {
+            return new Coordinate(south, west);
+        }
+
+        public Coordinate northEast() {
+            return new Coordinate(north, east);
+        }
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * This File is Part of LDProtest
+ * Copyright (C) 2021 Covid Anti Hysterics League
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Lesser Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package ldprotest.geo;
+
+import com.mongodb.client.model.Filters;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.bson.conversions.Bson;
+
+/**
+ * Z-order (Morton) cell ids over latitude/longitude.
+ *
+ * A cell id interleaves the bits of the quantized longitude and latitude of a point, in the same way as a geohash. All
+ * points within a cell at a coarser level share a prefix, so each cell is one contiguous range of ids and a rectangle
+ * can be searched with a handful of range scans over an ordinary ascending index instead of a 2dsphere polygon query.
+ *
+ * Cells are equirectangular, so a covering returns points in a planar latitude/longitude rectangle. Callers should
+ * filter results with GeoRectangle.contains, since the covering includes points outside of the rectangle.
+ */
+public final class GeoCell {
+
+    public static final int MAX_LEVEL = 26;
+
+    private static final int DEFAULT_MAX_COVERING_CELLS = 32;
+
+    private GeoCell() {
+        /* do not construct */
+    }
+
+    /**
+     * Compute the cell id of a location at MAX_LEVEL.
+     *
+     * @param location location to compute id for
+     * @return cell id, a non-negative integer of 2 * MAX_LEVEL bits
+     */
+    public static long of(Coordinate location) {
+        int n = 1 << MAX_LEVEL;
+        return interleave(cellX(location.longitude, n), cellY(location.latitude, n));
+    }
+
+    /**
+     * Cover a rectangle with ranges of cell ids.
+     *
+     * The finest level at which the rectangle is covered by no more than maxCells cells is used. Cells adjacent in
+     * Z-order are merged, so the number of ranges is usually much smaller than the number of cells.
+     *
+     * @param area rectangle to cover
+     * @param maxCells maximum number of cells in the covering
+     * @return sorted, non-overlapping ranges whose union contains every cell id within the area
+     */
+    public static List<Range> cover(GeoRectangle area, int maxCells) {
+        int level = MAX_LEVEL;
+
+        while(level > 0 && cellCount(area, level) > maxCells) {
+            level--;
+        }
+
+        List<Long> prefixes = new ArrayList<>();
+        int n = 1 << level;
+        int yMin = cellY(area.south(), n);
+        int yMax = cellY(area.north(), n);
+
+        if(area.wrapsAntimeridian()) {
+            addCells(prefixes, cellX(area.west(), n), n - 1, yMin, yMax);
+            addCells(prefixes, 0, cellX(area.east(), n), yMin, yMax);
+        } else {
+            addCells(prefixes, cellX(area.west(), n), cellX(area.east(), n), yMin, yMax);
+        }
+
+        Collections.sort(prefixes);
+
+        int shift = 2 * (MAX_LEVEL - level);
+        List<Range> ranges = new ArrayList<>();
+
+        for(long prefix: prefixes) {
+            long low = prefix << shift;
+            long high = ((prefix + 1) << shift) - 1;
+
+            if(!ranges.isEmpty() && ranges.get(ranges.size() - 1).high + 1 == low) {
+                Range last = ranges.remove(ranges.size() - 1);
+                ranges.add(new Range(last.low, high));
+            } else {
+                ranges.add(new Range(low, high));
+            }
+        }
+
+        return ranges;
+    }
+
+    /**
+     * Build a filter matching documents whose cell id field lies within a covering of area.
+     *
+     * @param field name of the document field holding the cell id
+     * @param area rectangle to cover
+     * @return query filter
+     */
+    public static Bson bsonFilter(String field, GeoRectangle area) {
+        List<Bson> clauses = new ArrayList<>();
+
+        for(Range range: cover(area, DEFAULT_MAX_COVERING_CELLS)) {
+            clauses.add(Filters.and(Filters.gte(field, range.low), Filters.lte(field, range.high)));
+        }
+
+        return clauses.size() == 1 ? clauses.get(0) : Filters.or(clauses);
+    }
+
+    private static long cellCount(GeoRectangle area, int level) {
+        int n = 1 << level;
+        long rows = cellY(area.north(), n) - cellY(area.south(), n) + 1;
+        long columns;
+
+        if(area.wrapsAntimeridian()) {
+            columns = (n - cellX(area.west(), n)) + cellX(area.east(), n) + 1;
+        } else {
+            columns = cellX(area.east(), n) - cellX(area.west(), n) + 1;
+        }
+
+        return rows * columns;
+    }
+
+    private static void addCells(List<Long> prefixes, int xMin, int xMax, int yMin, int yMax) {
+        for(int x = xMin; x <= xMax; x++) {
+            for(int y = yMin; y <= yMax; y++) {
+                prefixes.add(interleave(x, y));
+            }
+        }
+    }
+
+    private static long interleave(int x, int y) {
+        return spread(x) << 1 | spread(y);
+    }
+
+    private static long spread(int v) {
+        long x = v & 0xFFFFFFFFL;
+
+        x = (x | (x << 16)) & 0x0000FFFF0000FFFFL;
+        x = (x | (x << 8)) & 0x00FF00FF00FF00FFL;
+        x = (x | (x << 4)) & 0x0F0F0F0F0F0F0F0FL;
+        x = (x | (x << 2)) & 0x3333333333333333L;
+        x = (x | (x << 1)) & 0x5555555555555555L;
+
+        return x;
+    }
+
+    private static int cellX(double longitude, int n) {
+        return clamp((int)Math.floor((longitude + 180.0) / 360.0 * n), n);
+    }
+
+    private static int cellY(double latitude, int n) {
+        return clamp((int)Math.floor((latitude + 90.0) / 180.0 * n), n);
+    }
+
+    private static int clamp(int i, int n) {
+        return Math.max(0, Math.min(n - 1, i));
+    }
+
+    public static final class Range {
+        public final long low;
+        public final long high;
+
+        public Range(long low, long high) {
+            this.low = low;
+            this.high = high;
+        }
+
+        public boolean contains(long cell) {
+            return cell >= low && cell <= high;
+        }
+    }
+}
@@ -41,6 +41,52 @@ public class GeoRectangle {
         this.neCorner = neCorner;
     }
 
+    public double north() {
+        return neCorner.latitude;
+    }
+
+    public double south() {
+        return swCorner.latitude;
+    }
+
+    public double east() {
+        return normalize_longitude(neCorner.longitude);
+    }
+
+    public double west() {
+        return normalize_longitude(swCorner.longitude);
+    }
+
+    /**
+     * Does this rectangle cross the anti-meridian?
+     *
+     * A rectangle whose normalized western edge is east of (or equal to) its eastern edge wraps around the globe. When
+     * the two edges are equal, the rectangle spans all longitudes, matching the polygon generated by bsonFilter.
+     *
+     * @return true if the rectangle wraps at +/-180 degrees longitude.
+     */
+    public boolean wrapsAntimeridian() {
+        return west() >= east();
+    }
+
+    public boolean contains(Coordinate coord) {
+        return containsLatitude(coord.latitude) && containsLongitude(coord.longitude);
+    }
+
+    public boolean containsLatitude(double latitude) {
+        return latitude >= south() && latitude <= north();
+    }
+
+    public boolean containsLongitude(double longitude) {
+        double lng = normalize_longitude(longitude);
+
+        if(wrapsAntimeridian()) {
+            return lng >= west() || lng <= east();
+        } else {
+            return lng >= west() && lng <= east();
+        }
+    }
+
     @SuppressWarnings("unchecked")
     public Bson bsonFilter(String field) {
 
@@ -0,0 +1,218 @@
+/*
+ * This File is Part of LDProtest
+ * Copyright (C) 2021 Covid Anti Hysterics League
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Lesser Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package ldprotest.geo;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * Point region quad tree over latitude/longitude.
+ *
+ * This class is not thread safe. Callers sharing a tree between threads must provide their own locking.
+ */
+public class QuadTree<T> {
+
+    private static final int NODE_CAPACITY = 16;
+    private static final int MAX_DEPTH = 24;
+
+    private final Node<T> root;
+    private int size;
+
+    public QuadTree() {
+        root = new Node<>(-90.0, 90.0, -180.0, 180.0, 0);
+        size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void insert(Coordinate location, T value) {
+        root.insert(new Entry<>(location.latitude, location.longitude, value));
+        size += 1;
+    }
+
+    public boolean remove(Coordinate location, T value) {
+        boolean removed = root.remove(location.latitude, location.longitude, value);
+
+        if(removed) {
+            size -= 1;
+        }
+
+        return removed;
+    }
+
+    /**
+     * Visit every value whose location lies within area.
+     *
+     * Rectangles which wrap the anti-meridian are split into an eastern and western half and each half is searched
+     * separately.
+     *
+     * @param area region to search
+     * @param visitor called once for each matching value. Returning false stops the search.
+     * @return false if the search was stopped early by the visitor.
+     */
+    public boolean query(GeoRectangle area, Predicate<T> visitor) {
+        double south = area.south();
+        double north = area.north();
+
+        if(area.wrapsAntimeridian()) {
+            return
+                root.query(south, north, area.west(), 180.0, visitor) &&
+                root.query(south, north, -180.0, area.east(), visitor);
+        } else {
+            return root.query(south, north, area.west(), area.east(), visitor);
+        }
+    }
+
+    public int count(GeoRectangle area) {
+        int[] count = {0};
+
+        query(area, (value) -> {
+            count[0] += 1;
+            return true;
+        });
+
+        return count[0];
+    }
+
+    private static final class Entry<T> {
+        public final double latitude;
+        public final double longitude;
+        public final T value;
+
+        public Entry(double latitude, double longitude, T value) {
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.value = value;
+        }
+    }
+
+    private static final class Node<T> {
+
+        private final double south;
+        private final double north;
+        private final double west;
+        private final double east;
+        private final int depth;
+
+        private List<Entry<T>> entries;
+        private List<Node<T>> children;
+
+        public Node(double south, double north, double west, double east, int depth) {
+            this.south = south;
+            this.north = north;
+            this.west = west;
+            this.east = east;
+            this.depth = depth;
+
+            this.entries = new ArrayList<>();
+            this.children = null;
+        }
+
+        public void insert(Entry<T> entry) {
+            if(children != null) {
+                child(entry.latitude, entry.longitude).insert(entry);
+                return;
+            }
+
+            entries.add(entry);
+
+            if(entries.size() > NODE_CAPACITY && depth < MAX_DEPTH) {
+                split();
+            }
+        }
+
+        public boolean remove(double latitude, double longitude, T value) {
+            if(children != null) {
+                return child(latitude, longitude).remove(latitude, longitude, value);
+            }
+
+            Iterator<Entry<T>> iter = entries.iterator();
+
+            while(iter.hasNext()) {
+                Entry<T> entry = iter.next();
+
+                if(entry.latitude == latitude && entry.longitude == longitude && entry.value.equals(value)) {
+                    iter.remove();
+                    return true;
+                }
+            }
+
+            return false;
+        }
+
+        public boolean query(double qSouth, double qNorth, double qWest, double qEast, Predicate<T> visitor) {
+            if(qNorth < south || qSouth > north || qEast < west || qWest > east) {
+                return true;
+            }
+
+            if(children != null) {
+                for(Node<T> child: children) {
+                    if(!child.query(qSouth, qNorth, qWest, qEast, visitor)) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+
+            for(Entry<T> entry: entries) {
+                if(
+                    entry.latitude >= qSouth && entry.latitude <= qNorth &&
+                    entry.longitude >= qWest && entry.longitude <= qEast
+                ) {
+                    if(!visitor.test(entry.value)) {
+                        return false;
+                    }
+                }
+            }
+
+            return true;
+        }
+
+        private void split() {
+            double midLat = (south + north) / 2;
+            double midLng = (west + east) / 2;
+
+            children = new ArrayList<>(4);
+
+            children.add(new Node<>(south, midLat, west, midLng, depth + 1));
+            children.add(new Node<>(south, midLat, midLng, east, depth + 1));
+            children.add(new Node<>(midLat, north, west, midLng, depth + 1));
+            children.add(new Node<>(midLat, north, midLng, east, depth + 1));
+
+            List<Entry<T>> old = entries;
+            entries = null;
+
+            for(Entry<T> entry: old) {
+                child(entry.latitude, entry.longitude).insert(entry);
+            }
+        }
+
+        private Node<T> child(double latitude, double longitude) {
+            double midLat = (south + north) / 2;
+            double midLng = (west + east) / 2;
+
+            int index = (latitude >= midLat ? 2 : 0) + (longitude >= midLng ? 1 : 0);
+
+            return children.get(index);
+        }
+    }
+}
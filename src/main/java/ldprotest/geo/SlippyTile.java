@@ -0,0 +1,106 @@
+/*
+ * This File is Part of LDProtest
+ * Copyright (C) 2021 Covid Anti Hysterics League
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Lesser Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package ldprotest.geo;
+
+import java.util.Objects;
+
+/**
+ * A web mercator map tile addressed by zoom level and x/y index, as used by leaflet and most tile servers.
+ */
+public final class SlippyTile {
+
+    public static final double MAX_LATITUDE = 85.0511287798;
+
+    public final int z;
+    public final int x;
+    public final int y;
+
+    public SlippyTile(int z, int x, int y) {
+        this.z = z;
+        this.x = x;
+        this.y = y;
+    }
+
+    public boolean validate(int maxZoom) {
+        if(z < 0 || z > maxZoom) {
+            return false;
+        }
+
+        int n = 1 << z;
+        return x >= 0 && x < n && y >= 0 && y < n;
+    }
+
+    public static SlippyTile containing(Coordinate coord, int z) {
+        int n = 1 << z;
+        double lat = Math.max(-MAX_LATITUDE, Math.min(MAX_LATITUDE, coord.latitude));
+        double latRad = Math.toRadians(lat);
+
+        int x = (int)Math.floor((coord.longitude + 180.0) / 360.0 * n);
+        int y = (int)Math.floor((1.0 - Math.log(Math.tan(latRad) + 1.0 / Math.cos(latRad)) / Math.PI) / 2.0 * n);
+
+        return new SlippyTile(z, clamp(x, n), clamp(y, n));
+    }
+
+    /**
+     * Area covered by this tile.
+     *
+     * Tiles on the top and bottom rows are extended to the poles so that protests outside the web mercator range are
+     * still served by some tile.
+     *
+     * @return bounds of the tile
+     */
+    public GeoRectangle bounds() {
+        int n = 1 << z;
+
+        double west = x * 360.0 / n - 180.0;
+        double east = (x + 1) * 360.0 / n - 180.0;
+        double north = y == 0 ? 90.0 : tileLatitude(y, n);
+        double south = y == n - 1 ? -90.0 : tileLatitude(y + 1, n);
+
+        return new GeoRectangle(new Coordinate(south, west), new Coordinate(north, east));
+    }
+
+    private static double tileLatitude(int y, int n) {
+        return Math.toDegrees(Math.atan(Math.sinh(Math.PI * (1.0 - 2.0 * y / n))));
+    }
+
+    private static int clamp(int i, int n) {
+        return Math.max(0, Math.min(n - 1, i));
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if(!(other instanceof SlippyTile)) {
+            return false;
+        }
+
+        SlippyTile tile = (SlippyTile)other;
+
+        return z == tile.z && x == tile.x && y == tile.y;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(z, x, y);
+    }
+
+    @Override
+    public String toString() {
+        return "Tile=(" + z + "/" + x + "/" + y + ")";
+    }
+}
@@ -21,9 +21,14 @@ import com.mongodb.MongoException;
 import com.opencsv.CSVReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
 import ldprotest.db.MainDatabase;
 import ldprotest.db.SetupDatabase;
 import ldprotest.geo.geoip.GeoIpLookup.GeoIpTableRow;
@@ -38,6 +43,14 @@ public final class CmdLineReadIpLocationCsv {
 
     private static final String LOGBACK_CONFIG = "/config/logback-off.xml";
 
+    private static final int BATCH_SIZE = 5000;
+    private static final int QUEUED_BATCHES = 4;
+    private static final long QUEUE_POLL_MILLIS = 100;
+    private static final long REPORT_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+    /* the writer thread stops when it takes an empty batch */
+    private static final List<GeoIpTableRow> END_OF_INPUT = List.of();
+
     private CmdLineReadIpLocationCsv() {
         /* do not construct */
     }
@@ -55,6 +68,11 @@ public final class CmdLineReadIpLocationCsv {
             System.exit(0);
         }
 
+        if(options.skipDatabase && options.binaryOutput.isEmpty()) {
+            System.err.println("--skip-database requires --binary-output");
+            System.exit(-1);
+        }
+
         try {
             AppLogging.setLogbackConfig(LOGBACK_CONFIG, ON_CLASSPATH);
         }
@@ -63,32 +81,50 @@ public final class CmdLineReadIpLocationCsv {
             System.exit(-1);
         }
 
-        MainDatabase.connect(options.mongoConnect);
+        if(!options.skipDatabase) {
+            MainDatabase.connect(options.mongoConnect);
 
-        ErrorCode<MongoException> e = MainDatabase.testConnection();
+            ErrorCode<MongoException> e = MainDatabase.testConnection();
 
-        if(e.failed()) {
-            System.err.println("No database connection at startup:" + e);
-            System.exit(-1);
-        }
+            if(e.failed()) {
+                System.err.println("No database connection at startup:" + e);
+                System.exit(-1);
+            }
 
-        SetupDatabase.setup(MainDatabase.database());
+            SetupDatabase.setup(MainDatabase.database());
+        }
 
         System.exit(readInput(options));
     }
 
     private static int readInput(Args options) {
-        List<GeoIpTableRow> rows = new ArrayList<>();
+        GeoIpTable.Builder binaryRows = GeoIpTable.builder();
+        boolean writeBinary = !options.binaryOutput.isEmpty();
+        long skipped = 0;
         int minRowSize = max(options.highRangeIndex, options.lowRangeIndex, options.latIndex, options.longIndex) + 1;
         int line = 1;
 
+        Optional<BatchWriter> writer = Optional.empty();
+        List<GeoIpTableRow> batch = new ArrayList<>(BATCH_SIZE);
+
+        if(!options.skipDatabase) {
+            try {
+                GeoIpLookup.beginImport();
+            } catch(MongoException ex) {
+                System.err.println("Encountered database error while preparing import: " + ex.getMessage());
+                return -1;
+            }
+            writer = Optional.of(new BatchWriter());
+            writer.get().start();
+        }
+
         try (CSVReader reader = new CSVReader(new InputStreamReader(System.in))) {
             String[] columns;
             while ((columns = reader.readNext()) != null) {
 
                 if(columns.length < minRowSize) {
                     System.err.println("Format error at line " + line + " : not enough columns");
-                    return -1;
+                    return abort(writer);
                 }
 
                 long lowRangeIp = Long.parseLong(columns[options.lowRangeIndex]);
@@ -96,28 +132,78 @@ public final class CmdLineReadIpLocationCsv {
                 double latitude = Double.parseDouble(columns[options.latIndex]);
                 double longitude = Double.parseDouble(columns[options.longIndex]);
 
-                rows.add(new GeoIpTableRow(lowRangeIp, highRangeIp, latitude, longitude));
+                if(writer.isPresent()) {
+                    batch.add(new GeoIpTableRow(lowRangeIp, highRangeIp, latitude, longitude));
+
+                    if(batch.size() == BATCH_SIZE) {
+                        if(!writer.get().submit(batch)) {
+                            return abort(writer);
+                        }
+                        batch = new ArrayList<>(BATCH_SIZE);
+                    }
+                }
+                if(writeBinary && !binaryRows.add(lowRangeIp, highRangeIp, latitude, longitude)) {
+                    skipped++;
+                }
                 line += 1;
             }
+
+            if(writer.isPresent() && !writer.get().finish(batch)) {
+                return abort(writer);
+            }
         } catch(IOException ex) {
             System.err.println("IOError encountered while reading CSV.");
-            return -1;
+            return abort(writer);
         } catch(NumberFormatException ex) {
             System.err.println("Number format error at line " + line);
-            return -1;
+            return abort(writer);
+        } catch(InterruptedException ex) {
+            System.err.println("Interrupted while importing.");
+            return abort(writer);
+        }
+
+        if(writeBinary) {
+            try {
+                MappedGeoIpTable.write(binaryRows.build(), Path.of(options.binaryOutput));
+            } catch(IOException ex) {
+                System.err.println("Error writing binary geo ip file: " + ex.getMessage());
+                return abort(writer);
+            }
+
+            if(skipped > 0) {
+                System.err.println("Skipped " + skipped + " rows outside of IPv4 in binary geo ip file.");
+            }
+        }
+
+        if(writer.isEmpty()) {
+            return 0;
         }
 
         try {
-            GeoIpLookup.drop();
-            GeoIpLookup.write(rows);
+            GeoIpLookup.commitImport();
         } catch(MongoException ex) {
-            System.err.println("Encountered database error while importing file.");
-            return -1;
+            System.err.println("Encountered database error while indexing imported rows: " + ex.getMessage());
+            return abort(writer);
         }
 
+        writer.get().report("Imported");
         return 0;
     }
 
+    private static int abort(Optional<BatchWriter> writer) {
+        if(writer.isPresent()) {
+            writer.get().cancel();
+
+            try {
+                GeoIpLookup.abortImport();
+            } catch(MongoException ex) {
+                System.err.println("Unable to drop partially imported rows: " + ex.getMessage());
+            }
+        }
+
+        return -1;
+    }
+
     private static int max(int... args) {
 
         if(args.length == 0) {
@@ -132,6 +218,117 @@ public final class CmdLineReadIpLocationCsv {
         return largest;
     }
 
+    /**
+     * Writes batches of rows to the database on its own thread, so that parsing the next batch overlaps with writing
+     * the last one. The queue is short, which keeps memory bounded when the database is the slower side.
+     */
+    private static final class BatchWriter implements Runnable {
+
+        private final BlockingQueue<List<GeoIpTableRow>> queue;
+        private final Thread thread;
+        private final long startNanos;
+
+        private volatile boolean failed = false;
+        private volatile boolean completed = false;
+        private volatile long written = 0;
+        private long lastReportNanos;
+
+        BatchWriter() {
+            this.queue = new ArrayBlockingQueue<>(QUEUED_BATCHES);
+            this.thread = new Thread(this, "geo-ip-import-writer");
+            this.startNanos = System.nanoTime();
+            this.lastReportNanos = startNanos;
+        }
+
+        void start() {
+            thread.start();
+        }
+
+        /**
+         * Queue a batch for writing, waiting for space in the queue.
+         *
+         * @return false if the writer has failed or stopped and the import should be abandoned.
+         */
+        boolean submit(List<GeoIpTableRow> batch) throws InterruptedException {
+            while(!failed && thread.isAlive()) {
+                if(queue.offer(batch, QUEUE_POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Queue the last rows and wait for every batch to be written.
+         *
+         * @return false if any batch failed to write, or the writer stopped before reaching the end of input.
+         */
+        boolean finish(List<GeoIpTableRow> lastBatch) throws InterruptedException {
+            if(!lastBatch.isEmpty() && !submit(lastBatch)) {
+                return false;
+            }
+            if(!submit(END_OF_INPUT)) {
+                return false;
+            }
+
+            thread.join();
+            return completed && !failed;
+        }
+
+        void cancel() {
+            failed = true;
+            thread.interrupt();
+
+            try {
+                thread.join();
+            } catch(InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        void report(String action) {
+            double seconds = Math.max(1, System.nanoTime() - startNanos) / 1e9;
+            System.err.println(String.format(
+                "%s %d rows in %.1f s (%.0f rows/s)", action, written, seconds, written / seconds
+            ));
+        }
+
+        @Override
+        public void run() {
+            try {
+                while(true) {
+                    List<GeoIpTableRow> batch = queue.take();
+
+                    if(batch.isEmpty()) {
+                        completed = true;
+                        return;
+                    }
+
+                    GeoIpLookup.writeImport(batch);
+                    written += batch.size();
+
+                    long now = System.nanoTime();
+                    if(now - lastReportNanos >= REPORT_INTERVAL_NANOS) {
+                        lastReportNanos = now;
+                        report("Written");
+                    }
+                }
+            } catch(InterruptedException ex) {
+                failed = true;
+            } catch(MongoException ex) {
+                System.err.println("Encountered database error while writing rows: " + ex.getMessage());
+                failed = true;
+            } catch(RuntimeException ex) {
+                System.err.println("Unexpected error while writing rows: " + ex);
+                failed = true;
+            } finally {
+                if(!completed) {
+                    failed = true;
+                }
+            }
+        }
+    }
+
     private static Result<Integer, Args> parseArgs(String... cmdLine) {
         Args args = new Args();
         int exitCode = new CommandLine(args).execute(cmdLine);
@@ -150,6 +347,8 @@ public final class CmdLineReadIpLocationCsv {
             "By default, reads a file formatted as a ip2location lite IP-COUNTRY-REGION-CITY-LATITUDE-LONGITUDE csv " +
             "file. IP address values are formatted as unsigned integer numbers (ex. 127.0.0.1 -> 2130706433). " +
             "Note that proper attribution must be given if using the actual ip2location database.\n\n" +
+            "Rows are written to a staging collection in batches and replace the current contents of the geo ip " +
+            "database collection in one step once the import is complete, so lookups keep working throughout.\n\n" +
             "WARNING: This will delete and replace the current contents of the geo ip database collection."
         )
     )
@@ -184,6 +383,21 @@ public final class CmdLineReadIpLocationCsv {
         )
         public int latIndex = 6;
 
+        @CommandLine.Option(
+            names={"--binary-output"},
+            description=(
+                "Also write the ranges to a compact binary file at this path, which the server can memory map using " +
+                "the geoIpDatabaseFile option. An existing file is replaced atomically."
+            )
+        )
+        public String binaryOutput = "";
+
+        @CommandLine.Option(
+            names={"--skip-database"},
+            description="Do not import into the database. Only useful together with --binary-output."
+        )
+        public boolean skipDatabase = false;
+
         @CommandLine.Option(
             names={"--mongo-connect"},
             description=(
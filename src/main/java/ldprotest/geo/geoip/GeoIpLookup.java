@@ -18,23 +18,49 @@
 package ldprotest.geo.geoip;
 
 import com.mongodb.MongoException;
+import com.mongodb.MongoNamespace;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.model.Filters;
 import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.InsertManyOptions;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.RenameCollectionOptions;
+import com.mongodb.client.model.Sorts;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
 import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
 import ldprotest.db.DbIndex;
 import ldprotest.db.DbSortOrder;
 import ldprotest.db.IndexTools;
 import ldprotest.db.MainDatabase;
 import ldprotest.geo.Coordinate;
+import ldprotest.main.Main;
 import ldprotest.serialization.BsonSerializable;
 import ldprotest.serialization.ReflectiveConstructor;
+import ldprotest.tasks.PeriodicTaskManager;
 import ldprotest.util.Result;
 import ldprotest.util.types.Ipv4Address;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
 import org.bson.conversions.Bson;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Finds the approximate location of an IPv4 address.
+ *
+ * Lookups are answered from an in memory GeoIpTable loaded from the geo ip collection. A periodic task reloads the
+ * table whenever the collection is replaced or its row count changes, and swaps the new table in once it is complete.
+ * Until the first load finishes lookups are answered by querying the database.
+ *
+ * If a geo ip database file is configured, the file is memory mapped at startup instead, and mapped again whenever it
+ * is replaced.
+ */
 public final class GeoIpLookup {
 
     private static final double DEFAULT_LATITUDE  = 51.505;
@@ -45,34 +71,85 @@ public final class GeoIpLookup {
     private final static Logger LOGGER = LoggerFactory.getLogger(GeoIpLookup.class);
 
     private static final String GEO_IP_TABLE_COLLECTION_NAME = "geoIp";
+    private static final String IMPORT_COLLECTION_NAME = "geoIpImport";
+
+    private static final long RELOAD_CHECK_MINUTES = 5;
+    private static final int LOAD_BATCH_SIZE = 10000;
+
+    private static volatile LoadedTable TABLE = null;
 
     private GeoIpLookup() {
         /* do not construct */
     }
 
+    public static void register() {
+        String databaseFile = Main.args().geoIpDatabaseFile;
+
+        if(!databaseFile.isEmpty()) {
+            Path path = Path.of(databaseFile);
+
+            remapIfChanged(path);
+            PeriodicTaskManager.registerBulkTask(
+                RELOAD_CHECK_MINUTES, RELOAD_CHECK_MINUTES, TimeUnit.MINUTES, true, (signal) -> remapIfChanged(path)
+            );
+            return;
+        }
+
+        PeriodicTaskManager.registerBulkTask(
+            0, RELOAD_CHECK_MINUTES, TimeUnit.MINUTES, true, (signal) -> {
+                try {
+                    reloadIfChanged();
+                } catch(MongoException ex) {
+                    LOGGER.warn("Error thrown during geo ip table reload", ex);
+                }
+            }
+        );
+    }
+
+    public static boolean isLoaded() {
+        return TABLE != null;
+    }
+
     public static Result<GeoIpLookupError, Coordinate> lookup(String ipAddress) {
-        return lookup(new Ipv4Address(ipAddress).numeric());
+        long numeric;
+
+        try {
+            numeric = new Ipv4Address(ipAddress).numeric();
+        } catch(IllegalArgumentException ex) {
+            return Result.failure(GeoIpLookupError.NOT_FOUND);
+        }
+
+        return lookup(numeric);
     }
 
     public static Result<GeoIpLookupError, Coordinate> lookup(long ipAddress) {
+        LoadedTable loaded = TABLE;
+
+        if(loaded != null) {
+            int row = loaded.table.find(ipAddress);
+
+            if(row < 0) {
+                return Result.failure(GeoIpLookupError.NOT_FOUND);
+            }
+
+            return Result.success(coordinate(loaded.table.latitude(row), loaded.table.longitude(row)));
+        }
+
+        return lookupInDb(ipAddress);
+    }
+
+    private static Result<GeoIpLookupError, Coordinate> lookupInDb(long ipAddress) {
 
         try {
+            /* ranges do not overlap, so only the range with the greatest low bound not above the address can match */
             GeoIpTableRow row = collection()
-                .find(
-                    Filters.and(
-                        Filters.lte("ipLow", ipAddress),
-                        Filters.gte("ipHigh", ipAddress)
-                    )
-                )
+                .find(Filters.lte("ipLow", ipAddress))
+                .sort(Sorts.descending("ipLow"))
                 .first();
-            if(row == null) {
+            if(row == null || row.ipHigh < ipAddress) {
                 return Result.failure(GeoIpLookupError.NOT_FOUND);
             } else {
-                if(row.latitude == 0.0 && row.longitude == 0.0) {
-                    return Result.success(DEFAULT_COORDINATE);
-                } else {
-                    return Result.success(new Coordinate(row.latitude, row.longitude));
-                }
+                return Result.success(coordinate(row.latitude, row.longitude));
             }
         } catch(MongoException ex) {
             LOGGER.warn("Database error searcing for geo ip");
@@ -80,8 +157,83 @@ public final class GeoIpLookup {
         }
     }
 
-    public static void write(List<GeoIpTableRow> rows) {
-        collection().insertMany(rows);
+    private static Coordinate coordinate(double latitude, double longitude) {
+        if(latitude == 0.0 && longitude == 0.0) {
+            return DEFAULT_COORDINATE;
+        } else {
+            return new Coordinate(latitude, longitude);
+        }
+    }
+
+    /**
+     * Load the geo ip table if the collection has changed since it was last loaded.
+     *
+     * An empty or missing collection leaves the current table in place rather than discarding every range.
+     */
+    private static void reloadIfChanged() {
+        LoadedTable current = TABLE;
+        CollectionVersion version = collectionVersion();
+
+        if(version.rowCount == 0 || (current != null && current.version.equals(version))) {
+            return;
+        }
+
+        long start = System.nanoTime();
+        GeoIpTable.Builder builder = GeoIpTable.builder();
+        long skipped = 0;
+
+        for(GeoIpTableRow row: collection()
+            .find()
+            .projection(Projections.include("ipLow", "ipHigh", "latitude", "longitude"))
+            .sort(Sorts.ascending("ipLow"))
+            .batchSize(LOAD_BATCH_SIZE)
+        ) {
+            if(!builder.add(row.ipLow, row.ipHigh, row.latitude, row.longitude)) {
+                skipped++;
+            }
+        }
+
+        GeoIpTable table = builder.build();
+        TABLE = new LoadedTable(table, version);
+
+        LOGGER.info(
+            "Loaded {} geo ip ranges in {} ms, skipped {} outside of IPv4",
+            table.size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), skipped
+        );
+    }
+
+    private static void remapIfChanged(Path path) {
+        LoadedTable current = TABLE;
+
+        try {
+            FileVersion version = FileVersion.of(path);
+
+            if(current != null && current.version.equals(version)) {
+                return;
+            }
+
+            MappedGeoIpTable table = MappedGeoIpTable.open(path);
+            TABLE = new LoadedTable(table, version);
+
+            LOGGER.info("Mapped {} geo ip ranges from {}", table.size(), path);
+        } catch(IOException ex) {
+            LOGGER.warn("Unable to map geo ip database file {}: {}", path, ex.getMessage());
+        }
+    }
+
+    private static CollectionVersion collectionVersion() {
+        BsonDocument info = MainDatabase.database()
+            .listCollections(BsonDocument.class)
+            .filter(Filters.eq("name", GEO_IP_TABLE_COLLECTION_NAME))
+            .first();
+
+        if(info == null) {
+            return new CollectionVersion(null, 0);
+        }
+
+        BsonValue uuid = info.getDocument("info", new BsonDocument()).get("uuid");
+
+        return new CollectionVersion(uuid, collection().estimatedDocumentCount());
     }
 
     public static void write(long ipLow, long ipHigh, double latitude, double longitude) {
@@ -89,13 +241,46 @@ public final class GeoIpLookup {
         collection().insertOne(row);
     }
 
-    public static void drop() {
-        collection().drop();
+    /**
+     * Start replacing the contents of the geo ip collection.
+     *
+     * Rows are written to a staging collection by {@link #writeImport(List)} while lookups continue to use the current
+     * collection, which is replaced in one step by {@link #commitImport()}. Any staging collection left behind by an
+     * earlier failed import is dropped.
+     */
+    public static void beginImport() {
+        importCollection().drop();
+    }
+
+    public static void writeImport(List<GeoIpTableRow> rows) {
+        importCollection().insertMany(rows, new InsertManyOptions().ordered(false));
+    }
+
+    /**
+     * Index the staging collection and rename it over the geo ip collection.
+     *
+     * Indexes are built once after all rows are written, which is much cheaper than maintaining them during the import.
+     */
+    public static void commitImport() {
+        MongoCollection<GeoIpTableRow> staging = importCollection();
+
+        setupDbIndex(staging);
+        staging.renameCollection(
+            new MongoNamespace(MainDatabase.database().getName(), GEO_IP_TABLE_COLLECTION_NAME),
+            new RenameCollectionOptions().dropTarget(true)
+        );
+    }
+
+    public static void abortImport() {
+        importCollection().drop();
     }
 
     public static void setupDbIndex() {
+        setupDbIndex(collection());
+    }
+
+    private static void setupDbIndex(MongoCollection<GeoIpTableRow> collection) {
         IndexOptions options = new IndexOptions();
-        MongoCollection<GeoIpTableRow> collection = collection();
 
         options.unique(true);
 
@@ -108,6 +293,89 @@ public final class GeoIpLookup {
         return MainDatabase.database().getCollection(GEO_IP_TABLE_COLLECTION_NAME, GeoIpTableRow.class);
     }
 
+    private static MongoCollection<GeoIpTableRow> importCollection() {
+        return MainDatabase.database().getCollection(IMPORT_COLLECTION_NAME, GeoIpTableRow.class);
+    }
+
+    private static final class LoadedTable {
+        final GeoIpRanges table;
+        final Object version;
+
+        LoadedTable(GeoIpRanges table, Object version) {
+            this.table = table;
+            this.version = version;
+        }
+    }
+
+    /**
+     * Identifies the contents of the collection well enough to notice an import.
+     *
+     * Dropping or renaming over the collection gives it a new uuid, and inserting rows changes the count.
+     */
+    private static final class CollectionVersion {
+        final BsonValue uuid;
+        final long rowCount;
+
+        CollectionVersion(BsonValue uuid, long rowCount) {
+            this.uuid = uuid;
+            this.rowCount = rowCount;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if(!(other instanceof CollectionVersion)) {
+                return false;
+            }
+
+            CollectionVersion version = (CollectionVersion)other;
+
+            return Objects.equals(uuid, version.uuid) && rowCount == version.rowCount;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(uuid, rowCount);
+        }
+    }
+
+    /**
+     * Identifies a database file well enough to notice it being replaced.
+     */
+    private static final class FileVersion {
+        final Object fileKey;
+        final FileTime modified;
+        final long size;
+
+        FileVersion(Object fileKey, FileTime modified, long size) {
+            this.fileKey = fileKey;
+            this.modified = modified;
+            this.size = size;
+        }
+
+        static FileVersion of(Path path) throws IOException {
+            BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            return new FileVersion(attributes.fileKey(), attributes.lastModifiedTime(), attributes.size());
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if(!(other instanceof FileVersion)) {
+                return false;
+            }
+
+            FileVersion version = (FileVersion)other;
+
+            return (
+                Objects.equals(fileKey, version.fileKey) && modified.equals(version.modified) && size == version.size
+            );
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(fileKey, modified, size);
+        }
+    }
+
     public enum GeoIpLookupError {
         NOT_FOUND,
         DB_ERROR;
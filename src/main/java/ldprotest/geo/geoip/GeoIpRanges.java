@@ -0,0 +1,71 @@
+/*
+ * This File is Part of LDProtest
+ * Copyright (C) 2021 Covid Anti Hysterics League
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Lesser Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package ldprotest.geo.geoip;
+
+/**
+ * Sorted, non-overlapping IPv4 address ranges with a location for each range.
+ *
+ * Rows are ordered by the low address of their range, so the range containing an address is found by binary search.
+ */
+public interface GeoIpRanges {
+
+    public static final long MAX_IPV4 = 0xFFFFFFFFL;
+
+    int size();
+
+    long ipLow(int row);
+
+    long ipHigh(int row);
+
+    double latitude(int row);
+
+    double longitude(int row);
+
+    /**
+     * Find the row whose range contains an address.
+     *
+     * @param ipAddress numeric IPv4 address
+     * @return index of the row containing the address, or -1 if there is none
+     */
+    default int find(long ipAddress) {
+        if(ipAddress < 0 || ipAddress > MAX_IPV4) {
+            return -1;
+        }
+
+        int lo = 0;
+        int hi = size() - 1;
+        int candidate = -1;
+
+        while(lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+
+            if(ipLow(mid) <= ipAddress) {
+                candidate = mid;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+
+        if(candidate < 0 || ipHigh(candidate) < ipAddress) {
+            return -1;
+        }
+
+        return candidate;
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * This File is Part of LDProtest
+ * Copyright (C) 2021 Covid Anti Hysterics League
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Lesser Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package ldprotest.geo.geoip;
+
+import java.util.Arrays;
+
+/**
+ * Immutable table of IPv4 address ranges and their locations, searched by binary search.
+ *
+ * Rows are held in parallel primitive arrays sorted by the low end of each range, so a table of a few million rows
+ * costs 16 bytes per row and no objects beyond the arrays themselves. Addresses are stored as unsigned ints, so ranges
+ * outside the IPv4 address space are not accepted.
+ */
+public final class GeoIpTable implements GeoIpRanges {
+
+    private final int[] ipLow;
+    private final int[] ipHigh;
+    private final float[] latitude;
+    private final float[] longitude;
+    private final int size;
+
+    private GeoIpTable(int[] ipLow, int[] ipHigh, float[] latitude, float[] longitude, int size) {
+        this.ipLow = ipLow;
+        this.ipHigh = ipHigh;
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.size = size;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public long ipLow(int row) {
+        return Integer.toUnsignedLong(ipLow[row]);
+    }
+
+    @Override
+    public long ipHigh(int row) {
+        return Integer.toUnsignedLong(ipHigh[row]);
+    }
+
+    @Override
+    public double latitude(int row) {
+        return latitude[row];
+    }
+
+    @Override
+    public double longitude(int row) {
+        return longitude[row];
+    }
+
+    public static final class Builder {
+
+        private static final int INITIAL_CAPACITY = 1024;
+
+        private int[] ipLow = new int[INITIAL_CAPACITY];
+        private int[] ipHigh = new int[INITIAL_CAPACITY];
+        private float[] latitude = new float[INITIAL_CAPACITY];
+        private float[] longitude = new float[INITIAL_CAPACITY];
+        private int size = 0;
+        private boolean sorted = true;
+
+        private Builder() {
+
+        }
+
+        /**
+         * Add a range to the table.
+         *
+         * @return false if the range is not within the IPv4 address space and was skipped.
+         */
+        public boolean add(long low, long high, double lat, double lon) {
+            if(low < 0 || high > MAX_IPV4 || low > high) {
+                return false;
+            }
+
+            if(size == ipLow.length) {
+                int capacity = size * 2;
+                ipLow = Arrays.copyOf(ipLow, capacity);
+                ipHigh = Arrays.copyOf(ipHigh, capacity);
+                latitude = Arrays.copyOf(latitude, capacity);
+                longitude = Arrays.copyOf(longitude, capacity);
+            }
+
+            if(size > 0 && Integer.compareUnsigned(ipLow[size - 1], (int)low) > 0) {
+                sorted = false;
+            }
+
+            ipLow[size] = (int)low;
+            ipHigh[size] = (int)high;
+            latitude[size] = (float)lat;
+            longitude[size] = (float)lon;
+            size++;
+
+            return true;
+        }
+
+        public GeoIpTable build() {
+            if(!sorted) {
+                sort();
+            }
+
+            return new GeoIpTable(
+                Arrays.copyOf(ipLow, size),
+                Arrays.copyOf(ipHigh, size),
+                Arrays.copyOf(latitude, size),
+                Arrays.copyOf(longitude, size),
+                size
+            );
+        }
+
+        private void sort() {
+            /* sort row numbers by low address, flipping the sign bit so unsigned order matches signed order */
+            long[] keys = new long[size];
+
+            for(int i = 0; i < size; i++) {
+                keys[i] = ((long)(ipLow[i] ^ Integer.MIN_VALUE) << 32) | i;
+            }
+
+            Arrays.sort(keys);
+
+            int[] low = new int[size];
+            int[] high = new int[size];
+            float[] lat = new float[size];
+            float[] lon = new float[size];
+
+            for(int i = 0; i < size; i++) {
+                int from = (int)keys[i];
+                low[i] = ipLow[from];
+                high[i] = ipHigh[from];
+                lat[i] = latitude[from];
+                lon[i] = longitude[from];
+            }
+
+            ipLow = low;
+            ipHigh = high;
+            latitude = lat;
+            longitude = lon;
+        }
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * This File is Part of LDProtest
+ * Copyright (C) 2021 Covid Anti Hysterics League
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Lesser Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package ldprotest.geo.geoip;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Arrays;
+import java.util.Set;
+
+/**
+ * Geo IP ranges read directly from a memory mapped binary file.
+ *
+ * The file holds a 16 byte header (8 byte magic, 4 byte format version, 4 byte row count) followed by four arrays of
+ * row count 4 byte big-endian values: range low addresses, range high addresses, latitudes and longitudes. Addresses
+ * are unsigned ints and coordinates are floats. Rows are sorted by low address.
+ *
+ * Lookups use absolute reads on the mapped buffer, so they need no locking and no heap beyond the buffer object. Pages
+ * are loaded on demand by the OS and shared with every other process mapping the same file.
+ */
+public final class MappedGeoIpTable implements GeoIpRanges {
+
+    private static final byte[] MAGIC = "LDPGEOIP".getBytes(StandardCharsets.US_ASCII);
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_BYTES = MAGIC.length + 2 * Integer.BYTES;
+    private static final int ROW_BYTES = 4 * Integer.BYTES;
+
+    private final ByteBuffer buffer;
+    private final int size;
+    private final int highOffset;
+    private final int latitudeOffset;
+    private final int longitudeOffset;
+
+    private MappedGeoIpTable(ByteBuffer buffer, int size) {
+        this.buffer = buffer;
+        this.size = size;
+        this.highOffset = HEADER_BYTES + size * Integer.BYTES;
+        this.latitudeOffset = highOffset + size * Integer.BYTES;
+        this.longitudeOffset = latitudeOffset + size * Integer.BYTES;
+    }
+
+    /**
+     * Map a geo ip database file.
+     *
+     * @param path file written by {@link #write(GeoIpRanges, Path)}
+     * @return the mapped table
+     * @throws IOException if the file cannot be read or is not a geo ip database file
+     */
+    public static MappedGeoIpTable open(Path path) throws IOException {
+        try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+
+            if(fileSize < HEADER_BYTES || fileSize > Integer.MAX_VALUE) {
+                throw new IOException("Invalid geo ip database file size: " + fileSize);
+            }
+
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize);
+
+            byte[] magic = new byte[MAGIC.length];
+            for(int i = 0; i < MAGIC.length; i++) {
+                magic[i] = buffer.get(i);
+            }
+
+            if(!Arrays.equals(magic, MAGIC)) {
+                throw new IOException("Not a geo ip database file: " + path);
+            }
+
+            int version = buffer.getInt(MAGIC.length);
+            int size = buffer.getInt(MAGIC.length + Integer.BYTES);
+
+            if(version != FORMAT_VERSION) {
+                throw new IOException("Unsupported geo ip database file version: " + version);
+            }
+
+            if(size < 0 || fileSize != HEADER_BYTES + (long)size * ROW_BYTES) {
+                throw new IOException("Geo ip database file is truncated or corrupt: " + path);
+            }
+
+            return new MappedGeoIpTable(buffer, size);
+        }
+    }
+
+    /**
+     * Write ranges to a geo ip database file.
+     *
+     * The file is written beside the destination and then moved over it, so processes which have the old file mapped
+     * keep reading it undisturbed and new readers never see a partial file. The file keeps the permissions of the one
+     * it replaces, or is readable by everyone if it is new, so that a server running as another user can map it.
+     *
+     * @param ranges sorted ranges to write
+     * @param path destination file
+     * @throws IOException if the file cannot be written
+     */
+    public static void write(GeoIpRanges ranges, Path path) throws IOException {
+        Path absolute = path.toAbsolutePath();
+        Path temp = Files.createTempFile(absolute.getParent(), absolute.getFileName().toString(), ".tmp");
+
+        try {
+            try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                int size = ranges.size();
+
+                out.write(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                out.writeInt(size);
+
+                for(int i = 0; i < size; i++) {
+                    out.writeInt((int)ranges.ipLow(i));
+                }
+                for(int i = 0; i < size; i++) {
+                    out.writeInt((int)ranges.ipHigh(i));
+                }
+                for(int i = 0; i < size; i++) {
+                    out.writeFloat((float)ranges.latitude(i));
+                }
+                for(int i = 0; i < size; i++) {
+                    out.writeFloat((float)ranges.longitude(i));
+                }
+            }
+
+            copyPermissions(absolute, temp);
+            Files.move(temp, absolute, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /* temporary files are created readable only by their owner */
+    private static void copyPermissions(Path from, Path to) throws IOException {
+        if(!Files.getFileStore(to).supportsFileAttributeView(PosixFileAttributeView.class)) {
+            return;
+        }
+
+        Set<PosixFilePermission> permissions = Files.exists(from) ?
+            Files.getPosixFilePermissions(from) :
+            PosixFilePermissions.fromString("rw-r--r--");
+
+        Files.setPosixFilePermissions(to, permissions);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public long ipLow(int row) {
+        return Integer.toUnsignedLong(buffer.getInt(HEADER_BYTES + row * Integer.BYTES));
+    }
+
+    @Override
+    public long ipHigh(int row) {
+        return Integer.toUnsignedLong(buffer.getInt(highOffset + row * Integer.BYTES));
+    }
+
+    @Override
+    public double latitude(int row) {
+        return buffer.getFloat(latitudeOffset + row * Integer.BYTES);
+    }
+
+    @Override
+    public double longitude(int row) {
+        return buffer.getFloat(longitudeOffset + row * Integer.BYTES);
+    }
+}
@@ -31,16 +31,21 @@ import java.util.HashSet;
 import java.util.Set;
 import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.Semaphore;
+import ldprotest.business.ProtestIndex;
+import ldprotest.business.ProtestTextIndex;
 import ldprotest.config.AppConfig;
 import ldprotest.config.CmdLineArgs;
 import ldprotest.config.ConfigFile;
 import ldprotest.config.DefaultConfig;
 import ldprotest.db.MainDatabase;
+import ldprotest.geo.geoip.GeoIpLookup;
 import ldprotest.main.AppLogging.ResourceType;
 import ldprotest.tasks.PeriodicTaskManager;
 import ldprotest.util.ErrorCode;
 
+import ldprotest.server.auth.SessionRevocations;
 import ldprotest.server.auth.webtoken.UserTokens;
+import ldprotest.tasks.maintenance.OccurrenceRefresh;
 import ldprotest.tasks.maintenance.ProtestVacuum;
 import ldprotest.tasks.maintenance.SessionVacuum;
 import ldprotest.util.Result;
@@ -197,8 +202,17 @@ public class Main {
 
     private static void startPeriodicTasks() {
         PeriodicTaskManager.start();
+        UserTokens.register();
+        SessionRevocations.register();
         SessionVacuum.register();
         ProtestVacuum.register();
+        OccurrenceRefresh.register();
+        ProtestIndex.register();
+        ProtestTextIndex.register();
+
+        if(!ARGS.disableGeoIpLookup) {
+            GeoIpLookup.register();
+        }
     }
 
     private static void waitForDatabase() {
@@ -0,0 +1,298 @@
+/*
+ * This File is Part of LDProtest
+ * Copyright (C) 2021 Covid Anti Hysterics League
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Lesser Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package ldprotest.server.auth;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Token bucket admission control for a single route.
+ *
+ * Every client key gets a bucket holding at most {@code burst} permits which refills at {@code permitsPerSecond}.
+ * Buckets are spread over independently locked stripes so that requests from different clients rarely contend. Each
+ * stripe is kept in access order, so idle buckets are dropped from its cold end by {@link #evictIdle(long)} and the
+ * least recently used bucket goes first if a stripe fills up. A bucket left alone long enough to refill completely is
+ * indistinguishable from a new one, so evicting it loses nothing.
+ */
+public final class RateLimit {
+
+    private static final int STRIPE_BITS = 5;
+    private static final int STRIPES = 1 << STRIPE_BITS;
+    private static final int MAX_BUCKETS_PER_STRIPE = 4096;
+
+    private static final Pattern HEX_GROUP = Pattern.compile("[0-9a-fA-F]{1,4}");
+    private static final Pattern DECIMAL_OCTET = Pattern.compile("[0-9]{1,3}");
+
+    public final KeyType keyType;
+    public final double permitsPerSecond;
+    public final int burst;
+
+    private final long idleNanos;
+    private final Stripe[] stripes;
+
+    private RateLimit(KeyType keyType, double permitsPerSecond, int burst) {
+
+        if(!(permitsPerSecond > 0) || Double.isInfinite(permitsPerSecond)) {
+            throw new SecurityConfigException("Rate limit must be a positive number of permits per second");
+        }
+
+        if(burst < 1) {
+            throw new SecurityConfigException("Rate limit burst must allow at least one request");
+        }
+
+        this.keyType = keyType;
+        this.permitsPerSecond = permitsPerSecond;
+        this.burst = burst;
+        this.idleNanos = (long)Math.ceil(burst / permitsPerSecond * 1e9);
+        this.stripes = new Stripe[STRIPES];
+
+        for(int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    public static RateLimit perClientIp(double permitsPerSecond, int burst) {
+        return new RateLimit(KeyType.CLIENT_IP, permitsPerSecond, burst);
+    }
+
+    public static RateLimit perUserOrClientIp(double permitsPerSecond, int burst) {
+        return new RateLimit(KeyType.USER_OR_CLIENT_IP, permitsPerSecond, burst);
+    }
+
+    /**
+     * Take a permit from the bucket for a key.
+     *
+     * @param key client key
+     * @param nowNanos current {@link System#nanoTime()}
+     * @return zero if the request is admitted, otherwise the time in nanoseconds until a permit is available
+     */
+    public long tryAcquire(String key, long nowNanos) {
+        Stripe stripe = stripes[stripeIndex(key)];
+
+        synchronized(stripe) {
+            Bucket bucket = stripe.get(key);
+
+            if(bucket == null) {
+                bucket = new Bucket(burst, nowNanos);
+                stripe.put(key, bucket);
+            }
+
+            return bucket.take(nowNanos, burst, permitsPerSecond);
+        }
+    }
+
+    /**
+     * Drop buckets that have been idle long enough to refill completely.
+     *
+     * @param nowNanos current {@link System#nanoTime()}
+     */
+    public void evictIdle(long nowNanos) {
+        for(Stripe stripe: stripes) {
+            synchronized(stripe) {
+                stripe.evictIdle(nowNanos, idleNanos);
+            }
+        }
+    }
+
+    /**
+     * Rate limit key for a client address.
+     *
+     * An IPv6 client is usually handed a whole /64, so it could rotate through addresses to get a fresh bucket for
+     * every request. IPv6 addresses are therefore keyed by their /64 prefix, and IPv4-mapped addresses by the IPv4
+     * address they carry. Anything which isn't an IPv6 literal, including IPv4 addresses, is keyed as given.
+     *
+     * @param ip client address as reported by the connection or proxy
+     * @return rate limit key
+     */
+    public static String clientIpKey(String ip) {
+        int[] groups = parseIpv6(ip);
+
+        if(groups == null) {
+            return "ip:" + ip;
+        }
+
+        if(groups[0] == 0 && groups[1] == 0 && groups[2] == 0 && groups[3] == 0 && groups[4] == 0
+            && groups[5] == 0xffff) {
+            return String.format(
+                "ip:%d.%d.%d.%d", groups[6] >> 8, groups[6] & 0xff, groups[7] >> 8, groups[7] & 0xff
+            );
+        }
+
+        return String.format("ip:%x:%x:%x:%x::/64", groups[0], groups[1], groups[2], groups[3]);
+    }
+
+    int bucketCount() {
+        int count = 0;
+
+        for(Stripe stripe: stripes) {
+            synchronized(stripe) {
+                count += stripe.size();
+            }
+        }
+
+        return count;
+    }
+
+    private static int stripeIndex(String key) {
+        /* client keys differ in their last few characters, which String.hashCode() barely mixes into the top bits */
+        return (key.hashCode() * 0x9E3779B9) >>> (Integer.SIZE - STRIPE_BITS);
+    }
+
+    /**
+     * Parse an IPv6 literal into its eight 16 bit groups without any name resolution.
+     *
+     * @return groups, or null if the text is not an IPv6 literal
+     */
+    private static int[] parseIpv6(String ip) {
+        String text = ip.strip();
+
+        if(text.startsWith("[") && text.endsWith("]")) {
+            text = text.substring(1, text.length() - 1);
+        }
+
+        int zone = text.indexOf('%');
+        if(zone >= 0) {
+            text = text.substring(0, zone);
+        }
+
+        if(text.indexOf(':') < 0) {
+            return null;
+        }
+
+        int elision = text.indexOf("::");
+        if(elision >= 0 && text.indexOf("::", elision + 1) >= 0) {
+            return null;
+        }
+
+        int[] head = parseGroups(elision >= 0 ? text.substring(0, elision) : text);
+        int[] tail = elision >= 0 ? parseGroups(text.substring(elision + 2)) : new int[0];
+
+        if(head == null || tail == null) {
+            return null;
+        }
+
+        int count = head.length + tail.length;
+        if(elision >= 0 ? count > 7 : count != 8) {
+            return null;
+        }
+
+        int[] groups = new int[8];
+        System.arraycopy(head, 0, groups, 0, head.length);
+        System.arraycopy(tail, 0, groups, 8 - tail.length, tail.length);
+        return groups;
+    }
+
+    private static int[] parseGroups(String text) {
+        if(text.isEmpty()) {
+            return new int[0];
+        }
+
+        String[] parts = text.split(":", -1);
+        String last = parts[parts.length - 1];
+        boolean embeddedIpv4 = last.indexOf('.') >= 0;
+        int[] groups = new int[embeddedIpv4 ? parts.length + 1 : parts.length];
+
+        for(int i = 0; i < (embeddedIpv4 ? parts.length - 1 : parts.length); i++) {
+            if(!HEX_GROUP.matcher(parts[i]).matches()) {
+                return null;
+            }
+
+            groups[i] = Integer.parseInt(parts[i], 16);
+        }
+
+        if(embeddedIpv4) {
+            String[] octets = last.split("\\.", -1);
+
+            if(octets.length != 4) {
+                return null;
+            }
+
+            int address = 0;
+            for(String octet: octets) {
+                if(!DECIMAL_OCTET.matcher(octet).matches()) {
+                    return null;
+                }
+
+                int value = Integer.parseInt(octet);
+                if(value > 255) {
+                    return null;
+                }
+                address = (address << 8) | value;
+            }
+
+            groups[parts.length - 1] = address >>> 16;
+            groups[parts.length] = address & 0xffff;
+        }
+
+        return groups;
+    }
+
+    public static enum KeyType {
+        CLIENT_IP,
+        USER_OR_CLIENT_IP;
+    }
+
+    private static final class Bucket {
+        private double permits;
+        private long lastNanos;
+
+        Bucket(double permits, long lastNanos) {
+            this.permits = permits;
+            this.lastNanos = lastNanos;
+        }
+
+        long take(long nowNanos, int burst, double permitsPerSecond) {
+            permits = Math.min(burst, permits + Math.max(0, nowNanos - lastNanos) * permitsPerSecond / 1e9);
+            lastNanos = nowNanos;
+
+            if(permits >= 1) {
+                permits -= 1;
+                return 0;
+            }
+
+            return Math.max(1, (long)Math.ceil((1 - permits) / permitsPerSecond * 1e9));
+        }
+    }
+
+    private static final class Stripe extends LinkedHashMap<String, Bucket> {
+
+        private static final long serialVersionUID = 1L;
+
+        Stripe() {
+            super(16, 0.75f, true);
+        }
+
+        void evictIdle(long nowNanos, long idleNanos) {
+            Iterator<Bucket> it = values().iterator();
+
+            while(it.hasNext()) {
+                if(nowNanos - it.next().lastNanos < idleNanos) {
+                    break;
+                }
+                it.remove();
+            }
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Bucket> eldest) {
+            return size() > MAX_BUCKETS_PER_STRIPE;
+        }
+    }
+}
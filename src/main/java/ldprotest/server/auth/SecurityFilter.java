@@ -17,11 +17,13 @@
 */
 package ldprotest.server.auth;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Optional;
+import java.util.concurrent.TimeUnit;
 import ldprotest.main.Main;
 import ldprotest.server.auth.UserSessions.SessionCreationError;
 import ldprotest.server.auth.webtoken.UserTokenSubject;
@@ -29,6 +31,9 @@ import ldprotest.server.auth.webtoken.UserTokens;
 import ldprotest.server.auth.webtoken.UserTokens.VerificationFailure;
 import ldprotest.server.endpoints.Login;
 import ldprotest.server.infra.CookieAttributes;
+import ldprotest.server.infra.http.ClientIp;
+import ldprotest.tasks.PeriodicTaskManager;
+import ldprotest.tasks.TaskMetrics;
 import ldprotest.util.Result;
 import ldprotest.util.types.UrlPathPrefixTree;
 import org.eclipse.jetty.http.HttpStatus;
@@ -51,13 +56,18 @@ public final class SecurityFilter {
 
     private final static Logger LOGGER = LoggerFactory.getLogger(SecurityFilter.class);
 
+    private static final TaskMetrics RATE_LIMIT_METRICS = TaskMetrics.forTask("rateLimit");
+    private static final long RATE_LIMIT_EVICTION_SECONDS = 60;
+
     private final UrlPathPrefixTree<FilterData> authTree;
+    private final List<RateLimit> rateLimits;
 
     private SecurityFilter() {
         this.authTree = new UrlPathPrefixTree<>();
+        this.rateLimits = new ArrayList<>();
     }
 
-    private synchronized void addMethod(String path, SecConfig config) {
+    private synchronized void addMethod(String path, SecConfig config, Optional<RateLimit> rateLimit) {
 
         List<String> elements = UrlPathPrefixTree.splitPath(path);
 
@@ -93,14 +103,18 @@ public final class SecurityFilter {
             throw new SecurityConfigException("Security configuration may not be set twice for the same path");
         }
 
+        if(rateLimit.isPresent()) {
+            rateLimits.add(rateLimit.get());
+        }
+
         if(last.equals("*")) {
             elements.remove(elements.size() - 1);
-            authTree.add(elements, new FilterData(path, Wildness.WILD, config));
+            authTree.add(elements, new FilterData(path, Wildness.WILD, config, rateLimit));
         } else if(last.equals("**")) {
             elements.remove(elements.size() - 1);
-            authTree.add(elements, new FilterData(path, Wildness.DOUBLE_WILD, config));
+            authTree.add(elements, new FilterData(path, Wildness.DOUBLE_WILD, config, rateLimit));
         } else {
-            authTree.add(elements, new FilterData(path, Wildness.NOT_WILD, config));
+            authTree.add(elements, new FilterData(path, Wildness.NOT_WILD, config, rateLimit));
         }
     }
 
@@ -108,8 +122,20 @@ public final class SecurityFilter {
         return authTree.longest(path);
     }
 
+    private synchronized void evictIdleBuckets() {
+        long now = System.nanoTime();
+
+        for(RateLimit limit: rateLimits) {
+            limit.evictIdle(now);
+        }
+    }
+
     public static void add(String path, SecConfig config) {
-        INSTANCE.addMethod(path, config);
+        INSTANCE.addMethod(path, config, Optional.empty());
+    }
+
+    public static void add(String path, SecConfig config, RateLimit rateLimit) {
+        INSTANCE.addMethod(path, config, Optional.of(rateLimit));
     }
 
     public static void start() {
@@ -117,6 +143,11 @@ public final class SecurityFilter {
         boolean usingHttps = Main.args().usingHttps;
         int hstsMaxAge = Main.args().hstsMaxAge;
 
+        PeriodicTaskManager.registerTask(
+            RATE_LIMIT_EVICTION_SECONDS, RATE_LIMIT_EVICTION_SECONDS, TimeUnit.SECONDS, true,
+            (signal) -> INSTANCE.evictIdleBuckets()
+        );
+
         before((request, response) -> {
             FilterData data = getFilterDataOrHalt(request.pathInfo());
 
@@ -128,13 +159,19 @@ public final class SecurityFilter {
                 throw halt(HttpStatus.UNAUTHORIZED_401, "Unauthorized");
             }
 
+            if(data.limitedBy(RateLimit.KeyType.CLIENT_IP)) {
+                admitOrHalt(data, RateLimit.clientIpKey(ClientIp.get(request)), response);
+            }
+
             Optional<String> cookieToken = optCookieValue(request.cookie(Login.LOGIN_COOKIE_NAME));
             Optional<String> bearerToken = extractBearer(request);
 
-            setupUserAuth(cookieToken, bearerToken);
-
             AuthInfo auth = setupUserAuth(cookieToken, bearerToken);
 
+            if(data.limitedBy(RateLimit.KeyType.USER_OR_CLIENT_IP)) {
+                admitOrHalt(data, auth.rateLimitKey(request), response);
+            }
+
             if(!data.secConfig.isPermitted(auth.role, method)) {
                 LOGGER.warn("Unauthorized request from role {} for {} {}", auth.role, method, request.pathInfo());
                 setUnauthorizedHeader(response);
@@ -176,6 +213,22 @@ public final class SecurityFilter {
         return Optional.ofNullable(request.attribute(BEARER_AUTH_ATTRIBUTE));
     }
 
+    private static void admitOrHalt(FilterData data, String key, Response response) {
+        long waitNanos = data.rateLimit.get().tryAcquire(key, System.nanoTime());
+
+        if(waitNanos == 0) {
+            return;
+        }
+
+        RATE_LIMIT_METRICS.count(data.pathSpec, 1);
+        LOGGER.debug("Rate limited request for {} from {}", data.pathSpec, key);
+
+        long retryAfterSeconds = Math.max(1, (waitNanos + 999_999_999) / 1_000_000_000);
+        response.header("Retry-After", Long.toString(retryAfterSeconds));
+
+        throw halt(HttpStatus.TOO_MANY_REQUESTS_429, "Too Many Requests");
+    }
+
     private static Optional<String> extractBearer(Request request) {
         String header = request.headers("Authorization");
 
@@ -221,7 +274,10 @@ public final class SecurityFilter {
                             Login.loginTokenCookie(refreshedToken)
                         );
                     }
-                } else if(result.failureReason().equals(VerificationFailure.NO_KEY)){
+                } else if(
+                    result.failureReason().equals(VerificationFailure.NO_KEY) ||
+                    result.failureReason().equals(VerificationFailure.REVOKED)
+                ) {
                     cookies.put(Login.LOGIN_COOKIE_NAME, Login.deleteTokenCookie());
                 } else {
                     processVerificationFailure(result.failureReason());
@@ -282,6 +338,9 @@ public final class SecurityFilter {
         switch(failure) {
             case EXPIRED:
                 break;
+            case REVOKED:
+                LOGGER.info("Token for a revoked session.");
+                throw halt(HttpStatus.UNAUTHORIZED_401, "Unauthorized");
             case NO_KEY:
                 LOGGER.warn("No key for token.");
             case INVALID_CLAIM:
@@ -388,6 +447,16 @@ public final class SecurityFilter {
             }
         }
 
+        public String rateLimitKey(Request request) {
+            Object session = attributes.getOrDefault(HTTP_AUTH_ATTRIBUTE, attributes.get(BEARER_AUTH_ATTRIBUTE));
+
+            if(role != UserRole.UNAUTHENTICATED && session != null) {
+                return "user:" + ((UserSessionInfo)session).globalUniqueUserId;
+            } else {
+                return RateLimit.clientIpKey(ClientIp.get(request));
+            }
+        }
+
         public void setCookies(Response response) {
             for(Entry<String, CookieAttributes> ent: cookies.entrySet()) {
                 ent.getValue().setCookie(response);
@@ -400,11 +469,17 @@ public final class SecurityFilter {
         public final String pathSpec;
         public final Wildness wildness;
         public final SecConfig secConfig;
+        public final Optional<RateLimit> rateLimit;
 
-        public FilterData(String pathSpec, Wildness wildness, SecConfig secConfig) {
+        public FilterData(String pathSpec, Wildness wildness, SecConfig secConfig, Optional<RateLimit> rateLimit) {
             this.pathSpec = pathSpec;
             this.wildness = wildness;
             this.secConfig = secConfig;
+            this.rateLimit = rateLimit;
+        }
+
+        public boolean limitedBy(RateLimit.KeyType keyType) {
+            return rateLimit.isPresent() && rateLimit.get().keyType == keyType;
         }
 
         public boolean notWild() {
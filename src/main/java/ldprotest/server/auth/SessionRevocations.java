@@ -0,0 +1,181 @@
+/*
+ * This File is Part of LDProtest
+ * Copyright (C) 2021 Covid Anti Hysterics League
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Lesser Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package ldprotest.server.auth;
+
+import com.mongodb.MongoException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Indexes;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import ldprotest.db.IndexTools;
+import ldprotest.db.MainDatabase;
+import ldprotest.main.Main;
+import ldprotest.main.ServerTime;
+import ldprotest.serialization.BsonSerializable;
+import ldprotest.serialization.ReflectiveConstructor;
+import ldprotest.server.auth.webtoken.UserTokens;
+import ldprotest.tasks.PeriodicTaskManager;
+import ldprotest.util.ErrorCode;
+import ldprotest.util.Result;
+import org.bson.BsonDateTime;
+import org.bson.conversions.Bson;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Revoke sessions so that tokens already issued for them stop being accepted before they expire.
+ *
+ * A revocation takes effect on this server immediately, and is recorded in the database, which every server polls
+ * for revocations made elsewhere. Revocations are kept for the token lifetime plus a margin for verification leeway
+ * and clock skew; after that every token issued before the revocation has expired, and refreshing one requires a
+ * session that still exists and an account that is not locked.
+ */
+public final class SessionRevocations {
+
+    private final static Logger LOGGER = LoggerFactory.getLogger(SessionRevocations.class);
+
+    private static final String COLLECTION_NAME = "revokedSessions";
+
+    private static final long POLL_PERIOD_SECONDS = 5;
+    private static final long POLL_OVERLAP_MILLIS = 30 * 1000;
+    private static final long REVOCATION_MARGIN_SECONDS = 60;
+
+    /* only touched by the poll, which never runs concurrently with itself */
+    private static long LAST_POLL_MILLIS = 0;
+
+    private SessionRevocations() {
+        /* do not construct */
+    }
+
+    public static void setupDbIndex() {
+        IndexTools.createIndexWithOpts(collection(), Indexes.ascending("revokedAt"), false, false);
+        IndexTools.createIndexWithOpts(collection(), Indexes.ascending("revokedUntil"), false, false);
+    }
+
+    /**
+     * Load the revocations that are still in force, then poll for new ones.
+     *
+     * The first load runs before returning, so a server never accepts requests without knowing earlier revocations.
+     */
+    public static void register() {
+        poll();
+
+        PeriodicTaskManager.registerTask(
+            POLL_PERIOD_SECONDS, POLL_PERIOD_SECONDS, TimeUnit.SECONDS, true, (signal) -> poll()
+        );
+    }
+
+    public static ErrorCode<RevocationError> revoke(String sessionId) {
+        return revokeAll(List.of(sessionId));
+    }
+
+    /**
+     * Revoke every session of a user.
+     *
+     * @param info user to log out everywhere
+     * @return error if the sessions could not be found or the revocations could not be recorded
+     */
+    public static ErrorCode<RevocationError> revokeUser(UserInfo info) {
+        Result<UserSessions.SessionLookupError, List<String>> sessions = UserSessions.sessionIdsOf(info);
+
+        if(sessions.isFailure()) {
+            return ErrorCode.error(RevocationError.DATABASE_ERROR);
+        }
+
+        return revokeAll(sessions.result());
+    }
+
+    private static ErrorCode<RevocationError> revokeAll(List<String> sessionIds) {
+        if(sessionIds.isEmpty()) {
+            return ErrorCode.success();
+        }
+
+        ZonedDateTime now = ServerTime.now();
+        ZonedDateTime until = now.plusSeconds(Main.args().tokenExpiresSeconds + REVOCATION_MARGIN_SECONDS);
+        List<RevokedSession> revocations = new ArrayList<>(sessionIds.size());
+
+        for(String sessionId: sessionIds) {
+            UserTokens.revoke(sessionId, until.toInstant().toEpochMilli());
+            revocations.add(new RevokedSession(sessionId, now, until));
+        }
+
+        try {
+            collection().insertMany(revocations);
+        } catch(MongoException ex) {
+            LOGGER.error("Error recording session revocations. Other servers will not see them.", ex);
+            return ErrorCode.error(RevocationError.DATABASE_ERROR);
+        }
+
+        return ErrorCode.success();
+    }
+
+    /*
+     * Revocations are read again for a while after they were made, since one written just before a poll may only
+     * become visible after it, and revokedAt comes from the clock of the server that made it.
+     */
+    private static void poll() {
+        long now = ServerTime.nowMillis();
+        Bson filter = Filters.and(
+            Filters.gte("revokedAt", new BsonDateTime(LAST_POLL_MILLIS - POLL_OVERLAP_MILLIS)),
+            Filters.gt("revokedUntil", new BsonDateTime(now))
+        );
+
+        try {
+            for(RevokedSession revocation: collection().find(filter)) {
+                UserTokens.revoke(revocation.sessionId, revocation.revokedUntil.toInstant().toEpochMilli());
+            }
+
+            collection().deleteMany(Filters.lte("revokedUntil", new BsonDateTime(now)));
+        } catch(MongoException ex) {
+            LOGGER.error("Error reading session revocations", ex);
+            return;
+        }
+
+        LAST_POLL_MILLIS = now;
+    }
+
+    private static MongoCollection<RevokedSession> collection() {
+        return MainDatabase.database().getCollection(COLLECTION_NAME, RevokedSession.class);
+    }
+
+    public static enum RevocationError {
+        DATABASE_ERROR;
+    }
+
+    private static final class RevokedSession implements BsonSerializable {
+        public final String sessionId;
+        public final ZonedDateTime revokedAt;
+        public final ZonedDateTime revokedUntil;
+
+        @ReflectiveConstructor
+        private RevokedSession() {
+            sessionId = null;
+            revokedAt = null;
+            revokedUntil = null;
+        }
+
+        private RevokedSession(String sessionId, ZonedDateTime revokedAt, ZonedDateTime revokedUntil) {
+            this.sessionId = sessionId;
+            this.revokedAt = revokedAt;
+            this.revokedUntil = revokedUntil;
+        }
+    }
+}
@@ -246,9 +246,7 @@ public final class UserAccount {
                 );
             }
 
-            if(result.wasAcknowledged()) {
-                return ErrorCode.success();
-            } else {
+            if(!result.wasAcknowledged()) {
                 LOGGER.warn("attempted to lock nonexistent user");
                 return ErrorCode.error(UserLookupErrorCode.INVALID_USER);
             }
@@ -256,6 +254,12 @@ public final class UserAccount {
             LOGGER.error("Database error when locking user", ex);
             return ErrorCode.error(UserLookupErrorCode.DATABASE_ERROR);
         }
+
+        if(lockValue && SessionRevocations.revokeUser(info).failed()) {
+            LOGGER.warn("Locked user, but could not revoke all of their sessions");
+        }
+
+        return ErrorCode.success();
     }
 
     private static void recordFailure(UserCredentialInfo creds) {
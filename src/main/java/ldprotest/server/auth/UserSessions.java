@@ -25,6 +25,8 @@ import com.mongodb.client.model.Updates;
 import com.mongodb.client.result.DeleteResult;
 import com.mongodb.client.result.UpdateResult;
 import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
 import ldprotest.db.IndexTools;
 import ldprotest.db.MainDatabase;
 import ldprotest.main.Main;
@@ -49,6 +51,7 @@ public class UserSessions {
 
         IndexTools.createIndexWithOpts(collection, Indexes.ascending("sessionId"), true, false);
         IndexTools.createIndexWithOpts(collection, Indexes.ascending("createdAt"), false, false);
+        IndexTools.createIndexWithOpts(collection, Indexes.ascending("email"), false, false);
     }
 
     public static Result<SessionCreationError, UserSessionInfo> createSession(UserInfo info) {
@@ -96,11 +99,7 @@ public class UserSessions {
                 Updates.set("createdAt", DateTools.millisSinceEpoch(now))
             );
 
-            if(updateResult.wasAcknowledged()) {
-                return Result.success(sessionInfo.withNewCreationDate(now));
-            } else {
-                return Result.failure(SessionCreationError.NO_SUCH_ACOUNT);
-            }
+            return refreshResult(updateResult, sessionInfo, now);
 
         } catch (MongoException ex) {
             LOGGER.error("Error refreshing session", ex);
@@ -108,6 +107,24 @@ public class UserSessions {
         }
     }
 
+    /**
+     * Decide the outcome of the write refreshing a session.
+     *
+     * A session which has been deleted, by logout or by expiry, matches no document and must not be revived, even
+     * though the token naming it still verifies once its revocation has been forgotten.
+     */
+    static Result<SessionCreationError, UserSessionInfo> refreshResult(
+        UpdateResult updateResult, UserSessionInfo sessionInfo, ZonedDateTime now
+    ) {
+        if(!updateResult.wasAcknowledged()) {
+            return Result.failure(SessionCreationError.DATABASE_ERROR);
+        } else if(updateResult.getMatchedCount() != 1) {
+            return Result.failure(SessionCreationError.NO_SUCH_SESSION);
+        } else {
+            return Result.success(sessionInfo.withNewCreationDate(now));
+        }
+    }
+
     public static Result<SessionLookupError, UserSessionInfo> lookup(String sessionId) {
         MongoCollection<UserSessionInfo> collection = collection();
 
@@ -125,6 +142,22 @@ public class UserSessions {
         }
     }
 
+    public static Result<SessionLookupError, List<String>> sessionIdsOf(UserInfo info) {
+        MongoCollection<UserSessionInfo> collection = collection();
+        List<String> sessionIds = new ArrayList<>();
+
+        try {
+            for(UserSessionInfo session: collection.find(Filters.eq("email", info.email))) {
+                sessionIds.add(session.sessionId);
+            }
+        } catch(MongoException ex) {
+            LOGGER.error("Error looking up sessions of user", ex);
+            return Result.failure(SessionLookupError.DATABASE_ERROR);
+        }
+
+        return Result.success(sessionIds);
+    }
+
     public static ErrorCode<SessionDeleteError> deleteExpired() {
         MongoCollection<UserSessionInfo> collection = collection();
         ZonedDateTime expirePoint = ServerTime.now().minusSeconds(Main.args().sessionExpiresSeconds);
@@ -178,6 +211,7 @@ public class UserSessions {
         DATABASE_ERROR,
         ACCOUNT_LOCKED,
         NO_SUCH_ACOUNT,
+        NO_SUCH_SESSION,
         EXPIRED;
     }
 
@@ -0,0 +1,201 @@
+/*
+ * This File is Part of LDProtest
+ * Copyright (C) 2021 Covid Anti Hysterics League
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Lesser Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package ldprotest.server.auth.webtoken;
+
+import com.auth0.jwt.JWT;
+import com.auth0.jwt.JWTVerifier;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.function.Supplier;
+import ldprotest.main.AppLogging;
+import static ldprotest.main.AppLogging.ResourceType.ON_CLASSPATH;
+import ldprotest.main.ServerTime;
+import ldprotest.server.auth.UserRole;
+import ldprotest.util.Result;
+import picocli.CommandLine;
+import picocli.CommandLine.Command;
+
+/**
+ * Compares the cost of signing and verifying user tokens with each token key algorithm.
+ *
+ * Tokens carry the same claims as the tokens issued by UserTokens, so token lengths match what clients receive.
+ */
+public final class CmdLineBenchmarkTokens {
+
+    private static final String LOGBACK_CONFIG = "/config/logback-off.xml";
+
+    private CmdLineBenchmarkTokens() {
+        /* do not construct */
+    }
+
+    public static void main(String args[]) {
+        Result<Integer, Args> parseResult = parseArgs(args);
+
+        if(parseResult.isFailure()) {
+            System.exit(parseResult.failureReason());
+        }
+
+        Args options = parseResult.result();
+
+        if(options.helpRequested) {
+            System.exit(0);
+        }
+
+        try {
+            AppLogging.setLogbackConfig(LOGBACK_CONFIG, ON_CLASSPATH);
+        }
+        catch(IOException e) {
+            System.err.println("Error setting logging configuration:" + e);
+            System.exit(-1);
+        }
+
+        System.out.println(String.format(
+            "%-10s %-8s %10s %10s %10s %8s", "algorithm", "op", "mean us", "p50 us", "p95 us", "length"
+        ));
+
+        for(TokenKeyAlgorithm algorithm: TokenKeyAlgorithm.values()) {
+            TokenKey key;
+
+            try {
+                key = new TokenKey(algorithm.generateKeyPair(), UUID.randomUUID(), algorithm);
+            } catch(GeneralSecurityException ex) {
+                System.err.println("Unable to generate " + algorithm + " key: " + ex.getMessage());
+                System.exit(-1);
+                return;
+            }
+
+            benchmark(key, options);
+        }
+
+        System.exit(0);
+    }
+
+    private static void benchmark(TokenKey key, Args options) {
+        String token = sign(key);
+        JWTVerifier verifier = JWT.require(key.verificationAlgorithm)
+            .withSubject(UserTokenSubject.FOR_BEARER_TOKEN.name())
+            .build();
+
+        Stats signStats = run(() -> sign(key), options);
+        Stats verifyStats = run(() -> verifier.verify(token), options);
+
+        System.out.println(signStats.format(key.algorithm, "sign", token.length()));
+        System.out.println(verifyStats.format(key.algorithm, "verify", token.length()));
+    }
+
+    private static String sign(TokenKey key) {
+        UUID uid = UUID.randomUUID();
+        Long[] uidBits = {uid.getMostSignificantBits(), uid.getLeastSignificantBits()};
+        Date now = Date.from(ServerTime.now().toInstant());
+
+        return JWT.create()
+            .withKeyId(key.kid.toString())
+            .withClaim("username", "benchmark-user")
+            .withArrayClaim("uid", uidBits)
+            .withClaim("email", "benchmark@example.com")
+            .withClaim("role", UserRole.USER.name())
+            .withClaim("sessionId", UUID.randomUUID().toString())
+            .withClaim("sessionCreatedAt", now)
+            .withSubject(UserTokenSubject.FOR_BEARER_TOKEN.name())
+            .withExpiresAt(Date.from(ServerTime.now().plusMinutes(15).toInstant()))
+            .sign(key.signingAlgorithm);
+    }
+
+    private static Stats run(Supplier<?> op, Args options) {
+        for(int i = 0; i < options.warmup; i++) {
+            op.get();
+        }
+
+        long[] nanos = new long[options.iterations];
+
+        for(int i = 0; i < options.iterations; i++) {
+            long start = System.nanoTime();
+            op.get();
+            nanos[i] = System.nanoTime() - start;
+        }
+
+        return new Stats(nanos);
+    }
+
+    private static Result<Integer, Args> parseArgs(String... cmdLine) {
+        Args args = new Args();
+        int exitCode = new CommandLine(args).execute(cmdLine);
+
+        if(exitCode != 0) {
+            return Result.failure(exitCode);
+        } else {
+            return Result.success(args);
+        }
+    }
+
+    private static final class Stats {
+        private final long[] nanos;
+
+        public Stats(long[] nanos) {
+            this.nanos = nanos;
+            Arrays.sort(this.nanos);
+        }
+
+        public String format(TokenKeyAlgorithm algorithm, String op, int length) {
+            double mean = Arrays.stream(nanos).average().orElse(0);
+
+            return String.format(
+                "%-10s %-8s %10.1f %10.1f %10.1f %8d",
+                algorithm, op, mean / 1e3, percentile(0.5) / 1e3, percentile(0.95) / 1e3, length
+            );
+        }
+
+        private double percentile(double p) {
+            return nanos[Math.min(nanos.length - 1, (int)(p * nanos.length))];
+        }
+    }
+
+    @Command(
+        name = "benchmark-tokens",
+        description = (
+            "Benchmarks signing and verifying user tokens with each supported token key algorithm, using freshly " +
+            "generated keys. No key store or database is used."
+        )
+    )
+    private static class Args implements Callable<Integer> {
+        @CommandLine.Option(
+            names={"--iterations"},
+            description="Number of timed operations per algorithm and operation. Default is 2000."
+        )
+        public int iterations = 2000;
+
+        @CommandLine.Option(
+            names={"--warmup"},
+            description="Number of untimed operations run first so the JIT has compiled the signing code. " +
+                "Default is 500."
+        )
+        public int warmup = 500;
+
+        @CommandLine.Option(names = { "-h", "--help" }, usageHelp = true, description = "display help text")
+        private boolean helpRequested = false;
+
+        @Override
+        public Integer call() throws Exception {
+            return 0;
+        }
+    }
+}
@@ -17,8 +17,25 @@
 */
 package ldprotest.server.auth.webtoken;
 
-import com.auth0.jwt.interfaces.RSAKeyProvider;
-
+/**
+ * Source of the keys used to sign and verify tokens.
+ */
 public interface DeferredKeyProvider {
-    RSAKeyProvider getKeyProvider();
+
+    /**
+     * @return key which new tokens are signed with
+     */
+    TokenKey signingKey();
+
+    /**
+     * @param kid key id from a token header, or null for the current signing key
+     * @return key with the given id
+     * @throws NoSuchKidException if there is no such key
+     */
+    TokenKey keyById(String kid);
+
+    /**
+     * Rotate and clean up keys. Called periodically off the request path.
+     */
+    void maintain();
 }
@@ -17,7 +17,6 @@
 */
 package ldprotest.server.auth.webtoken;
 
-import com.auth0.jwt.interfaces.RSAKeyProvider;
 import java.io.File;
 import java.io.FileReader;
 import java.io.FileWriter;
@@ -53,12 +52,11 @@ import org.slf4j.LoggerFactory;
 public class FsKeyProvider implements DeferredKeyProvider {
 
     private final static Logger LOGGER = LoggerFactory.getLogger(FsKeyProvider.class);
-    private static final String ALGORITHM = "RSA";
 
     private final LocalKeyProvider delegate;
     private String prefix;
 
-    public FsKeyProvider(String prefix) {
+    public FsKeyProvider(String prefix, TokenKeyAlgorithm algorithm) {
 
         File f = new File(prefix);
 
@@ -69,12 +67,22 @@ public class FsKeyProvider implements DeferredKeyProvider {
         }
 
         this.prefix = prefix;
-        this.delegate = new LocalKeyProvider(this::loadKeys, this::saveKey, this::deleteKey);
+        this.delegate = new LocalKeyProvider(algorithm, this::loadKeys, this::saveKey, this::deleteKey);
     }
 
     @Override
-    public RSAKeyProvider getKeyProvider() {
-        return delegate.getKeyProvider();
+    public TokenKey signingKey() {
+        return delegate.signingKey();
+    }
+
+    @Override
+    public TokenKey keyById(String kid) {
+        return delegate.keyById(kid);
+    }
+
+    @Override
+    public void maintain() {
+        delegate.maintain();
     }
 
     public static boolean testFsKeyDirectory(String path) {
@@ -82,8 +90,8 @@ public class FsKeyProvider implements DeferredKeyProvider {
         return f.exists() && f.isDirectory() && f.canExecute() && f.canRead();
     }
 
-    private Map<UUID, LocalKeyProvider.KeyData> loadKeys() {
-        Map<UUID, LocalKeyProvider.KeyData> initialKeys = new HashMap<>();
+    private Map<UUID, TokenKey> loadKeys() {
+        Map<UUID, TokenKey> initialKeys = new HashMap<>();
 
         List<FileNameInfo> keyFiles = findKeyFiles();
         List<Pair<FileNameInfo, FileNameInfo>> pairs = pairFiles(keyFiles);
@@ -95,14 +103,17 @@ public class FsKeyProvider implements DeferredKeyProvider {
             File privKeyFile = new File(filePath(pair.second.filename));
 
             try {
-                PublicKey pubKey = bytesToPubKey(parsePemFile(pubKeyFile));
-                PrivateKey privKey = bytesToPrivKey(parsePemFile(privKeyFile));
+                TokenKeyAlgorithm algorithm = pair.first.algorithm;
+                PublicKey pubKey = bytesToPubKey(parsePemFile(pubKeyFile), algorithm);
+                PrivateKey privKey = bytesToPrivKey(parsePemFile(privKeyFile), algorithm);
 
                 initialKeys.put(
                     pair.first.uuid,
-                    new LocalKeyProvider.KeyData(
+                    new TokenKey(
                         new KeyPair(pubKey, privKey),
-                        pair.first.uuid
+                        pair.first.uuid,
+                        algorithm,
+                        pair.first.created
                     )
                 );
 
@@ -114,12 +125,12 @@ public class FsKeyProvider implements DeferredKeyProvider {
         return initialKeys;
     }
 
-    private void saveKey(LocalKeyProvider.KeyData kd) {
+    private void saveKey(TokenKey kd) {
         writePubPem(kd.keyPair.getPublic(), new File(pubKeyFilePath(kd)));
         writePrivPem(kd.keyPair.getPrivate(), new File(privKeyFilePath(kd)));
     }
 
-    private void deleteKey(LocalKeyProvider.KeyData kd) {
+    private void deleteKey(TokenKey kd) {
         deleteKeyFile(pubKeyFilePath(kd));
         deleteKeyFile(privKeyFilePath(kd));
     }
@@ -140,9 +151,9 @@ public class FsKeyProvider implements DeferredKeyProvider {
         }
     }
 
-    private static PublicKey bytesToPubKey(byte[] keyBytes) {
+    private static PublicKey bytesToPubKey(byte[] keyBytes, TokenKeyAlgorithm algorithm) {
         try {
-            KeyFactory kf = KeyFactory.getInstance(ALGORITHM);
+            KeyFactory kf = KeyFactory.getInstance(algorithm.keyFactoryAlgorithm);
             EncodedKeySpec keySpec = new X509EncodedKeySpec(keyBytes);
 
             return kf.generatePublic(keySpec);
@@ -152,9 +163,9 @@ public class FsKeyProvider implements DeferredKeyProvider {
         }
     }
 
-    private static PrivateKey bytesToPrivKey(byte[] keyBytes) {
+    private static PrivateKey bytesToPrivKey(byte[] keyBytes, TokenKeyAlgorithm algorithm) {
         try {
-            KeyFactory kf = KeyFactory.getInstance(ALGORITHM);
+            KeyFactory kf = KeyFactory.getInstance(algorithm.keyFactoryAlgorithm);
             EncodedKeySpec keySpec = new PKCS8EncodedKeySpec(keyBytes);
             return kf.generatePrivate(keySpec);
         } catch (NoSuchAlgorithmException| InvalidKeySpecException ex) {
@@ -182,7 +193,7 @@ public class FsKeyProvider implements DeferredKeyProvider {
         }
     }
 
-    private String pubKeyFilePath(LocalKeyProvider.KeyData kd) {
+    private String pubKeyFilePath(TokenKey kd) {
         StringBuilder sb = new StringBuilder();
 
         sb.append(prefix);
@@ -191,12 +202,13 @@ public class FsKeyProvider implements DeferredKeyProvider {
         sb.append(kd.created.toEpochSecond());
         sb.append('~');
         sb.append(kd.kid);
+        appendAlgorithm(sb, kd.algorithm);
         sb.append(".pub");
 
         return sb.toString();
     }
 
-    private String privKeyFilePath(LocalKeyProvider.KeyData kd) {
+    private String privKeyFilePath(TokenKey kd) {
         StringBuilder sb = new StringBuilder();
 
         sb.append(prefix);
@@ -205,11 +217,20 @@ public class FsKeyProvider implements DeferredKeyProvider {
         sb.append(kd.created.toEpochSecond());
         sb.append('~');
         sb.append(kd.kid);
+        appendAlgorithm(sb, kd.algorithm);
         sb.append(".priv");
 
         return sb.toString();
     }
 
+    /* RSA key files predate the algorithm suffix and keep the old naming */
+    private static void appendAlgorithm(StringBuilder sb, TokenKeyAlgorithm algorithm) {
+        if(algorithm != TokenKeyAlgorithm.RSA512) {
+            sb.append('~');
+            sb.append(algorithm.name());
+        }
+    }
+
     private List<Pair<FileNameInfo, FileNameInfo>> pairFiles(List<FileNameInfo> l) {
         List<Pair<FileNameInfo, FileNameInfo>> pairs = new ArrayList<>();
         MultiMap<UUID, FileNameInfo> groups = new MultiMap<>();
@@ -235,6 +256,11 @@ public class FsKeyProvider implements DeferredKeyProvider {
                 continue;
             }
 
+            if(group.get(0).algorithm != group.get(1).algorithm) {
+                LOGGER.warn("Public and private key files for {} name different algorithms", ent.getKey());
+                continue;
+            }
+
             if(group.get(0).pub) {
                 pairs.add(new Pair<>(group.get(0), group.get(1)));
             } else {
@@ -286,18 +312,23 @@ public class FsKeyProvider implements DeferredKeyProvider {
         public final ZonedDateTime created;
         public final UUID uuid;
         public final boolean pub;
+        public final TokenKeyAlgorithm algorithm;
 
-        private FileNameInfo(String filename, UUID uuid, ZonedDateTime created, boolean pub) {
+        private FileNameInfo(
+            String filename, UUID uuid, ZonedDateTime created, boolean pub, TokenKeyAlgorithm algorithm
+        ) {
             this.filename = filename;
             this.uuid = uuid;
             this.created = created;
             this.pub = pub;
+            this.algorithm = algorithm;
         }
 
         public static Result<String, FileNameInfo> parseFileName(String filename) {
             boolean pub;
             long createdEpoch;
             UUID uuid;
+            TokenKeyAlgorithm algorithm = TokenKeyAlgorithm.RSA512;
 
             String[] fparts = filename.split("\\.");
 
@@ -316,10 +347,18 @@ public class FsKeyProvider implements DeferredKeyProvider {
 
             String[] nparts = name.split("~");
 
-            if(nparts.length != 2) {
+            if(nparts.length != 2 && nparts.length != 3) {
                 return Result.failure("Wrong number of file name parts");
             }
 
+            if(nparts.length == 3) {
+                try {
+                    algorithm = TokenKeyAlgorithm.valueOf(nparts[2]);
+                } catch(IllegalArgumentException ex) {
+                    return Result.failure("Unknown key algorithm");
+                }
+            }
+
             try {
                 createdEpoch = Long.parseLong(nparts[0]);
             } catch(NumberFormatException ex) {
@@ -336,7 +375,8 @@ public class FsKeyProvider implements DeferredKeyProvider {
                 filename,
                 uuid,
                 ServerTime.ofEpochSecond(createdEpoch),
-                pub
+                pub,
+                algorithm
             ));
         }
     }
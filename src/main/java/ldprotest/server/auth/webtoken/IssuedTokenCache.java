@@ -0,0 +1,134 @@
+/*
+ * This File is Part of LDProtest
+ * Copyright (C) 2021 Covid Anti Hysterics League
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Lesser Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package ldprotest.server.auth.webtoken;
+
+import java.util.Iterator;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import ldprotest.server.auth.UserSessionInfo;
+
+/**
+ * Bounded cache of the most recently signed token for each session and subject.
+ *
+ * A cached token is handed out again only while more than half of its lifetime remains, and only for exactly the
+ * session info it was signed with, so clients never receive a token that is close to expiry or that carries stale
+ * claims. When the cache reaches capacity, entries past their reuse window are swept, and if it is still full
+ * arbitrary entries are dropped.
+ */
+final class IssuedTokenCache {
+
+    private final int capacity;
+    private final ConcurrentMap<Key, Entry> entries;
+
+    IssuedTokenCache(int capacity) {
+        this.capacity = capacity;
+        this.entries = new ConcurrentHashMap<>();
+    }
+
+    Optional<String> get(UserSessionInfo info, UserTokenSubject subject, long nowMillis) {
+        Entry entry = entries.get(new Key(info.sessionId, subject));
+
+        if(entry == null || !entry.reusable(nowMillis) || !entry.info.equals(info)) {
+            return Optional.empty();
+        }
+
+        return Optional.of(entry.token);
+    }
+
+    void put(
+        UserSessionInfo info, UserTokenSubject subject, String token, long issuedAtMillis, long expiresAtMillis
+    ) {
+        Entry entry = new Entry(info, token, issuedAtMillis, expiresAtMillis);
+
+        if(!entry.reusable(issuedAtMillis)) {
+            return;
+        }
+
+        if(entries.size() >= capacity) {
+            evict(issuedAtMillis);
+        }
+
+        entries.put(new Key(info.sessionId, subject), entry);
+    }
+
+    void invalidate(String sessionId) {
+        for(UserTokenSubject subject: UserTokenSubject.values()) {
+            entries.remove(new Key(sessionId, subject));
+        }
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    private void evict(long nowMillis) {
+        entries.values().removeIf((entry) -> !entry.reusable(nowMillis));
+
+        Iterator<Entry> it = entries.values().iterator();
+        int target = capacity - capacity / 4;
+
+        while(entries.size() > target && it.hasNext()) {
+            it.next();
+            it.remove();
+        }
+    }
+
+    private static final class Key {
+        final String sessionId;
+        final UserTokenSubject subject;
+
+        Key(String sessionId, UserTokenSubject subject) {
+            this.sessionId = sessionId;
+            this.subject = subject;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if(!(other instanceof Key)) {
+                return false;
+            }
+
+            Key key = (Key)other;
+
+            return sessionId.equals(key.sessionId) && subject == key.subject;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(sessionId, subject);
+        }
+    }
+
+    private static final class Entry {
+        final UserSessionInfo info;
+        final String token;
+        final long reuseUntilMillis;
+
+        Entry(UserSessionInfo info, String token, long issuedAtMillis, long expiresAtMillis) {
+            this.info = info;
+            this.token = token;
+            this.reuseUntilMillis = issuedAtMillis + (expiresAtMillis - issuedAtMillis) / 2;
+        }
+
+        boolean reusable(long nowMillis) {
+            return nowMillis < reuseUntilMillis;
+        }
+    }
+}
@@ -17,17 +17,15 @@
 */
 package ldprotest.server.auth.webtoken;
 
-import com.auth0.jwt.interfaces.RSAKeyProvider;
-import java.security.KeyPair;
-import java.security.KeyPairGenerator;
-import java.security.NoSuchAlgorithmException;
-import java.security.interfaces.RSAPrivateKey;
-import java.security.interfaces.RSAPublicKey;
+import java.security.GeneralSecurityException;
 import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.PriorityQueue;
+import java.util.Optional;
 import java.util.UUID;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
@@ -36,150 +34,166 @@ import ldprotest.main.ServerTime;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Keeps the key pairs used to sign and verify tokens.
+ *
+ * New keys use the configured algorithm. If the newest existing key uses a different algorithm, a key of the
+ * configured algorithm is generated at startup and signs from then on, while the older keys remain available to verify
+ * tokens they signed until they are deleted.
+ *
+ * The keys in use are published as an immutable KeySet through an AtomicReference, so signing and verification read a
+ * consistent snapshot without taking any lock. Generating, rotating and deleting keys is done by {@link #maintain()},
+ * which runs as a periodic task: the next signing key is generated and saved well before it is needed, and rotation
+ * only swaps in a new snapshot.
+ */
 class LocalKeyProvider implements DeferredKeyProvider {
 
     private final static Logger LOGGER = LoggerFactory.getLogger(LocalKeyProvider.class);
 
-    private static final int RSA_KEY_SIZE = 4096;
+    /* how long before rotation the next key is generated */
+    private static final long MAX_PREGENERATE_SECONDS = 3600;
 
-    private final AtomicReference<KeyData> latestKeyPair;
-    private final Map<UUID, KeyData> oldKeys;
+    private final AtomicReference<KeySet> keySet;
 
+    private final TokenKeyAlgorithm algorithm;
     private final int keyDeletionTimeoutSeconds;
+    private final int keyRotateSeconds;
+    private final long pregenerateSeconds;
 
-    private final PriorityQueue<KeyData> cleanupQueue;
+    private final Consumer<TokenKey> saveKey;
+    private final Consumer<TokenKey> deleteKey;
 
-    private final Consumer<KeyData> saveKey;
-    private final Consumer<KeyData> deleteKey;
+    /* only accessed by maintain() */
+    private Optional<TokenKey> nextKey;
 
     public LocalKeyProvider(
-        Supplier<Map<UUID, KeyData>> loadKeys, Consumer<KeyData> saveKey, Consumer<KeyData> deleteKey
+        TokenKeyAlgorithm algorithm,
+        Supplier<Map<UUID, TokenKey>> loadKeys,
+        Consumer<TokenKey> saveKey,
+        Consumer<TokenKey> deleteKey
     ) {
 
+        this.algorithm = algorithm;
         this.saveKey = saveKey;
         this.deleteKey = deleteKey;
         this.keyDeletionTimeoutSeconds = Main.args().tokenKeyDeletionSeconds;
+        this.keyRotateSeconds = Main.args().tokenKeyRotateSeconds;
+        this.pregenerateSeconds = Math.min(MAX_PREGENERATE_SECONDS, keyRotateSeconds / 10);
+        this.nextKey = Optional.empty();
 
-        this.oldKeys = new ConcurrentHashMap<>(loadKeys.get());
+        Map<UUID, TokenKey> keys = new HashMap<>(loadKeys.get());
 
-        this.cleanupQueue = new PriorityQueue<>((a, b) -> {
-            if(a.created.isBefore(b.created)) {
-                return -1;
-            } else if (b.created.isBefore(a.created)) {
-                return 1;
-            } else {
-                return 0;
+        TokenKey newest = null;
+        for(TokenKey kd: keys.values()) {
+            if(newest == null || kd.created.isAfter(newest.created)) {
+                newest = kd;
             }
-        });
-
-        if(this.oldKeys.isEmpty()) {
-            KeyData kd = generateKeyData();
-            oldKeys.put(kd.kid, kd);
         }
 
-        for(KeyData kd: oldKeys.values()) {
-            cleanupQueue.add(kd);
+        if(newest == null || newest.algorithm != algorithm) {
+            if(newest != null) {
+                LOGGER.info("Switching token signing keys from {} to {}", newest.algorithm, algorithm);
+            }
+            newest = generateKey();
+            keys.put(newest.kid, newest);
         }
 
-        this.latestKeyPair = new AtomicReference<>(cleanupQueue.peek());
+        this.keySet = new AtomicReference<>(new KeySet(newest, keys));
     }
 
     @Override
-    public RSAKeyProvider getKeyProvider() {
-
-        doCleanup();
-        doRotation();
-
-        KeyData keyData = latestKeyPair.get();
-
-        return new RSAKeyProvider() {
-            @Override
-            public RSAPublicKey getPublicKeyById(String kid) {
-
-                if(kid == null) {
-                    return (RSAPublicKey)keyData.keyPair.getPublic();
-                }
+    public TokenKey signingKey() {
+        return keySet.get().signing;
+    }
 
-                KeyData oldKeyData = oldKeys.get(UUID.fromString(kid));
+    @Override
+    public TokenKey keyById(String kid) {
+        KeySet keys = keySet.get();
 
-                if(oldKeyData == null) {
-                    LOGGER.info("Request for non-existant RSA key: {}", kid);
-                    throw new NoSuchKidException("KID does not exist");
-                }
+        if(kid == null) {
+            return keys.signing;
+        }
 
-                return (RSAPublicKey)oldKeyData.keyPair.getPublic();
-            }
+        TokenKey key = keys.byKid.get(UUID.fromString(kid));
 
-            @Override
-            public RSAPrivateKey getPrivateKey() {
-                return (RSAPrivateKey)keyData.keyPair.getPrivate();
-            }
+        if(key == null) {
+            LOGGER.info("Request for non-existant token key: {}", kid);
+            throw new NoSuchKidException("KID does not exist");
+        }
 
-            @Override
-            public String getPrivateKeyId() {
-                return keyData.kid.toString();
-            }
-        };
+        return key;
     }
 
-    private synchronized void doRotation() {
-        KeyData keyData = latestKeyPair.get();
+    /**
+     * Generate the next signing key shortly before the current one is due for rotation, rotate to it once it is due,
+     * and delete expired keys.
+     *
+     * Keys age from when they are generated, so the next key is generated only a little ahead of time. Deleted keys
+     * are removed from the published key set before their files are deleted.
+     */
+    @Override
+    public synchronized void maintain() {
         ZonedDateTime now = ServerTime.now();
+        KeySet current = keySet.get();
+        TokenKey signing = current.signing;
+        Map<UUID, TokenKey> keys = new HashMap<>(current.byKid);
+        ZonedDateTime rotateAt = signing.created.plusSeconds(keyRotateSeconds);
 
-        if(keyData.created.plusSeconds(Main.args().tokenKeyRotateSeconds).isAfter(now)) {
-            return;
+        if(nextKey.isEmpty() && !rotateAt.minusSeconds(pregenerateSeconds).isAfter(now)) {
+            nextKey = Optional.of(generateKey());
         }
 
-        KeyData kd = generateKeyData();
-
-        oldKeys.put(kd.kid, kd);
-        cleanupQueue.add(kd);
-        latestKeyPair.set(kd);
-    }
+        if(!rotateAt.isAfter(now) && nextKey.isPresent()) {
+            signing = nextKey.get();
+            keys.put(signing.kid, signing);
+            nextKey = Optional.empty();
+            LOGGER.info("Rotated token signing key to {}", signing.kid);
+        }
 
-    private synchronized void doCleanup() {
-        ZonedDateTime now = ServerTime.now();
-         while(!cleanupQueue.isEmpty()) {
-            KeyData kd = cleanupQueue.peek();
+        List<TokenKey> expired = new ArrayList<>();
 
-            if(kd.created.plusSeconds(keyDeletionTimeoutSeconds).isAfter(now)) {
-                break;
+        for(TokenKey kd: keys.values()) {
+            if(kd != signing && !kd.created.plusSeconds(keyDeletionTimeoutSeconds).isAfter(now)) {
+                expired.add(kd);
             }
+        }
+
+        for(TokenKey kd: expired) {
+            keys.remove(kd.kid);
+        }
+
+        if(signing != current.signing || !expired.isEmpty()) {
+            keySet.set(new KeySet(signing, keys));
+        }
 
-            cleanupQueue.poll();
-            oldKeys.remove(kd.kid);
+        for(TokenKey kd: expired) {
             deleteKey.accept(kd);
         }
     }
 
-    private KeyData generateKeyData() {
+    private TokenKey generateKey() {
         UUID uuid = UUID.randomUUID();
-        KeyData kd = new KeyData(generateKeyPair(), uuid);
-        saveKey.accept(kd);
-
-        return kd;
-    }
+        TokenKey kd;
 
-    private static KeyPair generateKeyPair() {
         try {
-            KeyPairGenerator keyGen = KeyPairGenerator.getInstance("RSA");
-            keyGen.initialize(RSA_KEY_SIZE);
-            return keyGen.generateKeyPair();
-        } catch (NoSuchAlgorithmException ex) {
-            LOGGER.error("Error generating RSA key", ex);
-            throw new KeyGenerationError("Error generating RSA Key");
+            kd = new TokenKey(algorithm.generateKeyPair(), uuid, algorithm);
+        } catch (GeneralSecurityException ex) {
+            LOGGER.error("Error generating {} key", algorithm, ex);
+            throw new KeyGenerationError("Error generating " + algorithm + " Key");
         }
+
+        saveKey.accept(kd);
+
+        return kd;
     }
 
-    static final class KeyData {
-        public final ZonedDateTime created;
-        public final KeyPair keyPair;
-        public final UUID kid;
+    private static final class KeySet {
+        final TokenKey signing;
+        final Map<UUID, TokenKey> byKid;
 
-        public KeyData(KeyPair keyPair, UUID kid) {
-            this.created = ServerTime.now();
-            this.keyPair = keyPair;
-            this.kid = kid;
+        KeySet(TokenKey signing, Map<UUID, TokenKey> byKid) {
+            this.signing = signing;
+            this.byKid = Collections.unmodifiableMap(new HashMap<>(byKid));
         }
     }
 }
@@ -0,0 +1,128 @@
+/*
+ * This File is Part of LDProtest
+ * Copyright (C) 2021 Covid Anti Hysterics League
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Lesser Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package ldprotest.server.auth.webtoken;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Set of revoked session ids, each revoked until the tokens issued before its revocation have expired.
+ *
+ * Lookups go through a Bloom filter first, so checking a session that was never revoked costs a few hash probes and
+ * no map lookup. Bloom filters cannot remove entries, so the filter is rebuilt from the map whenever expired entries
+ * are purged or the set outgrows it. Writers are serialized, readers take no locks: an id is put in the map before
+ * its bits are set, so a reader that sees the bits also sees the entry.
+ */
+final class RevokedSessions {
+
+    private static final int MIN_FILTER_BITS = 1 << 16;
+    private static final int BITS_PER_ENTRY = 16;
+    private static final int HASHES = 4;
+
+    private final ConcurrentMap<String, Long> revokedUntil;
+    private volatile AtomicLongArray filter;
+
+    RevokedSessions() {
+        this.revokedUntil = new ConcurrentHashMap<>();
+        this.filter = new AtomicLongArray(MIN_FILTER_BITS / Long.SIZE);
+    }
+
+    boolean isRevoked(String sessionId, long nowMillis) {
+        if(!mightContain(filter, sessionId)) {
+            return false;
+        }
+
+        Long until = revokedUntil.get(sessionId);
+
+        return until != null && until > nowMillis;
+    }
+
+    synchronized void add(String sessionId, long untilMillis, long nowMillis) {
+        if(untilMillis <= nowMillis) {
+            return;
+        }
+
+        revokedUntil.merge(sessionId, untilMillis, Math::max);
+
+        if((long)revokedUntil.size() * BITS_PER_ENTRY > (long)filter.length() * Long.SIZE) {
+            rebuild();
+        } else {
+            set(filter, sessionId);
+        }
+    }
+
+    synchronized void purge(long nowMillis) {
+        if(revokedUntil.values().removeIf((until) -> until <= nowMillis)) {
+            rebuild();
+        }
+    }
+
+    int size() {
+        return revokedUntil.size();
+    }
+
+    private void rebuild() {
+        long bits = Math.max(MIN_FILTER_BITS, (long)revokedUntil.size() * BITS_PER_ENTRY * 2);
+        AtomicLongArray next = new AtomicLongArray((int)(Long.highestOneBit(bits - 1) * 2 / Long.SIZE));
+
+        for(String sessionId: revokedUntil.keySet()) {
+            set(next, sessionId);
+        }
+
+        filter = next;
+    }
+
+    private static void set(AtomicLongArray filter, String sessionId) {
+        long hash = hash(sessionId);
+        int mask = filter.length() * Long.SIZE - 1;
+
+        for(int i = 0; i < HASHES; i++) {
+            int bit = probe(hash, i) & mask;
+            long word = 1L << bit;
+            filter.accumulateAndGet(bit >>> 6, word, (a, b) -> a | b);
+        }
+    }
+
+    private static boolean mightContain(AtomicLongArray filter, String sessionId) {
+        long hash = hash(sessionId);
+        int mask = filter.length() * Long.SIZE - 1;
+
+        for(int i = 0; i < HASHES; i++) {
+            int bit = probe(hash, i) & mask;
+
+            if((filter.get(bit >>> 6) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /* double hashing: probe i is h1 + i * h2, with h2 odd so probes differ in the low bits */
+    private static int probe(long hash, int i) {
+        return (int)hash + i * ((int)(hash >>> 32) | 1);
+    }
+
+    private static long hash(String sessionId) {
+        long z = sessionId.hashCode() * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * This File is Part of LDProtest
+ * Copyright (C) 2021 Covid Anti Hysterics League
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Lesser Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package ldprotest.server.auth.webtoken;
+
+import com.auth0.jwt.algorithms.Algorithm;
+import java.security.KeyPair;
+import java.time.ZonedDateTime;
+import java.util.UUID;
+import ldprotest.main.ServerTime;
+
+/**
+ * A token signing key pair, identified in token headers by its kid.
+ *
+ * The signing and verification Algorithm instances are built once per key and shared, since they hold no per-token
+ * state.
+ */
+public final class TokenKey {
+    public final ZonedDateTime created;
+    public final KeyPair keyPair;
+    public final UUID kid;
+    public final TokenKeyAlgorithm algorithm;
+
+    final Algorithm signingAlgorithm;
+    final Algorithm verificationAlgorithm;
+
+    public TokenKey(KeyPair keyPair, UUID kid, TokenKeyAlgorithm algorithm) {
+        this(keyPair, kid, algorithm, ServerTime.now());
+    }
+
+    public TokenKey(KeyPair keyPair, UUID kid, TokenKeyAlgorithm algorithm, ZonedDateTime created) {
+        this.created = created;
+        this.keyPair = keyPair;
+        this.kid = kid;
+        this.algorithm = algorithm;
+        this.signingAlgorithm = algorithm.signing(keyPair);
+        this.verificationAlgorithm = algorithm.verification(keyPair);
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * This File is Part of LDProtest
+ * Copyright (C) 2021 Covid Anti Hysterics League
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Lesser Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package ldprotest.server.auth.webtoken;
+
+import com.auth0.jwt.algorithms.Algorithm;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.security.interfaces.ECPrivateKey;
+import java.security.interfaces.ECPublicKey;
+import java.security.interfaces.RSAPrivateKey;
+import java.security.interfaces.RSAPublicKey;
+import java.security.spec.ECGenParameterSpec;
+
+/**
+ * Signature algorithms available for token signing keys.
+ *
+ * Each key records its own algorithm, so tokens signed with keys of an earlier algorithm keep verifying after the
+ * configured algorithm is changed, until those keys are deleted.
+ */
+public enum TokenKeyAlgorithm {
+    RSA512("RSA") {
+        @Override
+        KeyPair generateKeyPair() throws NoSuchAlgorithmException, InvalidAlgorithmParameterException {
+            KeyPairGenerator keyGen = KeyPairGenerator.getInstance(keyFactoryAlgorithm);
+            keyGen.initialize(RSA_KEY_SIZE);
+            return keyGen.generateKeyPair();
+        }
+
+        @Override
+        Algorithm signing(KeyPair keyPair) {
+            return Algorithm.RSA512((RSAPublicKey)keyPair.getPublic(), (RSAPrivateKey)keyPair.getPrivate());
+        }
+
+        @Override
+        Algorithm verification(KeyPair keyPair) {
+            return Algorithm.RSA512((RSAPublicKey)keyPair.getPublic(), null);
+        }
+    },
+    ES256("EC") {
+        @Override
+        KeyPair generateKeyPair() throws NoSuchAlgorithmException, InvalidAlgorithmParameterException {
+            KeyPairGenerator keyGen = KeyPairGenerator.getInstance(keyFactoryAlgorithm);
+            keyGen.initialize(new ECGenParameterSpec(EC_CURVE));
+            return keyGen.generateKeyPair();
+        }
+
+        @Override
+        Algorithm signing(KeyPair keyPair) {
+            return Algorithm.ECDSA256((ECPublicKey)keyPair.getPublic(), (ECPrivateKey)keyPair.getPrivate());
+        }
+
+        @Override
+        Algorithm verification(KeyPair keyPair) {
+            return Algorithm.ECDSA256((ECPublicKey)keyPair.getPublic(), null);
+        }
+    };
+
+    private static final int RSA_KEY_SIZE = 4096;
+    private static final String EC_CURVE = "secp256r1";
+
+    /* name of the algorithm for KeyFactory and KeyPairGenerator */
+    public final String keyFactoryAlgorithm;
+
+    private TokenKeyAlgorithm(String keyFactoryAlgorithm) {
+        this.keyFactoryAlgorithm = keyFactoryAlgorithm;
+    }
+
+    abstract KeyPair generateKeyPair() throws NoSuchAlgorithmException, InvalidAlgorithmParameterException;
+
+    abstract Algorithm signing(KeyPair keyPair);
+
+    abstract Algorithm verification(KeyPair keyPair);
+}
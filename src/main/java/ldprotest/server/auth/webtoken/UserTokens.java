@@ -19,7 +19,7 @@ package ldprotest.server.auth.webtoken;
 
 import com.auth0.jwt.JWT;
 import com.auth0.jwt.JWTVerifier;
-import com.auth0.jwt.algorithms.Algorithm;
+import com.auth0.jwt.exceptions.AlgorithmMismatchException;
 import com.auth0.jwt.exceptions.InvalidClaimException;
 import com.auth0.jwt.exceptions.JWTDecodeException;
 import com.auth0.jwt.exceptions.JWTVerificationException;
@@ -27,11 +27,20 @@ import com.auth0.jwt.exceptions.SignatureVerificationException;
 import com.auth0.jwt.exceptions.TokenExpiredException;
 import com.auth0.jwt.interfaces.DecodedJWT;
 import java.util.Date;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 import ldprotest.main.Main;
 import ldprotest.main.ServerTime;
 import ldprotest.server.auth.UserRole;
 import ldprotest.server.auth.UserSessionInfo;
+import ldprotest.tasks.PeriodicTaskManager;
 import ldprotest.util.DateTools;
 import ldprotest.util.Result;
 import org.slf4j.Logger;
@@ -44,6 +53,12 @@ public final class UserTokens {
     private static final int EXPIRE_LEEWAY_FOR_IGNORE_EXPIRY = 3600 * 24 * 365;
     private static final int NORMAL_EXPIRE_LEEWAY = 15;
 
+    private static final int VERIFIED_TOKEN_CACHE_SIZE = 10000;
+    private static final int ISSUED_TOKEN_CACHE_SIZE = 10000;
+
+    private static final long KEY_MAINTENANCE_PERIOD_SECONDS = 60;
+    private static final long REVOCATION_PURGE_PERIOD_SECONDS = 60;
+
     private static UserTokensState STATE_INSTANCE;
 
     private UserTokens() {
@@ -58,22 +73,84 @@ public final class UserTokens {
         }
 
         String fsKeyStorePath = Main.args().fsKeyStorePath;
+        TokenKeyAlgorithm algorithm = Main.args().tokenKeyAlgorithm;
 
         if(fsKeyStorePath.isBlank()) {
-            STATE_INSTANCE = new UserTokensState(new VolatileTokenKeyProvider());
+            STATE_INSTANCE = new UserTokensState(new VolatileTokenKeyProvider(algorithm));
         } else {
-            STATE_INSTANCE = new UserTokensState(new FsKeyProvider(fsKeyStorePath));
+            STATE_INSTANCE = new UserTokensState(new FsKeyProvider(fsKeyStorePath, algorithm));
         }
     }
 
+    /**
+     * Schedule key generation, rotation and deletion as a periodic task so that none of it runs on a request thread.
+     *
+     * The task is not interrupted at shutdown, so key files are never left half written.
+     */
+    public static void register() {
+        PeriodicTaskManager.registerBulkTask(
+            0, KEY_MAINTENANCE_PERIOD_SECONDS, TimeUnit.SECONDS, false,
+            (signal) -> STATE_INSTANCE.deferredKeyProvider.maintain()
+        );
+        PeriodicTaskManager.registerTask(
+            REVOCATION_PURGE_PERIOD_SECONDS, REVOCATION_PURGE_PERIOD_SECONDS, TimeUnit.SECONDS, true,
+            (signal) -> STATE_INSTANCE.revokedSessions.purge(ServerTime.nowMillis())
+        );
+    }
+
+    /**
+     * Get a token for a session.
+     *
+     * A token already signed for the same session and subject is returned again while most of its lifetime remains,
+     * so repeated refreshes from the same session cost one signature per half token lifetime.
+     */
     public static String sign(UserSessionInfo info, UserTokenSubject subject) {
         return STATE_INSTANCE.sign(info, subject);
     }
 
+    /**
+     * Get tokens for several subjects of the same session.
+     *
+     * The first token is signed on the calling thread while the others are signed on the common pool, so the caller
+     * waits for about one signature instead of one per subject.
+     */
+    public static Map<UserTokenSubject, String> signAll(UserSessionInfo info, UserTokenSubject... subjects) {
+        Map<UserTokenSubject, CompletableFuture<String>> pending = new EnumMap<>(UserTokenSubject.class);
+
+        for(int i = 1; i < subjects.length; i++) {
+            UserTokenSubject subject = subjects[i];
+            pending.put(subject, CompletableFuture.supplyAsync(() -> STATE_INSTANCE.sign(info, subject)));
+        }
+
+        Map<UserTokenSubject, String> tokens = new EnumMap<>(UserTokenSubject.class);
+
+        if(subjects.length > 0) {
+            tokens.put(subjects[0], STATE_INSTANCE.sign(info, subjects[0]));
+        }
+
+        for(Map.Entry<UserTokenSubject, CompletableFuture<String>> ent: pending.entrySet()) {
+            tokens.put(ent.getKey(), ent.getValue().join());
+        }
+
+        return tokens;
+    }
+
     public static Result<VerificationFailure, UserSessionInfo> verify(String token, UserTokenSubject subject) {
         return STATE_INSTANCE.verify(token, subject);
     }
 
+    /**
+     * Reject tokens for a session until a given time.
+     *
+     * Only this server is affected; SessionRevocations records the revocation for other servers.
+     *
+     * @param sessionId session to revoke
+     * @param untilMillis time after which all tokens issued before the revocation have expired
+     */
+    public static void revoke(String sessionId, long untilMillis) {
+        STATE_INSTANCE.revoke(sessionId, untilMillis);
+    }
+
     public static Result<VerificationFailure, UserSessionInfo> verifyWithoutExpiration(
         String token, UserTokenSubject subject
     ) {
@@ -93,17 +170,32 @@ public final class UserTokens {
 
     private static final class UserTokensState {
         private final DeferredKeyProvider deferredKeyProvider;
+        private final VerifiedTokenCache verifiedTokens;
+        private final IssuedTokenCache issuedTokens;
+        private final RevokedSessions revokedSessions;
+        private final ConcurrentMap<VerifierKey, CachedVerifier> verifiers;
 
        private UserTokensState(DeferredKeyProvider deferredKeyProvider) {
            this.deferredKeyProvider = deferredKeyProvider;
+           this.verifiedTokens = new VerifiedTokenCache(VERIFIED_TOKEN_CACHE_SIZE);
+           this.issuedTokens = new IssuedTokenCache(ISSUED_TOKEN_CACHE_SIZE);
+           this.revokedSessions = new RevokedSessions();
+           this.verifiers = new ConcurrentHashMap<>();
        }
 
        public String sign(UserSessionInfo info, UserTokenSubject subject) {
+           long now = ServerTime.nowMillis();
+           Optional<String> cached = issuedTokens.get(info, subject, now);
 
-           Algorithm algorithm = Algorithm.RSA512(deferredKeyProvider.getKeyProvider());
-           Date expiry = Date.from(ServerTime.now().plusSeconds(Main.args().tokenExpiresSeconds).toInstant());
+           if(cached.isPresent()) {
+               return cached.get();
+           }
 
-           return JWT.create()
+           TokenKey key = deferredKeyProvider.signingKey();
+           long expiresAt = now + Main.args().tokenExpiresSeconds * 1000L;
+
+           String token = JWT.create()
+               .withKeyId(key.kid.toString())
                .withClaim("username", info.username)
                .withArrayClaim("uid", uuidToBits(info.globalUniqueUserId))
                .withClaim("email", info.email)
@@ -111,36 +203,85 @@ public final class UserTokens {
                .withClaim("sessionId", info.sessionId)
                .withClaim("sessionCreatedAt", DateTools.ZonedDateTimeToDate(info.createdAt))
                .withSubject(subject.name())
-               .withExpiresAt(expiry)
-               .sign(algorithm);
+               .withExpiresAt(new Date(expiresAt))
+               .sign(key.signingAlgorithm);
+
+           issuedTokens.put(info, subject, token, now, expiresAt);
+
+           return token;
        }
 
        public Result<VerificationFailure, UserSessionInfo> verify(String token, UserTokenSubject subject) {
-           return verify(token, subject, NORMAL_EXPIRE_LEEWAY);
+           long now = ServerTime.nowMillis();
+           Optional<UserSessionInfo> cached = verifiedTokens.get(token, subject, now);
+
+           if(cached.isPresent()) {
+               return checkRevoked(cached.get(), now);
+           }
+
+           Result<VerificationFailure, DecodedJWT> result = verify(token, subject, NORMAL_EXPIRE_LEEWAY);
+
+           if(result.isFailure()) {
+               return Result.failure(result.failureReason());
+           }
+
+           Result<VerificationFailure, UserSessionInfo> info = toSessionInfo(result.result());
+
+           if(info.isSuccess() && result.result().getExpiresAt() != null) {
+               verifiedTokens.put(token, subject, info.result(), result.result().getExpiresAt().getTime(), now);
+           }
+
+           if(info.isFailure()) {
+               return info;
+           }
+
+           return checkRevoked(info.result(), now);
        }
 
        public Result<VerificationFailure, UserSessionInfo> verifyWithoutExpiration(
            String token, UserTokenSubject subject
        ) {
-           return verify(token, subject, EXPIRE_LEEWAY_FOR_IGNORE_EXPIRY);
+           Result<VerificationFailure, DecodedJWT> result = verify(token, subject, EXPIRE_LEEWAY_FOR_IGNORE_EXPIRY);
+
+           if(result.isFailure()) {
+               return Result.failure(result.failureReason());
+           }
+
+           Result<VerificationFailure, UserSessionInfo> info = toSessionInfo(result.result());
+
+           if(info.isFailure()) {
+               return info;
+           }
+
+           return checkRevoked(info.result(), ServerTime.nowMillis());
        }
 
-       private Result<VerificationFailure, UserSessionInfo> verify(
+       public void revoke(String sessionId, long untilMillis) {
+           revokedSessions.add(sessionId, untilMillis, ServerTime.nowMillis());
+           issuedTokens.invalidate(sessionId);
+       }
+
+       /* checked after the verified token cache, so a cached token is rejected as soon as its session is revoked */
+       private Result<VerificationFailure, UserSessionInfo> checkRevoked(UserSessionInfo info, long nowMillis) {
+           if(info.sessionId != null && revokedSessions.isRevoked(info.sessionId, nowMillis)) {
+               return Result.failure(VerificationFailure.REVOKED);
+           }
+
+           return Result.success(info);
+       }
+
+       private Result<VerificationFailure, DecodedJWT> verify(
            String token, UserTokenSubject subject, int expireLeeway
        ) {
            DecodedJWT jwt;
            try {
                try {
-                   Algorithm algorithm = Algorithm.RSA512(deferredKeyProvider.getKeyProvider());
-                   JWTVerifier verifier = JWT.require(algorithm)
-                       .withSubject(subject.name())
-                       .acceptExpiresAt(expireLeeway)
-                       .build();
-                   jwt = verifier.verify(token);
+                   DecodedJWT decoded = JWT.decode(token);
+                   jwt = verifier(decoded.getKeyId(), subject, expireLeeway).verify(decoded);
                } catch (InvalidClaimException ex){
                    LOGGER.error("Invalid JWT claim: this may be an indication of attempted malicious activity");
                    return Result.failure(VerificationFailure.INVALID_CLAIM);
-               } catch(SignatureVerificationException ex) {
+               } catch(SignatureVerificationException | AlgorithmMismatchException ex) {
                    LOGGER.warn(
                        "Invalid JWT signature or unknown kid. Message: {}",
                        ex.getMessage()
@@ -150,7 +291,7 @@ public final class UserTokens {
                    return Result.failure(VerificationFailure.EXPIRED);
                } catch (NoSuchKidException ex) {
                    return Result.failure(VerificationFailure.NO_KEY);
-               } catch(JWTDecodeException ex) {
+               } catch(JWTDecodeException | IllegalArgumentException ex) {
                    return Result.failure(VerificationFailure.MALFORMED_TOKEN);
                }
            } catch(JWTVerificationException ex) {
@@ -158,6 +299,44 @@ public final class UserTokens {
                return Result.failure(VerificationFailure.OTHER_ERROR);
            }
 
+           return Result.success(jwt);
+       }
+
+       /**
+        * Get a verifier for tokens signed with a key.
+        *
+        * Verifiers are reused for as long as the key provider returns the same key for the kid, and check the token
+        * against that key's own algorithm. A kid which no longer exists throws NoSuchKidException and its verifiers are
+        * dropped.
+        */
+       private JWTVerifier verifier(String kid, UserTokenSubject subject, int expireLeeway) {
+           TokenKey tokenKey;
+
+           try {
+               tokenKey = deferredKeyProvider.keyById(kid);
+           } catch(NoSuchKidException ex) {
+               verifiers.keySet().removeIf((key) -> key.kid.equals(kid));
+               throw ex;
+           }
+
+           VerifierKey key = new VerifierKey(kid, subject, expireLeeway);
+           CachedVerifier cached = verifiers.get(key);
+
+           if(cached != null && cached.tokenKey == tokenKey) {
+               return cached.verifier;
+           }
+
+           JWTVerifier verifier = JWT.require(tokenKey.verificationAlgorithm)
+               .withSubject(subject.name())
+               .acceptExpiresAt(expireLeeway)
+               .build();
+
+           verifiers.put(key, new CachedVerifier(tokenKey, verifier));
+
+           return verifier;
+       }
+
+       private static Result<VerificationFailure, UserSessionInfo> toSessionInfo(DecodedJWT jwt) {
            try {
                return Result.success(sessionInfoFromDecodedJWT(jwt));
            }  catch (IllegalArgumentException ex) {
@@ -167,6 +346,44 @@ public final class UserTokens {
        }
     }
 
+    private static final class VerifierKey {
+        private final String kid;
+        private final UserTokenSubject subject;
+        private final int expireLeeway;
+
+        private VerifierKey(String kid, UserTokenSubject subject, int expireLeeway) {
+            this.kid = kid == null ? "" : kid;
+            this.subject = subject;
+            this.expireLeeway = expireLeeway;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if(!(other instanceof VerifierKey)) {
+                return false;
+            }
+
+            VerifierKey key = (VerifierKey)other;
+
+            return kid.equals(key.kid) && subject == key.subject && expireLeeway == key.expireLeeway;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(kid, subject, expireLeeway);
+        }
+    }
+
+    private static final class CachedVerifier {
+        private final TokenKey tokenKey;
+        private final JWTVerifier verifier;
+
+        private CachedVerifier(TokenKey tokenKey, JWTVerifier verifier) {
+            this.tokenKey = tokenKey;
+            this.verifier = verifier;
+        }
+    }
+
     private static Long[] uuidToBits(UUID uuid) {
         Long[] uuidBits = {uuid.getMostSignificantBits(), uuid.getLeastSignificantBits()};
         return uuidBits;
@@ -186,6 +403,7 @@ public final class UserTokens {
         SIGNATURE_FAILED,
         OTHER_ERROR,
         MALFORMED_TOKEN,
-        NO_KEY;
+        NO_KEY,
+        REVOKED;
     }
 }
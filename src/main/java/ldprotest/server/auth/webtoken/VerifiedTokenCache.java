@@ -0,0 +1,107 @@
+/*
+ * This File is Part of LDProtest
+ * Copyright (C) 2021 Covid Anti Hysterics League
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Lesser Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package ldprotest.server.auth.webtoken;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import ldprotest.server.auth.UserSessionInfo;
+
+/**
+ * Bounded cache of tokens whose signature and claims have already been verified.
+ *
+ * Entries are keyed by a SHA-256 digest of the token rather than the token itself, which keeps keys small and means a
+ * hit requires presenting the exact token that was verified. Each entry is valid until the token's own expiry, so a
+ * hit is equivalent to verifying the token again. Expired entries are swept when the cache reaches capacity, and if
+ * it is still full arbitrary entries are dropped.
+ */
+final class VerifiedTokenCache {
+
+    private final int capacity;
+    private final ConcurrentMap<String, Entry> entries;
+
+    VerifiedTokenCache(int capacity) {
+        this.capacity = capacity;
+        this.entries = new ConcurrentHashMap<>();
+    }
+
+    Optional<UserSessionInfo> get(String token, UserTokenSubject subject, long nowMillis) {
+        Entry entry = entries.get(digest(token));
+
+        if(entry == null || entry.subject != subject || entry.expiresAtMillis <= nowMillis) {
+            return Optional.empty();
+        }
+
+        return Optional.of(entry.info);
+    }
+
+    void put(String token, UserTokenSubject subject, UserSessionInfo info, long expiresAtMillis, long nowMillis) {
+        if(expiresAtMillis <= nowMillis) {
+            return;
+        }
+
+        if(entries.size() >= capacity) {
+            evict(nowMillis);
+        }
+
+        entries.put(digest(token), new Entry(subject, info, expiresAtMillis));
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    private void evict(long nowMillis) {
+        entries.values().removeIf((entry) -> entry.expiresAtMillis <= nowMillis);
+
+        Iterator<Entry> it = entries.values().iterator();
+        int target = capacity - capacity / 4;
+
+        while(entries.size() > target && it.hasNext()) {
+            it.next();
+            it.remove();
+        }
+    }
+
+    private static String digest(String token) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] hash = digest.digest(token.getBytes(StandardCharsets.UTF_8));
+            return Base64.getEncoder().encodeToString(hash);
+        } catch(NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("SHA-256 not available", ex);
+        }
+    }
+
+    private static final class Entry {
+        final UserTokenSubject subject;
+        final UserSessionInfo info;
+        final long expiresAtMillis;
+
+        Entry(UserTokenSubject subject, UserSessionInfo info, long expiresAtMillis) {
+            this.subject = subject;
+            this.info = info;
+            this.expiresAtMillis = expiresAtMillis;
+        }
+    }
+}
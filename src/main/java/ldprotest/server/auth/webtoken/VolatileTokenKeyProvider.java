@@ -17,19 +17,28 @@
 */
 package ldprotest.server.auth.webtoken;
 
-import com.auth0.jwt.interfaces.RSAKeyProvider;
 import java.util.HashMap;
 
 public class VolatileTokenKeyProvider implements DeferredKeyProvider {
 
     private final LocalKeyProvider delegate;
 
-    public VolatileTokenKeyProvider() {
-        delegate = new LocalKeyProvider(() -> new HashMap<>(), (kd) -> {}, (kd) -> {});
+    public VolatileTokenKeyProvider(TokenKeyAlgorithm algorithm) {
+        delegate = new LocalKeyProvider(algorithm, () -> new HashMap<>(), (kd) -> {}, (kd) -> {});
     }
 
     @Override
-    public RSAKeyProvider getKeyProvider() {
-        return delegate.getKeyProvider();
+    public TokenKey signingKey() {
+        return delegate.signingKey();
+    }
+
+    @Override
+    public TokenKey keyById(String kid) {
+        return delegate.keyById(kid);
+    }
+
+    @Override
+    public void maintain() {
+        delegate.maintain();
     }
 }
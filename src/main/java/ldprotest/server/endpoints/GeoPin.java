@@ -17,43 +17,73 @@
 */
 package ldprotest.server.endpoints;
 
+import com.google.gson.stream.JsonWriter;
 import com.mongodb.MongoException;
-import com.mongodb.client.MongoCollection;
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.Filters;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
+import java.util.UUID;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import ldprotest.business.PrivateProtestData;
+import ldprotest.business.ProtestIndex;
+import ldprotest.business.ProtestSummary;
+import ldprotest.business.ProtestTombstone;
 import ldprotest.business.PublicProtestData;
+import ldprotest.business.TimeWindow;
 import ldprotest.db.MongoErrorCode;
+import ldprotest.geo.ClusterGrid;
+import ldprotest.geo.ClusterGrid.Cluster;
 import ldprotest.geo.Coordinate;
+import ldprotest.geo.GeoCell;
 import ldprotest.geo.GeoRectangle;
 import ldprotest.serialization.JsonSerializable;
+import ldprotest.serialization.JsonSerialization;
 import ldprotest.server.auth.HttpVerbTypes;
+import ldprotest.server.auth.RateLimit;
 import ldprotest.server.auth.SecConfig;
 import ldprotest.server.auth.SecurityFilter;
 import ldprotest.server.auth.UserRole;
 import ldprotest.server.auth.UserSessionInfo;
 import ldprotest.server.infra.JsonEndpoint;
+import ldprotest.server.infra.JsonEndpoint.EncodedStream;
 import ldprotest.server.infra.JsonError;
 import ldprotest.util.Result;
+import ldprotest.util.types.Either;
+import ldprotest.util.types.MayFail;
+import org.bson.conversions.Bson;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import spark.Request;
 
 public class GeoPin {
 
     private final static Logger LOGGER = LoggerFactory.getLogger(GeoPin.class);
     private static final String PATH = "/api/pins";
 
+    private static final RateLimit RATE_LIMIT = RateLimit.perUserOrClientIp(10, 40);
+
     private static final Pattern QUERY_PARAM_PATTERN = Pattern.compile(
         "^(-?[0-9]+\\.?[0-9]*),(-?[0-9]+\\.?[0-9]*)$"
     );
 
     private static final String SOUTH_WEST_QUERY_PARAM = "SW";
     private static final String NORTH_EAST_QUERY_PARAM = "NE";
+    private static final String FROM_QUERY_PARAM = "from";
+    private static final String TO_QUERY_PARAM = "to";
+    private static final String SINCE_QUERY_PARAM = "since";
+
+    /* keeps recurrence arithmetic on time window bounds from overflowing */
+    private static final long MAX_TIME_QUERY_PARAM_MILLIS = 1L << 50;
 
     private static final int MAX_PROTESTS_PER_REQUEST = 128;
+    private static final int MAX_STREAMED_PROTESTS_PER_REQUEST = 2048;
+    private static final int CLUSTER_CELLS_PER_AXIS = 16;
 
     private GeoPin() {
         /* GeoPin */
@@ -71,7 +101,8 @@ public class GeoPin {
                 .add(UserRole.UNAUTHENTICATED, HttpVerbTypes.GET)
                 .add(UserRole.USER, HttpVerbTypes.GET)
 
-                .build()
+                .build(),
+            RATE_LIMIT
         );
 
         JsonEndpoint.post(PATH, PublicProtestData.class, (protest, request, response) -> {
@@ -99,7 +130,7 @@ public class GeoPin {
             }
 
             try {
-                PrivateProtestData.collection().insertOne(
+                PrivateProtestData.insertProtest(
                     PrivateProtestData.generate(protest, sessionInfo.get().globalUniqueUserId)
                 );
             } catch(MongoException ex) {
@@ -110,46 +141,98 @@ public class GeoPin {
             return JsonError.success();
         });
 
-        JsonEndpoint.get(PATH, (request, response) -> {
+        JsonEndpoint.getNegotiated(PATH, PinEncoding.CONTENT_TYPE, (request, response) -> {
 
             String swParam = request.queryParams(SOUTH_WEST_QUERY_PARAM);
             String neParam = request.queryParams(NORTH_EAST_QUERY_PARAM);
 
             if(swParam == null || neParam == null) {
-                return JsonEndpoint.responseFromError(
+                return Either.ofLeft(JsonEndpoint.responseFromError(
                     JsonError.invalidParams("Missing required query param"), response
-                );
+                ));
             }
 
             Result<String, Coordinate> swResult = parseCoordinateQueryParam(swParam);
             Result<String, Coordinate> neResult = parseCoordinateQueryParam(neParam);
 
             if(swResult.isFailure() || neResult.isFailure()) {
-                return JsonEndpoint.responseFromError(
+                return Either.ofLeft(JsonEndpoint.responseFromError(
                     JsonError.invalidParams("Coordinate param is invalid"), response
-                );
+                ));
+            }
+
+            MayFail<TimeWindow> window = parseTimeWindow(request);
+
+            if(window.isFailure()) {
+                return Either.ofLeft(JsonEndpoint.responseFromError(
+                    JsonError.invalidParams("Time window param is invalid"), response
+                ));
             }
 
+            String sinceParam = request.queryParams(SINCE_QUERY_PARAM);
+            MayFail<Long> since = sinceParam == null ?
+                MayFail.success(0L) :
+                MayFail.succeedOrEatException(NumberFormatException.class, () -> Long.parseLong(sinceParam));
+
+            if(since.isFailure() || since.result() < 0) {
+                return Either.ofLeft(JsonEndpoint.responseFromError(
+                    JsonError.invalidParams("Version param is invalid"), response
+                ));
+            }
+
+            GeoRectangle area = new GeoRectangle(swResult.result(), neResult.result());
+
             try {
-                return searchProtests(new GeoRectangle(swResult.result(), neResult.result()));
+                if(sinceParam != null) {
+                    return Either.ofRight(encoded(pinChanges(area, window.result(), since.result())));
+                }
+
+                return Either.ofRight(
+                    streamPins(area, window.result(), ClusterGrid.levelFor(area, CLUSTER_CELLS_PER_AXIS))
+                );
             } catch(MongoException ex) {
                 if(ex.getCode() == MongoErrorCode.QUERY_OPTIONS_IN_ERROR.code) {
                     LOGGER.warn("Client queried for invalid region: sw={} ne={}", swResult.result(), neResult.result());
-                    return new Protests(List.of());
+                    return Either.ofRight(encoded(new Protests(List.of(), List.of(), 0)));
                 } else {
                     LOGGER.error("Database error when querying protests.", ex);
-                    return JsonEndpoint.responseFromError(JsonError.internalError(), response);
+                    return Either.ofLeft(JsonEndpoint.responseFromError(JsonError.internalError(), response));
                 }
             }
         });
     }
 
-    private static Result<String, Coordinate> parseCoordinateQueryParam(String param) {
+    static MayFail<TimeWindow> parseTimeWindow(Request request) {
+        MayFail<Long> from = parseTimeQueryParam(request.queryParams(FROM_QUERY_PARAM), Long.MIN_VALUE);
+        MayFail<Long> to = parseTimeQueryParam(request.queryParams(TO_QUERY_PARAM), Long.MAX_VALUE);
+
+        if(from.isFailure() || to.isFailure() || from.result() > to.result()) {
+            return MayFail.failure();
+        }
+
+        return MayFail.success(new TimeWindow(from.result(), to.result()));
+    }
+
+    private static MayFail<Long> parseTimeQueryParam(String param, long defaultValue) {
+        if(param == null) {
+            return MayFail.success(defaultValue);
+        }
+
+        MayFail<Long> millis = MayFail.succeedOrEatException(NumberFormatException.class, () -> Long.parseLong(param));
+
+        if(millis.isFailure() || Math.abs(millis.result()) > MAX_TIME_QUERY_PARAM_MILLIS) {
+            return MayFail.failure();
+        }
+
+        return millis;
+    }
+
+    static Result<String, Coordinate> parseCoordinateQueryParam(String param) {
 
         Matcher matcher = QUERY_PARAM_PATTERN.matcher(param);
 
         if(!matcher.matches()) {
-            Result.failure("Parameter doesn't match pattern");
+            return Result.failure("Parameter doesn't match pattern");
         }
 
         String latString = matcher.group(1);
@@ -161,22 +244,316 @@ public class GeoPin {
         return Result.success(new Coordinate(lat, lng));
     }
 
-    private static Protests searchProtests(GeoRectangle area) {
-        MongoCollection<PrivateProtestData> collection = PrivateProtestData.collection();
-        List<PrivateProtestData> protests = new ArrayList<>();
+    /**
+     * Find the pins within an area.
+     *
+     * If the area holds more than MAX_PROTESTS_PER_REQUEST protests, they are summarized as clusters read from the
+     * protest index instead. When the index is not loaded, the database is queried, and if the area holds more
+     * protests than that the result is truncated and marked as such.
+     *
+     * The version returned only changes when a protest within the cluster cells covering the area changes, so
+     * responses for a fixed area can be cached and compared by content.
+     * Pins read from the database have version 0, from which clients must sync every change or reload.
+     *
+     * @param area region to search
+     * @param clusterLevel cluster grid level used if the area must be clustered
+     * @return either individual protests or clusters
+     */
+    static Protests searchPins(GeoRectangle area, int clusterLevel) {
+        Optional<Protests> indexed = indexedPins(area, TimeWindow.ALL, clusterLevel, MAX_PROTESTS_PER_REQUEST);
+
+        if(indexed.isPresent()) {
+            return indexed.get();
+        }
+
+        List<ProtestSummary> protests = new ArrayList<>();
+        boolean truncated;
+
+        try(MongoCursor<ProtestSummary> cursor = databasePins(
+            area, TimeWindow.ALL, MAX_PROTESTS_PER_REQUEST
+        ).iterator()) {
+            while(protests.size() < MAX_PROTESTS_PER_REQUEST && cursor.hasNext()) {
+                ProtestSummary protest = cursor.next();
+
+                if(area.contains(protest.location)) {
+                    protests.add(protest);
+                }
+            }
+
+            truncated = hasMore(cursor, area, TimeWindow.ALL);
+        }
+
+        return new Protests(protests, List.of(), 0, truncated);
+    }
+
+    /**
+     * Find the pins within an area, to be written directly to the response.
+     *
+     * Protests read from the database are serialized to JSON one at a time as the cursor advances, so the response size
+     * is not bounded by heap use. The binary encoding is columnar and so collects the protests first. The query is
+     * started before returning so that database errors are reported with a status. A database result cut off at
+     * MAX_STREAMED_PROTESTS_PER_REQUEST is marked truncated.
+     *
+     * @param area region to search
+     * @param window only protests occurring within this window are returned
+     * @param clusterLevel cluster grid level used if the area must be clustered
+     * @return stream writing a Protests object
+     */
+    private static EncodedStream streamPins(GeoRectangle area, TimeWindow window, int clusterLevel) {
+        Optional<Protests> indexed = indexedPins(area, window, clusterLevel, MAX_STREAMED_PROTESTS_PER_REQUEST);
+
+        if(indexed.isPresent()) {
+            return encoded(indexed.get());
+        }
+
+        MongoCursor<ProtestSummary> cursor = databasePins(area, window, MAX_STREAMED_PROTESTS_PER_REQUEST).iterator();
+
+        return new EncodedStream() {
+            @Override
+            public void write(JsonWriter writer) throws IOException {
+                try(cursor) {
+                    writer.beginObject();
+
+                    int count = 0;
+
+                    writer.name("protests").beginArray();
+                    while(count < MAX_STREAMED_PROTESTS_PER_REQUEST && cursor.hasNext()) {
+                        ProtestSummary protest = cursor.next();
+
+                        if(area.contains(protest.location) && window.includes(protest)) {
+                            JsonSerialization.GSON.toJson(protest, ProtestSummary.class, writer);
+                            count++;
+                        }
+                    }
+                    writer.endArray();
+
+                    writer.name("clusters").beginArray().endArray();
+
+                    writer.name("version").value(0);
+
+                    writer.name("truncated").value(hasMore(cursor, area, window));
+
+                    writer.endObject();
+                }
+            }
+
+            @Override
+            public void writeBinary(DataOutputStream out) throws IOException {
+                List<ProtestSummary> protests = new ArrayList<>();
+                boolean truncated;
+
+                try(cursor) {
+                    while(protests.size() < MAX_STREAMED_PROTESTS_PER_REQUEST && cursor.hasNext()) {
+                        ProtestSummary protest = cursor.next();
+
+                        if(area.contains(protest.location) && window.includes(protest)) {
+                            protests.add(protest);
+                        }
+                    }
+
+                    truncated = hasMore(cursor, area, window);
+                }
+
+                PinEncoding.write(out, protests, List.of(), List.of(), 0, false, truncated);
+            }
+        };
+    }
+
+    private static EncodedStream encoded(Protests pins) {
+        return new EncodedStream() {
+            @Override
+            public void write(JsonWriter writer) {
+                JsonSerialization.GSON.toJson(pins, Protests.class, writer);
+            }
+
+            @Override
+            public void writeBinary(DataOutputStream out) throws IOException {
+                PinEncoding.write(out, pins.protests, pins.clusters, List.of(), pins.version, false, pins.truncated);
+            }
+        };
+    }
+
+    private static EncodedStream encoded(PinChanges changes) {
+        return new EncodedStream() {
+            @Override
+            public void write(JsonWriter writer) {
+                JsonSerialization.GSON.toJson(changes, PinChanges.class, writer);
+            }
 
-        for(PrivateProtestData data: collection.find(area.bsonFilter("location")).limit(MAX_PROTESTS_PER_REQUEST)) {
-            protests.add(data);
+            @Override
+            public void writeBinary(DataOutputStream out) throws IOException {
+                PinEncoding.write(
+                    out, changes.protests, List.of(), changes.removed, changes.version, changes.reload, false
+                );
+            }
+        };
+    }
+
+    /**
+     * Find the pins within an area in the protest index.
+     *
+     * The version is read before searching, so that every change it covers is reflected in the result.
+     */
+    private static Optional<Protests> indexedPins(
+        GeoRectangle area, TimeWindow window, int clusterLevel, int maxProtests
+    ) {
+        Optional<Long> version = ProtestIndex.version(area, clusterLevel);
+        Optional<List<ProtestSummary>> indexed = ProtestIndex.search(area, window::includes, maxProtests + 1);
+
+        if(version.isEmpty() || indexed.isEmpty()) {
+            return Optional.empty();
+        }
+
+        if(indexed.get().size() <= maxProtests) {
+            return Optional.of(new Protests(indexed.get(), List.of(), version.get()));
         }
 
-        return new Protests(protests);
+        Optional<List<Cluster>> clusters = window.isUnbounded() ?
+            ProtestIndex.clusters(area, clusterLevel) :
+            ProtestIndex.clusters(area, clusterLevel, window::includes);
+
+        return clusters.map((c) -> new Protests(List.of(), c, version.get()));
     }
 
-    private static final class Protests implements JsonSerializable {
-        List<PrivateProtestData> protests;
+    /**
+     * Find the changes to the pins within an area since a version returned by an earlier request.
+     *
+     * Changed protests which no longer occur within the time window are reported as removed. If the changes are too
+     * many, or tombstones they depend on have been purged, the client is told to reload instead.
+     *
+     * Changes are read from PrivateProtestData.SYNC_OVERLAP_VERSIONS before since, which is enough for every change
+     * not already sent to be included. The version returned is that of the protest index, which makes the same
+     * guarantee for the next sync.
+     *
+     * @param area region to search
+     * @param window only protests occurring within this window are returned
+     * @param since version returned with the pins the client currently holds
+     * @return changes to apply to the client's pins
+     */
+    private static PinChanges pinChanges(GeoRectangle area, TimeWindow window, long since) {
+        long version = Math.max(since, ProtestIndex.version().orElse(since));
+
+        if(since < ProtestTombstone.horizon()) {
+            return PinChanges.reload(version);
+        }
+
+        long from = Math.max(0, since - PrivateProtestData.SYNC_OVERLAP_VERSIONS);
+        List<ProtestSummary> protests = new ArrayList<>();
+        List<UUID> removed = new ArrayList<>();
+        int changes = 0;
+
+        FindIterable<ProtestSummary> changed = ProtestSummary.collection()
+            .find(Filters.and(Filters.gt("version", from), GeoCell.bsonFilter("cell", area)))
+            .projection(ProtestSummary.PROJECTION)
+            .limit(MAX_STREAMED_PROTESTS_PER_REQUEST + 1);
 
-        public Protests(List<PrivateProtestData> protests) {
+        for(ProtestSummary protest: changed) {
+            if(++changes > MAX_STREAMED_PROTESTS_PER_REQUEST) {
+                return PinChanges.reload(version);
+            }
+
+            if(!area.contains(protest.location)) {
+                continue;
+            }
+
+            if(window.includes(protest)) {
+                protests.add(protest);
+            } else {
+                removed.add(protest.protestId);
+            }
+        }
+
+        for(ProtestTombstone tombstone: ProtestTombstone.since(area, from)) {
+            if(++changes > MAX_STREAMED_PROTESTS_PER_REQUEST) {
+                return PinChanges.reload(version);
+            }
+
+            if(area.contains(tombstone.location)) {
+                removed.add(tombstone.protestId);
+            }
+        }
+
+        return new PinChanges(protests, removed, version, false);
+    }
+
+    /**
+     * Check whether a database cursor holds another protest within an area and time window, after a result has been
+     * read up to its limit.
+     */
+    private static boolean hasMore(MongoCursor<ProtestSummary> cursor, GeoRectangle area, TimeWindow window) {
+        while(cursor.hasNext()) {
+            ProtestSummary protest = cursor.next();
+
+            if(area.contains(protest.location) && window.includes(protest)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Query the database for protests near an area.
+     *
+     * The query is a set of range scans over the cell id index, which is much cheaper than a 2dsphere polygon query.
+     * Cell ranges cover more than the area itself, so results must be filtered with GeoRectangle.contains and the limit
+     * applied after filtering.
+     *
+     * @param area region to search
+     * @param window time window, which must also be checked with TimeWindow.includes
+     * @param maxProtests number of protests the caller needs, used as the cursor batch size
+     * @return protests within a covering of area
+     */
+    private static FindIterable<ProtestSummary> databasePins(GeoRectangle area, TimeWindow window, int maxProtests) {
+        Bson filter = window.isUnbounded() ?
+            GeoCell.bsonFilter("cell", area) :
+            Filters.and(GeoCell.bsonFilter("cell", area), window.bsonFilter());
+
+        return ProtestSummary.collection()
+            .find(filter)
+            .projection(ProtestSummary.PROJECTION)
+            .batchSize(maxProtests);
+    }
+
+    static final class Protests implements JsonSerializable {
+        List<ProtestSummary> protests;
+        List<Cluster> clusters;
+        long version;
+
+        /* only set when the protest index is not loaded, and more protests matched than were returned */
+        boolean truncated;
+
+        public Protests(List<ProtestSummary> protests, List<Cluster> clusters, long version) {
+            this(protests, clusters, version, false);
+        }
+
+        public Protests(List<ProtestSummary> protests, List<Cluster> clusters, long version, boolean truncated) {
             this.protests = protests;
+            this.clusters = clusters;
+            this.version = version;
+            this.truncated = truncated;
+        }
+    }
+
+    /**
+     * Changes since a version. Removed protests should be applied first, as a protest which moved within the area is
+     * both removed from its old location and listed at its new one.
+     */
+    static final class PinChanges implements JsonSerializable {
+        List<ProtestSummary> protests;
+        List<UUID> removed;
+        long version;
+        boolean reload;
+
+        public PinChanges(List<ProtestSummary> protests, List<UUID> removed, long version, boolean reload) {
+            this.protests = protests;
+            this.removed = removed;
+            this.version = version;
+            this.reload = reload;
+        }
+
+        public static PinChanges reload(long version) {
+            return new PinChanges(List.of(), List.of(), version, true);
         }
     }
 }
@@ -17,12 +17,14 @@
 */
 package ldprotest.server.endpoints;
 
+import java.util.Map;
 import ldprotest.main.Main;
 import ldprotest.serialization.JsonSerializable;
 import ldprotest.serialization.ReflectiveConstructor;
 import ldprotest.server.auth.SecConfig;
 import ldprotest.server.auth.SecurityFilter;
 import ldprotest.server.auth.HttpVerbTypes;
+import ldprotest.server.auth.RateLimit;
 import ldprotest.server.auth.UserAccount;
 import ldprotest.server.auth.UserAccount.UserAuthenticationFailure;
 import ldprotest.server.auth.UserInfo;
@@ -45,6 +47,9 @@ public final class Login {
     public static final String LOGIN_COOKIE_NAME = "login-token";
 
     private static final String PATH = "/api/login";
+
+    /* every attempt runs a deliberately slow password hash */
+    private static final RateLimit RATE_LIMIT = RateLimit.perClientIp(0.2, 10);
     private final static Logger LOGGER = LoggerFactory.getLogger(Login.class);
 
     private Login() {
@@ -68,7 +73,8 @@ public final class Login {
                 .add(UserRole.MODERATOR, HttpVerbTypes.POST)
                 .add(UserRole.PLANNER, HttpVerbTypes.POST)
                 .setAuthEndpoint()
-                .build()
+                .build(),
+            RATE_LIMIT
         );
 
         JsonEndpoint.post(PATH, LoginJson.class, (loginData, request, response) -> {
@@ -109,8 +115,11 @@ public final class Login {
                 return JsonEndpoint.responseFromError(JsonError.loginError(), response);
             }
 
-            String cookieToken = UserTokens.sign(sessionResult.result(), UserTokenSubject.FOR_COOKIE);
-            String headerToken = UserTokens.sign(sessionResult.result(), UserTokenSubject.FOR_BEARER_TOKEN);
+            Map<UserTokenSubject, String> tokens = UserTokens.signAll(
+                sessionResult.result(), UserTokenSubject.FOR_COOKIE, UserTokenSubject.FOR_BEARER_TOKEN
+            );
+            String cookieToken = tokens.get(UserTokenSubject.FOR_COOKIE);
+            String headerToken = tokens.get(UserTokenSubject.FOR_BEARER_TOKEN);
 
             CookieAttributes cookieAtr = loginTokenCookie(cookieToken, usingHttps);
 
@@ -23,6 +23,7 @@ import ldprotest.serialization.JsonSerializable;
 import ldprotest.server.auth.HttpVerbTypes;
 import ldprotest.server.auth.SecConfig;
 import ldprotest.server.auth.SecurityFilter;
+import ldprotest.server.auth.SessionRevocations;
 import ldprotest.server.auth.UserRole;
 import ldprotest.server.auth.UserSessionInfo;
 import ldprotest.server.auth.UserSessions;
@@ -73,6 +74,14 @@ public class Logout {
                 if(err.failed()) {
                     LOGGER.warn("Failed to delete user session on logout request with reason: {}", err.reason());
                 }
+
+                ErrorCode<SessionRevocations.RevocationError> revokeErr = SessionRevocations.revoke(
+                    session.get().sessionId
+                );
+
+                if(revokeErr.failed()) {
+                    LOGGER.warn("Failed to record session revocation on logout with reason: {}", revokeErr.reason());
+                }
             }
 
             Login.deleteTokenCookie().setCookie(response);
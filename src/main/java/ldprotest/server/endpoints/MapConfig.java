@@ -32,6 +32,7 @@ import ldprotest.geo.geoip.GeoIpLookup;
 import ldprotest.main.Main;
 import ldprotest.serialization.JsonSerializable;
 import ldprotest.serialization.ReflectiveConstructor;
+import ldprotest.server.auth.RateLimit;
 import ldprotest.server.auth.SecConfig;
 import ldprotest.server.auth.SecurityFilter;
 import ldprotest.server.infra.JsonEndpoint;
@@ -48,6 +49,9 @@ public final class MapConfig {
     private static final String TOKEN_PATH = "/api/map-api-token";
     private static final String INITIAL_CONFIG_PATH = "/api/map-config";
 
+    /* each initial config request may cost a GeoIP lookup in the database until the table is loaded */
+    private static final RateLimit INITIAL_CONFIG_RATE_LIMIT = RateLimit.perClientIp(0.5, 10);
+
     private MapConfig() {
         /* do not construct */
     }
@@ -57,7 +61,7 @@ public final class MapConfig {
         boolean geoIpEnabled = !Main.args().disableGeoIpLookup;
 
         SecurityFilter.add(TOKEN_PATH, SecConfig.ANONYMOUS_GET);
-        SecurityFilter.add(INITIAL_CONFIG_PATH, SecConfig.ANONYMOUS_GET);
+        SecurityFilter.add(INITIAL_CONFIG_PATH, SecConfig.ANONYMOUS_GET, INITIAL_CONFIG_RATE_LIMIT);
 
         Supplier<String> tokenSupplier = createTokenSupplier();
 
@@ -126,7 +130,7 @@ public final class MapConfig {
         }
 
         public void register() {
-            PeriodicTaskManager.registerTask(0, renewal, TimeUnit.SECONDS, true, this);
+            PeriodicTaskManager.registerBulkTask(0, renewal, TimeUnit.SECONDS, true, this);
         }
 
         private void refresh() {
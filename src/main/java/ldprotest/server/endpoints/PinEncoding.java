@@ -0,0 +1,190 @@
+/*
+ * This File is Part of LDProtest
+ * Copyright (C) 2021 Covid Anti Hysterics League
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Lesser Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package ldprotest.server.endpoints;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Function;
+import ldprotest.business.ProtestSummary;
+import ldprotest.geo.ClusterGrid.Cluster;
+import ldprotest.geo.Coordinate;
+import ldprotest.server.infra.http.ContentType;
+import ldprotest.util.DateTools;
+
+/**
+ * Compact binary encoding of pin responses, sent in place of JSON to clients which ask for it.
+ *
+ * Integers are LEB128 varints, zigzag encoded when signed. Coordinates are quantized to 1e-6 degrees and stored as
+ * columns of deltas, so that nearby pins cost a few bytes each. Titles and cluster ids are stored once in a string
+ * table and referenced by index, protest ids are raw 16 byte UUIDs and dates are milliseconds since the epoch, as in
+ * the JSON response.
+ *
+ * Layout, in order:
+ *   magic "LDPP", format version, flags (bit 0: reload, bit 1: truncated), change version
+ *   string table: count, then for each string its UTF-8 length and bytes
+ *   protests: count, ids, latitudes, longitudes, title indexes, dates, recurrence periods, change versions
+ *   clusters: count, id indexes, counts, then latitude and longitude columns of centroids, south west corners and
+ *     north east corners
+ *   removed protests: count, ids
+ *
+ * A date is 0 if absent, otherwise one more than the zigzag encoded delta from the previous present date. Likewise a
+ * recurrence period is 0 if absent, otherwise one more than the zigzag encoded period, and a protest's change version
+ * is 0 if absent, otherwise one more than the version.
+ */
+final class PinEncoding {
+
+    static final ContentType CONTENT_TYPE = ContentType.parse("application/vnd.ldprotest.pins");
+
+    private static final int MAGIC = 0x4c445050;
+    private static final int FORMAT_VERSION = 2;
+    private static final int RELOAD_FLAG = 1;
+    private static final int TRUNCATED_FLAG = 2;
+    private static final double COORDINATE_SCALE = 1e6;
+
+    private PinEncoding() {
+        /* do not construct */
+    }
+
+    static void write(
+        DataOutputStream out,
+        List<ProtestSummary> protests,
+        List<Cluster> clusters,
+        List<UUID> removed,
+        long version,
+        boolean reload,
+        boolean truncated
+    ) throws IOException {
+        Map<String, Integer> strings = new HashMap<>();
+        List<String> table = new ArrayList<>();
+        Function<String, Integer> intern = (s) -> strings.computeIfAbsent(s, (k) -> {
+            table.add(k);
+            return table.size() - 1;
+        });
+
+        int[] titles = new int[protests.size()];
+        for(int i = 0; i < titles.length; i++) {
+            titles[i] = intern.apply(protests.get(i).title);
+        }
+
+        int[] clusterIds = new int[clusters.size()];
+        for(int i = 0; i < clusterIds.length; i++) {
+            clusterIds[i] = intern.apply(clusters.get(i).clusterId);
+        }
+
+        out.writeInt(MAGIC);
+        writeVarint(out, FORMAT_VERSION);
+        writeVarint(out, (reload ? RELOAD_FLAG : 0) | (truncated ? TRUNCATED_FLAG : 0));
+        writeVarint(out, version);
+
+        writeVarint(out, table.size());
+        for(String s: table) {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            writeVarint(out, bytes.length);
+            out.write(bytes);
+        }
+
+        writeVarint(out, protests.size());
+        for(ProtestSummary protest: protests) {
+            writeUuid(out, protest.protestId);
+        }
+        writeCoordinates(out, protests, (p) -> p.location);
+        for(int title: titles) {
+            writeVarint(out, title);
+        }
+
+        long previousDate = 0;
+        for(ProtestSummary protest: protests) {
+            if(protest.date.isEmpty()) {
+                writeVarint(out, 0);
+            } else {
+                long date = DateTools.millisSinceEpoch(protest.date.get());
+                writeVarint(out, zigzag(date - previousDate) + 1);
+                previousDate = date;
+            }
+        }
+
+        for(ProtestSummary protest: protests) {
+            writeVarint(out, protest.recursEveryDays.map((days) -> zigzag(days) + 1).orElse(0L));
+        }
+
+        for(ProtestSummary protest: protests) {
+            writeVarint(out, protest.version.map((v) -> v + 1).orElse(0L));
+        }
+
+        writeVarint(out, clusters.size());
+        for(int id: clusterIds) {
+            writeVarint(out, id);
+        }
+        for(Cluster cluster: clusters) {
+            writeVarint(out, cluster.count);
+        }
+        writeCoordinates(out, clusters, (c) -> c.centroid);
+        writeCoordinates(out, clusters, (c) -> c.southWest);
+        writeCoordinates(out, clusters, (c) -> c.northEast);
+
+        writeVarint(out, removed.size());
+        for(UUID id: removed) {
+            writeUuid(out, id);
+        }
+    }
+
+    private static <T> void writeCoordinates(
+        DataOutputStream out, List<T> items, Function<T, Coordinate> coordinate
+    ) throws IOException {
+        long previous = 0;
+        for(T item: items) {
+            long latitude = quantize(coordinate.apply(item).latitude);
+            writeVarint(out, zigzag(latitude - previous));
+            previous = latitude;
+        }
+
+        previous = 0;
+        for(T item: items) {
+            long longitude = quantize(coordinate.apply(item).longitude);
+            writeVarint(out, zigzag(longitude - previous));
+            previous = longitude;
+        }
+    }
+
+    private static long quantize(double degrees) {
+        return Math.round(degrees * COORDINATE_SCALE);
+    }
+
+    private static long zigzag(long n) {
+        return (n << 1) ^ (n >> 63);
+    }
+
+    private static void writeUuid(DataOutputStream out, UUID id) throws IOException {
+        out.writeLong(id.getMostSignificantBits());
+        out.writeLong(id.getLeastSignificantBits());
+    }
+
+    private static void writeVarint(DataOutputStream out, long n) throws IOException {
+        while((n & ~0x7fL) != 0) {
+            out.writeByte((int)((n & 0x7f) | 0x80));
+            n >>>= 7;
+        }
+        out.writeByte((int)n);
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * This File is Part of LDProtest
+ * Copyright (C) 2021 Covid Anti Hysterics League
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Lesser Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package ldprotest.server.endpoints;
+
+import com.mongodb.MongoException;
+import java.util.concurrent.atomic.AtomicLong;
+import ldprotest.business.PrivateProtestData;
+import ldprotest.business.ProtestChangeListener;
+import ldprotest.geo.ClusterGrid;
+import ldprotest.geo.Coordinate;
+import ldprotest.geo.SlippyTile;
+import ldprotest.main.ServerTime;
+import ldprotest.server.auth.SecConfig;
+import ldprotest.server.auth.SecurityFilter;
+import ldprotest.server.infra.JsonEndpoint;
+import ldprotest.server.infra.JsonError;
+import ldprotest.server.infra.PrerenderedJson;
+import ldprotest.util.CountLimitedLruCache;
+import ldprotest.util.types.Either;
+import ldprotest.util.types.MayFail;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import spark.Request;
+
+/**
+ * Pins addressed by slippy map tile.
+ *
+ * Unlike /api/pins, which accepts arbitrary bounds, every client viewing the same area requests the same URLs. This
+ * allows responses to be reused by browser caches and reverse proxies. Rendered tiles are also held server side until a
+ * protest within them changes.
+ */
+public final class PinTiles {
+
+    private final static Logger LOGGER = LoggerFactory.getLogger(PinTiles.class);
+
+    private static final String PATH = "/api/pins/tiles/:z/:x/:y";
+    private static final String SECURITY_PATH = "/api/pins/tiles/**";
+
+    public static final int MAX_TILE_ZOOM = 16;
+
+    /* cluster cells are 1/16th of a tile wide */
+    private static final int CLUSTER_LEVEL_OFFSET = 4;
+
+    private static final int TILE_CACHE_SIZE = 8192;
+    private static final long TILE_MAX_AGE_SECONDS = 30;
+
+    /* bounds how long a tile may be stale when protests are changed by another server instance */
+    private static final long TILE_SERVER_TTL_MS = 60 * 1000;
+
+    private static final CountLimitedLruCache<SlippyTile, RenderedTile> CACHE = new CountLimitedLruCache<>(
+        TILE_CACHE_SIZE
+    );
+    private static final AtomicLong GENERATION = new AtomicLong(0);
+
+    private PinTiles() {
+        /* do not construct */
+    }
+
+    public static void register() {
+
+        SecurityFilter.add(SECURITY_PATH, SecConfig.ANONYMOUS_GET);
+
+        PrivateProtestData.addChangeListener(new ProtestChangeListener() {
+            @Override
+            public void inserted(PrivateProtestData protest) {
+                invalidate(protest.location);
+            }
+
+            @Override
+            public void updated(PrivateProtestData before, PrivateProtestData after) {
+                invalidate(before.location);
+                invalidate(after.location);
+            }
+
+            @Override
+            public void deleted(PrivateProtestData protest) {
+                invalidate(protest.location);
+            }
+        });
+
+        JsonEndpoint.getPrerendered(PATH, TILE_MAX_AGE_SECONDS, (request, response) -> {
+
+            MayFail<SlippyTile> tile = parseTile(request);
+
+            if(tile.isFailure()) {
+                return Either.ofLeft(
+                    JsonEndpoint.responseFromError(JsonError.invalidParams("Invalid tile address"), response)
+                );
+            }
+
+            try {
+                return Either.ofRight(lookup(tile.result()));
+            } catch(MongoException ex) {
+                LOGGER.error("Database error when querying protests for tile.", ex);
+                return Either.ofLeft(JsonEndpoint.responseFromError(JsonError.internalError(), response));
+            }
+        });
+    }
+
+    private static PrerenderedJson lookup(SlippyTile tile) {
+        long now = ServerTime.nowMillis();
+        RenderedTile cached = CACHE.get(tile);
+
+        if(cached != null && now - cached.renderedAt < TILE_SERVER_TTL_MS) {
+            return cached.json;
+        }
+
+        long generation = GENERATION.get();
+        GeoPin.Protests pins = GeoPin.searchPins(
+            tile.bounds(), Math.min(ClusterGrid.MAX_LEVEL, tile.z + CLUSTER_LEVEL_OFFSET)
+        );
+        PrerenderedJson json = PrerenderedJson.render(pins);
+
+        /*
+         * a protest may have changed while rendering, in which case the result is served but not kept, and a
+         * truncated result is only served until the protest index loads
+         */
+        synchronized(CACHE) {
+            if(generation == GENERATION.get() && !pins.truncated) {
+                CACHE.insert(tile, new RenderedTile(json, now));
+            }
+        }
+
+        return json;
+    }
+
+    private static void invalidate(Coordinate location) {
+        synchronized(CACHE) {
+            GENERATION.incrementAndGet();
+
+            for(int z = 0; z <= MAX_TILE_ZOOM; z++) {
+                SlippyTile tile = SlippyTile.containing(location, z);
+
+                /*
+                 * Cluster cells are aligned with tile columns but not rows, so the cell holding a change may also be
+                 * returned by a vertically adjacent tile.
+                 */
+                for(int y = tile.y - 1; y <= tile.y + 1; y++) {
+                    CACHE.remove(new SlippyTile(z, tile.x, y));
+                }
+            }
+        }
+    }
+
+    private static MayFail<SlippyTile> parseTile(Request request) {
+        MayFail<SlippyTile> tile = MayFail.succeedOrEatException(NumberFormatException.class, () -> new SlippyTile(
+            Integer.parseInt(request.params(":z")),
+            Integer.parseInt(request.params(":x")),
+            Integer.parseInt(request.params(":y"))
+        ));
+
+        if(tile.isFailure() || !tile.result().validate(MAX_TILE_ZOOM)) {
+            return MayFail.failure();
+        }
+
+        return tile;
+    }
+
+    private static final class RenderedTile {
+        public final PrerenderedJson json;
+        public final long renderedAt;
+
+        public RenderedTile(PrerenderedJson json, long renderedAt) {
+            this.json = json;
+            this.renderedAt = renderedAt;
+        }
+    }
+}
@@ -0,0 +1,307 @@
+/*
+ * This File is Part of LDProtest
+ * Copyright (C) 2021 Covid Anti Hysterics League
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Lesser Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package ldprotest.server.endpoints;
+
+import com.google.gson.JsonParseException;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import ldprotest.business.PrivateProtestData;
+import ldprotest.business.ProtestChangeListener;
+import ldprotest.business.ProtestSummary;
+import ldprotest.geo.AreaIndex;
+import ldprotest.geo.Coordinate;
+import ldprotest.geo.GeoRectangle;
+import ldprotest.serialization.JsonSerializable;
+import ldprotest.serialization.JsonSerialization;
+import ldprotest.server.auth.RateLimit;
+import ldprotest.server.auth.SecConfig;
+import ldprotest.server.auth.SecurityFilter;
+import ldprotest.server.infra.http.ClientIp;
+import org.eclipse.jetty.websocket.api.Session;
+import org.eclipse.jetty.websocket.api.StatusCode;
+import org.eclipse.jetty.websocket.api.WriteCallback;
+import org.eclipse.jetty.websocket.api.annotations.OnWebSocketClose;
+import org.eclipse.jetty.websocket.api.annotations.OnWebSocketConnect;
+import org.eclipse.jetty.websocket.api.annotations.OnWebSocketMessage;
+import org.eclipse.jetty.websocket.api.annotations.WebSocket;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import spark.Spark;
+
+/**
+ * Push changes to protests to clients watching an area of the map.
+ *
+ * A client subscribes by sending the bounds of its viewport, and may resend them whenever its viewport changes. Each
+ * protest written by this server is then sent only to the sockets whose viewport contains it, found with an AreaIndex,
+ * in the same form as the changes returned by the pins api.
+ *
+ * The upgrade request is not seen by the security filter's rate limits, so connections are also capped per client
+ * address, keyed like rate limits.
+ */
+public final class PinUpdates {
+
+    private final static Logger LOGGER = LoggerFactory.getLogger(PinUpdates.class);
+
+    private static final String PATH = "/api/pins/live";
+
+    private static final int IDLE_TIMEOUT_MS = 5 * 60 * 1000;
+    private static final int MAX_MESSAGE_CHARS = 1024;
+    private static final int MAX_CONNECTIONS = 16384;
+    private static final int MAX_CONNECTIONS_PER_CLIENT = 8;
+
+    /* sockets which fall this far behind are closed rather than buffering changes for them without bound */
+    private static final int MAX_PENDING_MESSAGES = 64;
+
+    private static final AreaIndex<Subscriber> SUBSCRIPTIONS = new AreaIndex<>();
+    private static final ReadWriteLock LOCK = new ReentrantReadWriteLock();
+    private static final AtomicInteger CONNECTIONS = new AtomicInteger();
+    private static final Map<String, Integer> CLIENT_CONNECTIONS = new ConcurrentHashMap<>();
+
+    private PinUpdates() {
+        /* do not construct */
+    }
+
+    /**
+     * Map the websocket. This must be called before any route or filter is added.
+     */
+    public static void registerSocket() {
+        Spark.webSocketIdleTimeoutMillis(IDLE_TIMEOUT_MS);
+        Spark.webSocket(PATH, Socket.class);
+    }
+
+    public static void register() {
+        SecurityFilter.add(PATH, SecConfig.ANONYMOUS_GET);
+
+        PrivateProtestData.addChangeListener(new ProtestChangeListener() {
+            @Override
+            public void inserted(PrivateProtestData protest) {
+                send(subscribers(protest.location), PinPush.changed(protest));
+            }
+
+            @Override
+            public void updated(PrivateProtestData before, PrivateProtestData after) {
+                List<Subscriber> current = subscribers(after.location);
+                List<Subscriber> previous = subscribers(before.location);
+                previous.removeAll(current);
+
+                send(current, PinPush.changed(after));
+                send(previous, PinPush.removed(before));
+            }
+
+            @Override
+            public void deleted(PrivateProtestData protest) {
+                send(subscribers(protest.location), PinPush.removed(protest));
+            }
+        });
+    }
+
+    private static List<Subscriber> subscribers(Coordinate location) {
+        LOCK.readLock().lock();
+        try {
+            return SUBSCRIPTIONS.query(location);
+        } finally {
+            LOCK.readLock().unlock();
+        }
+    }
+
+    private static void send(List<Subscriber> subscribers, PinPush push) {
+        if(subscribers.isEmpty()) {
+            return;
+        }
+
+        String message = JsonSerialization.GSON.toJson(push);
+
+        /* a socket may close at any time before it is unsubscribed, which must not stop the push to the others */
+        for(Subscriber subscriber: subscribers) {
+            try {
+                subscriber.send(message);
+            } catch(RuntimeException ex) {
+                LOGGER.debug("Failed to push pin update to a closing socket", ex);
+            }
+        }
+    }
+
+    private static int addClientConnection(String clientKey) {
+        return CLIENT_CONNECTIONS.merge(clientKey, 1, Integer::sum);
+    }
+
+    private static void removeClientConnection(String clientKey) {
+        CLIENT_CONNECTIONS.computeIfPresent(clientKey, (key, count) -> count <= 1 ? null : count - 1);
+    }
+
+    private static void subscribe(Subscriber subscriber, GeoRectangle area) {
+        LOCK.writeLock().lock();
+        try {
+            SUBSCRIPTIONS.put(area, subscriber);
+        } finally {
+            LOCK.writeLock().unlock();
+        }
+    }
+
+    private static void unsubscribe(Subscriber subscriber) {
+        LOCK.writeLock().lock();
+        try {
+            SUBSCRIPTIONS.remove(subscriber);
+        } finally {
+            LOCK.writeLock().unlock();
+        }
+    }
+
+    @WebSocket(maxTextMessageSize = MAX_MESSAGE_CHARS)
+    public static final class Socket {
+
+        private Subscriber subscriber;
+        private String clientKey;
+
+        public Socket() {
+            subscriber = null;
+            clientKey = null;
+        }
+
+        @OnWebSocketConnect
+        public void connected(Session session) {
+            clientKey = RateLimit.clientIpKey(ClientIp.get(session));
+
+            int clientConnections = addClientConnection(clientKey);
+
+            if(CONNECTIONS.incrementAndGet() > MAX_CONNECTIONS) {
+                session.close(StatusCode.TRY_AGAIN_LATER, "Too many connections");
+                return;
+            }
+
+            if(clientConnections > MAX_CONNECTIONS_PER_CLIENT) {
+                LOGGER.info("Refusing pin update socket beyond the limit for {}", clientKey);
+                session.close(StatusCode.POLICY_VIOLATION, "Too many connections from this address");
+                return;
+            }
+
+            subscriber = new Subscriber(session);
+        }
+
+        @OnWebSocketMessage
+        public void message(Session session, String text) {
+            if(subscriber == null) {
+                return;
+            }
+
+            Subscription subscription;
+            try {
+                subscription = JsonSerialization.GSON.fromJson(text, Subscription.class);
+            } catch(JsonParseException | NumberFormatException ex) {
+                subscription = null;
+            }
+
+            if(subscription == null || !subscription.validate()) {
+                session.close(StatusCode.BAD_DATA, "Invalid subscription");
+                return;
+            }
+
+            subscribe(subscriber, new GeoRectangle(subscription.southWest, subscription.northEast));
+        }
+
+        @OnWebSocketClose
+        public void closed(Session session, int statusCode, String reason) {
+            CONNECTIONS.decrementAndGet();
+
+            if(clientKey != null) {
+                removeClientConnection(clientKey);
+            }
+
+            if(subscriber != null) {
+                unsubscribe(subscriber);
+            }
+        }
+    }
+
+    private static final class Subscriber {
+        private final Session session;
+        private final AtomicInteger pending;
+
+        Subscriber(Session session) {
+            this.session = session;
+            this.pending = new AtomicInteger();
+        }
+
+        void send(String message) {
+            if(!session.isOpen()) {
+                return;
+            }
+
+            if(pending.incrementAndGet() > MAX_PENDING_MESSAGES) {
+                LOGGER.info("Closing pin update socket which is not keeping up");
+                session.close(StatusCode.POLICY_VIOLATION, "Not keeping up with updates");
+                return;
+            }
+
+            session.getRemote().sendString(message, new WriteCallback() {
+                @Override
+                public void writeFailed(Throwable ex) {
+                    pending.decrementAndGet();
+                }
+
+                @Override
+                public void writeSuccess() {
+                    pending.decrementAndGet();
+                }
+            });
+        }
+    }
+
+    private static final class Subscription implements JsonSerializable {
+        Coordinate southWest;
+        Coordinate northEast;
+
+        boolean validate() {
+            return valid(southWest) && valid(northEast) && southWest.latitude <= northEast.latitude;
+        }
+
+        private static boolean valid(Coordinate coord) {
+            return coord != null &&
+                Math.abs(coord.latitude) <= 90.0 &&
+                Double.isFinite(coord.longitude) &&
+                Math.abs(coord.longitude) <= 540.0;
+        }
+    }
+
+    /**
+     * Changes pushed to a socket, which should be applied like those returned by the pins api. They carry no version,
+     * as pushes may arrive out of order with respect to changes synced through the pins api.
+     */
+    private static final class PinPush implements JsonSerializable {
+        List<ProtestSummary> protests;
+        List<UUID> removed;
+
+        PinPush(List<ProtestSummary> protests, List<UUID> removed) {
+            this.protests = protests;
+            this.removed = removed;
+        }
+
+        static PinPush changed(PrivateProtestData protest) {
+            return new PinPush(List.of(ProtestSummary.of(protest)), List.of());
+        }
+
+        static PinPush removed(PrivateProtestData protest) {
+            return new PinPush(List.of(), List.of(protest.protestId));
+        }
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * This File is Part of LDProtest
+ * Copyright (C) 2021 Covid Anti Hysterics League
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Lesser Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package ldprotest.server.endpoints;
+
+import com.mongodb.MongoException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import ldprotest.business.ProtestArchive;
+import ldprotest.business.ProtestArchive.HistoryPageKey;
+import ldprotest.business.ProtestSummary;
+import ldprotest.business.TimeWindow;
+import ldprotest.geo.Coordinate;
+import ldprotest.geo.GeoRectangle;
+import ldprotest.main.ServerTime;
+import ldprotest.serialization.JsonSerializable;
+import ldprotest.server.auth.RateLimit;
+import ldprotest.server.auth.SecConfig;
+import ldprotest.server.auth.SecurityFilter;
+import ldprotest.server.infra.JsonEndpoint;
+import ldprotest.server.infra.JsonError;
+import ldprotest.util.Result;
+import ldprotest.util.types.MayFail;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Read only queries over archived protests, most recent first, a page at a time.
+ *
+ * Takes the same SW/NE and from/to query params as the pins API, and the same cursor and limit params as the owner
+ * protest list. The route must be registered before the protest detail route, which would otherwise treat "history" as
+ * a protest id.
+ *
+ * Each request scans at most MAX_SCAN_SPAN_MILLIS of protest dates, so that a sparse area cannot make one request walk
+ * the whole archive. A page which reaches the end of its span before filling still returns a cursor while older
+ * protests may remain.
+ */
+public final class ProtestHistory {
+
+    private final static Logger LOGGER = LoggerFactory.getLogger(ProtestHistory.class);
+    private static final String PATH = "/api/protests/history";
+
+    private static final String SOUTH_WEST_QUERY_PARAM = "SW";
+    private static final String NORTH_EAST_QUERY_PARAM = "NE";
+    private static final String CURSOR_QUERY_PARAM = "cursor";
+    private static final String LIMIT_QUERY_PARAM = "limit";
+    private static final char CURSOR_SEPARATOR = '_';
+
+    private static final int DEFAULT_PAGE_SIZE = 100;
+    private static final int MAX_PAGE_SIZE = 256;
+
+    private static final long MAX_SCAN_SPAN_MILLIS = 31L * 24 * 60 * 60 * 1000;
+
+    /* keeps scan span arithmetic on cursor dates from overflowing */
+    private static final long MAX_CURSOR_MILLIS = 1L << 50;
+
+    /* sorts before every protest id, so a cursor holding it continues from strictly before its date */
+    private static final UUID BEFORE_ALL_IDS = new UUID(0, 0);
+
+    private static final RateLimit RATE_LIMIT = RateLimit.perUserOrClientIp(5, 20);
+
+    private ProtestHistory() {
+        /* do not construct */
+    }
+
+    public static void register() {
+
+        SecurityFilter.add(PATH, SecConfig.ANONYMOUS_GET, RATE_LIMIT);
+
+        JsonEndpoint.get(PATH, (request, response) -> {
+
+            String swParam = request.queryParams(SOUTH_WEST_QUERY_PARAM);
+            String neParam = request.queryParams(NORTH_EAST_QUERY_PARAM);
+
+            if(swParam == null || neParam == null) {
+                return JsonEndpoint.responseFromError(
+                    JsonError.invalidParams("Missing required query param"), response
+                );
+            }
+
+            Result<String, Coordinate> sw = GeoPin.parseCoordinateQueryParam(swParam);
+            Result<String, Coordinate> ne = GeoPin.parseCoordinateQueryParam(neParam);
+
+            if(sw.isFailure() || ne.isFailure()) {
+                return JsonEndpoint.responseFromError(JsonError.invalidParams("Coordinate param is invalid"), response);
+            }
+
+            MayFail<TimeWindow> window = GeoPin.parseTimeWindow(request);
+
+            if(window.isFailure()) {
+                return JsonEndpoint.responseFromError(
+                    JsonError.invalidParams("Time window param is invalid"), response
+                );
+            }
+
+            String limitParam = request.queryParams(LIMIT_QUERY_PARAM);
+            MayFail<Integer> limit = limitParam == null ?
+                MayFail.success(DEFAULT_PAGE_SIZE) :
+                MayFail.succeedOrEatException(NumberFormatException.class, () -> Integer.parseInt(limitParam));
+
+            if(limit.isFailure() || limit.result() < 1 || limit.result() > MAX_PAGE_SIZE) {
+                return JsonEndpoint.responseFromError(JsonError.invalidParams("invalid page size"), response);
+            }
+
+            String cursorParam = request.queryParams(CURSOR_QUERY_PARAM);
+            MayFail<HistoryPageKey> cursor = cursorParam == null ? MayFail.failure() : parseCursor(cursorParam);
+
+            if(cursorParam != null && cursor.isFailure()) {
+                return JsonEndpoint.responseFromError(JsonError.invalidParams("invalid cursor"), response);
+            }
+
+            GeoRectangle area = new GeoRectangle(sw.result(), ne.result());
+            List<ProtestSummary> archived = new ArrayList<>();
+            long floor;
+            long lower;
+
+            try {
+                Optional<Long> oldest = ProtestArchive.oldestDate();
+
+                if(oldest.isEmpty()) {
+                    return new History(List.of(), Optional.empty());
+                }
+
+                /* archived protests have all ended, so none is dated after now */
+                long upper = Math.min(window.result().toMillis, ServerTime.nowMillis());
+                if(cursor.isSuccess()) {
+                    upper = Math.min(upper, cursor.result().dateMillis);
+                }
+
+                floor = Math.max(window.result().fromMillis, oldest.get());
+                lower = Math.max(floor, upper - MAX_SCAN_SPAN_MILLIS);
+
+                if(upper >= lower) {
+                    ProtestArchive.history(area, lower, upper, cursor.toOpt(), limit.result() + 1).into(archived);
+                }
+            } catch(MongoException ex) {
+                LOGGER.error("Database error when querying archived protests.", ex);
+                return JsonEndpoint.responseFromError(JsonError.internalError(), response);
+            }
+
+            /*
+             * Cell ids cover more than the area, so a page may hold fewer protests than the limit. The cursor is the
+             * last protest scanned rather than the last one returned, so the next page never rescans the same range.
+             */
+            Optional<String> nextCursor = Optional.empty();
+            if(archived.size() > limit.result()) {
+                archived.remove(archived.size() - 1);
+                nextCursor = Optional.of(formatCursor(HistoryPageKey.of(archived.get(archived.size() - 1))));
+            } else if(lower > floor) {
+                nextCursor = Optional.of(formatCursor(new HistoryPageKey(lower, BEFORE_ALL_IDS)));
+            }
+
+            List<ProtestSummary> protests = new ArrayList<>(archived.size());
+            for(ProtestSummary protest: archived) {
+                if(area.contains(protest.location)) {
+                    protests.add(protest);
+                }
+            }
+
+            return new History(protests, nextCursor);
+        });
+    }
+
+    private static String formatCursor(HistoryPageKey key) {
+        return Long.toString(key.dateMillis) + CURSOR_SEPARATOR + key.protestId;
+    }
+
+    private static MayFail<HistoryPageKey> parseCursor(String cursor) {
+        int separator = cursor.indexOf(CURSOR_SEPARATOR);
+
+        if(separator < 0) {
+            return MayFail.failure();
+        }
+
+        try {
+            long dateMillis = Long.parseLong(cursor.substring(0, separator));
+
+            if(Math.abs(dateMillis) > MAX_CURSOR_MILLIS) {
+                return MayFail.failure();
+            }
+
+            return MayFail.success(new HistoryPageKey(dateMillis, UUID.fromString(cursor.substring(separator + 1))));
+        } catch(IllegalArgumentException ex) {
+            return MayFail.failure();
+        }
+    }
+
+    /**
+     * When a cursor is present there may be older protests matching the query; pass it back to get the next page.
+     */
+    private static final class History implements JsonSerializable {
+        private final List<ProtestSummary> protests;
+        private final Optional<String> cursor;
+
+        History(List<ProtestSummary> protests, Optional<String> cursor) {
+            this.protests = protests;
+            this.cursor = cursor;
+        }
+    }
+}
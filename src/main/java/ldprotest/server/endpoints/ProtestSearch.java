@@ -0,0 +1,111 @@
+/*
+ * This File is Part of LDProtest
+ * Copyright (C) 2021 Covid Anti Hysterics League
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Lesser Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package ldprotest.server.endpoints;
+
+import java.util.List;
+import java.util.Optional;
+import ldprotest.business.ProtestSummary;
+import ldprotest.business.ProtestTextIndex;
+import ldprotest.geo.Coordinate;
+import ldprotest.geo.GeoRectangle;
+import ldprotest.serialization.JsonSerializable;
+import ldprotest.server.auth.SecConfig;
+import ldprotest.server.auth.SecurityFilter;
+import ldprotest.server.infra.JsonEndpoint;
+import ldprotest.server.infra.JsonError;
+import ldprotest.util.Result;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Search protests by the words of their titles and descriptions, answered from ProtestTextIndex.
+ *
+ * The route must be registered before the protest detail route, which would otherwise treat "search" as a protest id.
+ */
+public final class ProtestSearch {
+
+    private final static Logger LOGGER = LoggerFactory.getLogger(ProtestSearch.class);
+    private static final String PATH = "/api/protests/search";
+
+    private static final String QUERY_PARAM = "q";
+    private static final String SOUTH_WEST_QUERY_PARAM = "SW";
+    private static final String NORTH_EAST_QUERY_PARAM = "NE";
+
+    private static final int MAX_QUERY_LENGTH = 256;
+    private static final int MAX_RESULTS = 20;
+    private static final int NOT_LOADED_RETRY_SECONDS = 5;
+
+    private ProtestSearch() {
+        /* do not construct */
+    }
+
+    public static void register() {
+
+        SecurityFilter.add(PATH, SecConfig.ANONYMOUS_GET);
+
+        JsonEndpoint.get(PATH, (request, response) -> {
+
+            String query = request.queryParams(QUERY_PARAM);
+
+            if(query == null || query.length() > MAX_QUERY_LENGTH) {
+                return JsonEndpoint.responseFromError(JsonError.invalidParams("Missing or oversized query"), response);
+            }
+
+            String swParam = request.queryParams(SOUTH_WEST_QUERY_PARAM);
+            String neParam = request.queryParams(NORTH_EAST_QUERY_PARAM);
+            Optional<GeoRectangle> area = Optional.empty();
+
+            if(swParam != null || neParam != null) {
+                if(swParam == null || neParam == null) {
+                    return JsonEndpoint.responseFromError(
+                        JsonError.invalidParams("Both or neither bounding box corners required"), response
+                    );
+                }
+
+                Result<String, Coordinate> sw = GeoPin.parseCoordinateQueryParam(swParam);
+                Result<String, Coordinate> ne = GeoPin.parseCoordinateQueryParam(neParam);
+
+                if(sw.isFailure() || ne.isFailure()) {
+                    return JsonEndpoint.responseFromError(
+                        JsonError.invalidParams("Coordinate param is invalid"), response
+                    );
+                }
+
+                area = Optional.of(new GeoRectangle(sw.result(), ne.result()));
+            }
+
+            Optional<List<ProtestSummary>> results = ProtestTextIndex.search(query, area, MAX_RESULTS);
+
+            if(results.isEmpty()) {
+                LOGGER.debug("Protest search requested before the search index loaded");
+                response.header("Retry-After", Integer.toString(NOT_LOADED_RETRY_SECONDS));
+                return JsonEndpoint.responseFromError(JsonError.serviceUnavailable(), response);
+            }
+
+            return new SearchResults(results.get());
+        });
+    }
+
+    private static final class SearchResults implements JsonSerializable {
+        private final List<ProtestSummary> protests;
+
+        SearchResults(List<ProtestSummary> protests) {
+            this.protests = protests;
+        }
+    }
+}
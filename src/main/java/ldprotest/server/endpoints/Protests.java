@@ -18,28 +18,54 @@
 package ldprotest.server.endpoints;
 
 import com.mongodb.MongoException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
 import ldprotest.business.PrivateProtestData;
+import ldprotest.business.PrivateProtestData.ConditionalWrite;
+import ldprotest.business.PrivateProtestData.OwnerPageKey;
+import ldprotest.business.ProtestSummary;
 import ldprotest.business.PublicProtestData;
 import ldprotest.serialization.JsonSerializable;
 import ldprotest.serialization.ReflectiveConstructor;
 import ldprotest.server.auth.HttpVerbTypes;
 import ldprotest.server.auth.SecConfig;
 import ldprotest.server.auth.SecurityFilter;
+import ldprotest.server.auth.UserAccount;
+import ldprotest.server.auth.UserInfo;
 import ldprotest.server.auth.UserRole;
 import ldprotest.server.auth.UserSessionInfo;
 import ldprotest.server.infra.JsonEndpoint;
 import ldprotest.server.infra.JsonError;
+import ldprotest.server.infra.PrerenderedJson;
+import ldprotest.util.Result;
+import ldprotest.util.types.Either;
 import ldprotest.util.types.MayFail;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import spark.Request;
+import spark.Response;
 
 public final class Protests {
 
     private final static Logger LOGGER = LoggerFactory.getLogger(Protests.class);
     private static final String PATH = "/api/protests/*";
+    private static final String LIST_PATH = "/api/protests";
+
+    private static final String OWNER_QUERY_PARAM = "owner";
+    private static final String CURSOR_QUERY_PARAM = "cursor";
+    private static final String LIMIT_QUERY_PARAM = "limit";
+    private static final char CURSOR_SEPARATOR = '_';
+
+    private static final int DEFAULT_PAGE_SIZE = 50;
+    private static final int MAX_PAGE_SIZE = 200;
+
+    /*
+     * details are always revalidated by ETag, since a stale copy shows old content and carries a version that makes
+     * the next edit fail with a conflict
+     */
+    private static final long DETAIL_MAX_AGE_SECONDS = 0;
 
     private Protests() {
         /* GeoPin */
@@ -50,17 +76,166 @@ public final class Protests {
         SecurityFilter.add(
             PATH,
             SecConfig.builder()
-                .add(UserRole.MODERATOR, HttpVerbTypes.POST, HttpVerbTypes.DELETE)
-                .add(UserRole.PLANNER, HttpVerbTypes.POST, HttpVerbTypes.DELETE)
-                .add(UserRole.ADMIN, HttpVerbTypes.POST, HttpVerbTypes.DELETE)
+                .add(UserRole.MODERATOR, HttpVerbTypes.GET, HttpVerbTypes.POST, HttpVerbTypes.DELETE)
+                .add(UserRole.PLANNER, HttpVerbTypes.GET, HttpVerbTypes.POST, HttpVerbTypes.DELETE)
+                .add(UserRole.ADMIN, HttpVerbTypes.GET, HttpVerbTypes.POST, HttpVerbTypes.DELETE)
 
+                .add(UserRole.UNAUTHENTICATED, HttpVerbTypes.GET)
+                .add(UserRole.USER, HttpVerbTypes.GET)
+
+                .build()
+        );
+
+        SecurityFilter.add(
+            LIST_PATH,
+            SecConfig.builder()
+                .add(UserRole.MODERATOR, HttpVerbTypes.GET)
+                .add(UserRole.PLANNER, HttpVerbTypes.GET)
+                .add(UserRole.ADMIN, HttpVerbTypes.GET)
                 .build()
         );
 
+        registerOwnerList();
+        registerDetail();
         registerEdit();
         registerDelete();
     }
 
+    /**
+     * List the protests of one owner a page at a time. Planners may only list their own protests.
+     *
+     * Each page carries a cursor for the next page, absent on the last page, which is passed back unchanged.
+     */
+    private static void registerOwnerList() {
+
+        JsonEndpoint.get(LIST_PATH, (request, response) -> {
+
+            Optional<UserSessionInfo> sessionInfo = SecurityFilter.bearerSessionInfo(request);
+            UserRole role = SecurityFilter.userRoleAttr(request);
+
+            if(sessionInfo.isEmpty()) {
+                LOGGER.error(
+                    "Unauthenticated request past the security filter. This means that the security filter has failed!"
+                );
+                return JsonEndpoint.responseFromError(JsonError.unauthorizedError(), response);
+            }
+
+            String owner = Optional.ofNullable(request.queryParams(OWNER_QUERY_PARAM))
+                .orElse(sessionInfo.get().username);
+
+            if(!(role.equals(UserRole.ADMIN) || role.equals(UserRole.MODERATOR))) {
+                if(!owner.equals(sessionInfo.get().username)) {
+                    LOGGER.warn("Attempt by {} to list the protests of {}", sessionInfo.get().username, owner);
+                    return JsonEndpoint.responseFromError(JsonError.unauthorizedError(), response);
+                }
+            }
+
+            String limitParam = request.queryParams(LIMIT_QUERY_PARAM);
+            MayFail<Integer> limit = limitParam == null ?
+                MayFail.success(DEFAULT_PAGE_SIZE) :
+                MayFail.succeedOrEatException(NumberFormatException.class, () -> Integer.parseInt(limitParam));
+
+            if(limit.isFailure() || limit.result() < 1 || limit.result() > MAX_PAGE_SIZE) {
+                return JsonEndpoint.responseFromError(JsonError.invalidParams("invalid page size"), response);
+            }
+
+            String cursorParam = request.queryParams(CURSOR_QUERY_PARAM);
+            MayFail<OwnerPageKey> cursor = cursorParam == null ? MayFail.failure() : parseCursor(cursorParam);
+
+            if(cursorParam != null && cursor.isFailure()) {
+                return JsonEndpoint.responseFromError(JsonError.invalidParams("invalid cursor"), response);
+            }
+
+            Result<UserAccount.UserLookupErrorCode, UserInfo> ownerInfo = UserAccount.lookupByUsername(owner);
+
+            if(ownerInfo.isFailure()) {
+                if(ownerInfo.failureReason() == UserAccount.UserLookupErrorCode.INVALID_USER) {
+                    return JsonEndpoint.responseFromError(JsonError.noSuchResource(), response);
+                }
+                return JsonEndpoint.responseFromError(JsonError.internalError(), response);
+            }
+
+            List<ProtestSummary> protests = new ArrayList<>();
+            try {
+                PrivateProtestData.listByOwner(
+                    ownerInfo.result().globalUniqueId, cursor.toOpt(), limit.result() + 1
+                ).into(protests);
+            } catch(MongoException ex) {
+                LOGGER.error("Datbase error listing protests", ex);
+                return JsonEndpoint.responseFromError(JsonError.internalError(), response);
+            }
+
+            Optional<String> nextCursor = Optional.empty();
+            if(protests.size() > limit.result()) {
+                protests.remove(protests.size() - 1);
+                nextCursor = Optional.of(formatCursor(OwnerPageKey.of(protests.get(protests.size() - 1))));
+            }
+
+            return new OwnerProtests(protests, nextCursor);
+        });
+    }
+
+    private static String formatCursor(OwnerPageKey key) {
+        return key.dateMillis.map(String::valueOf).orElse("") + CURSOR_SEPARATOR + key.protestId;
+    }
+
+    private static MayFail<OwnerPageKey> parseCursor(String cursor) {
+        int separator = cursor.indexOf(CURSOR_SEPARATOR);
+
+        if(separator < 0) {
+            return MayFail.failure();
+        }
+
+        String date = cursor.substring(0, separator);
+        String protestId = cursor.substring(separator + 1);
+
+        try {
+            return MayFail.success(new OwnerPageKey(
+                date.isEmpty() ? Optional.empty() : Optional.of(Long.parseLong(date)), UUID.fromString(protestId)
+            ));
+        } catch(IllegalArgumentException ex) {
+            return MayFail.failure();
+        }
+    }
+
+    private static void registerDetail() {
+
+        JsonEndpoint.getPrerendered(PATH, DETAIL_MAX_AGE_SECONDS, (request, response) -> {
+
+            MayFail<String> protestIdField = getRequiredSplat(request, 0);
+
+            if(protestIdField.isFailure()) {
+                return Either.ofLeft(
+                    JsonEndpoint.responseFromError(JsonError.invalidParams("missing url protest ID"), response)
+                );
+            }
+
+            MayFail<UUID> protestIdMayFail = MayFail.succeedOrEatException(
+                IllegalArgumentException.class, () -> UUID.fromString(protestIdField.result())
+            );
+
+            if(protestIdMayFail.isFailure()) {
+                return Either.ofLeft(
+                    JsonEndpoint.responseFromError(JsonError.invalidParams("invalid protest ID"), response)
+                );
+            }
+
+            PrivateProtestData protest;
+            try {
+                protest = PrivateProtestData.lookupByProtestId(protestIdMayFail.result());
+            } catch(MongoException ex) {
+                LOGGER.error("Datbase error looking up protest", ex);
+                return Either.ofLeft(JsonEndpoint.responseFromError(JsonError.internalError(), response));
+            }
+
+            if(protest == null) {
+                return Either.ofLeft(JsonEndpoint.responseFromError(JsonError.noSuchResource(), response));
+            }
+
+            return Either.ofRight(PrerenderedJson.render(new ProtestDetail(protest)));
+        });
+    }
+
     private static void registerEdit() {
 
         JsonEndpoint.post(PATH, PublicProtestData.class, (protest, request, response) -> {
@@ -98,41 +273,24 @@ public final class Protests {
                 return JsonEndpoint.responseFromError(JsonError.invalidBody("Oversized"), response);
             }
 
-            PrivateProtestData orig;
-            try {
-                orig = PrivateProtestData.lookupByProtestId(protestIdMayFail.result());
-            } catch(MongoException ex) {
-                LOGGER.error("Datbase error looking up protest", ex);
-                return JsonEndpoint.responseFromError(JsonError.internalError(), response);
-            }
-
-            if(orig == null) {
-                LOGGER.warn("Attempt by {} to modify non-existant protest", userId);
-                return JsonEndpoint.responseFromError(JsonError.invalidParams("Protest Not Found"), response);
-            }
-
-            if(!(role.equals(UserRole.ADMIN) || role.equals(UserRole.MODERATOR))) {
-                if(!orig.owner.get().equals(username) || !orig.ownerId.equals(userId)) {
-                    LOGGER.error("Attempt by {} {} to modify a protest they don't own", username, userId);
-                    return JsonEndpoint.responseFromError(JsonError.unauthorizedError(), response);
-                }
-            }
-
+            ConditionalWrite result;
             try {
-                PrivateProtestData.updateProtest(
-                    PrivateProtestData.publicToPrivate(protest, orig.ownerId, orig.protestId)
+                result = PrivateProtestData.updateProtest(
+                    PrivateProtestData.publicToPrivate(protest, userId, protestIdMayFail.result()),
+                    requiredOwner(role, userId),
+                    protest.version
                 );
             } catch(MongoException ex) {
                 LOGGER.error("Datbase error updating protest", ex);
                 return JsonEndpoint.responseFromError(JsonError.internalError(), response);
             }
 
-            return JsonError.success();
+            return conditionalWriteResponse(result, "modify", username, userId, response);
         });
     }
 
     private static void registerDelete() {
-        JsonEndpoint.delete(PATH, EmptyJsonDoc.class, (body, request, response) -> {
+        JsonEndpoint.delete(PATH, DeleteRequest.class, (body, request, response) -> {
 
             Optional<UserSessionInfo> sessionInfo = SecurityFilter.bearerSessionInfo(request);
             UserRole role = SecurityFilter.userRoleAttr(request);
@@ -162,37 +320,49 @@ public final class Protests {
                 return JsonEndpoint.responseFromError(JsonError.invalidParams("invalid protest ID"), response);
             }
 
-            PrivateProtestData orig;
+            ConditionalWrite result;
             try {
-                orig = PrivateProtestData.lookupByProtestId(protestIdMayFail.result());
-            } catch(MongoException ex) {
-                LOGGER.error("Datbase error looking up protest", ex);
-                return JsonEndpoint.responseFromError(JsonError.internalError(), response);
-            }
-
-            if(orig == null) {
-                LOGGER.warn("Attempt by {} to modify non-existant protest", userId);
-                return JsonEndpoint.responseFromError(JsonError.invalidParams("Protest Not Found"), response);
-            }
-
-            if(!(role.equals(UserRole.ADMIN) || role.equals(UserRole.MODERATOR))) {
-                if(!orig.owner.get().equals(username) || !orig.ownerId.equals(userId)) {
-                    LOGGER.error("Attempt by {} {} to delete a protest they don't own", username, userId);
-                    return JsonEndpoint.responseFromError(JsonError.unauthorizedError(), response);
-                }
-            }
-
-            try {
-                PrivateProtestData.deleteProtest(orig.protestId);
+                result = PrivateProtestData.deleteProtest(
+                    protestIdMayFail.result(), requiredOwner(role, userId), body.version
+                );
             } catch(MongoException ex) {
                 LOGGER.error("Datbase error deleting protest", ex);
                 return JsonEndpoint.responseFromError(JsonError.internalError(), response);
             }
 
-            return JsonError.success();
+            return conditionalWriteResponse(result, "delete", username, userId, response);
         });
     }
 
+    /**
+     * Moderators and admins may change any protest, everyone else only their own.
+     */
+    private static Optional<UUID> requiredOwner(UserRole role, UUID userId) {
+        if(role.equals(UserRole.ADMIN) || role.equals(UserRole.MODERATOR)) {
+            return Optional.empty();
+        } else {
+            return Optional.of(userId);
+        }
+    }
+
+    private static JsonSerializable conditionalWriteResponse(
+        ConditionalWrite result, String action, String username, UUID userId, Response response
+    ) {
+        switch(result) {
+            case WRITTEN:
+                return JsonError.success();
+            case NOT_FOUND:
+                LOGGER.warn("Attempt by {} to {} non-existant protest", userId, action);
+                return JsonEndpoint.responseFromError(JsonError.invalidParams("Protest Not Found"), response);
+            case NOT_OWNER:
+                LOGGER.error("Attempt by {} {} to {} a protest they don't own", username, userId, action);
+                return JsonEndpoint.responseFromError(JsonError.unauthorizedError(), response);
+            default:
+                LOGGER.info("Attempt by {} to {} a protest which was changed concurrently", userId, action);
+                return JsonEndpoint.responseFromError(JsonError.editConflict(), response);
+        }
+    }
+
     private static MayFail<String> getRequiredSplat(Request request, int index) {
         String[] fields = request.splat();
 
@@ -209,10 +379,33 @@ public final class Protests {
         return MayFail.success(s);
     }
 
-    private static final class EmptyJsonDoc implements JsonSerializable {
-        @ReflectiveConstructor
-        private EmptyJsonDoc() {
+    private static final class ProtestDetail implements JsonSerializable {
+        PrivateProtestData protest;
+
+        public ProtestDetail(PrivateProtestData protest) {
+            this.protest = protest;
+        }
+    }
+
+    private static final class OwnerProtests implements JsonSerializable {
+        List<ProtestSummary> protests;
+        Optional<String> cursor;
+
+        public OwnerProtests(List<ProtestSummary> protests, Optional<String> cursor) {
+            this.protests = protests;
+            this.cursor = cursor;
+        }
+    }
 
+    /**
+     * Optional body of a delete. When the version is given the delete only applies to that version of the protest.
+     */
+    private static final class DeleteRequest implements JsonSerializable {
+        Optional<Long> version;
+
+        @ReflectiveConstructor
+        private DeleteRequest() {
+            version = Optional.empty();
         }
     }
 }
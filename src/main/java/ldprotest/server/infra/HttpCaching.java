@@ -32,6 +32,22 @@ public final class HttpCaching {
         return etag == null || !etag.equals(Long.toString(resourceTimestamp));
     }
 
+    public static boolean needsRefresh(Request request, String etag) {
+        String header = request.headers("If-None-Match");
+
+        if(header == null) {
+            return true;
+        }
+
+        for(String tag: header.split(",")) {
+            if(tag.strip().equals(etag) || tag.strip().equals("*")) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
     public static void setNotModifiedResponse(Response response) {
         response.status(HttpStatus.NOT_MODIFIED_304);
     }
@@ -49,4 +65,28 @@ public final class HttpCaching {
             Long.toString(resourceTimestamp)
         );
     }
+
+    /**
+     * Set cache headers for a response identified by an entity tag.
+     *
+     * Only responses which are the same for every user and which carry no cookies should be marked shareable, since
+     * shareable responses may be stored by a reverse proxy and served to other clients.
+     *
+     * @param response response to set headers on
+     * @param etag strong entity tag of the response body, including quotes
+     * @param maxAge seconds for which the response may be served without revalidation
+     * @param shareable true if shared caches may store the response
+     */
+    public static void setCacheHeaders(Response response, String etag, long maxAge, boolean shareable) {
+        response.header(
+            "Cache-Control",
+            HttpHeader.builder()
+                .add(shareable ? "public" : "private")
+                .add("max-age", Long.toString(maxAge))
+                .add("must-revalidate")
+                .buildList()
+        );
+
+        response.header("Etag", etag);
+    }
 }
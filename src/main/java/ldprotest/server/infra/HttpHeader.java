@@ -80,13 +80,26 @@ public final class HttpHeader {
         }
 
         public String build() {
+            return build("; ");
+        }
+
+        /**
+         * Build a header whose directives are a comma separated list, such as Cache-Control.
+         *
+         * @return header value
+         */
+        public String buildList() {
+            return build(", ");
+        }
+
+        private String build(String separator) {
             return directives.stream().map((d) -> {
                 if(d.value.isEmpty()) {
                     return d.key;
                 } else {
                     return d.key + "=" + d.value;
                 }
-            }).collect(Collectors.joining("; "));
+            }).collect(Collectors.joining(separator));
         }
     }
 
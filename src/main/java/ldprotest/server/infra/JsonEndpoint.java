@@ -17,10 +17,21 @@
  */
 package ldprotest.server.infra;
 
+import com.google.gson.JsonIOException;
 import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonWriter;
+import com.mongodb.MongoException;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
 import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import javax.servlet.ServletOutputStream;
 import ldprotest.serialization.JsonSerializable;
 import ldprotest.serialization.JsonSerialization;
 import ldprotest.server.auth.HttpVerbTypes;
@@ -30,6 +41,7 @@ import ldprotest.server.auth.UserRole;
 import ldprotest.server.auth.UserSessionInfo;
 import ldprotest.server.infra.http.ContentType;
 import ldprotest.util.ErrorCode;
+import ldprotest.util.types.Either;
 import org.eclipse.jetty.http.HttpStatus;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -44,16 +56,18 @@ public final class JsonEndpoint {
     public static final ContentType CONTENT_TYPE = ContentType.parse("application/json; charset=UTF-8");
 
     private static final Map<Integer, Integer> ERROR_TO_DEFAULT_STATUS_CODE_MAP =
-        Collections.unmodifiableMap(Map.<Integer, Integer>of(
-            JsonError.ServerErrorCode.SUCCESS.code(), HttpStatus.OK_200,
-            JsonError.ServerErrorCode.GENERIC_INTERNAL_ERROR.code(), HttpStatus.INTERNAL_SERVER_ERROR_500,
-            JsonError.ServerErrorCode.CONTENT_TYPE_ERROR.code(), HttpStatus.BAD_REQUEST_400,
-            JsonError.ServerErrorCode.LOGIN_FAILURE.code(), HttpStatus.UNAUTHORIZED_401,
-            JsonError.ServerErrorCode.UNAUTHORIZED_FAILURE.code(), HttpStatus.UNAUTHORIZED_401,
-            JsonError.ServerErrorCode.INVALID_REQUEST_BODY.code(), HttpStatus.BAD_REQUEST_400,
-            JsonError.ServerErrorCode.INVALID_REQUEST_PARAMS.code(), HttpStatus.BAD_REQUEST_400,
-            JsonError.ServerErrorCode.NO_SUCH_RESOURCE.code(), HttpStatus.NOT_FOUND_404,
-            JsonError.ServerErrorCode.ACCOUNT_LOCKED.code(), HttpStatus.UNAUTHORIZED_401
+        Collections.unmodifiableMap(Map.<Integer, Integer>ofEntries(
+            Map.entry(JsonError.ServerErrorCode.SUCCESS.code(), HttpStatus.OK_200),
+            Map.entry(JsonError.ServerErrorCode.GENERIC_INTERNAL_ERROR.code(), HttpStatus.INTERNAL_SERVER_ERROR_500),
+            Map.entry(JsonError.ServerErrorCode.CONTENT_TYPE_ERROR.code(), HttpStatus.BAD_REQUEST_400),
+            Map.entry(JsonError.ServerErrorCode.LOGIN_FAILURE.code(), HttpStatus.UNAUTHORIZED_401),
+            Map.entry(JsonError.ServerErrorCode.UNAUTHORIZED_FAILURE.code(), HttpStatus.UNAUTHORIZED_401),
+            Map.entry(JsonError.ServerErrorCode.INVALID_REQUEST_BODY.code(), HttpStatus.BAD_REQUEST_400),
+            Map.entry(JsonError.ServerErrorCode.INVALID_REQUEST_PARAMS.code(), HttpStatus.BAD_REQUEST_400),
+            Map.entry(JsonError.ServerErrorCode.NO_SUCH_RESOURCE.code(), HttpStatus.NOT_FOUND_404),
+            Map.entry(JsonError.ServerErrorCode.ACCOUNT_LOCKED.code(), HttpStatus.UNAUTHORIZED_401),
+            Map.entry(JsonError.ServerErrorCode.EDIT_CONFLICT.code(), HttpStatus.CONFLICT_409),
+            Map.entry(JsonError.ServerErrorCode.SERVICE_UNAVAILABLE.code(), HttpStatus.SERVICE_UNAVAILABLE_503)
         ));
 
     public static void get(String url, JsonGetRoute route) {
@@ -70,6 +84,126 @@ public final class JsonEndpoint {
         });
     }
 
+    /**
+     * Serve a GET route whose successful responses are prerendered and may be cached.
+     *
+     * The route must return the same body to every user. Responses are marked as shareable by proxies when the
+     * request was unauthenticated, and are answered with 304 when the client already holds the current entity tag.
+     *
+     * @param url route path
+     * @param maxAge seconds for which clients and proxies may reuse a response without revalidating
+     * @param route returns either an error body (left) or the prerendered response (right)
+     */
+    public static void getPrerendered(String url, long maxAge, JsonPrerenderedRoute route) {
+        Spark.get(url, (request, response) -> {
+
+            ErrorCode<JsonError> secCheckResult = secCheck(request, response);
+
+            if(secCheckResult.failed()) {
+                return JsonSerialization.GSON.toJson(responseFromError(secCheckResult.reason(), response));
+            }
+
+            Either<JsonSerializable, PrerenderedJson> result = route.handle(request, response);
+
+            if(result.isLeft()) {
+                return returnJsonResponse(result.left(), response);
+            }
+
+            PrerenderedJson body = result.right();
+            boolean shareable = SecurityFilter.userRoleAttr(request).equals(UserRole.UNAUTHENTICATED);
+
+            response.header("Content-Type", CONTENT_TYPE.toString());
+            HttpCaching.setCacheHeaders(response, body.etag, maxAge, shareable);
+
+            if(!HttpCaching.needsRefresh(request, body.etag)) {
+                HttpCaching.setNotModifiedResponse(response);
+                return "";
+            }
+
+            return body.body;
+        });
+    }
+
+    /**
+     * Serve a GET route whose successful responses are written incrementally to the client.
+     *
+     * The response has no Content-Length and is sent with chunked transfer encoding, so the body never has to be held
+     * in memory. Errors must be detected before the stream is returned, since the status cannot be changed once writing
+     * has begun. An exception thrown while writing truncates the response, which the client will fail to parse.
+     *
+     * @param url route path
+     * @param route returns either an error body (left) or a stream which writes the response (right)
+     */
+    public static void getStreaming(String url, JsonStreamingRoute route) {
+        Spark.get(url, (request, response) -> {
+
+            ErrorCode<JsonError> secCheckResult = secCheck(request, response);
+
+            if(secCheckResult.failed()) {
+                return JsonSerialization.GSON.toJson(responseFromError(secCheckResult.reason(), response));
+            }
+
+            Either<JsonSerializable, JsonStream> result = route.handle(request, response);
+
+            if(result.isLeft()) {
+                return returnJsonResponse(result.left(), response);
+            }
+
+            return writeJsonStream(result.right(), request, response);
+        });
+    }
+
+    /**
+     * Serve a streaming GET route which can also answer in a binary format.
+     *
+     * The binary format is used only if the request's Accept header names its media type, so clients which don't know
+     * it always receive JSON. Error responses are always JSON.
+     *
+     * @param url route path
+     * @param binaryType media type of the binary format
+     * @param route returns either an error body (left) or a stream which can write either format (right)
+     */
+    public static void getNegotiated(String url, ContentType binaryType, EncodedStreamingRoute route) {
+        Spark.get(url, (request, response) -> {
+
+            ErrorCode<JsonError> secCheckResult = secCheck(request, response);
+
+            if(secCheckResult.failed()) {
+                return JsonSerialization.GSON.toJson(responseFromError(secCheckResult.reason(), response));
+            }
+
+            Either<JsonSerializable, EncodedStream> result = route.handle(request, response);
+
+            if(result.isLeft()) {
+                return returnJsonResponse(result.left(), response);
+            }
+
+            response.header("Vary", "Accept");
+
+            if(!accepts(request, binaryType)) {
+                return writeJsonStream(result.right(), request, response);
+            }
+
+            response.status(HttpStatus.OK_200);
+            response.header("Content-Type", binaryType.toString());
+
+            try (
+                ServletOutputStream stream = response.raw().getOutputStream();
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream))
+            ) {
+                try {
+                    result.right().writeBinary(out);
+                } catch(MongoException ex) {
+                    abortStream(request, ex);
+                }
+            } catch(IOException ex) {
+                LOGGER.info("Streaming response to {} aborted: {}", request.pathInfo(), ex.getMessage());
+            }
+
+            return new byte[0];
+        });
+    }
+
     public static <T extends JsonSerializable> void post(String url, Class<T> clazz, JsonDataRoute<T> route) {
         Spark.post(url, (request, response) -> {
             return dataRequest(request, response, clazz, route);
@@ -102,6 +236,78 @@ public final class JsonEndpoint {
         return body;
     }
 
+    private static byte[] writeJsonStream(JsonStream stream, Request request, Response response) {
+        response.status(HttpStatus.OK_200);
+        response.header("Content-Type", CONTENT_TYPE.toString());
+
+        try (
+            ServletOutputStream out = response.raw().getOutputStream();
+            JsonWriter writer = JsonSerialization.GSON.newJsonWriter(
+                new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8))
+            )
+        ) {
+            try {
+                stream.write(writer);
+            } catch(MongoException ex) {
+                abortStream(request, ex);
+            }
+        } catch(IOException | JsonIOException ex) {
+            LOGGER.info("Streaming response to {} aborted: {}", request.pathInfo(), ex.getMessage());
+        }
+
+        return new byte[0];
+    }
+
+    /**
+     * Abort the connection of a stream whose source failed part way through.
+     *
+     * The status line has already been sent, so the only way to tell the client the body is incomplete is to drop the
+     * connection before the final chunk, rather than letting the writer close a truncated document cleanly.
+     */
+    private static void abortStream(Request request, MongoException ex) {
+        LOGGER.error("Database error while streaming response to {}: {}", request.pathInfo(), ex.getMessage());
+        org.eclipse.jetty.server.Request.getBaseRequest(request.raw()).getHttpChannel().abort(ex);
+    }
+
+    private static boolean accepts(Request request, ContentType type) {
+        String header = request.headers("Accept");
+
+        if(header == null) {
+            return false;
+        }
+
+        for(String range: header.split(",")) {
+            List<String> directives = HttpHeader.directives(range);
+
+            if(directives.get(0).equalsIgnoreCase(type.mime)) {
+                return qValue(directives.subList(1, directives.size())) > 0;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Parse the quality weight of a media range, defaulting to 1 when absent. A malformed weight counts as a refusal.
+     */
+    private static double qValue(List<String> parameters) {
+        for(String parameter: parameters) {
+            int eq = parameter.indexOf('=');
+
+            if(eq < 0 || !parameter.substring(0, eq).strip().equalsIgnoreCase("q")) {
+                continue;
+            }
+
+            try {
+                return Double.parseDouble(parameter.substring(eq + 1).strip());
+            } catch(NumberFormatException ex) {
+                return 0;
+            }
+        }
+
+        return 1;
+    }
+
     private static <T extends JsonSerializable> String dataRequest(
         Request request, Response response, Class<T> clazz, JsonDataRoute<T> route
     ) {
@@ -181,6 +387,26 @@ public final class JsonEndpoint {
         JsonSerializable handle(Request request, Response response);
     }
 
+    public static interface JsonPrerenderedRoute {
+        Either<JsonSerializable, PrerenderedJson> handle(Request request, Response response);
+    }
+
+    public static interface JsonStreamingRoute {
+        Either<JsonSerializable, JsonStream> handle(Request request, Response response);
+    }
+
+    public static interface JsonStream {
+        void write(JsonWriter writer) throws IOException;
+    }
+
+    public static interface EncodedStreamingRoute {
+        Either<JsonSerializable, EncodedStream> handle(Request request, Response response);
+    }
+
+    public static interface EncodedStream extends JsonStream {
+        void writeBinary(DataOutputStream out) throws IOException;
+    }
+
     public static interface JsonDataRoute<T extends JsonSerializable> {
         JsonSerializable handle(T data, Request request, Response response);
     }
@@ -31,6 +31,8 @@ public class JsonError implements JsonSerializable {
     private static final JsonError LOGIN_FAILURE = new JsonError(ServerErrorCode.LOGIN_FAILURE);
     private static final JsonError UNAUTHORIZED_FAILURE = new JsonError(ServerErrorCode.UNAUTHORIZED_FAILURE);
     private static final JsonError NO_SUCH_RESOURCE = new JsonError(ServerErrorCode.NO_SUCH_RESOURCE);
+    private static final JsonError EDIT_CONFLICT = new JsonError(ServerErrorCode.EDIT_CONFLICT);
+    private static final JsonError SERVICE_UNAVAILABLE = new JsonError(ServerErrorCode.SERVICE_UNAVAILABLE);
 
 
     public final int code;
@@ -70,6 +72,14 @@ public class JsonError implements JsonSerializable {
         return NO_SUCH_RESOURCE;
     }
 
+    public static JsonError editConflict() {
+        return EDIT_CONFLICT;
+    }
+
+    public static JsonError serviceUnavailable() {
+        return SERVICE_UNAVAILABLE;
+    }
+
     public static JsonError invalidParams(String explanation) {
         return new JsonError(ServerErrorCode.INVALID_REQUEST_PARAMS, new Explanation(explanation));
     }
@@ -107,7 +117,9 @@ public class JsonError implements JsonSerializable {
         INVALID_REQUEST_BODY(5, "Body of request has invalid data"),
         INVALID_REQUEST_PARAMS(6, "Invalid query parameters"),
         NO_SUCH_RESOURCE(7, "Resource does not exist"),
-        ACCOUNT_LOCKED(8, "Account has been locked temporarily or permanently");
+        ACCOUNT_LOCKED(8, "Account has been locked temporarily or permanently"),
+        EDIT_CONFLICT(9, "Resource was changed by another request"),
+        SERVICE_UNAVAILABLE(10, "Service is starting or temporarily unavailable");
 
         private final int code;
         private final String description;
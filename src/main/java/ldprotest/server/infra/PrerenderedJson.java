@@ -0,0 +1,60 @@
+/*
+ * This File is Part of LDProtest
+ * Copyright (C) 2021 Covid Anti Hysterics League
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Lesser Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package ldprotest.server.infra;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Base64;
+import ldprotest.serialization.JsonSerializable;
+import ldprotest.serialization.JsonSerialization;
+
+/**
+ * A JSON response body which has been serialized ahead of time, along with a strong entity tag derived from its
+ * content.
+ */
+public final class PrerenderedJson {
+
+    private static final int ETAG_DIGEST_BYTES = 16;
+    private static final Base64.Encoder ETAG_ENCODER = Base64.getUrlEncoder().withoutPadding();
+
+    public final String body;
+    public final String etag;
+
+    private PrerenderedJson(String body, String etag) {
+        this.body = body;
+        this.etag = etag;
+    }
+
+    public static PrerenderedJson render(JsonSerializable obj) {
+        String body = JsonSerialization.GSON.toJson(obj);
+        return new PrerenderedJson(body, etagOf(body));
+    }
+
+    private static String etagOf(String body) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] hash = digest.digest(body.getBytes(StandardCharsets.UTF_8));
+
+            return "\"" + ETAG_ENCODER.encodeToString(Arrays.copyOf(hash, ETAG_DIGEST_BYTES)) + "\"";
+        } catch(NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("SHA-256 is not available", ex);
+        }
+    }
+}
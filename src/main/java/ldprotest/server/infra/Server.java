@@ -32,8 +32,13 @@ import ldprotest.server.endpoints.GeoPin;
 import ldprotest.server.endpoints.Login;
 import ldprotest.server.endpoints.Logout;
 import ldprotest.server.endpoints.MapConfig;
+import ldprotest.server.endpoints.PinTiles;
+import ldprotest.server.endpoints.PinUpdates;
+import ldprotest.server.endpoints.ProtestHistory;
+import ldprotest.server.endpoints.ProtestSearch;
 import ldprotest.server.endpoints.Protests;
 import ldprotest.server.endpoints.ServerVersion;
+import ldprotest.server.endpoints.TaskStatus;
 import ldprotest.server.endpoints.TokenRefresh;
 import ldprotest.server.endpoints.User;
 import ldprotest.server.endpoints.WhoAmI;
@@ -53,6 +58,8 @@ public class Server {
 
         Spark.port(Main.args().serverPort);
 
+        PinUpdates.registerSocket();
+
         SecurityFilter.start();
 
         try {
@@ -77,9 +84,14 @@ public class Server {
         WhoAmI.register();
         TokenRefresh.register();
         GeoPin.register();
+        PinTiles.register();
+        PinUpdates.register();
+        ProtestSearch.register();
+        ProtestHistory.register();
         Protests.register();
         MapConfig.register();
         User.register();
+        TaskStatus.register();
     }
 
     private static void serveAssets() throws IOException {
@@ -17,7 +17,9 @@
 */
 package ldprotest.server.infra.http;
 
+import java.net.InetSocketAddress;
 import ldprotest.main.Main;
+import org.eclipse.jetty.websocket.api.Session;
 import spark.Request;
 
 public final class ClientIp {
@@ -35,4 +37,16 @@ public final class ClientIp {
 
         return request.ip();
     }
+
+    public static String get(Session session) {
+        if(Main.args().usingReverseProxy) {
+            String realIp = session.getUpgradeRequest().getHeader("X-Real-IP");
+            if(realIp != null) {
+                return realIp;
+            }
+        }
+
+        InetSocketAddress remote = session.getRemoteAddress();
+        return remote.getAddress() == null ? remote.getHostString() : remote.getAddress().getHostAddress();
+    }
 }
@@ -49,6 +49,21 @@ public final class Sanitize {
         });
     }
 
+    /**
+     * Reverse encodeHtml, for handing stored text to something other than a browser.
+     *
+     * @param s text produced by encodeHtml
+     * @return the original text
+     */
+    public static String decodeHtml(String s) {
+        return s
+            .replace("&gt;", ">")
+            .replace("&lt;", "<")
+            .replace("&quot;", "\"")
+            .replace("&#x27;", "'")
+            .replace("&amp;", "&");
+    }
+
     public static MayFail<String> encodeUrl(String s) {
 
         try {
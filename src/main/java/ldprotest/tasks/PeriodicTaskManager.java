@@ -31,15 +31,23 @@ import ldprotest.main.ShutdownHandler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Runs tasks periodically on two pools of threads.
+ *
+ * Short tasks, such as polls which must keep up with changes made by other servers, run on one pool. Bulk tasks which
+ * may run for seconds or minutes, such as full reloads and vacuums, run on another, so they never delay a short task.
+ */
 public class PeriodicTaskManager {
 
     private final static Logger LOGGER = LoggerFactory.getLogger(PeriodicTaskManager.class);
     public static int SHUTDOWN_HANDLER_PRIORITY = Main.SERVER_SHUTDOWN_HANDLER_PRIORITY + 16;
 
     private static final int THREADS = 2;
+    private static final int BULK_THREADS = 2;
     private static PeriodicTaskManager INSTANCE;
 
     private final ScheduledExecutorService executor;
+    private final ScheduledExecutorService bulkExecutor;
     private final ShutdownHandler shutdownHandler;
     private final List<ScheduledTaskDescriptor> tasks;
     private final ShutdownSignal shutdownSignal;
@@ -47,23 +55,27 @@ public class PeriodicTaskManager {
     private PeriodicTaskManager() {
         tasks = new CopyOnWriteArrayList<>();
         executor = new ScheduledThreadPoolExecutor(THREADS);
+        bulkExecutor = new ScheduledThreadPoolExecutor(BULK_THREADS);
         shutdownHandler = buildShutdownHandler();
         shutdownSignal = new ShutdownSignal();
     }
 
     private void registerTaskMethod(
-        PeriodicTask task, long delay, long period, TimeUnit timeUnit, boolean mayInterrupt
+        ScheduledExecutorService pool, PeriodicTask task, long delay, long period, TimeUnit timeUnit,
+        boolean mayInterrupt
     ) {
-        ScheduledFuture<?> future = executor.scheduleAtFixedRate( () -> {
-            try {
-                task.runTask(shutdownSignal);
-            } catch(Throwable ex) {
-                LOGGER.error("Uncaught exception thrown in periodic task", ex);
-            }
-        }, delay, period, timeUnit);
+        ScheduledFuture<?> future = pool.scheduleAtFixedRate(() -> runGuarded(task), delay, period, timeUnit);
         tasks.add(new ScheduledTaskDescriptor(future, mayInterrupt));
     }
 
+    private void runGuarded(PeriodicTask task) {
+        try {
+            task.runTask(shutdownSignal);
+        } catch(Throwable ex) {
+            LOGGER.error("Uncaught exception thrown in periodic task", ex);
+        }
+    }
+
     public static void start() {
         if(INSTANCE != null) {
             throw new IllegalStateException("Periodic task manager was already started");
@@ -77,7 +89,25 @@ public class PeriodicTaskManager {
     public static void registerTask(
         long delay, long period, TimeUnit timeUnit, boolean mayInterrupt, PeriodicTask task
     ) {
-        INSTANCE.registerTaskMethod(task, delay, period, timeUnit, mayInterrupt);
+        INSTANCE.registerTaskMethod(INSTANCE.executor, task, delay, period, timeUnit, mayInterrupt);
+    }
+
+    /**
+     * Register a task which may run for a long time, such as a full reload or a vacuum.
+     *
+     * Bulk tasks have their own threads, so they never delay tasks registered with registerTask.
+     */
+    public static void registerBulkTask(
+        long delay, long period, TimeUnit timeUnit, boolean mayInterrupt, PeriodicTask task
+    ) {
+        INSTANCE.registerTaskMethod(INSTANCE.bulkExecutor, task, delay, period, timeUnit, mayInterrupt);
+    }
+
+    /**
+     * Run a bulk task once, as soon as a bulk thread is free. Used by short tasks which find that bulk work is needed.
+     */
+    public static void submitBulkTask(PeriodicTask task) {
+        INSTANCE.bulkExecutor.execute(() -> INSTANCE.runGuarded(task));
     }
 
     private ShutdownHandler buildShutdownHandler() {
@@ -0,0 +1,123 @@
+/*
+ * This File is Part of LDProtest
+ * Copyright (C) 2021 Covid Anti Hysterics League
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Lesser Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package ldprotest.tasks;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import ldprotest.serialization.JsonSerializable;
+
+/**
+ * Counters and timings reported by periodic tasks and by request rate limiting.
+ *
+ * Metrics are kept in memory since server start, and are read through the task status endpoint.
+ */
+public final class TaskMetrics {
+
+    private static final ConcurrentMap<String, TaskMetrics> TASKS = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, LongAdder> counters;
+    private final ConcurrentMap<String, Timer> timers;
+
+    private TaskMetrics() {
+        counters = new ConcurrentHashMap<>();
+        timers = new ConcurrentHashMap<>();
+    }
+
+    public static TaskMetrics forTask(String name) {
+        return TASKS.computeIfAbsent(name, (n) -> new TaskMetrics());
+    }
+
+    public void count(String counter, long delta) {
+        counters.computeIfAbsent(counter, (c) -> new LongAdder()).add(delta);
+    }
+
+    public void time(String timer, long nanos) {
+        timers.computeIfAbsent(timer, (t) -> new Timer()).record(nanos);
+    }
+
+    public static Map<String, Snapshot> snapshot() {
+        Map<String, Snapshot> snapshot = new TreeMap<>();
+
+        for(Map.Entry<String, TaskMetrics> task: TASKS.entrySet()) {
+            snapshot.put(task.getKey(), task.getValue().taskSnapshot());
+        }
+
+        return snapshot;
+    }
+
+    private Snapshot taskSnapshot() {
+        Map<String, Long> counterValues = new TreeMap<>();
+        Map<String, TimerSnapshot> timerValues = new TreeMap<>();
+
+        for(Map.Entry<String, LongAdder> counter: counters.entrySet()) {
+            counterValues.put(counter.getKey(), counter.getValue().sum());
+        }
+        for(Map.Entry<String, Timer> timer: timers.entrySet()) {
+            timerValues.put(timer.getKey(), timer.getValue().snapshot());
+        }
+
+        return new Snapshot(counterValues, timerValues);
+    }
+
+    private static final class Timer {
+        private long count = 0;
+        private long totalNanos = 0;
+        private long maxNanos = 0;
+        private long lastNanos = 0;
+
+        synchronized void record(long nanos) {
+            count++;
+            totalNanos += nanos;
+            maxNanos = Math.max(maxNanos, nanos);
+            lastNanos = nanos;
+        }
+
+        synchronized TimerSnapshot snapshot() {
+            return new TimerSnapshot(
+                count, count == 0 ? 0 : totalNanos / count / 1e6, maxNanos / 1e6, lastNanos / 1e6
+            );
+        }
+    }
+
+    public static final class Snapshot implements JsonSerializable {
+        public final Map<String, Long> counters;
+        public final Map<String, TimerSnapshot> timers;
+
+        private Snapshot(Map<String, Long> counters, Map<String, TimerSnapshot> timers) {
+            this.counters = counters;
+            this.timers = timers;
+        }
+    }
+
+    public static final class TimerSnapshot implements JsonSerializable {
+        public final long count;
+        public final double meanMillis;
+        public final double maxMillis;
+        public final double lastMillis;
+
+        private TimerSnapshot(long count, double meanMillis, double maxMillis, double lastMillis) {
+            this.count = count;
+            this.meanMillis = meanMillis;
+            this.maxMillis = maxMillis;
+            this.lastMillis = lastMillis;
+        }
+    }
+}
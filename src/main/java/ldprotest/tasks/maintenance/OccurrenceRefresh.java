@@ -0,0 +1,53 @@
+/*
+ * This File is Part of LDProtest
+ * Copyright (C) 2021 Covid Anti Hysterics League
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Lesser Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package ldprotest.tasks.maintenance;
+
+import com.mongodb.MongoException;
+import java.util.concurrent.TimeUnit;
+import ldprotest.business.PrivateProtestData;
+import ldprotest.tasks.PeriodicTaskManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public final class OccurrenceRefresh {
+
+    private final static Logger LOGGER = LoggerFactory.getLogger(OccurrenceRefresh.class);
+
+    private static final long RUN_PERIOD_MINUTES = 15;
+
+    private OccurrenceRefresh() {
+        /* do not construct */
+    }
+
+    public static void register() {
+
+        PeriodicTaskManager.registerBulkTask(
+            0, RUN_PERIOD_MINUTES, TimeUnit.MINUTES, true, (signal) -> {
+
+                try {
+                    long count = PrivateProtestData.refreshNextOccurrences();
+                    if(count != 0) {
+                        LOGGER.info("Occurrence refresh updated {} protests", count);
+                    }
+                } catch(MongoException ex) {
+                    LOGGER.warn("Error thrown during protest occurrence refresh", ex);
+                }
+            }
+        );
+    }
+}
@@ -18,18 +18,41 @@
 package ldprotest.tasks.maintenance;
 
 import com.mongodb.MongoException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
 import java.util.concurrent.TimeUnit;
 import ldprotest.business.PrivateProtestData;
+import ldprotest.business.ProtestArchive;
+import ldprotest.business.ProtestTombstone;
+import ldprotest.main.Main;
 import ldprotest.tasks.PeriodicTaskManager;
+import ldprotest.tasks.PeriodicTaskManager.ShutdownSignal;
+import ldprotest.tasks.TaskMetrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Removes expired protests from the protests collection, keeping it and its indexes small.
+ *
+ * Expired protests are removed in bounded batches, with a pause between batches so that the vacuum never monopolizes
+ * the database or the heap. A run stops after a fixed number of batches, and any backlog is left for the next run. By
+ * default removed protests are moved to the archive; if archiving is disabled, they are only deleted.
+ */
 public final class ProtestVacuum {
 
     private final static Logger LOGGER = LoggerFactory.getLogger(ProtestVacuum.class);
+    private static final TaskMetrics METRICS = TaskMetrics.forTask("protestVacuum");
 
     private static final long RUN_PERIOD_HOURS = 1;
     private static final long EXPIRED_PROTEST_KEEP_TIME_MS = 12 * 3600 * 1000;
+    private static final long TOMBSTONE_KEEP_TIME_MS = 7 * 24 * 3600 * 1000;
+
+    private static final int BATCH_SIZE = 500;
+    private static final int MAX_BATCHES_PER_RUN = 200;
+    private static final long BATCH_PAUSE_MS = 250;
 
     private ProtestVacuum() {
         /* do not construct */
@@ -37,18 +60,85 @@ public final class ProtestVacuum {
 
     public static void register() {
 
-        PeriodicTaskManager.registerTask(
+        PeriodicTaskManager.registerBulkTask(
             RUN_PERIOD_HOURS, RUN_PERIOD_HOURS, TimeUnit.HOURS, true, (signal) -> {
 
                 try {
-                    long count = PrivateProtestData.deleteOlderThan(EXPIRED_PROTEST_KEEP_TIME_MS);
-                    if(count != 0) {
-                        LOGGER.info("Protest Vacuum deleted {} protests", count);
+                    removeExpired(signal, Main.args().archiveExpiredProtests);
+
+                    long tombstones = ProtestTombstone.purgeOlderThan(TOMBSTONE_KEEP_TIME_MS);
+                    METRICS.count("tombstonesPurged", tombstones);
+
+                    if(tombstones != 0) {
+                        LOGGER.info("Protest Vacuum purged {} tombstones", tombstones);
                     }
                 } catch(MongoException ex) {
+                    METRICS.count("errors", 1);
                     LOGGER.warn("Error thrown during attempted protest deletion", ex);
                 }
             }
         );
     }
+
+    private static void removeExpired(ShutdownSignal signal, boolean archive) {
+        long moved = 0;
+
+        for(int i = 0; i < MAX_BATCHES_PER_RUN && !signal.shutdownRequested(); i++) {
+            long start = System.nanoTime();
+
+            List<PrivateProtestData> expired = PrivateProtestData.findExpired(EXPIRED_PROTEST_KEEP_TIME_MS, BATCH_SIZE);
+
+            if(expired.isEmpty()) {
+                break;
+            }
+
+            /* archive first so an interrupted run never loses a protest, then drop the copies that weren't moved */
+            if(archive) {
+                ProtestArchive.archive(expired);
+            }
+            List<PrivateProtestData> deleted = PrivateProtestData.deleteExpired(expired, EXPIRED_PROTEST_KEEP_TIME_MS);
+            int count = deleted.size();
+
+            if(archive && count != expired.size()) {
+                ProtestArchive.unarchive(notDeleted(expired, deleted));
+            }
+
+            METRICS.time(archive ? "archiveBatch" : "deleteBatch", System.nanoTime() - start);
+            METRICS.count(archive ? "archived" : "deleted", count);
+            moved += count;
+
+            if(expired.size() < BATCH_SIZE) {
+                break;
+            }
+
+            try {
+                Thread.sleep(BATCH_PAUSE_MS);
+            } catch(InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+
+        if(moved != 0) {
+            LOGGER.info("Protest Vacuum {} {} protests", archive ? "archived" : "deleted", moved);
+        }
+    }
+
+    private static List<PrivateProtestData> notDeleted(
+        List<PrivateProtestData> found, List<PrivateProtestData> deleted
+    ) {
+        Set<UUID> deletedIds = new HashSet<>();
+        for(PrivateProtestData protest: deleted) {
+            deletedIds.add(protest.protestId);
+        }
+
+        List<PrivateProtestData> ret = new ArrayList<>();
+        for(PrivateProtestData protest: found) {
+            if(!deletedIds.contains(protest.protestId)) {
+                ret.add(protest);
+            }
+        }
+
+        return ret;
+    }
 }
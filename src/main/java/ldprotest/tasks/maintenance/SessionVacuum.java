@@ -29,7 +29,7 @@ public final class SessionVacuum {
     }
 
     public static void register() {
-        PeriodicTaskManager.registerTask(
+        PeriodicTaskManager.registerBulkTask(
             PERIOD_HOURS, PERIOD_HOURS, TimeUnit.HOURS, true, (signal) -> UserSessions.deleteExpired()
         );
     }
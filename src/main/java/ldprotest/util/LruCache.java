@@ -17,17 +17,16 @@
 */
 package ldprotest.util;
 
-import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.TreeSet;
 import java.util.function.BiFunction;
 import java.util.function.Function;
 import java.util.function.Supplier;
 
 public class LruCache<S, K, T> {
 
-    private final TreeSet<CacheEntry> cacheTree;
-    private final Map<K, CacheEntry> lookupMap;
+    private final LinkedHashMap<K, T> lookupMap;
     private final BiFunction<T, S, S> magOnInsert;
     private final BiFunction<T, S, S> magOnRemove;
     private final Function<S, Boolean> shouldEvict;
@@ -39,8 +38,7 @@ public class LruCache<S, K, T> {
         Function<S, Boolean> shouldEvict,
         S magInitial
     ) {
-        this.cacheTree = new TreeSet<>();
-        this.lookupMap = new HashMap<>();
+        this.lookupMap = new LinkedHashMap<>(16, 0.75f, true);
         this.magOnInsert = magOnInsert;
         this.magOnRemove = magOnRemove;
         this.shouldEvict = shouldEvict;
@@ -50,32 +48,20 @@ public class LruCache<S, K, T> {
 
     public synchronized void insert(K key, T elem) {
 
-        CacheEntry entry = new CacheEntry(elem, key);
-        CacheEntry prev = lookupMap.put(key, entry);
-
-        cacheTree.add(entry);
+        T prev = lookupMap.put(key, elem);
 
         if(prev != null) {
-            magnitude = magOnRemove.apply(prev.value, magnitude);
-            cacheTree.remove(prev);
+            magnitude = magOnRemove.apply(prev, magnitude);
         }
         magnitude = magOnInsert.apply(elem, magnitude);
 
-        if(shouldEvict.apply(magnitude)) {
+        while(shouldEvict.apply(magnitude) && lookupMap.size() > 1) {
             evict();
         }
     }
 
     public synchronized T get(K key) {
-        CacheEntry entry = lookupMap.get(key);
-        if(entry == null) {
-            return null;
-        } else {
-            cacheTree.remove(entry);
-            cacheTree.add(new CacheEntry(entry.value, entry.key));
-
-            return entry.value;
-        }
+        return lookupMap.get(key);
     }
 
     public synchronized T computeIfAbsent(K key, Supplier<T> supplier) {
@@ -90,34 +76,19 @@ public class LruCache<S, K, T> {
         }
     }
 
+    public synchronized void remove(K key) {
+        T prev = lookupMap.remove(key);
 
-    private void evict() {
-        CacheEntry evicted = cacheTree.first();
-        cacheTree.remove(evicted);
-        lookupMap.remove(evicted.key);
-
-        magnitude = magOnRemove.apply(evicted.value, magnitude);
+        if(prev != null) {
+            magnitude = magOnRemove.apply(prev, magnitude);
+        }
     }
 
-    private final class CacheEntry implements Comparable<CacheEntry> {
-
-        private final long timestamp;
-        public final T value;
-        public final K key;
-
-        CacheEntry(T value, K key) {
-            this.timestamp = System.currentTimeMillis();
-            this.value = value;
-            this.key = key;
-        }
+    private void evict() {
+        Iterator<Map.Entry<K, T>> iter = lookupMap.entrySet().iterator();
+        Map.Entry<K, T> evicted = iter.next();
+        iter.remove();
 
-        @Override
-        public int compareTo(CacheEntry cacheEntry) {
-            if(cacheEntry.timestamp == this.timestamp) {
-                return 0;
-            } else {
-                return cacheEntry.timestamp > this.timestamp ? 1 : -1;
-            }
-        }
+        magnitude = magOnRemove.apply(evicted.getValue(), magnitude);
     }
 }
@@ -17,9 +17,12 @@
 */
 package ldprotest.util.types;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.function.Predicate;
 import ldprotest.util.IterTools;
 
 public class PrefixTree<T, R> {
@@ -78,6 +81,84 @@ public class PrefixTree<T, R> {
         return longest.data();
     }
 
+    /**
+     * Remove the data stored at a path, along with any nodes left without data or children.
+     *
+     * @param path path to remove
+     * @return true if there was data stored at path
+     */
+    public synchronized boolean remove(Iterable<T> path) {
+        List<T> elems = new ArrayList<>();
+        path.forEach(elems::add);
+
+        if(elems.isEmpty()) {
+            return false;
+        }
+
+        return remove(root, elems, 0);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T, R> boolean remove(TreeNode<T, R> node, List<T> path, int depth) {
+        T elem = path.get(depth);
+        TreeNode<T, R> child = node.lookup(elem);
+
+        if(child == null) {
+            return false;
+        }
+
+        boolean removed;
+        if(depth == path.size() - 1) {
+            removed = child.data.isPresent();
+            if(removed) {
+                child = node.unlink(elem);
+            }
+        } else {
+            removed = remove(child, path, depth + 1);
+        }
+
+        if(child.data.isEmpty() && child.children.isEmpty()) {
+            node.children.remove(elem);
+        }
+
+        return removed;
+    }
+
+    /**
+     * Visit the data stored at a path and at every path it is a prefix of.
+     *
+     * @param prefix path to start from
+     * @param visitor called with each piece of data found, stops the search by returning false
+     */
+    public synchronized void visitPrefix(Iterable<T> prefix, Predicate<R> visitor) {
+        TreeNode<T, R> current = root;
+
+        for(T elem: prefix) {
+            current = current.lookup(elem);
+
+            if(current == null) {
+                return;
+            }
+        }
+
+        visit(current, visitor);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T, R> boolean visit(TreeNode<T, R> node, Predicate<R> visitor) {
+        if(node.data.isPresent() && !visitor.test(node.data.get())) {
+            return false;
+        }
+
+        for(TreeNode child: node.children.values()) {
+            if(!visit((TreeNode<T, R>)child, visitor)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
     private static final class TreeNode<T, R> {
 
         private final Map<T, TreeNode> children;
@@ -116,6 +197,11 @@ public class PrefixTree<T, R> {
             });
         }
 
+        @SuppressWarnings("unchecked")
+        public TreeNode<T, R> unlink(T key) {
+            return children.computeIfPresent(key, (k, v) -> new TreeNode<>(v.children, Optional.empty()));
+        }
+
         @SuppressWarnings("unchecked")
         public TreeNode<T, R> lookup(T key) {
             return children.get(key);
@@ -0,0 +1,58 @@
+/*
+ * This File is Part of LDProtest
+ * Copyright (C) 2021 Covid Anti Hysterics League
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Lesser Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package ldprotest.util.types;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Predicate;
+
+public class StringPrefixTree<R> {
+
+    private final PrefixTree<Character, R> delegate;
+
+    public StringPrefixTree() {
+        this.delegate = new PrefixTree<>();
+    }
+
+    public void add(String key, R data) {
+        delegate.add(characters(key), data);
+    }
+
+    public Optional<R> lookup(String key) {
+        return delegate.lookup(characters(key));
+    }
+
+    public boolean remove(String key) {
+        return delegate.remove(characters(key));
+    }
+
+    public void visitPrefix(String prefix, Predicate<R> visitor) {
+        delegate.visitPrefix(characters(prefix), visitor);
+    }
+
+    public static List<Character> characters(String s) {
+        List<Character> chars = new ArrayList<>(s.length());
+
+        for(int i = 0; i < s.length(); i++) {
+            chars.add(s.charAt(i));
+        }
+
+        return chars;
+    }
+}
@@ -0,0 +1,279 @@
+/*
+ * This File is Part of LDProtest
+ * Copyright (C) 2021 Covid Anti Hysterics League
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Lesser Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package ldprotest.util.types;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+/**
+ * Word index over documents with a title and a body.
+ *
+ * Every word of a document is entered into an inverted index, and the words of its title into a prefix tree. A query
+ * matches documents containing each of its words, except that the last word also matches any title word it is a
+ * prefix of, so that results can be offered while the last word is still being typed. Title prefix matches are
+ * returned first.
+ *
+ * Words are compared after case folding and removal of accents. This class is not thread safe. Callers sharing an
+ * index between threads must provide their own locking.
+ */
+public class TextIndex<K> {
+
+    private static final Pattern COMBINING_MARKS = Pattern.compile("\\p{M}+");
+    private static final int MAX_WORD_LENGTH = 64;
+
+    /* below this many candidates it is cheaper to check their titles than to walk the prefix tree */
+    private static final int CANDIDATE_SCAN_THRESHOLD = 256;
+
+    private final Map<String, Set<K>> postings;
+    private final StringPrefixTree<Set<K>> titleWords;
+    private final Map<K, Entry> entries;
+
+    public TextIndex() {
+        postings = new HashMap<>();
+        titleWords = new StringPrefixTree<>();
+        entries = new HashMap<>();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public void put(K key, String title, String body) {
+        remove(key);
+
+        Set<String> titleSet = new HashSet<>(words(title));
+        Set<String> all = new HashSet<>(titleSet);
+        all.addAll(words(body));
+
+        for(String word: all) {
+            postings.computeIfAbsent(word, (w) -> new HashSet<>()).add(key);
+        }
+
+        for(String word: titleSet) {
+            Set<K> keys = titleWords.lookup(word).orElse(null);
+
+            if(keys == null) {
+                keys = new HashSet<>();
+                titleWords.add(word, keys);
+            }
+
+            keys.add(key);
+        }
+
+        entries.put(key, new Entry(titleSet, all));
+    }
+
+    public boolean remove(K key) {
+        Entry entry = entries.remove(key);
+
+        if(entry == null) {
+            return false;
+        }
+
+        for(String word: entry.words) {
+            Set<K> keys = postings.get(word);
+            keys.remove(key);
+
+            if(keys.isEmpty()) {
+                postings.remove(word);
+            }
+        }
+
+        for(String word: entry.titleWords) {
+            Set<K> keys = titleWords.lookup(word).get();
+            keys.remove(key);
+
+            if(keys.isEmpty()) {
+                titleWords.remove(word);
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Find the documents matching a query.
+     *
+     * @param query words to search for. The last word is treated as a title prefix unless the query ends with a
+     * character which can't be part of a word.
+     * @param filter documents for which this returns false are skipped
+     * @param limit maximum number of documents to return
+     * @return keys of matching documents, title prefix matches first
+     */
+    public List<K> search(String query, Predicate<K> filter, int limit) {
+        List<String> terms = words(query);
+
+        if(terms.isEmpty() || limit <= 0) {
+            return List.of();
+        }
+
+        char end = query.charAt(query.length() - 1);
+        boolean prefix = Character.isLetterOrDigit(end) || Character.getType(end) == Character.NON_SPACING_MARK;
+
+        String last = terms.get(terms.size() - 1);
+        List<String> complete = prefix ? terms.subList(0, terms.size() - 1) : terms;
+
+        Set<K> candidates = intersect(complete);
+
+        if(candidates != null && candidates.isEmpty()) {
+            return List.of();
+        }
+
+        Set<K> ret = new LinkedHashSet<>();
+
+        if(prefix) {
+            if(candidates != null && candidates.size() < CANDIDATE_SCAN_THRESHOLD) {
+                for(K key: candidates) {
+                    if(ret.size() >= limit) {
+                        break;
+                    }
+                    if(entries.get(key).hasTitlePrefix(last) && filter.test(key)) {
+                        ret.add(key);
+                    }
+                }
+            } else {
+                titleWords.visitPrefix(last, (keys) -> {
+                    for(K key: keys) {
+                        if(ret.size() >= limit) {
+                            return false;
+                        }
+                        if((candidates == null || candidates.contains(key)) && filter.test(key)) {
+                            ret.add(key);
+                        }
+                    }
+                    return true;
+                });
+            }
+
+            /* a whole word match anywhere in the document also counts, after the title matches */
+            Set<K> exact = postings.getOrDefault(last, Set.of());
+            for(K key: exact) {
+                if(ret.size() >= limit) {
+                    break;
+                }
+                if((candidates == null || candidates.contains(key)) && !ret.contains(key) && filter.test(key)) {
+                    ret.add(key);
+                }
+            }
+        } else {
+            for(K key: candidates) {
+                if(ret.size() >= limit) {
+                    break;
+                }
+                if(filter.test(key)) {
+                    ret.add(key);
+                }
+            }
+        }
+
+        return new ArrayList<>(ret);
+    }
+
+    /**
+     * Split text into normalized words.
+     *
+     * @param text text to split
+     * @return lower case words without accents, in order of appearance
+     */
+    public static List<String> words(String text) {
+        List<String> ret = new ArrayList<>();
+
+        if(text == null) {
+            return ret;
+        }
+
+        String folded = COMBINING_MARKS.matcher(Normalizer.normalize(text, Normalizer.Form.NFKD))
+            .replaceAll("")
+            .toLowerCase(Locale.ROOT);
+
+        int start = -1;
+        for(int i = 0; i <= folded.length(); i++) {
+            boolean inWord = i < folded.length() && Character.isLetterOrDigit(folded.charAt(i));
+
+            if(inWord && start < 0) {
+                start = i;
+            } else if(!inWord && start >= 0) {
+                if(i - start <= MAX_WORD_LENGTH) {
+                    ret.add(folded.substring(start, i));
+                }
+                start = -1;
+            }
+        }
+
+        return ret;
+    }
+
+    /* null means every document, since no terms constrain the result. The result must not be modified. */
+    private Set<K> intersect(List<String> terms) {
+        if(terms.isEmpty()) {
+            return null;
+        }
+
+        List<Set<K>> sets = new ArrayList<>();
+        for(String term: terms) {
+            Set<K> keys = postings.get(term);
+
+            if(keys == null) {
+                return Set.of();
+            }
+
+            sets.add(keys);
+        }
+
+        if(sets.size() == 1) {
+            return sets.get(0);
+        }
+
+        sets.sort((a, b) -> Integer.compare(a.size(), b.size()));
+
+        Set<K> ret = new HashSet<>(sets.get(0));
+        for(Set<K> keys: sets.subList(1, sets.size())) {
+            ret.retainAll(keys);
+        }
+
+        return ret;
+    }
+
+    private static final class Entry {
+        private final Set<String> titleWords;
+        private final Set<String> words;
+
+        Entry(Set<String> titleWords, Set<String> words) {
+            this.titleWords = titleWords;
+            this.words = words;
+        }
+
+        boolean hasTitlePrefix(String prefix) {
+            for(String word: titleWords) {
+                if(word.startsWith(prefix)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -28,16 +28,27 @@ const GENERIC_INTERNAL_ERROR = 1;
 const CONTENT_TYPE_ERROR = 2;
 const LOGIN_FAILURE = 3;
 const UNAUTHORIZED_FAILURE = 4;
+const EDIT_CONFLICT = 9;
+const SERVICE_UNAVAILABLE = 10;
 
 const ERROR_CODES = {
     'SUCCESS_CODE': SUCCESS_CODE,
     'GENERIC_INTERNAL_ERROR': GENERIC_INTERNAL_ERROR,
     'CONTENT_TYPE_ERROR': CONTENT_TYPE_ERROR,
     'LOGIN_FAILURE': LOGIN_FAILURE,
-    'UNAUTHORIZED_FAILURE': UNAUTHORIZED_FAILURE
+    'UNAUTHORIZED_FAILURE': UNAUTHORIZED_FAILURE,
+    'EDIT_CONFLICT': EDIT_CONFLICT,
+    'SERVICE_UNAVAILABLE': SERVICE_UNAVAILABLE
 };
 
 const CONTENT_TYPE = "application/json; charset=utf-8";
+const PINS_CONTENT_TYPE = 'application/vnd.ldprotest.pins';
+
+const PINS_MAGIC = 0x4c445050;
+const PINS_FORMAT_VERSION = 2;
+const PINS_RELOAD_FLAG = 1;
+const PINS_TRUNCATED_FLAG = 2;
+const PINS_COORDINATE_SCALE = 1e6;
 
 const AUTHORIZATION_STORAGE_KEY = 'authorization';
 
@@ -108,7 +119,139 @@ function refresh(success_cb, failure_cb) {
     });
 }
 
-function api_call(path, method, data, success_cb, failure_cb) {
+/*
+ * Decode the compact binary pins format described in PinEncoding.java into the same object the JSON response would
+ * have parsed to.
+ */
+function decode_pins(buffer) {
+    let view = new DataView(buffer);
+    let offset = 0;
+
+    /* values may exceed 32 bits, so no bitwise operators on the accumulated value */
+    let varint = () => {
+        let value = 0;
+        let scale = 1;
+        let b;
+        do {
+            b = view.getUint8(offset++);
+            value += (b & 0x7f) * scale;
+            scale *= 128;
+        } while(b & 0x80);
+        return value;
+    };
+    let unzigzag = (v) => v % 2 === 0 ? v / 2 : -(v + 1) / 2;
+    let uuid = () => {
+        let hex = '';
+        for(let i = 0; i < 16; i++) {
+            hex += view.getUint8(offset++).toString(16).padStart(2, '0');
+        }
+        return `${hex.slice(0, 8)}-${hex.slice(8, 12)}-${hex.slice(12, 16)}-${hex.slice(16, 20)}-${hex.slice(20)}`;
+    };
+    let coordinates = (count) => {
+        let latitudes = [];
+        let longitudes = [];
+        let previous = 0;
+        for(let i = 0; i < count; i++) {
+            previous += unzigzag(varint());
+            latitudes.push(previous / PINS_COORDINATE_SCALE);
+        }
+        previous = 0;
+        for(let i = 0; i < count; i++) {
+            previous += unzigzag(varint());
+            longitudes.push(previous / PINS_COORDINATE_SCALE);
+        }
+        return latitudes.map((latitude, i) => ({'latitude': latitude, 'longitude': longitudes[i]}));
+    };
+    let repeat = (count, read) => Array.from({'length': count}, read);
+
+    if(view.getUint32(0) !== PINS_MAGIC) {
+        throw new Error('Invalid pins response');
+    }
+    offset = 4;
+
+    if(varint() !== PINS_FORMAT_VERSION) {
+        throw new Error('Unsupported pins response version');
+    }
+
+    let flags = varint();
+    let version = varint();
+
+    let utf8 = new TextDecoder('utf-8');
+    let strings = repeat(varint(), () => {
+        let length = varint();
+        let s = utf8.decode(new Uint8Array(buffer, offset, length));
+        offset += length;
+        return s;
+    });
+
+    let protest_count = varint();
+    let protest_ids = repeat(protest_count, uuid);
+    let locations = coordinates(protest_count);
+    let titles = repeat(protest_count, () => strings[varint()]);
+
+    let previous_date = 0;
+    let dates = repeat(protest_count, () => {
+        let v = varint();
+        if(v === 0) {
+            return undefined;
+        }
+        previous_date += unzigzag(v - 1);
+        return previous_date;
+    });
+    let periods = repeat(protest_count, () => {
+        let v = varint();
+        return v === 0 ? undefined : unzigzag(v - 1);
+    });
+    let versions = repeat(protest_count, () => {
+        let v = varint();
+        return v === 0 ? undefined : v - 1;
+    });
+
+    let protests = protest_ids.map((protest_id, i) => {
+        let protest = {'protestId': protest_id, 'location': locations[i], 'title': titles[i]};
+        if(dates[i] !== undefined) {
+            protest.date = dates[i];
+        }
+        if(periods[i] !== undefined) {
+            protest.recursEveryDays = periods[i];
+        }
+        if(versions[i] !== undefined) {
+            protest.version = versions[i];
+        }
+        return protest;
+    });
+
+    let cluster_count = varint();
+    let cluster_ids = repeat(cluster_count, () => strings[varint()]);
+    let counts = repeat(cluster_count, varint);
+    let centroids = coordinates(cluster_count);
+    let south_wests = coordinates(cluster_count);
+    let north_easts = coordinates(cluster_count);
+
+    let clusters = cluster_ids.map((cluster_id, i) => ({
+        'clusterId': cluster_id,
+        'count': counts[i],
+        'centroid': centroids[i],
+        'southWest': south_wests[i],
+        'northEast': north_easts[i]
+    }));
+
+    let removed = repeat(varint(), uuid);
+
+    return {
+        'protests': protests,
+        'clusters': clusters,
+        'removed': removed,
+        'version': version,
+        'reload': (flags & PINS_RELOAD_FLAG) !== 0,
+        'truncated': (flags & PINS_TRUNCATED_FLAG) !== 0
+    };
+}
+
+/*
+ * encoding optionally names a binary format ({'type', 'decode'}) the server may answer with instead of JSON.
+ */
+function api_call(path, method, data, success_cb, failure_cb, encoding) {
 
         if(success_cb === undefined) {
             success_cb = () => {};
@@ -120,18 +263,32 @@ function api_call(path, method, data, success_cb, failure_cb) {
         let token = STORAGE.getItem(AUTHORIZATION_STORAGE_KEY);
         let headers = token ? {"Authorization": `Bearer ${token}`} : {};
 
+        if(encoding !== undefined) {
+            headers['Accept'] = `${encoding.type}, application/json`;
+        }
+
         return $.ajax({
               type: method,
               url: path,
               data: method === "GET" ? data : JSON.stringify(data),
               contentType: CONTENT_TYPE,
-              dataType: "json",
+              dataType: encoding === undefined ? "json" : "binary",
+              xhrFields: encoding === undefined ? {} : {'responseType': 'arraybuffer'},
               headers: headers,
-              success: function(data){
-                  success_cb(data);
+              success: function(data, text_status, jqXHR){
+                  if(encoding === undefined) {
+                      success_cb(data);
+                  } else if((jqXHR.getResponseHeader('Content-Type') || '').startsWith(encoding.type)) {
+                      success_cb(encoding.decode(data));
+                  } else {
+                      success_cb(JSON.parse(new TextDecoder('utf-8').decode(data)));
+                  }
               },
               error: function(jqXHR, text_status, error_thrown) {
-                  failure_cb(jqXHR.status, parse_error_response(jqXHR.responseText), jqXHR, text_status, error_thrown);
+                  let body = encoding === undefined || !(jqXHR.response instanceof ArrayBuffer) ?
+                      jqXHR.responseText :
+                      new TextDecoder('utf-8').decode(jqXHR.response);
+                  failure_cb(jqXHR.status, parse_error_response(body), jqXHR, text_status, error_thrown);
               }
         });
 }
@@ -197,7 +354,8 @@ export let api = {
               }
         });
     },
-    'call': function(path, method, request_body, success_cb, failure_cb) {
+    'pins_encoding': {'type': PINS_CONTENT_TYPE, 'decode': decode_pins},
+    'call': function(path, method, request_body, success_cb, failure_cb, encoding) {
 
         success_cb = success_cb ? success_cb : () => {};
         failure_cb = failure_cb ? failure_cb : () => {};
@@ -211,19 +369,20 @@ export let api = {
                 if(is_unauthorized(status, error_body)) {
                     if(decode_token() === undefined) {
                         this.logout(
-                            () => api_call(path, method, request_body, success_cb, failure_cb),
+                            () => api_call(path, method, request_body, success_cb, failure_cb, encoding),
                             () => failure_cb(status, error_body, jqXHR, text_status, error_thrown)
                         );
                     } else {
                         refresh(
-                            () => api_call(path, method, request_body, success_cb, failure_cb),
+                            () => api_call(path, method, request_body, success_cb, failure_cb, encoding),
                             () => failure_cb(status, error_body, jqXHR, text_status, error_thrown)
                         );
                     }
                 } else {
                     failure_cb(status, error_body, jqXHR, text_status, error_thrown);
                 }
-            }
+            },
+            encoding
         );
     },
     'whoami': function() {
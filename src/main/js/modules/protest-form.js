@@ -78,6 +78,7 @@ export let protest_form = {
         set_if_defined($(`#${id_prefix}-input-date`), populate.date_input_val());
         set_if_defined($(`#${id_prefix}-input-time`), populate.time_input_val());
         set_if_defined($(`#${id_prefix}-input-protest-id`), populate.protestId);
+        $(`#${id_prefix}-input-version`).val(populate.version !== undefined ? populate.version : '');
         set_if_defined($(`#${id_prefix}-input-description`), populate.htmlDecodedDescription());
         set_if_defined($(`#${id_prefix}-input-home-page`), populate.homePage);
         set_if_defined($(`#${id_prefix}-input-recurs-period`), populate.recursEveryDays);
@@ -114,6 +115,7 @@ export let protest_form = {
         let time = $(`#${id_prefix}-input-time`);
         let dt_validity_feedback = $(`#${id_prefix}-date-time-validity-feedback`);
         let protest_id = $(`#${id_prefix}-input-protest-id`);
+        let version = $(`#${id_prefix}-input-version`);
         let user_current_time = $(`#${id_prefix}-user-current-time`);
         let home_page = $(`#${id_prefix}-input-home-page`);
         let latitude = $(`#${id_prefix}-input-latitude`);
@@ -208,6 +210,7 @@ export let protest_form = {
                 'title': input_value(title),
                 'description': input_value(description),
                 'protestId': input_value(protest_id),
+                'version': input_value(version) !== undefined ? Number(input_value(version)) : undefined,
                 'homePage': input_value(home_page),
                 'recursEveryDays': enable_recurs[0].checked ? recurrence_period.val() : 0
             };
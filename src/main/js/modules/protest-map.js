@@ -30,7 +30,17 @@ import util from 'ldp-util';
 ***********************************************************************************************************************/
 const PROTEST_LOAD_ZONE_BUFFER_FACTOR = 1.25;
 const PROTEST_REFRESH_PERIOD = 60000;
+const PIN_UPDATES_PATH = '/api/pins/live';
+const PIN_UPDATES_RECONNECT_DELAY = 30000;
+/* pushes only carry changes made through the server instance the socket is connected to */
+const PIN_UPDATES_SYNC_PERIOD = 5 * PROTEST_REFRESH_PERIOD;
 const POPUP_MAX_WIDTH_PIXELS = 500;
+const POPUP_LOADING_TEXT = 'Loading...';
+
+const PIN_TILE_ZOOM_OFFSET = 2;
+const MAX_PIN_TILE_ZOOM = 16;
+const MAX_PIN_TILES_PER_LOAD = 64;
+const CLUSTER_ICON_SIZE_PIXELS = 36;
 
 const DEFAULT_INITIAL_ZOOM = 13;
 const INITIAL_ZOOM_IF_LOCATION_DISABLED = 10;
@@ -199,25 +209,169 @@ function update_protests(map, state) {
 
     if(bounds_contained(state.protest_zone, map_bounds) && !time_to_refresh_pins(now, state.last_protest_update)) {
         return;
+    } else if(bounds_contained(state.protest_zone, map_bounds) && state.protest_version !== undefined) {
+        state.last_protest_update = now;
+
+        /* changes are pushed while the socket is open, so changes made elsewhere are synced less often */
+        if(pin_updates_open(state)) {
+            subscribe_pin_updates(state);
+        }
+        if(!pin_updates_open(state) || now > state.last_protest_sync + PIN_UPDATES_SYNC_PERIOD) {
+            sync_protests(map, normalize_bounds(state.protest_zone), state);
+        }
     } else {
         state.protest_zone = buffer_bounds(map_bounds);
         state.last_protest_update = now;
+        state.last_protest_sync = now;
         load_protests(map, normalize_bounds(state.protest_zone), state);
+        subscribe_pin_updates(state);
     }
 }
 
-function load_protests(map, bounds, state) {
+function tile_x(lng, n) {
+    let x = Math.floor((lng + 180.0) / 360.0 * n);
+    return Math.min(Math.max(x, 0), n - 1);
+}
 
-    let north = bounds.north;
-    let west = bounds.west;
-    let south = bounds.south;
-    let east = bounds.east;
+function tile_y(lat, n) {
+    let lat_rad = clamp_latitude(lat) * Math.PI / 180.0;
+    let y = Math.floor((1.0 - Math.asinh(Math.tan(lat_rad)) / Math.PI) / 2.0 * n);
 
-    api.call(
-        `/api/pins`,
-        'GET',
-        {'SW': `${south},${west}`, 'NE': `${north},${east}`},
-        (data) => {
+    if(!Number.isFinite(y)) {
+        return lat > 0 ? 0 : n - 1;
+    }
+
+    return Math.min(Math.max(y, 0), n - 1);
+}
+
+function tile_columns(west, east, n) {
+    let first = tile_x(west, n);
+    let last = tile_x(east, n);
+    let columns = [];
+
+    if(west > east) {
+        /* bounds cross the antimeridian */
+        for(let x = first; x < n; x++) {
+            columns.push(x);
+        }
+        for(let x = 0; x <= last; x++) {
+            columns.push(x);
+        }
+    } else {
+        for(let x = first; x <= last; x++) {
+            columns.push(x);
+        }
+    }
+
+    return columns;
+}
+
+function covering_tiles(map, bounds) {
+
+    let z = Math.min(Math.max(Math.round(map.getZoom()) - PIN_TILE_ZOOM_OFFSET, 0), MAX_PIN_TILE_ZOOM);
+
+    while(true) {
+        let n = 1 << z;
+        let columns = tile_columns(bounds.west, bounds.east, n);
+        let y_min = tile_y(bounds.north, n);
+        let y_max = tile_y(bounds.south, n);
+
+        if(z === 0 || columns.length * (y_max - y_min + 1) <= MAX_PIN_TILES_PER_LOAD) {
+            let tiles = [];
+
+            columns.forEach((x) => {
+                for(let y = y_min; y <= y_max; y++) {
+                    tiles.push({'z': z, 'x': x, 'y': y});
+                }
+            });
+
+            return tiles;
+        }
+
+        z--;
+    }
+}
+
+function load_tile(tile) {
+    return new Promise((success, fail) => {
+        api.call(
+            `/api/pins/tiles/${tile.z}/${tile.x}/${tile.y}`,
+            'GET',
+            {},
+            (data) => success(data),
+            (status, error_body) => fail({'status': status, 'error_body': error_body})
+        );
+    });
+}
+
+function cluster_marker(map, cluster) {
+
+    let lat = cluster.centroid.latitude;
+    let lng = denormalize_longitude(cluster.centroid.longitude, map);
+
+    let mark = L.marker([lat, lng], {
+        'icon': L.divIcon({
+            'className': 'protest-cluster',
+            'html': `<span>${cluster.count}</span>`,
+            'iconSize': [CLUSTER_ICON_SIZE_PIXELS, CLUSTER_ICON_SIZE_PIXELS]
+        })
+    }).addTo(map);
+
+    mark.on('click', () => {
+        let west = denormalize_longitude(cluster.southWest.longitude, map);
+        let east = west + (cluster.northEast.longitude - cluster.southWest.longitude);
+
+        map.fitBounds([[cluster.southWest.latitude, west], [cluster.northEast.latitude, east]], {'maxZoom': 18});
+    });
+
+    return mark;
+}
+
+function protest_marker(map, state, protest) {
+
+    let lat = protest.location.latitude;
+    let lng = denormalize_longitude(
+        protest.location.longitude, map
+    );
+
+    let protest_obj = new protest_object.Protest(protest);
+    let icon = state.config.choose_marker_icon(protest_obj);
+
+    let mark = icon === undefined ?
+        L.marker([lat, lng]).addTo(map) :
+        L.marker([lat, lng], {'icon': L.icon(icon)}).addTo(map);
+
+    /* pins only carry a summary, so the full protest is fetched when its popup is opened */
+    mark.bindPopup(POPUP_LOADING_TEXT, {
+        'maxWidth' : popup_max_width_pixels()
+    });
+
+    mark.on('popupopen', () => {
+        protest_object.fetch(protest.protestId).then(
+            (detail) => mark.setPopupContent(state.config.render_popup(detail)),
+            (err) => {
+                mark.closePopup();
+                state.config.display_error(err.status, err.error_body);
+            }
+        );
+    });
+
+    return mark;
+}
+
+function remove_pin(map, state, protest_id) {
+    let mark = state.pins.get(protest_id);
+
+    if(mark !== undefined) {
+        map.removeLayer(mark);
+        state.pins.delete(protest_id);
+    }
+}
+
+function load_protests(map, bounds, state) {
+
+    Promise.all(covering_tiles(map, bounds).map(load_tile)).then(
+        (tiles) => {
 
             let old_markers = state.markers;
 
@@ -226,31 +380,129 @@ function load_protests(map, bounds, state) {
             });
 
             old_markers.splice(0, old_markers.length);
+            state.pins.forEach((mark) => map.removeLayer(mark));
+            state.pins.clear();
 
-            data.protests.forEach((protest) => {
+            let seen = new Set();
 
-                let lat = protest.location.latitude;
-                let lng = denormalize_longitude(
-                    protest.location.longitude, map
-                );
+            tiles.flatMap((tile) => tile.clusters).forEach((cluster) => {
 
-                let protest_obj = new protest_object.Protest(protest);
-                let icon = state.config.choose_marker_icon(protest_obj);
+                if(seen.has(cluster.clusterId)) {
+                    return;
+                }
+                seen.add(cluster.clusterId);
 
-                let mark = icon === undefined ?
-                    L.marker([lat, lng]).addTo(map) :
-                    L.marker([lat, lng], {'icon': L.icon(icon)}).addTo(map);
+                state.markers.push(cluster_marker(map, cluster));
+            });
 
-                mark.bindPopup(() => state.config.render_popup(protest_obj), {
-                    'maxWidth' : popup_max_width_pixels()
-                });
+            tiles.flatMap((tile) => tile.protests).forEach((protest) => {
 
-                state.markers.push(mark);
+                /* tiles share edges, so a protest on a boundary can appear twice */
+                if(state.pins.has(protest.protestId)) {
+                    return;
+                }
+
+                state.pins.set(protest.protestId, protest_marker(map, state, protest));
             });
+
+            /*
+             * clusters can't be updated from individual changes, so only pins are kept in sync, and a truncated tile
+             * is reloaded in full on the next refresh
+             */
+            state.protest_version = state.markers.length === 0 && !tiles.some((tile) => tile.truncated) ?
+                Math.min(...tiles.map((tile) => tile.version)) :
+                undefined;
+        },
+        (err) => {
+            state.config.display_error(err.status, err.error_body);
+        }
+    );
+}
+
+function apply_pin_changes(map, state, changes) {
+
+    /* a protest moved within the zone is both removed and changed, so removals go first */
+    changes.removed.forEach((protest_id) => remove_pin(map, state, protest_id));
+
+    changes.protests.forEach((protest) => {
+        remove_pin(map, state, protest.protestId);
+        state.pins.set(protest.protestId, protest_marker(map, state, protest));
+    });
+}
+
+function pin_updates_open(state) {
+    return state.socket !== undefined && state.socket.readyState === WebSocket.OPEN;
+}
+
+function subscribe_pin_updates(state) {
+    if(!pin_updates_open(state) || state.protest_zone === undefined) {
+        return;
+    }
+
+    let zone = normalize_bounds(state.protest_zone);
+
+    state.socket.send(JSON.stringify({
+        'southWest': {'latitude': zone.south, 'longitude': zone.west},
+        'northEast': {'latitude': zone.north, 'longitude': zone.east}
+    }));
+}
+
+function connect_pin_updates(map, state) {
+    if(typeof WebSocket === 'undefined') {
+        return;
+    }
+
+    let scheme = window.location.protocol === 'https:' ? 'wss' : 'ws';
+    let socket = new WebSocket(`${scheme}://${window.location.host}${PIN_UPDATES_PATH}`);
+
+    socket.addEventListener('open', () => {
+        subscribe_pin_updates(state);
+
+        /* catch up on anything changed while disconnected */
+        if(state.protest_version !== undefined) {
+            sync_protests(map, normalize_bounds(state.protest_zone), state);
+        }
+    });
+
+    socket.addEventListener('message', (event) => {
+        /* pushes can't update clusters, which are reloaded on the refresh timer instead */
+        if(state.protest_version !== undefined) {
+            apply_pin_changes(map, state, JSON.parse(event.data));
+        }
+    });
+
+    socket.addEventListener('close', () => {
+        state.socket = undefined;
+        window.setTimeout(() => connect_pin_updates(map, state), PIN_UPDATES_RECONNECT_DELAY);
+    });
+
+    state.socket = socket;
+}
+
+function sync_protests(map, bounds, state) {
+    state.last_protest_sync = Date.now();
+
+    api.call(
+        '/api/pins',
+        'GET',
+        {
+            'SW': `${bounds.south},${bounds.west}`,
+            'NE': `${bounds.north},${bounds.east}`,
+            'since': state.protest_version
+        },
+        (changes) => {
+            if(changes.reload) {
+                load_protests(map, bounds, state);
+                return;
+            }
+
+            apply_pin_changes(map, state, changes);
+            state.protest_version = changes.version;
         },
         (status, error_body) => {
             state.config.display_error(status, error_body);
-        }
+        },
+        api.pins_encoding
     );
 }
 
@@ -260,7 +512,11 @@ function config_map(map_div, initial_api_token, config) {
         'config': config,
         'protest_zone': undefined,
         'last_protest_update': Number.NEGATIVE_INFINITY,
-        'markers': []
+        'last_protest_sync': Number.NEGATIVE_INFINITY,
+        'protest_version': undefined,
+        'markers': [],
+        'pins': new Map(),
+        'socket': undefined
     };
 
     let init_vp = initial_view_port(config);
@@ -303,6 +559,7 @@ function config_map(map_div, initial_api_token, config) {
     search.start();
 
     update_protests(map, state);
+    connect_pin_updates(map, state);
 
     map.on('zoomend', () => {
         update_protests(map, state);
@@ -18,6 +18,7 @@
 /***********************************************************************************************************************
 *                                                       IMPORTS                                                        *
 ***********************************************************************************************************************/
+import api from 'api';
 import sanitize from 'sanitize';
 /***********************************************************************************************************************
 *                                                         CODE                                                         *
@@ -33,7 +34,20 @@ function zero_pad(num, length) {
     return s;
 }
 
+function fetch_protest(protest_id) {
+    return new Promise((success, fail) => {
+        api.call(
+            `/api/protests/${protest_id}`,
+            'GET',
+            {},
+            (data) => success(new protest_obj.Protest(data.protest)),
+            (status, error_body) => fail({'status': status, 'error_body': error_body})
+        );
+    });
+}
+
 export let protest_obj = {
+    'fetch': fetch_protest,
     'Protest': class Protest {
         constructor(fields) {
             this.title = fields.title ? sanitize.encode_api_html(fields.title) : fields.title;
@@ -45,6 +59,7 @@ export let protest_obj = {
             this.protestId = fields.protestId;
             this.homePage = fields.homePage;
             this.recursEveryDays = fields.recursEveryDays < 0 ? 0 : fields.recursEveryDays;
+            this.version = fields.version;
         }
         htmlDecodedTitle() {
            return this.title ? sanitize.decode_api_html(this.title) : this.title;
@@ -68,7 +83,8 @@ export let protest_obj = {
                 'location': this.location,
                 'protestId': this.protestId,
                 'homePage': this.homePage,
-                'recursEveryDays': this.recursEveryDays
+                'recursEveryDays': this.recursEveryDays,
+                'version': this.version
             }
         }
         plainUnencodedDocument() {
@@ -81,7 +97,8 @@ export let protest_obj = {
                 'location': this.location,
                 'protestId': this.protestId,
                 'homePage': this.homePage,
-                'recursEveryDays': this.recursEveryDays
+                'recursEveryDays': this.recursEveryDays,
+                'version': this.version
             }
         }
         date_input_val() {
@@ -461,7 +461,7 @@ function setup_protest_forms() {
                     api.call(
                         `/api/protests/${protest.protestId}`,
                         'DELETE',
-                        {},
+                        {'version': protest.version},
                         () => window.location.reload(true),
                         (status, error) => {
                             stop_spin();
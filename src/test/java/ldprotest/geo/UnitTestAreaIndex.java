@@ -0,0 +1,98 @@
+/*
+ * This File is Part of LDProtest
+ * Copyright (C) 2021 Covid Anti Hysterics League
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Lesser Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package ldprotest.geo;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+public class UnitTestAreaIndex {
+
+    private static final int AREAS = 2000;
+    private static final int QUERIES = 20000;
+
+    @Test
+    public void testWrappingArea() {
+        AreaIndex<Integer> index = new AreaIndex<>();
+        index.put(new GeoRectangle(new Coordinate(-10, 170), new Coordinate(10, -170)), 1);
+
+        assertEquals(List.of(1), index.query(new Coordinate(0, 175)));
+        assertEquals(List.of(1), index.query(new Coordinate(0, -175)));
+        assertTrue(index.query(new Coordinate(0, 0)).isEmpty());
+    }
+
+    @Test
+    public void testReplaceAndRemove() {
+        AreaIndex<Integer> index = new AreaIndex<>();
+        index.put(new GeoRectangle(new Coordinate(0, 0), new Coordinate(1, 1)), 1);
+        index.put(new GeoRectangle(new Coordinate(10, 10), new Coordinate(11, 11)), 1);
+
+        assertEquals(1, index.size());
+        assertTrue(index.query(new Coordinate(0.5, 0.5)).isEmpty());
+        assertEquals(List.of(1), index.query(new Coordinate(10.5, 10.5)));
+
+        assertTrue(index.remove(1));
+        assertFalse(index.remove(1));
+        assertTrue(index.query(new Coordinate(10.5, 10.5)).isEmpty());
+    }
+
+    @Test
+    public void testDifferentialAgainstBruteForce() {
+        Random rng = new Random(0x2a7);
+        AreaIndex<Integer> index = new AreaIndex<>();
+        List<GeoRectangle> areas = new ArrayList<>();
+
+        for(int i = 0; i < AREAS; i++) {
+            GeoRectangle area = randomRectangle(rng);
+            areas.add(area);
+            index.put(area, i);
+        }
+
+        for(int i = 0; i < AREAS; i += 3) {
+            assertTrue(index.remove(i));
+        }
+
+        for(int q = 0; q < QUERIES; q++) {
+            Coordinate point = new Coordinate(rng.nextDouble() * 178 - 89, rng.nextDouble() * 358 - 179);
+
+            Set<Integer> expected = new HashSet<>();
+            for(int i = 0; i < AREAS; i++) {
+                if(i % 3 != 0 && areas.get(i).contains(point)) {
+                    expected.add(i);
+                }
+            }
+
+            assertEquals(expected, new HashSet<>(index.query(point)));
+        }
+    }
+
+    private static GeoRectangle randomRectangle(Random rng) {
+        double south = rng.nextDouble() * 170 - 85;
+        double north = Math.min(89.9, south + rng.nextDouble() * 40);
+        double west = rng.nextDouble() * 540 - 270;
+        double east = west + rng.nextDouble() * 120;
+
+        return new GeoRectangle(new Coordinate(south, west), new Coordinate(north, east));
+    }
+}
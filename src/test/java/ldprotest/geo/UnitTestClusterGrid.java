@@ -0,0 +1,215 @@
+/*
+ * This File is Part of LDProtest
+ * Copyright (C) 2021 Covid Anti Hysterics League
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Lesser Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package ldprotest.geo;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import ldprotest.geo.ClusterGrid.Cluster;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+public class UnitTestClusterGrid {
+
+    private static final int POINTS = 5000;
+
+    private static final GeoRectangle WORLD = new GeoRectangle(new Coordinate(-90, -180), new Coordinate(90, 180));
+
+    @Test
+    public void testAggregatesMatchBruteForceAfterRemoval() {
+        Random rng = new Random(0x5eed);
+        ClusterGrid grid = new ClusterGrid();
+        List<Coordinate> points = new ArrayList<>();
+
+        for(int i = 0; i < POINTS; i++) {
+            Coordinate c = new Coordinate(rng.nextDouble() * 170 - 85, rng.nextDouble() * 358 - 179);
+            points.add(c);
+            grid.insert(c);
+        }
+
+        List<Coordinate> remaining = new ArrayList<>();
+
+        for(int i = 0; i < POINTS; i++) {
+            if(i % 3 == 0) {
+                remaining.add(points.get(i));
+            }
+        }
+
+        for(int i = 0; i < POINTS; i++) {
+            if(i % 3 != 0) {
+                grid.remove(points.get(i));
+            }
+        }
+
+        for(Cluster cluster: grid.clusters(WORLD, 4)) {
+            for(Coordinate c: remaining) {
+                if(cluster.clusterId.equals(clusterId(c, 4))) {
+                    GeoRectangle bounds = new GeoRectangle(cluster.southWest, cluster.northEast);
+                    assertTrue(bounds.contains(c));
+                }
+            }
+        }
+
+        List<ClusterGrid.BoundsScan> scans = grid.staleBounds();
+        assertTrue(!scans.isEmpty());
+
+        for(ClusterGrid.BoundsScan scan: scans) {
+            scan.scan((rect) -> within(remaining, rect));
+        }
+        grid.applyBounds(scans);
+        assertTrue(grid.staleBounds().isEmpty());
+
+        for(int level = 0; level <= 6; level++) {
+            int n = 1 << level;
+            Map<String, List<Coordinate>> expected = new HashMap<>();
+
+            for(Coordinate c: remaining) {
+                expected.computeIfAbsent(clusterId(c, level), (k) -> new ArrayList<>()).add(c);
+            }
+
+            List<Cluster> clusters = grid.clusters(WORLD, level);
+            assertEquals(expected.size(), clusters.size());
+
+            for(Cluster cluster: clusters) {
+                List<Coordinate> cell = expected.get(cluster.clusterId);
+
+                assertEquals(cell.size(), cluster.count);
+                assertEquals(min(cell, true), cluster.southWest.latitude);
+                assertEquals(max(cell, true), cluster.northEast.latitude);
+                assertEquals(min(cell, false), cluster.southWest.longitude);
+                assertEquals(max(cell, false), cluster.northEast.longitude);
+                assertEquals(
+                    cell.stream().mapToDouble((c) -> c.latitude).average().getAsDouble(),
+                    cluster.centroid.latitude,
+                    1e-6
+                );
+            }
+        }
+    }
+
+    @Test
+    public void testScanDiscardedAfterCellChanges() {
+        ClusterGrid grid = new ClusterGrid();
+        Coordinate inner = new Coordinate(1, 1);
+        Coordinate edge = new Coordinate(2, 2);
+        Coordinate later = new Coordinate(3, 3);
+
+        grid.insert(inner);
+        grid.insert(edge);
+        grid.remove(edge);
+
+        List<ClusterGrid.BoundsScan> scans = grid.staleBounds();
+        for(ClusterGrid.BoundsScan scan: scans) {
+            scan.scan((rect) -> within(List.of(inner), rect));
+        }
+
+        grid.insert(later);
+        grid.applyBounds(scans);
+
+        for(Cluster cluster: grid.clusters(WORLD, 0)) {
+            assertEquals(3.0, cluster.northEast.latitude);
+        }
+        assertTrue(!grid.staleBounds().isEmpty());
+    }
+
+    @Test
+    public void testMaxVersionRemembersEmptyCells() {
+        ClusterGrid grid = new ClusterGrid();
+        Coordinate removed = new Coordinate(10, 10);
+        Coordinate kept = new Coordinate(-10, -10);
+
+        grid.insert(removed);
+        grid.touch(removed, 5);
+        grid.insert(kept);
+        grid.touch(kept, 3);
+        grid.remove(removed);
+        grid.touch(removed, 7);
+
+        GeoRectangle north = new GeoRectangle(new Coordinate(5, 5), new Coordinate(15, 15));
+        GeoRectangle south = new GeoRectangle(new Coordinate(-15, -15), new Coordinate(-5, -5));
+        GeoRectangle wrapped = new GeoRectangle(new Coordinate(-15, 170), new Coordinate(-5, -170));
+
+        assertEquals(7L, grid.maxVersion(north, ClusterGrid.MAX_LEVEL));
+        assertEquals(3L, grid.maxVersion(south, ClusterGrid.MAX_LEVEL));
+        assertEquals(0L, grid.maxVersion(wrapped, ClusterGrid.MAX_LEVEL));
+        assertEquals(7L, grid.maxVersion(WORLD, 0));
+        assertTrue(grid.clusters(north, ClusterGrid.MAX_LEVEL).isEmpty());
+    }
+
+    @Test
+    public void testAdjacentAreasMergeClustersById() {
+        Random rng = new Random(0xc105);
+        ClusterGrid grid = new ClusterGrid();
+
+        for(int i = 0; i < POINTS; i++) {
+            grid.insert(new Coordinate(rng.nextDouble() * 20 - 10, rng.nextDouble() * 20 - 10));
+        }
+
+        GeoRectangle west = new GeoRectangle(new Coordinate(-10, -10), new Coordinate(10, 0));
+        GeoRectangle east = new GeoRectangle(new Coordinate(-10, 0), new Coordinate(10, 10));
+
+        Map<String, Integer> merged = new HashMap<>();
+        for(Cluster cluster: grid.clusters(west, 5)) {
+            merged.put(cluster.clusterId, cluster.count);
+        }
+        for(Cluster cluster: grid.clusters(east, 5)) {
+            merged.put(cluster.clusterId, cluster.count);
+        }
+
+        assertEquals(POINTS, merged.values().stream().mapToInt(Integer::intValue).sum());
+
+        GeoRectangle straddling = new GeoRectangle(new Coordinate(-1, -1), new Coordinate(1, 1));
+        String straddled = clusterId(new Coordinate(0.5, 0.5), 5);
+        assertEquals(count(grid.clusters(WORLD, 5), straddled), count(grid.clusters(straddling, 5), straddled));
+        assertTrue(ClusterGrid.levelFor(west, 16) <= ClusterGrid.MAX_LEVEL);
+    }
+
+    private static int count(List<Cluster> clusters, String clusterId) {
+        return clusters.stream().filter((c) -> c.clusterId.equals(clusterId)).findFirst().get().count;
+    }
+
+    private static String clusterId(Coordinate c, int level) {
+        int n = 1 << level;
+        int x = (int)Math.floor((c.longitude + 180.0) / 360.0 * n);
+        int y = (int)Math.floor((c.latitude + 90.0) / 180.0 * n);
+        return level + "/" + x + "/" + y;
+    }
+
+    private static double min(List<Coordinate> points, boolean latitude) {
+        return points.stream().mapToDouble((c) -> latitude ? c.latitude : c.longitude).min().getAsDouble();
+    }
+
+    private static double max(List<Coordinate> points, boolean latitude) {
+        return points.stream().mapToDouble((c) -> latitude ? c.latitude : c.longitude).max().getAsDouble();
+    }
+
+    private static List<Coordinate> within(List<Coordinate> points, GeoRectangle rect) {
+        List<Coordinate> ret = new ArrayList<>();
+
+        for(Coordinate c: points) {
+            if(rect.contains(c)) {
+                ret.add(c);
+            }
+        }
+
+        return ret;
+    }
+}
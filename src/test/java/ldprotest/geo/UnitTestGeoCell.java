@@ -0,0 +1,74 @@
+/*
+ * This File is Part of LDProtest
+ * Copyright (C) 2021 Covid Anti Hysterics League
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Lesser Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package ldprotest.geo;
+
+import java.util.List;
+import java.util.Random;
+import ldprotest.geo.GeoCell.Range;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+public class UnitTestGeoCell {
+
+    private static final int RECTANGLES = 500;
+    private static final int POINTS_PER_RECTANGLE = 200;
+    private static final int MAX_CELLS = 32;
+
+    @Test
+    public void testCoveringContainsEveryPointInRectangle() {
+        Random rng = new Random(0xce11);
+
+        for(int r = 0; r < RECTANGLES; r++) {
+            double span = 0.001 * Math.pow(100000, rng.nextDouble());
+            double south = rng.nextDouble() * (180 - Math.min(span, 179)) - 90;
+            double north = Math.min(90, south + span);
+            double west = rng.nextDouble() * 360 - 180;
+            double east = west + Math.min(span * 2, 359);
+
+            GeoRectangle rect = new GeoRectangle(new Coordinate(south, west), new Coordinate(north, east));
+            List<Range> ranges = GeoCell.cover(rect, MAX_CELLS);
+
+            for(int i = 1; i < ranges.size(); i++) {
+                assertTrue(ranges.get(i - 1).high < ranges.get(i).low);
+            }
+
+            for(int p = 0; p < POINTS_PER_RECTANGLE; p++) {
+                double lat = south + rng.nextDouble() * (north - south);
+                double lng = west + rng.nextDouble() * (east - west);
+                lng = lng >= 180 ? lng - 360 : lng;
+
+                long cell = GeoCell.of(new Coordinate(lat, lng));
+
+                assertTrue(ranges.stream().anyMatch((range) -> range.contains(cell)), rect + " " + lat + "," + lng);
+            }
+        }
+    }
+
+    @Test
+    public void testNearbyPointsShareRange() {
+        GeoRectangle rect = new GeoRectangle(new Coordinate(51.50, -0.10), new Coordinate(51.51, -0.09));
+        List<Range> ranges = GeoCell.cover(rect, MAX_CELLS);
+
+        assertTrue(ranges.size() <= MAX_CELLS);
+        assertEquals(
+            GeoCell.of(new Coordinate(51.505, -0.095)) >> 20,
+            GeoCell.of(new Coordinate(51.5051, -0.0951)) >> 20
+        );
+    }
+}
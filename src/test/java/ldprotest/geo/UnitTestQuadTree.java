@@ -0,0 +1,186 @@
+/*
+ * This File is Part of LDProtest
+ * Copyright (C) 2021 Covid Anti Hysterics League
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Lesser Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package ldprotest.geo;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+public class UnitTestQuadTree {
+
+    private static final int POINTS = 20000;
+    private static final int QUERIES = 2000;
+    private static final int DATABASE_MAX_CELLS = 32;
+
+    @Test
+    public void testWrappingContains() {
+        GeoRectangle rect = new GeoRectangle(new Coordinate(-10, 170), new Coordinate(10, -170));
+
+        assertTrue(rect.wrapsAntimeridian());
+        assertTrue(rect.contains(new Coordinate(0, 175)));
+        assertTrue(rect.contains(new Coordinate(0, -175)));
+        assertFalse(rect.contains(new Coordinate(0, 0)));
+        assertFalse(rect.contains(new Coordinate(20, 175)));
+    }
+
+    @Test
+    public void testDenormalizedContains() {
+        GeoRectangle rect = new GeoRectangle(new Coordinate(-10, 170), new Coordinate(10, 190));
+
+        assertTrue(rect.wrapsAntimeridian());
+        assertTrue(rect.contains(new Coordinate(0, -175)));
+        assertFalse(rect.contains(new Coordinate(0, -165)));
+    }
+
+    @Test
+    public void testDifferentialAgainstBruteForce() {
+        Random rng = new Random(0x1d9);
+        QuadTree<Integer> tree = new QuadTree<>();
+        List<Coordinate> points = new ArrayList<>();
+
+        for(int i = 0; i < POINTS; i++) {
+            Coordinate c = randomPoint(rng);
+            points.add(c);
+            tree.insert(c, i);
+        }
+
+        for(int i = 0; i < POINTS; i += 3) {
+            assertTrue(tree.remove(points.get(i), i));
+        }
+
+        assertEquals(POINTS - (POINTS + 2) / 3, tree.size());
+
+        for(int q = 0; q < QUERIES; q++) {
+            GeoRectangle rect = randomRectangle(rng);
+
+            Set<Integer> expected = new HashSet<>();
+            for(int i = 0; i < POINTS; i++) {
+                if(i % 3 != 0 && rect.contains(points.get(i))) {
+                    expected.add(i);
+                }
+            }
+
+            Set<Integer> actual = new HashSet<>();
+            tree.query(rect, (i) -> actual.add(i));
+
+            assertEquals(expected, actual);
+        }
+    }
+
+    /**
+     * The index and the database fallback must return the same pins for a viewport. The database fallback selects
+     * documents by cell id ranges and then filters them with GeoRectangle.contains, which is replayed here over the
+     * same points, including points on the poles and antimeridian and coverings truncated to very coarse cells.
+     */
+    @Test
+    public void testDifferentialAgainstCellRanges() {
+        Random rng = new Random(0xce1d);
+        QuadTree<Integer> tree = new QuadTree<>();
+        List<Coordinate> points = new ArrayList<>();
+        long[] cells = new long[POINTS];
+
+        for(int i = 0; i < POINTS; i++) {
+            Coordinate c = i % 50 == 0 ? edgePoint(rng) : randomPoint(rng);
+            points.add(c);
+            cells[i] = GeoCell.of(c);
+            tree.insert(c, i);
+        }
+
+        List<GeoRectangle> viewports = new ArrayList<>(List.of(
+            new GeoRectangle(new Coordinate(-90, -180), new Coordinate(90, 180)),
+            new GeoRectangle(new Coordinate(80, -180), new Coordinate(90, 180)),
+            new GeoRectangle(new Coordinate(-90, 170), new Coordinate(-80, -170)),
+            new GeoRectangle(new Coordinate(-10, 179), new Coordinate(10, 181)),
+            new GeoRectangle(new Coordinate(-10, -180), new Coordinate(10, -179)),
+            new GeoRectangle(new Coordinate(-10, 175), new Coordinate(10, 180))
+        ));
+        for(int q = 0; q < QUERIES; q++) {
+            viewports.add(randomRectangle(rng));
+        }
+
+        for(GeoRectangle rect: viewports) {
+            Set<Integer> indexed = new HashSet<>();
+            tree.query(rect, (i) -> indexed.add(i));
+
+            for(int maxCells: new int[] {DATABASE_MAX_CELLS, 1}) {
+                List<GeoCell.Range> ranges = GeoCell.cover(rect, maxCells);
+                Set<Integer> database = new HashSet<>();
+
+                for(int i = 0; i < POINTS; i++) {
+                    long cell = cells[i];
+
+                    if(ranges.stream().anyMatch((range) -> range.contains(cell)) && rect.contains(points.get(i))) {
+                        database.add(i);
+                    }
+                }
+
+                assertEquals(indexed, database, rect + " covered by " + maxCells + " cells");
+            }
+        }
+    }
+
+    @Test
+    public void testEarlyStop() {
+        QuadTree<Integer> tree = new QuadTree<>();
+
+        for(int i = 0; i < 100; i++) {
+            tree.insert(new Coordinate(1, 1), i);
+        }
+
+        int[] seen = {0};
+        tree.query(new GeoRectangle(new Coordinate(0, 0), new Coordinate(2, 2)), (i) -> ++seen[0] < 10);
+
+        assertEquals(10, seen[0]);
+    }
+
+    private static Coordinate randomPoint(Random rng) {
+        /* cluster half of the points so that the tree splits deeply */
+        if(rng.nextBoolean()) {
+            return new Coordinate(51.5 + rng.nextGaussian() * 0.05, -0.1 + rng.nextGaussian() * 0.05);
+        } else {
+            return new Coordinate(rng.nextDouble() * 178 - 89, rng.nextDouble() * 358 - 179);
+        }
+    }
+
+    private static Coordinate edgePoint(Random rng) {
+        double lat = rng.nextDouble() * 178 - 89;
+        double lng = rng.nextDouble() * 358 - 179;
+
+        switch(rng.nextInt(4)) {
+            case 0: return new Coordinate(rng.nextBoolean() ? 90 : -90, lng);
+            case 1: return new Coordinate(lat, rng.nextBoolean() ? 180 : -180);
+            case 2: return new Coordinate(lat, rng.nextBoolean() ? 179.9999999 : -179.9999999);
+            default: return new Coordinate(rng.nextBoolean() ? 90 : -90, rng.nextBoolean() ? 180 : -180);
+        }
+    }
+
+    private static GeoRectangle randomRectangle(Random rng) {
+        double south = rng.nextDouble() * 170 - 85;
+        double north = Math.min(89.9, south + rng.nextDouble() * 40);
+        double west = rng.nextDouble() * 540 - 270;
+        double east = west + rng.nextDouble() * 120;
+
+        return new GeoRectangle(new Coordinate(south, west), new Coordinate(north, east));
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * This File is Part of LDProtest
+ * Copyright (C) 2021 Covid Anti Hysterics League
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Lesser Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package ldprotest.geo.geoip;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermissions;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import org.junit.jupiter.api.Test;
+
+public class UnitTestGeoIpTable {
+
+    @Test
+    public void testFindInRanges() {
+        GeoIpTable.Builder builder = GeoIpTable.builder();
+
+        builder.add(0, 99, 1.0, 1.0);
+        builder.add(200, 299, 2.0, 2.0);
+        builder.add(0x80000000L, 0xFFFFFFFFL, 3.0, 3.0);
+        builder.add(100, 149, 4.0, 4.0);
+
+        GeoIpTable table = builder.build();
+
+        assertEquals(4, table.size());
+        assertEquals(1.0, table.latitude(table.find(0)));
+        assertEquals(1.0, table.latitude(table.find(99)));
+        assertEquals(4.0, table.latitude(table.find(100)));
+        assertEquals(-1, table.find(150));
+        assertEquals(-1, table.find(199));
+        assertEquals(2.0, table.longitude(table.find(250)));
+        assertEquals(-1, table.find(0x7FFFFFFFL));
+        assertEquals(3.0, table.latitude(table.find(0x80000000L)));
+        assertEquals(3.0, table.latitude(table.find(0xFFFFFFFFL)));
+        assertEquals(-1, table.find(0x100000000L));
+        assertEquals(-1, table.find(-1));
+    }
+
+    @Test
+    public void testGrowAndEmpty() {
+        assertEquals(-1, GeoIpTable.builder().build().find(10));
+
+        GeoIpTable.Builder builder = GeoIpTable.builder();
+        for(long i = 5000; i > 0; i--) {
+            builder.add(i * 10, i * 10 + 9, i, -i);
+        }
+        assertFalse(builder.add(0x100000000L, 0x100000001L, 0, 0));
+
+        GeoIpTable table = builder.build();
+
+        assertEquals(5000, table.size());
+        assertEquals(1234.0, table.latitude(table.find(12345)));
+        assertEquals(-1, table.find(5));
+    }
+
+    @Test
+    public void testMappedFileMatchesTable() throws IOException {
+        GeoIpTable.Builder builder = GeoIpTable.builder();
+        builder.add(10, 19, 1.5, -1.5);
+        builder.add(0x90000000L, 0xFFFFFFFFL, 45.25, 90.5);
+        GeoIpTable table = builder.build();
+
+        Path dir = Files.createTempDirectory("geoip");
+        Path file = dir.resolve("geoip.bin");
+
+        try {
+            MappedGeoIpTable.write(table, file);
+            MappedGeoIpTable mapped = MappedGeoIpTable.open(file);
+
+            assertEquals(2, mapped.size());
+            assertEquals(-1, mapped.find(9));
+            assertEquals(1.5, mapped.latitude(mapped.find(15)));
+            assertEquals(-1.5, mapped.longitude(mapped.find(19)));
+            assertEquals(0xFFFFFFFFL, mapped.ipHigh(mapped.find(0xA0000000L)));
+            assertEquals(90.5, mapped.longitude(mapped.find(0xFFFFFFFFL)));
+        } finally {
+            Files.deleteIfExists(file);
+            Files.delete(dir);
+        }
+    }
+
+    @Test
+    public void testWrittenFileReadableByOthers() throws IOException {
+        GeoIpTable.Builder builder = GeoIpTable.builder();
+        builder.add(10, 19, 1.5, -1.5);
+        GeoIpTable table = builder.build();
+
+        Path dir = Files.createTempDirectory("geoip");
+        Path file = dir.resolve("geoip.bin");
+
+        try {
+            if(!Files.getFileStore(dir).supportsFileAttributeView(PosixFileAttributeView.class)) {
+                return;
+            }
+
+            MappedGeoIpTable.write(table, file);
+            assertEquals(PosixFilePermissions.fromString("rw-r--r--"), Files.getPosixFilePermissions(file));
+
+            Files.setPosixFilePermissions(file, PosixFilePermissions.fromString("rw-rw-r--"));
+            MappedGeoIpTable.write(table, file);
+            assertEquals(PosixFilePermissions.fromString("rw-rw-r--"), Files.getPosixFilePermissions(file));
+        } finally {
+            Files.deleteIfExists(file);
+            Files.delete(dir);
+        }
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * This File is Part of LDProtest
+ * Copyright (C) 2021 Covid Anti Hysterics League
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Lesser Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package ldprotest.server.auth;
+
+import java.util.concurrent.TimeUnit;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+public class UnitTestRateLimit {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    public void testBurstThenRefill() {
+        RateLimit limit = RateLimit.perClientIp(2, 3);
+        long now = 1000 * SECOND;
+
+        for(int i = 0; i < 3; i++) {
+            assertEquals(0, limit.tryAcquire("a", now));
+        }
+
+        long wait = limit.tryAcquire("a", now);
+        assertEquals(SECOND / 2, wait);
+
+        assertEquals(0, limit.tryAcquire("a", now + wait));
+        assertTrue(limit.tryAcquire("a", now + wait) > 0);
+    }
+
+    @Test
+    public void testKeysAreIndependent() {
+        RateLimit limit = RateLimit.perClientIp(1, 1);
+        long now = 1000 * SECOND;
+
+        assertEquals(0, limit.tryAcquire("a", now));
+        assertTrue(limit.tryAcquire("a", now) > 0);
+        assertEquals(0, limit.tryAcquire("b", now));
+    }
+
+    @Test
+    public void testIdleBucketsEvicted() {
+        RateLimit limit = RateLimit.perClientIp(1, 2);
+        long now = 1000 * SECOND;
+
+        for(int i = 0; i < 100; i++) {
+            limit.tryAcquire("client" + i, now);
+        }
+        assertEquals(100, limit.bucketCount());
+
+        now += SECOND;
+        for(int i = 0; i < 50; i++) {
+            limit.tryAcquire("client" + i, now);
+        }
+
+        now += SECOND;
+        limit.evictIdle(now);
+        assertEquals(50, limit.bucketCount());
+
+        limit.evictIdle(now + 60 * SECOND);
+        assertEquals(0, limit.bucketCount());
+    }
+
+    @Test
+    public void testInvalidLimits() {
+        assertThrows(SecurityConfigException.class, () -> RateLimit.perClientIp(0, 1));
+        assertThrows(SecurityConfigException.class, () -> RateLimit.perClientIp(1, 0));
+    }
+
+    @Test
+    public void testIpv6KeyedByPrefix() {
+        assertEquals(
+            RateLimit.clientIpKey("2001:db8:1:2:aaaa:bbbb:cccc:dddd"),
+            RateLimit.clientIpKey("2001:0db8:0001:0002::1")
+        );
+        assertEquals("ip:2001:db8:1:2::/64", RateLimit.clientIpKey("[2001:DB8:1:2::ffff%eth0]"));
+        assertEquals("ip:0:0:0:0::/64", RateLimit.clientIpKey("::1"));
+        assertTrue(!RateLimit.clientIpKey("2001:db8:1:2::1").equals(RateLimit.clientIpKey("2001:db8:1:3::1")));
+    }
+
+    @Test
+    public void testIpv4KeyedByAddress() {
+        assertEquals("ip:192.0.2.1", RateLimit.clientIpKey("192.0.2.1"));
+        assertEquals("ip:192.0.2.1", RateLimit.clientIpKey("::ffff:192.0.2.1"));
+        assertEquals("ip:192.0.2.1", RateLimit.clientIpKey("::ffff:c000:201"));
+        assertTrue(!RateLimit.clientIpKey("192.0.2.1").equals(RateLimit.clientIpKey("192.0.2.2")));
+    }
+
+    @Test
+    public void testMalformedAddressKeyedAsGiven() {
+        assertEquals("ip:1:2:3", RateLimit.clientIpKey("1:2:3"));
+        assertEquals("ip:1::2::3", RateLimit.clientIpKey("1::2::3"));
+        assertEquals("ip:12345::1", RateLimit.clientIpKey("12345::1"));
+        assertEquals("ip:::ffff:1.2.3.256", RateLimit.clientIpKey("::ffff:1.2.3.256"));
+    }
+}
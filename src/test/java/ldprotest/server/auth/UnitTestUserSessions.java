@@ -0,0 +1,68 @@
+/*
+ * This File is Part of LDProtest
+ * Copyright (C) 2021 Covid Anti Hysterics League
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Lesser Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package ldprotest.server.auth;
+
+import com.mongodb.client.result.UpdateResult;
+import java.time.ZonedDateTime;
+import java.util.UUID;
+import ldprotest.server.auth.UserSessions.SessionCreationError;
+import ldprotest.util.Result;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+public class UnitTestUserSessions {
+
+    private static final ZonedDateTime CREATED = ZonedDateTime.parse("2021-06-01T12:00:00Z");
+    private static final ZonedDateTime NOW = CREATED.plusMinutes(16);
+
+    private static final UserSessionInfo SESSION = new UserSessionInfo(
+        "session-a", "user", "user@example.com", UserRole.USER, UUID.randomUUID(), CREATED
+    );
+
+    @Test
+    public void testDeletedSessionNotRefreshed() {
+        Result<SessionCreationError, UserSessionInfo> result = UserSessions.refreshResult(
+            UpdateResult.acknowledged(0, 0L, null), SESSION, NOW
+        );
+
+        assertTrue(result.isFailure());
+        assertEquals(SessionCreationError.NO_SUCH_SESSION, result.failureReason());
+    }
+
+    @Test
+    public void testExistingSessionRefreshed() {
+        Result<SessionCreationError, UserSessionInfo> result = UserSessions.refreshResult(
+            UpdateResult.acknowledged(1, 1L, null), SESSION, NOW
+        );
+
+        assertTrue(result.isSuccess());
+        assertEquals(NOW, result.result().createdAt);
+        assertEquals(SESSION.sessionId, result.result().sessionId);
+    }
+
+    @Test
+    public void testUnacknowledgedRefreshFails() {
+        Result<SessionCreationError, UserSessionInfo> result = UserSessions.refreshResult(
+            UpdateResult.unacknowledged(), SESSION, NOW
+        );
+
+        assertTrue(result.isFailure());
+        assertEquals(SessionCreationError.DATABASE_ERROR, result.failureReason());
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * This File is Part of LDProtest
+ * Copyright (C) 2021 Covid Anti Hysterics League
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Lesser Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package ldprotest.server.auth.webtoken;
+
+import ldprotest.server.auth.UserInfo;
+import ldprotest.server.auth.UserRole;
+import ldprotest.server.auth.UserSessionInfo;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+public class UnitTestIssuedTokenCache {
+
+    private static final UserInfo USER = UserInfo.generate("test-username-123", "test-email-456", UserRole.USER);
+    private static final UserSessionInfo INFO = UserSessionInfo.generateSession(USER);
+
+    @Test
+    public void testReusedForFirstHalfOfLifetime() {
+        IssuedTokenCache cache = new IssuedTokenCache(16);
+
+        cache.put(INFO, UserTokenSubject.FOR_COOKIE, "token-a", 1000, 3000);
+
+        assertEquals("token-a", cache.get(INFO, UserTokenSubject.FOR_COOKIE, 1999).get());
+        assertTrue(cache.get(INFO, UserTokenSubject.FOR_COOKIE, 2000).isEmpty());
+        assertTrue(cache.get(INFO, UserTokenSubject.FOR_BEARER_TOKEN, 1500).isEmpty());
+    }
+
+    @Test
+    public void testNotReusedForOtherSessionInfo() {
+        IssuedTokenCache cache = new IssuedTokenCache(16);
+        UserSessionInfo other = UserSessionInfo.generateSession(USER);
+
+        cache.put(INFO, UserTokenSubject.FOR_COOKIE, "token-a", 1000, 3000);
+
+        assertTrue(cache.get(other, UserTokenSubject.FOR_COOKIE, 1500).isEmpty());
+    }
+
+    @Test
+    public void testBounded() {
+        IssuedTokenCache cache = new IssuedTokenCache(16);
+        UserSessionInfo last = INFO;
+
+        for(int i = 0; i < 100; i++) {
+            last = UserSessionInfo.generateSession(USER);
+            cache.put(last, UserTokenSubject.FOR_COOKIE, "token-" + i, 1000, 3000 + i);
+        }
+
+        assertTrue(cache.size() <= 16);
+        assertEquals("token-99", cache.get(last, UserTokenSubject.FOR_COOKIE, 1000).get());
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * This File is Part of LDProtest
+ * Copyright (C) 2021 Covid Anti Hysterics League
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Lesser Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package ldprotest.server.auth.webtoken;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+public class UnitTestRevokedSessions {
+
+    @Test
+    public void testRevokedUntilExpiry() {
+        RevokedSessions revoked = new RevokedSessions();
+
+        revoked.add("session-a", 2000, 1000);
+
+        assertTrue(revoked.isRevoked("session-a", 1999));
+        assertFalse(revoked.isRevoked("session-a", 2000));
+        assertFalse(revoked.isRevoked("session-b", 1500));
+    }
+
+    @Test
+    public void testPurge() {
+        RevokedSessions revoked = new RevokedSessions();
+
+        revoked.add("session-a", 2000, 1000);
+        revoked.add("session-b", 3000, 1000);
+        revoked.purge(2500);
+
+        assertEquals(1, revoked.size());
+        assertFalse(revoked.isRevoked("session-a", 1500));
+        assertTrue(revoked.isRevoked("session-b", 2500));
+    }
+
+    @Test
+    public void testGrowth() {
+        RevokedSessions revoked = new RevokedSessions();
+
+        for(int i = 0; i < 20000; i++) {
+            revoked.add("session-" + i, 2000, 1000);
+        }
+
+        for(int i = 0; i < 20000; i++) {
+            assertTrue(revoked.isRevoked("session-" + i, 1500));
+        }
+
+        int falsePositives = 0;
+        for(int i = 0; i < 20000; i++) {
+            if(revoked.isRevoked("other-" + i, 1500)) {
+                falsePositives++;
+            }
+        }
+
+        assertEquals(0, falsePositives);
+    }
+}
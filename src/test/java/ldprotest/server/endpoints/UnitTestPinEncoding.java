@@ -0,0 +1,288 @@
+/*
+ * This File is Part of LDProtest
+ * Copyright (C) 2021 Covid Anti Hysterics League
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Lesser Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package ldprotest.server.endpoints;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import ldprotest.business.ProtestSummary;
+import ldprotest.geo.ClusterGrid.Cluster;
+import ldprotest.geo.Coordinate;
+import ldprotest.serialization.JsonSerialization;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+public class UnitTestPinEncoding {
+
+    private static final List<ProtestSummary> PROTESTS = List.of(
+        summary(
+            "{'protestId': '3f1c2a9e-5b7d-4e2f-9a61-0c8d7e6b5a41', 'location': {'latitude': 45.123456, "
+                + "'longitude': -122.654321}, 'title': 'Rally', 'date': 1634400000000, 'recursEveryDays': 7, "
+                + "'version': 12}"
+        ),
+        summary(
+            "{'protestId': 'b2e4d6f8-1a3c-4e5f-8a7b-9c0d1e2f3a4b', 'location': {'latitude': -33.8675, "
+                + "'longitude': 151.207}, 'title': 'Marsch für Freiheit'}"
+        ),
+        summary(
+            "{'protestId': '00000000-0000-0000-0000-000000000001', 'location': {'latitude': 0.0, "
+                + "'longitude': 180.0}, 'title': 'Rally', 'date': 946684800000, 'recursEveryDays': 0}"
+        ),
+        summary(
+            "{'protestId': 'ffffffff-ffff-ffff-ffff-ffffffffffff', 'location': {'latitude': 89.999999, "
+                + "'longitude': -180.0}, 'title': '', 'date': -86400000, 'version': 0}"
+        )
+    );
+
+    private static final List<Cluster> CLUSTERS = List.of(
+        new Cluster(
+            "4/2/7", 31, new Coordinate(45.5, -122.5), new Coordinate(45.000001, -123.0), new Coordinate(46.0, -122.0)
+        ),
+        new Cluster(
+            "4/15/5", 2, new Coordinate(-33.9, 151.2), new Coordinate(-34.0, 151.0), new Coordinate(-33.8, 151.3)
+        )
+    );
+
+    private static final List<UUID> REMOVED = List.of(
+        UUID.fromString("7c9e6679-7425-40de-944b-e07fc1f90ae7"),
+        UUID.fromString("00000000-0000-0000-0000-000000000000")
+    );
+
+    @Test
+    public void testProtestsMatchJson() throws IOException {
+        GeoPin.Protests response = new GeoPin.Protests(PROTESTS, CLUSTERS, 1L << 40, true);
+        JsonObject decoded = decode(encode(PROTESTS, CLUSTERS, List.of(), 1L << 40, false, true));
+
+        assertMatchesJson(JsonSerialization.GSON.toJsonTree(response).getAsJsonObject(), decoded);
+        assertEquals(new JsonArray(), decoded.get("removed"));
+        assertEquals(false, decoded.get("reload").getAsBoolean());
+    }
+
+    @Test
+    public void testEmptyProtestsMatchJson() throws IOException {
+        GeoPin.Protests response = new GeoPin.Protests(List.of(), List.of(), 0);
+        JsonObject decoded = decode(encode(List.of(), List.of(), List.of(), 0, false, false));
+
+        assertMatchesJson(JsonSerialization.GSON.toJsonTree(response).getAsJsonObject(), decoded);
+    }
+
+    @Test
+    public void testChangesMatchJson() throws IOException {
+        GeoPin.PinChanges response = new GeoPin.PinChanges(PROTESTS, REMOVED, 99, false);
+        JsonObject decoded = decode(encode(PROTESTS, List.of(), REMOVED, 99, false, false));
+
+        assertMatchesJson(JsonSerialization.GSON.toJsonTree(response).getAsJsonObject(), decoded);
+        assertEquals(new JsonArray(), decoded.get("clusters"));
+        assertEquals(false, decoded.get("truncated").getAsBoolean());
+    }
+
+    @Test
+    public void testReloadMatchesJson() throws IOException {
+        GeoPin.PinChanges response = GeoPin.PinChanges.reload(7);
+        JsonObject decoded = decode(encode(List.of(), List.of(), List.of(), 7, true, false));
+
+        assertMatchesJson(JsonSerialization.GSON.toJsonTree(response).getAsJsonObject(), decoded);
+    }
+
+    private static void assertMatchesJson(JsonObject expected, JsonObject decoded) {
+        for(Map.Entry<String, JsonElement> field: expected.entrySet()) {
+            JsonElement actual = decoded.get(field.getKey());
+            assertTrue(actual != null, "missing field " + field.getKey());
+
+            if(field.getValue().isJsonArray()) {
+                JsonArray expectedItems = field.getValue().getAsJsonArray();
+                JsonArray actualItems = actual.getAsJsonArray();
+                assertEquals(expectedItems.size(), actualItems.size(), field.getKey() + " size");
+
+                for(int i = 0; i < expectedItems.size(); i++) {
+                    String name = field.getKey() + "[" + i + "]";
+                    if(expectedItems.get(i).isJsonObject()) {
+                        assertObjectEquals(name, expectedItems.get(i).getAsJsonObject(), actualItems.get(i));
+                    } else {
+                        assertEquals(expectedItems.get(i), actualItems.get(i), name);
+                    }
+                }
+            } else {
+                assertEquals(field.getValue(), actual, field.getKey());
+            }
+        }
+    }
+
+    private static void assertObjectEquals(String name, JsonObject expected, JsonElement actual) {
+        JsonObject actualObject = actual.getAsJsonObject();
+        assertEquals(expected.keySet(), actualObject.keySet(), name + " fields");
+
+        for(Map.Entry<String, JsonElement> field: expected.entrySet()) {
+            assertEquals(field.getValue(), actualObject.get(field.getKey()), name + "." + field.getKey());
+        }
+    }
+
+    private static byte[] encode(
+        List<ProtestSummary> protests,
+        List<Cluster> clusters,
+        List<UUID> removed,
+        long version,
+        boolean reload,
+        boolean truncated
+    ) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try(DataOutputStream out = new DataOutputStream(bytes)) {
+            PinEncoding.write(out, protests, clusters, removed, version, reload, truncated);
+        }
+        return bytes.toByteArray();
+    }
+
+    /* decodes into the same shape as the JSON responses, following decode_pins in api.js */
+    private static JsonObject decode(byte[] bytes) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+
+        assertEquals(0x4c445050, in.readInt(), "magic");
+        assertEquals(2L, readVarint(in), "format version");
+        long flags = readVarint(in);
+        long version = readVarint(in);
+
+        List<String> strings = new ArrayList<>();
+        for(long i = readVarint(in); i > 0; i--) {
+            byte[] s = new byte[(int)readVarint(in)];
+            in.readFully(s);
+            strings.add(new String(s, StandardCharsets.UTF_8));
+        }
+
+        int protestCount = (int)readVarint(in);
+        List<JsonObject> protests = new ArrayList<>();
+        for(int i = 0; i < protestCount; i++) {
+            JsonObject protest = new JsonObject();
+            protest.addProperty("protestId", readUuid(in).toString());
+            protests.add(protest);
+        }
+        readCoordinates(in, protests, "location");
+        for(JsonObject protest: protests) {
+            protest.addProperty("title", strings.get((int)readVarint(in)));
+        }
+
+        long previousDate = 0;
+        for(JsonObject protest: protests) {
+            long v = readVarint(in);
+            if(v != 0) {
+                previousDate += unzigzag(v - 1);
+                protest.addProperty("date", previousDate);
+            }
+        }
+        for(JsonObject protest: protests) {
+            long v = readVarint(in);
+            if(v != 0) {
+                protest.addProperty("recursEveryDays", unzigzag(v - 1));
+            }
+        }
+        for(JsonObject protest: protests) {
+            long v = readVarint(in);
+            if(v != 0) {
+                protest.addProperty("version", v - 1);
+            }
+        }
+
+        int clusterCount = (int)readVarint(in);
+        List<JsonObject> clusters = new ArrayList<>();
+        for(int i = 0; i < clusterCount; i++) {
+            JsonObject cluster = new JsonObject();
+            cluster.addProperty("clusterId", strings.get((int)readVarint(in)));
+            clusters.add(cluster);
+        }
+        for(JsonObject cluster: clusters) {
+            cluster.addProperty("count", readVarint(in));
+        }
+        readCoordinates(in, clusters, "centroid");
+        readCoordinates(in, clusters, "southWest");
+        readCoordinates(in, clusters, "northEast");
+
+        JsonArray removed = new JsonArray();
+        for(long i = readVarint(in); i > 0; i--) {
+            removed.add(readUuid(in).toString());
+        }
+
+        assertEquals(-1, in.read(), "trailing bytes");
+
+        JsonObject decoded = new JsonObject();
+        decoded.add("protests", toArray(protests));
+        decoded.add("clusters", toArray(clusters));
+        decoded.add("removed", removed);
+        decoded.addProperty("version", version);
+        decoded.addProperty("reload", (flags & 1) != 0);
+        decoded.addProperty("truncated", (flags & 2) != 0);
+        return decoded;
+    }
+
+    private static void readCoordinates(DataInputStream in, List<JsonObject> items, String name) throws IOException {
+        long previous = 0;
+        for(JsonObject item: items) {
+            previous += unzigzag(readVarint(in));
+            JsonObject coordinate = new JsonObject();
+            coordinate.addProperty("latitude", previous / 1e6);
+            item.add(name, coordinate);
+        }
+
+        previous = 0;
+        for(JsonObject item: items) {
+            previous += unzigzag(readVarint(in));
+            item.getAsJsonObject(name).addProperty("longitude", previous / 1e6);
+        }
+    }
+
+    private static JsonArray toArray(List<JsonObject> items) {
+        JsonArray array = new JsonArray();
+        for(JsonObject item: items) {
+            array.add(item);
+        }
+        return array;
+    }
+
+    private static UUID readUuid(DataInputStream in) throws IOException {
+        return new UUID(in.readLong(), in.readLong());
+    }
+
+    private static long readVarint(DataInputStream in) throws IOException {
+        long value = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = in.readUnsignedByte();
+            value |= (long)(b & 0x7f) << shift;
+            shift += 7;
+        } while((b & 0x80) != 0);
+        return value;
+    }
+
+    private static long unzigzag(long n) {
+        return (n >>> 1) ^ -(n & 1);
+    }
+
+    private static ProtestSummary summary(String json) {
+        return JsonSerialization.GSON.fromJson(json, ProtestSummary.class);
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * This File is Part of LDProtest
+ * Copyright (C) 2021 Covid Anti Hysterics League
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Lesser Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package ldprotest.util.types;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+public class UnitTestStringPrefixTree {
+
+    @Test
+    public void testVisitPrefix() {
+        StringPrefixTree<String> tree = new StringPrefixTree<>();
+
+        tree.add("rally", "data-1");
+        tree.add("rail", "data-2");
+        tree.add("march", "data-3");
+        tree.add("ra", "data-4");
+
+        assertEquals(Set.of("data-1", "data-2", "data-4"), visitAll(tree, "ra"));
+        assertEquals(Set.of("data-1"), visitAll(tree, "ral"));
+        assertEquals(Set.of("data-1", "data-2", "data-3", "data-4"), visitAll(tree, ""));
+        assertEquals(Set.of(), visitAll(tree, "x"));
+    }
+
+    @Test
+    public void testVisitStops() {
+        StringPrefixTree<String> tree = new StringPrefixTree<>();
+
+        tree.add("a", "data-1");
+        tree.add("ab", "data-2");
+        tree.add("abc", "data-3");
+
+        List<String> seen = new ArrayList<>();
+        tree.visitPrefix("a", (data) -> {
+            seen.add(data);
+            return seen.size() < 2;
+        });
+
+        assertEquals(2, seen.size());
+    }
+
+    @Test
+    public void testRemove() {
+        StringPrefixTree<String> tree = new StringPrefixTree<>();
+
+        tree.add("rally", "data-1");
+        tree.add("ra", "data-2");
+
+        assertTrue(tree.remove("rally"));
+        assertFalse(tree.remove("rally"));
+        assertFalse(tree.remove("r"));
+
+        assertEquals(Optional.empty(), tree.lookup("rally"));
+        assertEquals(Optional.of("data-2"), tree.lookup("ra"));
+        assertEquals(Set.of("data-2"), visitAll(tree, "r"));
+
+        assertTrue(tree.remove("ra"));
+        assertEquals(Set.of(), visitAll(tree, ""));
+    }
+
+    private static Set<String> visitAll(StringPrefixTree<String> tree, String prefix) {
+        Set<String> ret = new HashSet<>();
+        tree.visitPrefix(prefix, ret::add);
+        return ret;
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * This File is Part of LDProtest
+ * Copyright (C) 2021 Covid Anti Hysterics League
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Lesser Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package ldprotest.util.types;
+
+import java.util.List;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import org.junit.jupiter.api.Test;
+
+public class UnitTestTextIndex {
+
+    @Test
+    public void testWords() {
+        assertEquals(List.of("cafe", "rally", "2021"), TextIndex.words("Café RALLY, 2021!"));
+        assertEquals(List.of(), TextIndex.words("  -- "));
+    }
+
+    @Test
+    public void testPrefixAndWholeWords() {
+        TextIndex<Integer> index = new TextIndex<>();
+
+        index.put(1, "Freedom Rally", "Bring signs to the park");
+        index.put(2, "Park Picnic", "A rally for families");
+        index.put(3, "Town March", "Meet at the town hall");
+
+        assertEquals(List.of(1), index.search("ral", (k) -> true, 10));
+        assertEquals(List.of(1, 2), index.search("rally", (k) -> true, 10));
+        assertEquals(List.of(1), index.search("park fre", (k) -> true, 10));
+        assertEquals(List.of(), index.search("ral ", (k) -> true, 10));
+        assertEquals(List.of(3), index.search("TOWN hall ", (k) -> true, 10));
+        assertEquals(List.of(2), index.search("rally", (k) -> k != 1, 10));
+    }
+
+    @Test
+    public void testReplaceAndRemove() {
+        TextIndex<Integer> index = new TextIndex<>();
+
+        index.put(1, "Freedom Rally", "");
+        index.put(1, "Town March", "");
+
+        assertEquals(List.of(), index.search("free", (k) -> true, 10));
+        assertEquals(List.of(1), index.search("mar", (k) -> true, 10));
+
+        index.remove(1);
+
+        assertEquals(0, index.size());
+        assertEquals(List.of(), index.search("mar", (k) -> true, 10));
+    }
+}